@@ -59,6 +59,7 @@ import laas.openrobots.ontology.modules.categorization.CategorizationModule;
 import laas.openrobots.ontology.modules.events.EventModule;
 import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.memory.MemoryManager;
+import laas.openrobots.ontology.modules.snapshot.SnapshotModule;
 import laas.openrobots.ontology.service.IService;
 import laas.openrobots.ontology.service.IServiceProvider;
 import laas.openrobots.ontology.service.RPCMethod;
@@ -340,6 +341,9 @@ public class OroServer implements IServiceProvider {
 		IServiceProvider diffModule = new CategorizationModule(oro);
 		addNewServiceProviders(diffModule);
 		
+		IServiceProvider snapshotModule = new SnapshotModule(oro);
+		addNewServiceProviders(snapshotModule);
+		
 		try {
 			AlteriteModule = new AlteriteModule(oro);
 			modules.add(AlteriteModule);
@@ -481,8 +485,15 @@ public class OroServer implements IServiceProvider {
 	 *  <li>the current amount of classes in the ontology</li>
 	 *  <li>the current amount of instances in the ontology</li>
 	 *  <li>the current amount of client connected to the server</li>
+	 *  <li>the amount of pending requests</li>
+	 *  <li>the other statistics on the content of the ontology returned by 
+	 *  {@link laas.openrobots.ontology.backends.IOntologyBackend#getStatistics()} (amount of statements, 
+	 *  subjects, predicates...)</li>
 	 * </ul>
 	 * 
+	 * All these statistics are maintained incrementally: their cost does not
+	 * depend on the size of the ontology.
+	 * 
 	 * @return a map containing the statistics (pairs name/value)
 	 */
 	@RPCMethod(
@@ -506,16 +517,16 @@ public class OroServer implements IServiceProvider {
 		
 		stats.put("uptime", formatNew.format((new Date()).getTime() - OroServer.SERVER_START_TIME.getTime()));
 		
-		// Nb of classes
-		//stats.put("nb_classes", String.valueOf(oro.getModel().listClasses().toSet().size()));
-		stats.put("nb_classes", "not available");
-		
-		//Nb of instances
-		//stats.put("nb_instances", String.valueOf(oro.getModel().listIndividuals().toSet().size()));
-		stats.put("nb_instances", "not available");
+		//Statistics on the content of the ontology (amount of classes, 
+		//instances, statements...), maintained by the backend.
+		stats.putAll(oro.getStatistics());
+		if (!stats.containsKey("nb_classes")) stats.put("nb_classes", "not available");
+		if (!stats.containsKey("nb_instances")) stats.put("nb_instances", "not available");
 		
 		//Nb of clients
-		stats.put("nb_clients", "not available");
+		int nbClients = 0;
+		for (IConnector c : connectors) nbClients += c.getNbClients();
+		stats.put("nb_clients", String.valueOf(nbClients));
 
 		//Amount of pending requests in the server.
 		stats.put("pending_requests", String.valueOf(incomingRequests.size()));
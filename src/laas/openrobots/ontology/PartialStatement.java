@@ -17,6 +17,7 @@
 package laas.openrobots.ontology;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import laas.openrobots.ontology.backends.OpenRobotsOntology;
@@ -145,23 +146,74 @@ public class PartialStatement implements Statement {
 	 * @return the formatted partial statement.
 	 */
 	public String asSparqlRow(){	
+		return asSparqlRow("");
+	}
+	
+	/**Formats a partial statement for inclusion in a SPARQL query, with its
+	 * variables renamed: the given prefix is inserted after the "?".<br/>
+	 * 
+	 * This allows to merge several partial statements in a single query
+	 * without unifying their variables.
+	 * 
+	 * @param variablePrefix the prefix added to the name of the variables
+	 * @return the formatted partial statement.
+	 * @see #asSparqlRow()
+	 */
+	public String asSparqlRow(String variablePrefix){	
 		return (
-				stmtTokens.get(0).length() > 0 && stmtTokens.get(0).charAt(0) == '?' ? 
-						stmtTokens.get(0) : 
+				isVariable(0) ? 
+						"?" + variablePrefix + stmtTokens.get(0).substring(1) : 
 						"<" + getSubject().toString() + ">"
 				) + " " + 
-				(stmtTokens.get(1).length() > 0 && stmtTokens.get(1).charAt(0) == '?' ? 
-						stmtTokens.get(1) : 
+				(isVariable(1) ? 
+						"?" + variablePrefix + stmtTokens.get(1).substring(1) : 
 						"<" + getPredicate().toString() + ">"
 				) + " " + 
-				(stmtTokens.get(2).length() > 0 && stmtTokens.get(2).charAt(0) == '?' ? 
-						stmtTokens.get(2) : 
+				(isVariable(2) ? 
+						"?" + variablePrefix + stmtTokens.get(2).substring(1) : 
 						(getObject().isLiteral()? 
 								Helpers.literalToSparqlSyntax((Literal)getObject()) : 
 								"<" + getObject().toString() + ">")
 				) + " .\n";
 	}
 	
+	private boolean isVariable(int i) {
+		return stmtTokens.get(i).length() > 0 && stmtTokens.get(i).charAt(0) == '?';
+	}
+	
+	/**
+	 * Returns the names of the variables of the partial statement (without
+	 * the leading "?"), in order of appearance.
+	 */
+	public List<String> getVariables() {
+		List<String> vars = new ArrayList<String>();
+		for (int i = 0 ; i < 3 ; i++)
+			if (isVariable(i)) vars.add(stmtTokens.get(i).substring(1));
+		return vars;
+	}
+	
+	/**
+	 * Returns the name of the variable (without the leading "?") at a given
+	 * position of the partial statement: 0 for the subject, 1 for the
+	 * predicate, 2 for the object.
+	 * 
+	 * @return the name of the variable, or null if this part of the
+	 * statement is bound.
+	 */
+	public String getVariable(int position) {
+		return isVariable(position) ? stmtTokens.get(position).substring(1) : null;
+	}
+	
+	/**
+	 * Returns true if the same variable appears several times in the
+	 * partial statement (like in {@code ?a knows ?a}). Such a pattern can not
+	 * be matched by a simple lookup where each variable is a wildcard.
+	 */
+	public boolean hasRepeatedVariables() {
+		List<String> vars = getVariables();
+		return new HashSet<String>(vars).size() != vars.size();
+	}
+	
 	/** Performs basic tests to determine if a statement is a partial statement, ie if the given string contains three tokens and at least one token starting with ?.
 	 * 
 	 * @param lex a string to test
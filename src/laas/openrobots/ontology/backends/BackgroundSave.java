@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+/**
+ * Serializes a point-in-time copy of the asserted statements on a background
+ * thread.<br/>
+ *
+ * The statements are written by chunks, through a buffered stream. If the
+ * path ends with {@code .gz}, the output is gzip-compressed.<br/>
+ *
+ * Each chunk is written by its own writer, so the statements are always
+ * written in N-Triples (which is also valid Turtle), whose blank node labels
+ * come from the blank nodes ids: a Turtle writer would number the blank
+ * nodes again in each chunk, and merge distinct blank nodes when the file is
+ * read back.<br/>
+ *
+ * The progress of the save can be queried from any thread with
+ * {@link #getStatus()}.
+ *
+ * @since 0.9.0
+ */
+class BackgroundSave implements Runnable {
+
+	private static final int CHUNK_SIZE = 10000;
+
+	enum State {RUNNING, DONE, FAILED}
+
+	private final String path;
+	private final Model statements;
+	private final Object lock;
+	private final long total;
+
+	private volatile State state = State.RUNNING;
+	private volatile long written = 0;
+	private volatile String error = null;
+
+	private final long startTime;
+	private volatile long endTime;
+
+	/**
+	 * @param path the path of the output file
+	 * @param statements the statements to write. They must not be modified
+	 * while the save is running.
+	 * @param lock the object to synchronize on while reading the statements
+	 * (typically, the {@link OntologySnapshot} the statements come from).
+	 */
+	BackgroundSave(String path, Model statements, Object lock) {
+		this.path = path;
+		this.statements = statements;
+		this.lock = lock;
+		this.total = statements.size();
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts the save on a new background thread.
+	 */
+	void start() {
+		Thread t = new Thread(this, "oro-save");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	boolean isRunning() {
+		return state == State.RUNNING;
+	}
+
+	@Override
+	public void run() {
+
+		boolean gzip = path.toLowerCase().endsWith(".gz");
+
+		try {
+			OutputStream out = new FileOutputStream(path);
+			if (gzip) out = new GZIPOutputStream(out, 65536);
+			Writer writer = new OutputStreamWriter(new BufferedOutputStream(out, 65536), "UTF-8");
+
+			try {
+				StmtIterator it;
+				synchronized (lock) {
+					it = statements.listStatements();
+				}
+
+				boolean hasNext = true;
+				while (hasNext) {
+					Model chunk = ModelFactory.createDefaultModel();
+
+					synchronized (lock) {
+						while ((hasNext = it.hasNext()) && chunk.size() < CHUNK_SIZE)
+							chunk.add(it.nextStatement());
+					}
+
+					chunk.write(writer, "N-TRIPLE");
+					written += chunk.size();
+				}
+			}
+			finally {
+				writer.close();
+			}
+
+			endTime = System.currentTimeMillis();
+			state = State.DONE;
+
+			Logger.log("Ontology saved to " + path + " (" + written + " statements) in " +
+					(endTime - startTime) + "ms.\n", VerboseLevel.IMPORTANT);
+
+		} catch (IOException e) {
+			fail(e.getMessage());
+		} catch (RuntimeException e) {
+			fail(e.toString());
+		}
+	}
+
+	private void fail(String message) {
+		error = message;
+		endTime = System.currentTimeMillis();
+		state = State.FAILED;
+		Logger.log("Error while saving the ontology to " + path + ": " + message + "\n", VerboseLevel.ERROR);
+	}
+
+	/**
+	 * Returns the status of the save: its state ({@code running},
+	 * {@code done} or {@code failed}), the path, the amount of statements
+	 * written and to write, the progress (in percent), the duration (in ms)
+	 * and, if it failed, the error.
+	 */
+	Map<String, String> getStatus() {
+		Map<String, String> status = new HashMap<String, String>();
+
+		State s = state;
+		status.put("state", s.toString().toLowerCase());
+		status.put("path", path);
+		status.put("written", String.valueOf(written));
+		status.put("total", String.valueOf(total));
+		status.put("progress", String.valueOf(total == 0 ? 100 : (100 * written / total)));
+		status.put("duration", String.valueOf(((s == State.RUNNING) ? System.currentTimeMillis() : endTime) - startTime));
+		if (error != null) status.put("error", error);
+
+		return status;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import laas.openrobots.ontology.PartialStatement;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Chooses the order in which the partial statements of a {@code find} are
+ * joined.<br/>
+ *
+ * ARQ does not reorder the triple patterns of a query on an inference graph:
+ * they are joined in the order they are written. The planner orders them
+ * greedily: at each step, among the patterns sharing a variable with the
+ * patterns already chosen (to avoid cartesian products), it picks the one with
+ * the lowest estimated amount of matches, given the variables bound so far.
+ * Patterns that allow a filter to be evaluated (because they bind its last
+ * missing variable) are favoured, so that ARQ, which places each filter right
+ * after the patterns binding its variables, applies the filters early.<br/>
+ *
+ * Estimates rely on the {@link OntologyStatistics} of the asserted
+ * statements: for each predicate, the amount of statements and of distinct
+ * subjects and objects, and for each class, the amount of instances. The
+ * counts of the asserted sub-properties (resp. sub-classes) of a predicate
+ * (resp. a class) are added to its own. These statistics are maintained 
+ * incrementally, and the hierarchies are read from the asserted statements:
+ * planning a {@code find} never queries the reasoner. Other inferred 
+ * statements are not counted: at the {@linkplain ReasoningLevel#FULL full}
+ * reasoning level, the patterns on mostly inferred statements are 
+ * underestimated.
+ *
+ * @since 0.9.0
+ */
+class FindPlanner {
+
+	/** Estimated amount of matches of a pattern whose predicate is a variable. */
+	private static final double UNKNOWN_PREDICATE = 1e6;
+
+	/** Estimated ratio of the solutions that pass a filter. */
+	private static final double FILTER_SELECTIVITY = 0.5;
+
+	private static final Pattern VARIABLE = Pattern.compile("\\?(\\w+)");
+
+	private final Graph asserted;
+	private final OntologyStatistics statistics;
+
+	/**
+	 * @param asserted the graph of the asserted statements of the ontology
+	 * @param statistics the statistics of these statements
+	 */
+	FindPlanner(Graph asserted, OntologyStatistics statistics) {
+		this.asserted = asserted;
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Returns a node and its descendants through a relation (like 
+	 * {@code rdfs:subClassOf}), in the asserted statements.
+	 */
+	private Set<Node> descendants(Node n, Node relation) {
+		Set<Node> res = new HashSet<Node>();
+		res.add(n);
+		
+		LinkedList<Node> todo = new LinkedList<Node>(res);
+		while (!todo.isEmpty()) {
+			ExtendedIterator<Triple> it = asserted.find(Node.ANY, relation, todo.removeFirst());
+			while (it.hasNext()) {
+				Node child = it.next().getSubject();
+				if (res.add(child)) todo.add(child);
+			}
+			it.close();
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the variables mentioned in a SPARQL filter.
+	 */
+	static Set<String> filterVariables(String filter) {
+		Set<String> vars = new HashSet<String>();
+		Matcher m = VARIABLE.matcher(filter);
+		while (m.find()) vars.add(m.group(1));
+		return vars;
+	}
+
+	/**
+	 * Orders the partial statements of a {@code find}, most selective first.
+	 *
+	 * @param statements the partial statements
+	 * @param filters the SPARQL filters of the {@code find}, or null
+	 * @return the partial statements, in the order they should be joined
+	 */
+	List<PartialStatement> order(Collection<PartialStatement> statements,
+							Collection<String> filters) {
+
+		List<PartialStatement> remaining = new ArrayList<PartialStatement>(statements);
+		List<PartialStatement> ordered = new ArrayList<PartialStatement>();
+
+		if (remaining.size() < 2) return remaining;
+
+		List<Set<String>> pendingFilters = new ArrayList<Set<String>>();
+		if (filters != null)
+			for (String f : filters) pendingFilters.add(filterVariables(f));
+
+		Set<String> bound = new HashSet<String>();
+
+		while (!remaining.isEmpty()) {
+
+			PartialStatement best = null;
+			double bestEstimate = Double.MAX_VALUE;
+			boolean bestConnected = false;
+
+			for (PartialStatement ps : remaining) {
+
+				boolean connected = false;
+				for (String v : ps.getVariables())
+					if (bound.contains(v)) connected = true;
+
+				//Once some variables are bound, unconnected patterns only come
+				//after the connected ones.
+				if (bestConnected && !connected) continue;
+
+				double estimate = estimate(ps, bound);
+
+				Set<String> after = new HashSet<String>(bound);
+				after.addAll(ps.getVariables());
+				for (Set<String> f : pendingFilters)
+					if (after.containsAll(f) && !bound.containsAll(f)) estimate *= FILTER_SELECTIVITY;
+
+				if (best == null || (connected && !bestConnected) || estimate < bestEstimate) {
+					best = ps;
+					bestEstimate = estimate;
+					bestConnected = connected;
+				}
+			}
+
+			remaining.remove(best);
+			ordered.add(best);
+			bound.addAll(best.getVariables());
+		}
+
+		return ordered;
+	}
+
+	/**
+	 * Estimates the amount of matches of a partial statement, knowing that
+	 * some of its variables are already bound.
+	 */
+	double estimate(PartialStatement ps, Set<String> bound) {
+
+		boolean subjectBound = ps.getSubject() != null || bound.contains(ps.getVariable(0));
+		boolean objectBound = ps.getObject() != null || bound.contains(ps.getVariable(2));
+
+		if (ps.getPredicate() == null) {
+			double estimate = UNKNOWN_PREDICATE;
+			if (subjectBound) estimate /= 1000;
+			if (objectBound) estimate /= 1000;
+			return estimate;
+		}
+
+		Node p = ps.getPredicate().asNode();
+
+		if (subjectBound && objectBound) return 1;
+
+		if (p.equals(RDF.type.asNode()) && ps.getObject() != null && !subjectBound) {
+			long instances = 0;
+			for (Node c : descendants(ps.getObject().asNode(), RDFS.subClassOf.asNode()))
+				instances += statistics.instances(c);
+			return instances;
+		}
+
+		long triples = 0, subjects = 0, objects = 0;
+		for (Node sp : descendants(p, RDFS.subPropertyOf.asNode())) {
+			triples += statistics.statements(sp);
+			subjects += statistics.subjects(sp);
+			objects += statistics.objects(sp);
+		}
+
+		if (subjectBound) return (subjects == 0) ? 0 : (double) triples / subjects;
+		if (objectBound) return (objects == 0) ? 0 : (double) triples / objects;
+		return triples;
+	}
+}
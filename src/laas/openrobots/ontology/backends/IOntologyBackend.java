@@ -16,8 +16,12 @@
 
 package laas.openrobots.ontology.backends;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.Vector;
 
 import laas.openrobots.ontology.PartialStatement;
@@ -29,6 +33,7 @@ import laas.openrobots.ontology.exceptions.InvalidQueryException;
 import laas.openrobots.ontology.exceptions.OntologyServerException;
 import laas.openrobots.ontology.helpers.Namespaces;
 import laas.openrobots.ontology.modules.base.BaseModule;
+import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.events.IWatcher;
 import laas.openrobots.ontology.modules.events.IWatcher.EventType;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
@@ -228,6 +233,39 @@ public interface IOntologyBackend extends IServiceProvider {
 	 * @see #find(String, Vector)
 	 */
 	public abstract boolean check(PartialStatement statement);
+	
+	/** Checks a set of statements and partial statements in one call.<br/>
+	 * 
+	 * The result is the same as calling {@link #check(Statement)} or 
+	 * {@link #check(PartialStatement)} on each of them, but ground statements 
+	 * and simple patterns are answered by direct lookups, and the remaining 
+	 * patterns are evaluated together with a single query.
+	 * 
+	 * @param statements the statements and partial statements to check
+	 * @return a map associating to each statement true if it is asserted in or 
+	 * can be inferred from the ontology (or, for a partial statement, if it 
+	 * matches at least one statement)
+	 * @since 0.9.0
+	 */
+	public abstract Map<Statement, Boolean> check(Collection<? extends Statement> statements);
+	
+	/** Checks a set of statements and partial statements in one call, with a
+	 * given amount of inference.<br/>
+	 * 
+	 * With {@link ReasoningLevel#DEFAULT}, this is the same as 
+	 * {@link #check(Collection)}. The cheaper levels do not go through the 
+	 * reasoner of the ontology.
+	 * 
+	 * @param statements the statements and partial statements to check
+	 * @param level the statements to check against: asserted ones only, RDFS 
+	 * entailments, materialized closure, or everything the reasoner infers
+	 * @return a map associating to each statement true if it holds at the 
+	 * given reasoning level (or, for a partial statement, if it matches at 
+	 * least one statement)
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	public abstract Map<Statement, Boolean> check(Collection<? extends Statement> statements, ReasoningLevel level);
 
 	/**
 	 * Performs a consistency validation against the ontology. Returns false if 
@@ -286,6 +324,27 @@ public interface IOntologyBackend extends IServiceProvider {
 	 * @throws QueryParseException thrown if the argument is not a valid SPARQL query.
 	 */
 	public abstract Set<RDFNode> query(String key, String query) throws InvalidQueryException;
+	
+	/**
+	 * Performs a SPARQL query on the OpenRobots ontology, with a given amount
+	 * of inference.<br/>
+	 * 
+	 * With {@link ReasoningLevel#DEFAULT}, this is the same as 
+	 * {@link #query(String, String)}. The cheaper levels do not go through the
+	 * reasoner of the ontology.
+	 * 
+	 * @param key the variable of the query whose values are returned
+	 * @param query A well-formed SPARQL query. The common prefixes may be 
+	 * omitted.
+	 * @param level the statements the query is evaluated on: asserted ones 
+	 * only, RDFS entailments, materialized closure, or everything the 
+	 * reasoner infers
+	 * @return The result of the query as a set of RDFNode (either resources or literals).
+	 * @see #query(String, String)
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	public abstract Set<RDFNode> query(String key, String query, ReasoningLevel level) throws InvalidQueryException;
 
 	/**
 	 * Tries to identify a resource given a set of partially defined statements 
@@ -306,6 +365,162 @@ public interface IOntologyBackend extends IServiceProvider {
 							Set<PartialStatement> statements, 
 							Set<String> filters) throws InvalidQueryException;
 
+	/**
+	 * Like {@link #find(String, Set, Set)}, with a given amount of inference.
+	 * With {@link ReasoningLevel#DEFAULT}, this is the same as 
+	 * {@link #find(String, Set, Set)}. The cheaper levels do not go through 
+	 * the reasoner of the ontology.
+	 * 
+	 * @param varName The name of the variable to bind, as used in the partial 
+	 * statements.
+	 * @param statements A set of partial statements that globaly define a search
+	 * pattern
+	 * @param filters a set of SPARQL filters, or null
+	 * @param level the statements the search is done on: asserted ones only, 
+	 * RDFS entailments, materialized closure, or everything the reasoner 
+	 * infers
+	 * @return a set of resources or literal (RDFNode) that match the statements.
+	 * @throws InvalidQueryException 
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	public abstract Set<RDFNode> find(	String varName,	
+							Set<PartialStatement> statements, 
+							Set<String> filters,
+							ReasoningLevel level) throws InvalidQueryException;
+
+	/**
+	 * Finds the resources that, together, match a set of partially defined 
+	 * statements (plus optional restrictions), and returns them as rows of 
+	 * bindings.<br/>
+	 * 
+	 * Contrary to {@link #find(String, Set, Set)}, several variables can be 
+	 * bound at once: each row associates a value to each variable of 
+	 * {@code varNames}, from a single query execution. A variable which is not 
+	 * bound in a given solution is absent from the row.<br/>
+	 * 
+	 * The rows are lazily read from the query engine as the iterator is 
+	 * consumed: the iterator must be consumed before the ontology is modified.
+	 * 
+	 * @param varNames the names of the variables to bind (without the leading 
+	 * "?"), as used in the partial statements.
+	 * @param statements A set of partial statements that globaly define a search
+	 * pattern
+	 * @param filters a set of SPARQL filters, or null
+	 * @param limit the maximum amount of rows to return, or 0 for no limit.
+	 * @param distinct if true, duplicated rows are removed.
+	 * @return an iterator over the rows of bindings.
+	 * @throws InvalidQueryException 
+	 * @see BaseModule#findBindings(List, Set, Set, Integer, Boolean)
+	 * @since 0.9.0
+	 */
+	public abstract Iterator<Map<String, RDFNode>> findBindings(List<String> varNames,	
+							Set<PartialStatement> statements, 
+							Set<String> filters,
+							int limit,
+							boolean distinct) throws InvalidQueryException;
+
+	/**
+	 * Like {@link #findBindings(List, Set, Set, int, boolean)}, with a given 
+	 * amount of inference. With {@link ReasoningLevel#DEFAULT}, this is the 
+	 * same as {@link #findBindings(List, Set, Set, int, boolean)}. The cheaper 
+	 * levels do not go through the reasoner of the ontology.
+	 * 
+	 * @param varNames the names of the variables to bind (without the leading 
+	 * "?"), as used in the partial statements.
+	 * @param statements A set of partial statements that globaly define a search
+	 * pattern
+	 * @param filters a set of SPARQL filters, or null
+	 * @param limit the maximum amount of rows to return, or 0 for no limit.
+	 * @param distinct if true, duplicated rows are removed.
+	 * @param level the statements the search is done on: asserted ones only, 
+	 * RDFS entailments, materialized closure, or everything the reasoner 
+	 * infers
+	 * @return an iterator over the rows of bindings.
+	 * @throws InvalidQueryException 
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	public abstract Iterator<Map<String, RDFNode>> findBindings(List<String> varNames,	
+							Set<PartialStatement> statements, 
+							Set<String> filters,
+							int limit,
+							boolean distinct,
+							ReasoningLevel level) throws InvalidQueryException;
+
+	/**
+	 * Opens a server-side cursor over the results of a SPARQL {@code SELECT} 
+	 * query. The rows are then fetched by pages with 
+	 * {@link #fetch(UUID, int, IEventConsumer)}.<br/>
+	 * 
+	 * Cursors belong to a client: a client can not have more than 
+	 * {@code max_cursors} cursors open at the same time, and cursors which 
+	 * are not used for more than {@code cursor_timeout} seconds are closed.
+	 * 
+	 * @param query a SPARQL {@code SELECT} query. Like for 
+	 * {@link #query(String, String)}, the common prefixes may be omitted.
+	 * @param client the client which owns the cursor
+	 * @return the id of the new cursor
+	 * @throws InvalidQueryException if the query is not a valid {@code SELECT} 
+	 * query
+	 * @throws OntologyServerException if the client has too many open cursors
+	 * @since 0.9.0
+	 */
+	public abstract UUID openCursor(String query, IEventConsumer client) throws InvalidQueryException, OntologyServerException;
+	
+	/**
+	 * Fetches the next rows of a cursor. When all the rows have been fetched, 
+	 * the cursor is automatically closed.
+	 * 
+	 * @param cursorId the id of the cursor, as returned by 
+	 * {@link #openCursor(String, IEventConsumer)}
+	 * @param n the maximum number of rows to fetch
+	 * @param client the client which owns the cursor
+	 * @return at most {@code n} rows associating the variables of the query to 
+	 * their value. Less than {@code n} rows means that all the rows have been 
+	 * fetched.
+	 * @throws OntologyServerException if the cursor is unknown (or has been 
+	 * closed)
+	 * @since 0.9.0
+	 */
+	public abstract List<Map<String, RDFNode>> fetch(UUID cursorId, int n, IEventConsumer client) throws InvalidQueryException, OntologyServerException;
+	
+	/**
+	 * Closes a cursor before all its rows have been fetched. Unknown cursors 
+	 * are ignored.
+	 * 
+	 * @since 0.9.0
+	 */
+	public abstract void closeCursor(UUID cursorId, IEventConsumer client);
+	
+	/**
+	 * Executes a SPARQL {@code SELECT} query and returns its execution profile: 
+	 * the compiled algebra ({@code algebra}), the triple patterns in join 
+	 * order ({@code join_order}), the cardinality of each pattern 
+	 * ({@code patterns}), the amount of rows and the time of each join and 
+	 * filter ({@code steps}), the total time ({@code total_time}) and the 
+	 * time spent in the reasoner ({@code reasoner_time}). Times are in ms.<br/>
+	 * 
+	 * Profiling a query is much more expensive than executing it.
+	 * 
+	 * @param query a SPARQL {@code SELECT} query. Like for 
+	 * {@link #query(String, String)}, the common prefixes may be omitted.
+	 * @return the profile of the query
+	 * @throws InvalidQueryException if the query is not a valid {@code SELECT} 
+	 * query
+	 * @since 0.9.0
+	 */
+	public abstract Map<String, Object> profile(String query) throws InvalidQueryException;
+	
+	/**
+	 * Returns the execution profile (see {@link #profile(String)}) of the 
+	 * query generated by {@link #find(String, Set, Set)}.
+	 * 
+	 * @since 0.9.0
+	 */
+	public abstract Map<String, Object> profileFind(String varName, Set<PartialStatement> statements, 
+							Set<String> filters) throws InvalidQueryException;
+	
 	public abstract Set<OntClass> getSuperclassesOf(OntClass type,
 			boolean onlyDirect) throws NotFoundException;
 
@@ -412,6 +627,94 @@ public interface IOntologyBackend extends IServiceProvider {
 	 * @see SocketConnector General syntax of RPCs for the oro-server socket connector.
 	 */
 	public abstract void save(String path) throws OntologyServerException;
+	
+	/**
+	 * Saves the asserted statements of the in-memory ontology model on a 
+	 * background thread, without blocking the server.<br/>
+	 * 
+	 * A point-in-time copy of the asserted statements is first taken. It is 
+	 * then written in N-Triples (whatever the extension of the file: 
+	 * N-Triples is also valid Turtle), compressed with gzip if the path ends
+	 * with {@code .gz}.
+	 * 
+	 * @param path The path and name of the file to save to
+	 * @throws OntologyServerException thrown when a save is already running.
+	 * @see #saveStatus()
+	 * @since 0.9.0
+	 */
+	public void saveInBackground(String path) throws OntologyServerException;
+	
+	/**
+	 * Returns the status of the last background save (state, amount of 
+	 * statements written, progress, duration...).
+	 * 
+	 * @see #saveInBackground(String)
+	 * @since 0.9.0
+	 */
+	public Map<String, String> saveStatus();
+	
+	/**
+	 * Saves the asserted statements of the in-memory ontology model in the
+	 * compact binary format of {@link laas.openrobots.ontology.helpers.BinaryModel}.
+	 * 
+	 * Saved as {@code <ontology path>.bin}, the binary file is loaded in place 
+	 * of the ontology at startup.
+	 * 
+	 * @param path The path and name of the binary file to save to
+	 * @throws OntologyServerException thrown when the output path is not valid or not accessible.
+	 * @since 0.9.0
+	 */
+	public void saveBinary(String path) throws OntologyServerException;
+	
+	/**
+	 * Writes a checkpoint of the asserted statements (and of the memory 
+	 * metadata) next to the journal, and truncates the journal.
+	 * 
+	 * @throws OntologyServerException thrown when the journal is not enabled,
+	 * or when the checkpoint can not be written.
+	 * @see laas.openrobots.ontology.modules.journal.OperationLog
+	 * @since 0.9.0
+	 */
+	public void checkpoint() throws OntologyServerException;
+	
+	/**
+	 * Adds to the ontology, in one pass, the statements of a N-Triples file 
+	 * (or Turtle, if the path ends with {@code .ttl} or {@code .n3}), 
+	 * gzip-compressed if the path ends with {@code .gz}.<br/>
+	 * 
+	 * The statements are added to the long term memory. Unlike 
+	 * {@link #add(Set, MemoryProfile, boolean)}, they are parsed by a 
+	 * streaming parser, added to the asserted statements all at once, and the
+	 * reasoner is refreshed only once, which is much faster for large sets
+	 * of statements. No consistency check is performed. If the file can not 
+	 * be parsed, the ontology is left untouched.
+	 * 
+	 * @param path the path of the file to import. It must be readable by the
+	 * server.
+	 * @return the amount of statements actually added (ie, that were not 
+	 * already asserted)
+	 * @throws OntologyServerException thrown when the file can not be read or
+	 * parsed.
+	 * @see #importStatements(String, String)
+	 * @since 0.9.0
+	 */
+	public long importFile(String path) throws OntologyServerException;
+	
+	/**
+	 * Like {@link #importFile(String)}, with statements directly provided in 
+	 * N-Triples or Turtle. In Turtle, the default namespace is bound to the
+	 * empty prefix, and the {@code rdf}, {@code rdfs}, {@code owl} and 
+	 * {@code xsd} prefixes are predefined.
+	 * 
+	 * @param statements the statements to import
+	 * @param format the syntax of the statements: N-TRIPLE (or NT) or TURTLE
+	 * (or TTL, N3)
+	 * @return the amount of statements actually added
+	 * @throws OntologyServerException thrown when the format is unknown or
+	 * the statements can not be parsed.
+	 * @since 0.9.0
+	 */
+	public long importStatements(String statements, String format) throws OntologyServerException;
 
 	/**
 	 * Allows to register several <em>events providers</em> (typically, one by underlying middleware) which in turn provide access to <em>watchers</em>. Watchers expose a <em>watch expression</em> which is a SPARQL <code>ASK</code> query. Every time a change is made on the ontology, the ontology backend which implements this interface is expected to execute this query against the model and notify the watchers (through {@link IWatcher#notifySubscriber()}) if the result is positive.
@@ -442,7 +745,61 @@ public interface IOntologyBackend extends IServiceProvider {
 	 * @return The list of event type supported by the backend
 	 */
 	public Set<EventType> getSupportedEvents();
+	
+	/**
+	 * Returns statistics on the evaluation of the event watchers (amount of
+	 * evaluations, delay between the changes of the model and the evaluation
+	 * of the watchers...).
+	 * 
+	 * @return a map of statistic names and values.
+	 * @see laas.openrobots.ontology.modules.events.EventProcessor#getStatistics()
+	 * @since 0.9.0
+	 */
+	public Map<String, String> getEventsStatistics();
+	
+	/**
+	 * Returns statistics on the content of the ontology: amount of asserted
+	 * statements, of distinct subjects and predicates, of classes and 
+	 * instances, and of statements in short term and episodic memory.<br/>
+	 * 
+	 * These statistics are maintained as statements are added and removed: 
+	 * reading them does not depend on the size of the ontology. They only 
+	 * count asserted statements, not the inferred ones.
+	 * 
+	 * @return a map of statistic names and values. Statistics that are not
+	 * available for this model (for instance, the amount of statements of an
+	 * agent model) are absent.
+	 * @since 0.9.0
+	 */
+	public Map<String, String> getStatistics();
+	
+	/**
+	 * Adds to the model the memory metadata (memory profile and creation date)
+	 * of the statements held in non-permanent memory, as reified statements 
+	 * with the {@code stmtCreatedOn} and {@code stmtMemoryProfile} properties.
+	 * 
+	 * These metadata are otherwise kept out of the model, and are thus not
+	 * visible to queries.
+	 * 
+	 * @see laas.openrobots.ontology.modules.memory.MemoryManager#exposeMetadata()
+	 * @since 0.9.0
+	 */
+	public void exposeMemoryMetadata();
 
+	/**
+	 * Returns the last published immutable snapshot of the model.<br/>
+	 * 
+	 * Snapshots are published at the first {@link #step()} following a batch
+	 * of modifications if the {@code snapshots} option is set to {@code true} in the server 
+	 * configuration file. Contrary to the model itself, snapshots can be safely
+	 * read from any thread.
+	 * 
+	 * @return the last published snapshot, or {@code null} if snapshots are 
+	 * disabled.
+	 * @see OntologySnapshot
+	 */
+	public OntologySnapshot getSnapshot();
+	
 	/**
 	 * 'Step' the model.
 	 * At each server main loop iteration, the 'step' method is called for each
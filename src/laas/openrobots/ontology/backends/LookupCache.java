@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import laas.openrobots.ontology.helpers.BinaryModel;
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.Namespaces;
+import laas.openrobots.ontology.helpers.Pair;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.NodeIterator;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * A disk cache of the data {@link OpenRobotsOntology} computes with the 
+ * reasoner at startup: its lookup table and its registry of functional 
+ * properties.<br/>
+ *
+ * The cache stores, for a given set of input ontologies and a given reasoner,
+ * the result of the initial consistency check, the rows of the lookup table 
+ * and the functional and inverse functional properties. Entries are keyed by
+ * a hash of the content of the input files, the reasoner and the robot 
+ * id.<br/>
+ *
+ * When an entry matches, the lookup table and the registry are restored as 
+ * they were built at the first startup, without calling the reasoner. The 
+ * reasoner itself is not restored from the cache: it still classifies the 
+ * ontology, when it is first queried.
+ *
+ * @since 0.9.0
+ */
+class LookupCache {
+
+	private static final int VERSION = 2;
+
+	private static final String CACHE_NS = "http://kb.openrobots.org/lookup_cache#";
+	private static final Resource ONTOLOGY = ModelFactory.createDefaultModel().createResource(CACHE_NS + "ontology");
+	private static final Property CONSISTENT = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "consistent");
+	private static final Property FUNCTIONAL = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "functionalProperty");
+	private static final Property INVERSE_FUNCTIONAL = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "inverseFunctionalProperty");
+	private static final Property KEYWORD = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "keyword");
+	private static final Property CONCEPT = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "concept");
+	private static final Property TYPE = ModelFactory.createDefaultModel().createProperty(CACHE_NS + "type");
+
+	private final File dir;
+
+	LookupCache(String dir) {
+		this.dir = new File(dir);
+	}
+
+	/**
+	 * Computes the cache key of the ontology described by the parameters.
+	 *
+	 * @param model the name of a model built from the input ontologies (like
+	 * the agent models), or null for the main ontology.
+	 * @return the key, or null if one of the input ontologies is not a local
+	 * file (its content can not be hashed).
+	 */
+	static String computeKey(Properties parameters, String model) {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+
+		update(digest, "version " + VERSION);
+		update(digest, "reasonner " + parameters.getProperty("reasonner", "jena_internal_owl_rule"));
+		update(digest, "robot_id " + parameters.getProperty("robot_id"));
+		if (model != null) update(digest, "model " + model);
+
+		for (String key : new String[] {"oro_common_sense", "oro_scenario"}) {
+			String uri = parameters.getProperty(key);
+			if (uri == null) continue;
+
+			File f = BinaryModel.resolve(uri);
+			if (f == null) return null;
+
+			update(digest, key);
+
+			try {
+				InputStream in = new FileInputStream(f);
+				try {
+					byte[] buffer = new byte[65536];
+					int n;
+					while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+				}
+				finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+
+		return hex.toString();
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		try {
+			digest.update(s.getBytes("UTF-8"));
+			digest.update((byte) 0);
+		} catch (java.io.UnsupportedEncodingException e) {}
+	}
+
+	private File entry(String key) {
+		return new File(dir, key + BinaryModel.SUFFIX);
+	}
+
+	/**
+	 * Returns the cache entry for this key, or null if there is none (or if 
+	 * it can not be read).
+	 */
+	Model load(String key) {
+		File f = entry(key);
+		if (!f.exists()) return null;
+
+		try {
+			return BinaryModel.read(f);
+		} catch (IOException e) {
+			Logger.log("Could not read the lookup cache " + f + " (" +
+					e.getMessage() + ")\n", VerboseLevel.WARNING);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the result of the consistency check stored in a cache entry.
+	 */
+	static boolean isConsistent(Model entry) {
+		return entry.contains(ONTOLOGY, CONSISTENT, entry.createTypedLiteral(true));
+	}
+
+	/**
+	 * Fills a lookup table with the rows stored in a cache entry.
+	 *
+	 * A runtime exception is thrown if the entry is malformed.
+	 */
+	static void restoreLookupTable(Model entry, Map<String, Set<Pair<String, ResourceType>>> lookupTable) {
+
+		ResIterator rows = entry.listSubjectsWithProperty(KEYWORD);
+		while (rows.hasNext()) {
+			Resource row = rows.nextResource();
+
+			String keyword = row.getRequiredProperty(KEYWORD).getString();
+			String id = Namespaces.toLightString(row.getRequiredProperty(CONCEPT).getResource());
+			ResourceType type = ResourceType.valueOf(row.getRequiredProperty(TYPE).getString());
+
+			Set<Pair<String, ResourceType>> concepts = lookupTable.get(keyword);
+			if (concepts == null) {
+				concepts = new HashSet<Pair<String, ResourceType>>();
+				lookupTable.put(keyword, concepts);
+			}
+			concepts.add(new Pair<String, ResourceType>(id, type));
+		}
+	}
+
+	/**
+	 * Returns the URIs of the functional (or inverse functional) properties
+	 * stored in a cache entry.
+	 */
+	static Set<String> getFunctionalProperties(Model entry, boolean inverse) {
+		Set<String> res = new HashSet<String>();
+
+		NodeIterator properties = entry.listObjectsOfProperty(ONTOLOGY, inverse ? INVERSE_FUNCTIONAL : FUNCTIONAL);
+		while (properties.hasNext()) res.add(properties.nextNode().as(Resource.class).getURI());
+
+		return res;
+	}
+
+	/**
+	 * Stores the lookup table and the functional properties built at startup
+	 * for this key.
+	 *
+	 * @param lookupTable the lookup table, as built from the classified 
+	 * ontology
+	 * @param functionalProperties the functional properties
+	 * @param inverseFunctionalProperties the inverse functional properties
+	 * @param consistent the result of the consistency check
+	 */
+	void store(String key, Map<String, Set<Pair<String, ResourceType>>> lookupTable,
+			Set<Property> functionalProperties, Set<Property> inverseFunctionalProperties,
+			boolean consistent) {
+
+		long startTime = System.currentTimeMillis();
+
+		Model entry = ModelFactory.createDefaultModel();
+		entry.addLiteral(ONTOLOGY, CONSISTENT, consistent);
+
+		//The concepts are stored with their full URIs: their short forms
+		//depend on the namespaces of the configuration.
+		for (Map.Entry<String, Set<Pair<String, ResourceType>>> e : lookupTable.entrySet()) {
+			for (Pair<String, ResourceType> concept : e.getValue()) {
+				Resource row = entry.createResource();
+				row.addProperty(KEYWORD, e.getKey());
+				row.addProperty(CONCEPT, entry.createResource(Namespaces.format(concept.getLeft())));
+				row.addProperty(TYPE, concept.getRight().name());
+			}
+		}
+
+		for (Property p : functionalProperties) entry.add(ONTOLOGY, FUNCTIONAL, p);
+		for (Property p : inverseFunctionalProperties) entry.add(ONTOLOGY, INVERSE_FUNCTIONAL, p);
+
+		if (!dir.exists()) dir.mkdirs();
+
+		try {
+			BinaryModel.write(entry, entry(key));
+		} catch (IOException e) {
+			Logger.log("Could not write the lookup cache " + entry(key) + " (" +
+					e.getMessage() + ")\n", VerboseLevel.WARNING);
+			return;
+		}
+
+		Logger.log("Lookup table (" + lookupTable.size() + " keywords) cached in " +
+				(System.currentTimeMillis() - startTime) + "ms.\n");
+	}
+}
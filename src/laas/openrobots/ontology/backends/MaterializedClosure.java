@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * The closure of the asserted statements under a subset of the OWL semantics,
+ * materialized in a plain in-memory graph.<br/>
+ *
+ * The closure holds the asserted statements and the statements inferred by
+ * forward chaining from:
+ * <ul>
+ * <li>{@code rdfs:subClassOf} (types of the instances, transitivity),</li>
+ * <li>{@code rdfs:subPropertyOf} (propagation of the statements,
+ * transitivity),</li>
+ * <li>{@code rdfs:domain} and {@code rdfs:range},</li>
+ * <li>{@code owl:equivalentClass} and {@code owl:equivalentProperty},</li>
+ * <li>{@code owl:inverseOf}, {@code owl:TransitiveProperty} and
+ * {@code owl:SymmetricProperty},</li>
+ * <li>{@code owl:sameAs} (symmetry, and replacement of the subject and the
+ * object of the statements).</li>
+ * </ul>
+ *
+ * Queries on the closure do not go through any reasoner: they run at the
+ * speed of queries on the asserted statements. Everything else (class
+ * expressions, restrictions, consistency...) is left to the reasoner of the
+ * ontology.<br/>
+ *
+ * The closure is kept up to date with the asserted statements. Changes are
+ * recorded as they happen, and applied the next time the closure is read:
+ * added statements are propagated by forward chaining, removed statements by
+ * a <em>delete and rederive</em> pass (every statement derived from a removed
+ * statement is first removed, then the ones that can still be derived from
+ * the remaining statements are added back).
+ *
+ * @since 0.9.0
+ */
+class MaterializedClosure {
+
+	private static final Node TYPE = RDF.type.asNode();
+	private static final Node SUBCLASS = RDFS.subClassOf.asNode();
+	private static final Node SUBPROPERTY = RDFS.subPropertyOf.asNode();
+	private static final Node DOMAIN = RDFS.domain.asNode();
+	private static final Node RANGE = RDFS.range.asNode();
+	private static final Node EQUIVALENT_CLASS = OWL.equivalentClass.asNode();
+	private static final Node EQUIVALENT_PROPERTY = OWL.equivalentProperty.asNode();
+	private static final Node INVERSE = OWL.inverseOf.asNode();
+	private static final Node TRANSITIVE = OWL.TransitiveProperty.asNode();
+	private static final Node SYMMETRIC = OWL.SymmetricProperty.asNode();
+	private static final Node SAME_AS = OWL.sameAs.asNode();
+
+	/** The asserted statements. */
+	private final Graph base;
+
+	/** The asserted and inferred statements. */
+	private final Graph closure;
+	private final Model model;
+
+	/**
+	 * The changes of the asserted statements not yet applied to the closure,
+	 * in the order they happened.
+	 */
+	private final List<Triple> pending = new ArrayList<Triple>();
+	private final List<Boolean> pendingAdditions = new ArrayList<Boolean>();
+
+	/**
+	 * Builds the closure of the statements of a model, and keeps it up to date
+	 * with the changes of this model.
+	 *
+	 * @param asserted the model of the asserted statements
+	 */
+	MaterializedClosure(Model asserted) {
+
+		long startTime = System.currentTimeMillis();
+
+		base = asserted.getGraph();
+		closure = Factory.createGraphMem();
+		model = ModelFactory.createModelForGraph(closure);
+
+		List<Triple> added = new ArrayList<Triple>();
+		ExtendedIterator<Triple> it = base.find(Node.ANY, Node.ANY, Node.ANY);
+		while (it.hasNext()) added.add(it.next());
+		it.close();
+
+		propagate(added);
+
+		asserted.register(new StatementListener() {
+			@Override
+			public void addedStatement(Statement s) {
+				record(s.asTriple(), true);
+			}
+
+			@Override
+			public void removedStatement(Statement s) {
+				record(s.asTriple(), false);
+			}
+		});
+
+		Logger.log("Materialized closure built in " + (System.currentTimeMillis() - startTime) +
+				"ms (" + base.size() + " asserted statements, " +
+				closure.size() + " with the inferred ones).\n", VerboseLevel.INFO);
+	}
+
+	private synchronized void record(Triple t, boolean added) {
+		pending.add(t);
+		pendingAdditions.add(added);
+	}
+
+	/**
+	 * Returns the model of the closure, after having applied the pending
+	 * changes of the asserted statements.
+	 */
+	synchronized Model getModel() {
+
+		int i = 0;
+		while (i < pending.size()) {
+			//Consecutive changes of the same kind are applied together.
+			int j = i;
+			while (j < pending.size() && pendingAdditions.get(j).equals(pendingAdditions.get(i))) j++;
+
+			if (pendingAdditions.get(i)) propagate(pending.subList(i, j));
+			else retract(pending.subList(i, j));
+
+			i = j;
+		}
+
+		pending.clear();
+		pendingAdditions.clear();
+
+		return model;
+	}
+
+	/**
+	 * Adds statements to the closure, with everything that can be inferred
+	 * from them.
+	 */
+	private void propagate(List<Triple> statements) {
+
+		LinkedList<Triple> queue = new LinkedList<Triple>();
+
+		for (Triple t : statements) {
+			if (closure.contains(t)) continue;
+			closure.add(t);
+			queue.add(t);
+		}
+
+		while (!queue.isEmpty()) {
+			for (Triple c : consequences(queue.removeFirst())) {
+				if (closure.contains(c)) continue;
+				closure.add(c);
+				queue.add(c);
+			}
+		}
+	}
+
+	/**
+	 * Removes from the closure statements which are not asserted anymore, and
+	 * every statement inferred from them that can not be inferred otherwise.
+	 */
+	private void retract(List<Triple> statements) {
+
+		//1 - Over-deletion: everything derived from the removed statements
+		Set<Triple> deleted = new HashSet<Triple>();
+		LinkedList<Triple> queue = new LinkedList<Triple>();
+
+		for (Triple t : statements) {
+			if (!closure.contains(t) || base.contains(t) || !deleted.add(t)) continue;
+			queue.add(t);
+		}
+
+		if (queue.isEmpty()) return;
+
+		while (!queue.isEmpty()) {
+			for (Triple c : consequences(queue.removeFirst())) {
+				if (!closure.contains(c) || !deleted.add(c)) continue;
+				queue.add(c);
+			}
+		}
+
+		for (Triple t : deleted) closure.delete(t);
+
+		//2 - Re-derivation: the statements still asserted, or still derivable
+		//in one step from the remaining ones, are added back, with their
+		//consequences.
+		List<Triple> rederived = new ArrayList<Triple>();
+		for (Triple t : deleted)
+			if (base.contains(t) || isDerivable(t)) rederived.add(t);
+
+		propagate(rederived);
+	}
+
+	private boolean has(Node s, Node p, Node o) {
+		return closure.contains(s, p, o);
+	}
+
+	private List<Node> objects(Node s, Node p) {
+		List<Node> res = new ArrayList<Node>();
+		ExtendedIterator<Triple> it = closure.find(s, p, Node.ANY);
+		while (it.hasNext()) res.add(it.next().getObject());
+		return res;
+	}
+
+	private List<Node> subjects(Node p, Node o) {
+		List<Node> res = new ArrayList<Node>();
+		ExtendedIterator<Triple> it = closure.find(Node.ANY, p, o);
+		while (it.hasNext()) res.add(it.next().getSubject());
+		return res;
+	}
+
+	private List<Triple> find(Node s, Node p, Node o) {
+		return closure.find(s, p, o).toList();
+	}
+
+	private static void emit(List<Triple> res, Node s, Node p, Node o) {
+		//Literals can not be subjects.
+		if (s.isLiteral() || !p.isURI()) return;
+		res.add(Triple.create(s, p, o));
+	}
+
+	/**
+	 * Returns the statements that can be inferred in one step from a given
+	 * statement and the statements of the closure.
+	 */
+	private List<Triple> consequences(Triple t) {
+
+		List<Triple> res = new ArrayList<Triple>();
+
+		Node s = t.getSubject();
+		Node p = t.getPredicate();
+		Node o = t.getObject();
+
+		//The statement as a fact about its subject and object
+		for (Node q : objects(p, SUBPROPERTY)) emit(res, s, q, o);
+		for (Node q : objects(p, INVERSE)) emit(res, o, q, s);
+		for (Node c : objects(p, DOMAIN)) emit(res, s, TYPE, c);
+		if (!o.isLiteral())
+			for (Node c : objects(p, RANGE)) emit(res, o, TYPE, c);
+
+		if (has(p, TYPE, TRANSITIVE)) {
+			for (Node z : objects(o, p)) emit(res, s, p, z);
+			for (Node x : subjects(p, s)) emit(res, x, p, o);
+		}
+		if (has(p, TYPE, SYMMETRIC)) emit(res, o, p, s);
+
+		for (Node y : objects(s, SAME_AS)) emit(res, y, p, o);
+		if (!o.isLiteral())
+			for (Node y : objects(o, SAME_AS)) emit(res, s, p, y);
+
+		//The statement as a fact about the schema
+		if (p.equals(TYPE)) {
+			for (Node d : objects(o, SUBCLASS)) emit(res, s, TYPE, d);
+
+			if (o.equals(TRANSITIVE))
+				for (Triple xy : find(Node.ANY, s, Node.ANY))
+					for (Node z : objects(xy.getObject(), s)) emit(res, xy.getSubject(), s, z);
+
+			if (o.equals(SYMMETRIC))
+				for (Triple xy : find(Node.ANY, s, Node.ANY)) emit(res, xy.getObject(), s, xy.getSubject());
+		}
+		else if (p.equals(SUBCLASS)) {
+			for (Node x : subjects(TYPE, s)) emit(res, x, TYPE, o);
+			for (Node c : objects(o, SUBCLASS)) emit(res, s, SUBCLASS, c);
+			for (Node a : subjects(SUBCLASS, s)) emit(res, a, SUBCLASS, o);
+		}
+		else if (p.equals(SUBPROPERTY)) {
+			for (Triple xy : find(Node.ANY, s, Node.ANY)) emit(res, xy.getSubject(), o, xy.getObject());
+			for (Node r : objects(o, SUBPROPERTY)) emit(res, s, SUBPROPERTY, r);
+			for (Node a : subjects(SUBPROPERTY, s)) emit(res, a, SUBPROPERTY, o);
+		}
+		else if (p.equals(INVERSE)) {
+			emit(res, o, INVERSE, s);
+			for (Triple xy : find(Node.ANY, s, Node.ANY)) emit(res, xy.getObject(), o, xy.getSubject());
+		}
+		else if (p.equals(DOMAIN)) {
+			for (Triple xy : find(Node.ANY, s, Node.ANY)) emit(res, xy.getSubject(), TYPE, o);
+		}
+		else if (p.equals(RANGE)) {
+			for (Triple xy : find(Node.ANY, s, Node.ANY))
+				if (!xy.getObject().isLiteral()) emit(res, xy.getObject(), TYPE, o);
+		}
+		else if (p.equals(EQUIVALENT_CLASS)) {
+			emit(res, s, SUBCLASS, o);
+			emit(res, o, SUBCLASS, s);
+		}
+		else if (p.equals(EQUIVALENT_PROPERTY)) {
+			emit(res, s, SUBPROPERTY, o);
+			emit(res, o, SUBPROPERTY, s);
+		}
+		else if (p.equals(SAME_AS)) {
+			emit(res, o, SAME_AS, s);
+			for (Triple t2 : find(s, Node.ANY, Node.ANY)) emit(res, o, t2.getPredicate(), t2.getObject());
+			for (Triple t2 : find(Node.ANY, Node.ANY, s)) emit(res, t2.getSubject(), t2.getPredicate(), o);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Returns true if a statement can be inferred in one step from the
+	 * statements of the closure (the rules of {@link #consequences(Triple)},
+	 * read backward).
+	 */
+	private boolean isDerivable(Triple t) {
+
+		Node s = t.getSubject();
+		Node p = t.getPredicate();
+		Node o = t.getObject();
+
+		for (Node q : subjects(SUBPROPERTY, p))
+			if (has(s, q, o)) return true;
+
+		if (!o.isLiteral())
+			for (Node q : subjects(INVERSE, p))
+				if (has(o, q, s)) return true;
+
+		if (has(p, TYPE, TRANSITIVE))
+			for (Node y : objects(s, p))
+				if (has(y, p, o)) return true;
+
+		if (!o.isLiteral() && has(p, TYPE, SYMMETRIC) && has(o, p, s)) return true;
+
+		for (Node y : subjects(SAME_AS, s))
+			if (has(y, p, o)) return true;
+		if (!o.isLiteral())
+			for (Node y : subjects(SAME_AS, o))
+				if (has(s, p, y)) return true;
+
+		if (p.equals(TYPE)) {
+			for (Node c : subjects(SUBCLASS, o))
+				if (has(s, TYPE, c)) return true;
+
+			for (Node q : subjects(DOMAIN, o))
+				if (!find(s, q, Node.ANY).isEmpty()) return true;
+			for (Node q : subjects(RANGE, o))
+				if (!find(Node.ANY, q, s).isEmpty()) return true;
+		}
+		else if (p.equals(SUBCLASS)) {
+			for (Node b : objects(s, SUBCLASS))
+				if (has(b, SUBCLASS, o)) return true;
+			if (has(s, EQUIVALENT_CLASS, o) || has(o, EQUIVALENT_CLASS, s)) return true;
+		}
+		else if (p.equals(SUBPROPERTY)) {
+			for (Node q : objects(s, SUBPROPERTY))
+				if (has(q, SUBPROPERTY, o)) return true;
+			if (has(s, EQUIVALENT_PROPERTY, o) || has(o, EQUIVALENT_PROPERTY, s)) return true;
+		}
+		else if (p.equals(INVERSE) || p.equals(SAME_AS)) {
+			if (has(o, p, s)) return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.Properties;
+
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * An OntologySnapshot is an immutable version of the asserted statements of
+ * an {@link OpenRobotsOntology}.<br/>
+ *
+ * At each step of the server main loop, a new snapshot is published if the
+ * ontology changed (and if the {@code snapshots} option is enabled in the
+ * configuration file). The snapshot only holds the changes since the
+ * previous snapshot, and shares the other statements with it (cf
+ * {@link SnapshotGraph}). It is never modified afterwards, and can therefore
+ * be read from any thread without interfering with the server main loop.<br/>
+ *
+ * Snapshots are not bound to the reasoner of the ontology: classifying each
+ * of them again would cost more than the reads they serve. Inferences are
+ * read from the materialized closure of the snapshot (see
+ * {@link ReasoningLevel#MATERIALIZED}), only built when a reader actually 
+ * needs it, on the reader's thread.
+ *
+ * @author slemaign
+ * @see OpenRobotsOntology#getSnapshot()
+ * @see laas.openrobots.ontology.modules.snapshot.SnapshotModule
+ */
+public class OntologySnapshot {
+
+	private final long version;
+	private final long timestamp;
+
+	private final Model assertedModel;
+	private final Properties parameters;
+
+	private volatile IOntologyBackend backend;
+
+	/**
+	 * Creates a new snapshot.
+	 *
+	 * @param version the version number of the model this snapshot was taken
+	 * from.
+	 * @param assertedModel the asserted statements. It must not be modified
+	 * after the snapshot creation.
+	 * @param parameters the server parameters.
+	 */
+	OntologySnapshot(long version, Model assertedModel, Properties parameters) {
+		this.version = version;
+		this.timestamp = System.currentTimeMillis();
+		this.assertedModel = assertedModel;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Returns the version of the model this snapshot was taken from. Versions
+	 * are monotonically increasing.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the time (in ms since the epoch) when this snapshot was
+	 * published.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the amount of asserted statements in this snapshot.
+	 */
+	public long size() {
+		return assertedModel.size();
+	}
+
+	/**
+	 * Returns the asserted statements. It must not be 
+	 * modified, and callers must synchronize on the snapshot while reading it.
+	 */
+	Model getAssertedModel() {
+		return assertedModel;
+	}
+
+	/**
+	 * Returns a read-only ontology backend that wraps this snapshot.<br/>
+	 *
+	 * The backend has no reasoner: by default, and for the
+	 * {@link ReasoningLevel#FULL} level, it answers from the materialized 
+	 * closure of the snapshot. Class expressions, restrictions and 
+	 * consistency are only handled by the live model.<br/>
+	 *
+	 * The backend is built at the first call. Jena models are not thread-safe:
+	 * callers must synchronize on the snapshot when using the backend from
+	 * several threads. This never blocks the writer, which only ever publishes
+	 * new snapshots.
+	 *
+	 * @return a backend that reflects the state of the ontology at the time of
+	 * the snapshot.
+	 */
+	public IOntologyBackend getBackend() {
+		if (backend == null) {
+			synchronized (this) {
+				if (backend == null) {
+					long startTime = System.currentTimeMillis();
+
+					OntModel onto = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, assertedModel);
+					backend = new OpenRobotsOntology(onto, parameters, true);
+
+					Logger.log("Snapshot " + version + " prepared for reading in " +
+							(System.currentTimeMillis() - startTime) + "ms.\n", VerboseLevel.DEBUG);
+				}
+			}
+		}
+		return backend;
+	}
+
+	@Override
+	public String toString() {
+		return "snapshot " + version + " (" + size() + " asserted statements)";
+	}
+}
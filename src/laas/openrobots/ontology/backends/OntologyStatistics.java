@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.hp.hpl.jena.graph.BulkUpdateHandler;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.SimpleBulkUpdateHandler;
+import com.hp.hpl.jena.graph.impl.WrappedGraph;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Statistics on the asserted statements of the ontology, maintained
+ * incrementally.<br/>
+ *
+ * The statistics are updated by a wrapper around the graph of the asserted
+ * statements (see {@link #track(Graph)}): each statement actually added or
+ * removed updates a few counters, so that the statistics can be read at any
+ * time at a constant cost. They hold:
+ * <ul>
+ * <li>the amount of statements, and of statements with a literal object,</li>
+ * <li>the amount of statements, of distinct subjects and of distinct
+ * objects per predicate,</li>
+ * <li>the amount of asserted instances per class,</li>
+ * <li>the amount of distinct subjects,</li>
+ * <li>the amount of classes (resources explicitely typed as
+ * {@code owl:Class}) and of instances (resources with at least one type
+ * outside of the RDF, RDFS and OWL vocabularies).</li>
+ * </ul>
+ *
+ * Only asserted statements are counted: the inferred statements are only
+ * known by the reasoner, and counting them would require to query it.
+ *
+ * @since 0.9.0
+ */
+class OntologyStatistics {
+
+	/**
+	 * Updates the statistics when statements are actually added to or
+	 * removed from the graph it wraps. Bulk updates go through
+	 * {@link #performAdd(Triple)} and {@link #performDelete(Triple)}, or
+	 * remove statements through the iterators returned by {@code find}, which
+	 * are counted as well.
+	 */
+	private class CountingGraph extends WrappedGraph {
+
+		private BulkUpdateHandler bulkHandler;
+
+		CountingGraph(Graph base) {
+			super(base);
+		}
+
+		@Override
+		public void add(Triple t) {
+			performAdd(t);
+			getEventManager().notifyAddTriple(this, t);
+		}
+
+		@Override
+		public void delete(Triple t) {
+			performDelete(t);
+			getEventManager().notifyDeleteTriple(this, t);
+		}
+
+		@Override
+		public void performAdd(Triple t) {
+			if (base.contains(t)) return;
+			boolean newSubject = !base.contains(t.getSubject(), t.getPredicate(), Node.ANY);
+			boolean newObject = !base.contains(Node.ANY, t.getPredicate(), t.getObject());
+			base.add(t);
+			added(t, newSubject, newObject);
+		}
+
+		@Override
+		public void performDelete(Triple t) {
+			if (!base.contains(t)) return;
+			base.delete(t);
+			deleted(t);
+		}
+		
+		/**
+		 * Counts a statement just removed from the base graph.
+		 */
+		private void deleted(Triple t) {
+			removed(t, !base.contains(t.getSubject(), t.getPredicate(), Node.ANY),
+					!base.contains(Node.ANY, t.getPredicate(), t.getObject()));
+		}
+
+		@Override
+		public ExtendedIterator<Triple> find(TripleMatch m) {
+			return counting(base.find(m));
+		}
+
+		@Override
+		public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+			return counting(base.find(s, p, o));
+		}
+
+		private ExtendedIterator<Triple> counting(final ExtendedIterator<Triple> it) {
+			return new NiceIterator<Triple>() {
+				private Triple current;
+
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public Triple next() {
+					return current = it.next();
+				}
+
+				@Override
+				public void remove() {
+					it.remove();
+					deleted(current);
+					getEventManager().notifyDeleteTriple(CountingGraph.this, current);
+				}
+
+				@Override
+				public void close() {
+					it.close();
+				}
+			};
+		}
+
+		@Override
+		public BulkUpdateHandler getBulkUpdateHandler() {
+			if (bulkHandler == null) bulkHandler = new SimpleBulkUpdateHandler(this);
+			return bulkHandler;
+		}
+	}
+
+	private static final Node TYPE = RDF.type.asNode();
+	private static final Node CLASS = OWL.Class.asNode();
+
+	private long statements = 0;
+	private long literals = 0;
+
+	private final Map<Node, Counter> predicates = new HashMap<Node, Counter>();
+	private final Map<Node, Counter> predicateSubjects = new HashMap<Node, Counter>();
+	private final Map<Node, Counter> predicateObjects = new HashMap<Node, Counter>();
+	private final Map<Node, Counter> classes = new HashMap<Node, Counter>();
+	private final Map<Node, Counter> subjects = new HashMap<Node, Counter>();
+
+	/** for each instance, the amount of its (non-vocabulary) asserted types */
+	private final Map<Node, Counter> instances = new HashMap<Node, Counter>();
+
+	private static class Counter {
+		long value = 0;
+	}
+
+	private static void increment(Map<Node, Counter> counters, Node key) {
+		Counter c = counters.get(key);
+		if (c == null) {
+			c = new Counter();
+			counters.put(key, c);
+		}
+		c.value++;
+	}
+
+	private static void decrement(Map<Node, Counter> counters, Node key) {
+		Counter c = counters.get(key);
+		if (c == null) return;
+		if (--c.value <= 0) counters.remove(key);
+	}
+
+	private static long get(Map<Node, Counter> counters, Node key) {
+		Counter c = counters.get(key);
+		return (c == null) ? 0 : c.value;
+	}
+
+	/**
+	 * Returns true if a node belongs to the RDF, RDFS or OWL vocabularies.
+	 */
+	private static boolean isVocabulary(Node n) {
+		if (!n.isURI()) return false;
+		String ns = n.getNameSpace();
+		return ns.equals(RDF.getURI()) || ns.equals(RDFS.getURI()) || ns.equals(OWL.getURI());
+	}
+
+	/**
+	 * Wraps a graph, so that the statistics are updated each time a statement
+	 * is added to or removed from it. The statements already in the graph are
+	 * counted.
+	 *
+	 * @param graph the graph of the asserted statements. It must not be
+	 * modified directly anymore: only through the returned graph.
+	 * @return the graph to use instead of {@code graph}
+	 */
+	Graph track(Graph graph) {
+		//The pairs (subject, predicate) and (predicate, object) already seen
+		Set<Triple> subjects = new HashSet<Triple>();
+		Set<Triple> objects = new HashSet<Triple>();
+		
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+		while (it.hasNext()) {
+			Triple t = it.next();
+			added(t, subjects.add(Triple.create(t.getSubject(), t.getPredicate(), Node.ANY)),
+					objects.add(Triple.create(Node.ANY, t.getPredicate(), t.getObject())));
+		}
+		it.close();
+
+		return new CountingGraph(graph);
+	}
+
+	/**
+	 * Counts an added statement.
+	 * 
+	 * @param newSubject true if no other statement has the same subject and 
+	 * predicate.
+	 * @param newObject true if no other statement has the same predicate and
+	 * object.
+	 */
+	private synchronized void added(Triple t, boolean newSubject, boolean newObject) {
+		statements++;
+		if (t.getObject().isLiteral()) literals++;
+
+		increment(predicates, t.getPredicate());
+		if (newSubject) increment(predicateSubjects, t.getPredicate());
+		if (newObject) increment(predicateObjects, t.getPredicate());
+		increment(subjects, t.getSubject());
+
+		if (t.getPredicate().equals(TYPE)) {
+			increment(classes, t.getObject());
+			if (!isVocabulary(t.getObject())) increment(instances, t.getSubject());
+		}
+	}
+
+	/**
+	 * Counts a removed statement.
+	 * 
+	 * @param lastSubject true if no other statement has the same subject and 
+	 * predicate.
+	 * @param lastObject true if no other statement has the same predicate and
+	 * object.
+	 */
+	private synchronized void removed(Triple t, boolean lastSubject, boolean lastObject) {
+		statements--;
+		if (t.getObject().isLiteral()) literals--;
+
+		decrement(predicates, t.getPredicate());
+		if (lastSubject) decrement(predicateSubjects, t.getPredicate());
+		if (lastObject) decrement(predicateObjects, t.getPredicate());
+		decrement(subjects, t.getSubject());
+
+		if (t.getPredicate().equals(TYPE)) {
+			decrement(classes, t.getObject());
+			if (!isVocabulary(t.getObject())) decrement(instances, t.getSubject());
+		}
+	}
+
+	/**
+	 * Returns the amount of asserted statements with a given predicate.
+	 */
+	synchronized long statements(Node predicate) {
+		return get(predicates, predicate);
+	}
+
+	/**
+	 * Returns the amount of distinct subjects of the asserted statements with
+	 * a given predicate.
+	 */
+	synchronized long subjects(Node predicate) {
+		return get(predicateSubjects, predicate);
+	}
+
+	/**
+	 * Returns the amount of distinct objects of the asserted statements with
+	 * a given predicate.
+	 */
+	synchronized long objects(Node predicate) {
+		return get(predicateObjects, predicate);
+	}
+
+	/**
+	 * Returns the amount of asserted instances of a class.
+	 */
+	synchronized long instances(Node c) {
+		return get(classes, c);
+	}
+
+	/**
+	 * Returns the statistics, as pairs name/value: {@code nb_statements},
+	 * {@code nb_literals}, {@code nb_predicates}, {@code nb_subjects},
+	 * {@code nb_classes} and {@code nb_instances}.
+	 */
+	synchronized Map<String, String> toMap() {
+		Map<String, String> stats = new HashMap<String, String>();
+
+		stats.put("nb_statements", String.valueOf(statements));
+		stats.put("nb_literals", String.valueOf(literals));
+		stats.put("nb_predicates", String.valueOf(predicates.size()));
+		stats.put("nb_subjects", String.valueOf(subjects.size()));
+		stats.put("nb_classes", String.valueOf(get(classes, CLASS)));
+		stats.put("nb_instances", String.valueOf(instances.size()));
+
+		return stats;
+	}
+}
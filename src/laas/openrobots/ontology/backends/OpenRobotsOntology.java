@@ -18,19 +18,32 @@ package laas.openrobots.ontology.backends;
 
 //Imports
 ///////////////
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import laas.openrobots.ontology.OroServer;
 import laas.openrobots.ontology.PartialStatement;
@@ -40,13 +53,16 @@ import laas.openrobots.ontology.exceptions.InconsistentOntologyException;
 import laas.openrobots.ontology.exceptions.InvalidQueryException;
 import laas.openrobots.ontology.exceptions.OntologyServerException;
 import laas.openrobots.ontology.helpers.Helpers;
+import laas.openrobots.ontology.helpers.BinaryModel;
 import laas.openrobots.ontology.helpers.Logger;
 import laas.openrobots.ontology.helpers.Namespaces;
 import laas.openrobots.ontology.helpers.Pair;
 import laas.openrobots.ontology.helpers.VerboseLevel;
 import laas.openrobots.ontology.modules.events.EventProcessor;
+import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.events.IWatcher;
 import laas.openrobots.ontology.modules.events.IWatcher.EventType;
+import laas.openrobots.ontology.modules.journal.OperationLog;
 import laas.openrobots.ontology.modules.memory.MemoryManager;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
 import laas.openrobots.ontology.service.RPCMethod;
@@ -55,6 +71,9 @@ import org.mindswap.pellet.jena.PelletInfGraph;
 import org.mindswap.pellet.jena.PelletReasonerFactory;
 import org.mindswap.pellet.utils.VersionInfo;
 
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Reifier;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.ConversionException;
 import com.hp.hpl.jena.ontology.DatatypeProperty;
 import com.hp.hpl.jena.ontology.Individual;
@@ -73,13 +92,18 @@ import com.hp.hpl.jena.query.QueryParseException;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.listeners.ChangedListener;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.InfModel;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.RSIterator;
 import com.hp.hpl.jena.rdf.model.ReifiedStatement;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Selector;
 import com.hp.hpl.jena.rdf.model.SimpleSelector;
 import com.hp.hpl.jena.rdf.model.Statement;
@@ -88,10 +112,12 @@ import com.hp.hpl.jena.rdf.model.impl.ModelCom;
 import com.hp.hpl.jena.rdf.model.impl.StatementImpl;
 import com.hp.hpl.jena.reasoner.ReasonerException;
 import com.hp.hpl.jena.reasoner.ValidityReport;
+import com.hp.hpl.jena.shared.AlreadyReifiedException;
 import com.hp.hpl.jena.shared.JenaException;
 import com.hp.hpl.jena.shared.NotFoundException;
-import com.hp.hpl.jena.util.FileManager;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
 
 /**
  * The OpenRobotsOntology class is the main storage backend for oro-server.<br/>
@@ -114,8 +140,38 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	
 	private OntModel onto;
 	
-	private ResultSet lastQueryResult;
-	private String lastQuery;
+	//The open cursors, per client.
+	private Map<IEventConsumer, Map<UUID, QueryCursor>> cursors;
+	private long cursorTimeout;
+	private int maxCursors;
+	
+	//Queries slower than this threshold (in ms) are logged. 0 to disable.
+	private long slowQueryThreshold;
+	private boolean profileSlowQueries;
+	
+	//Orders the partial statements of 'find'. Null if disabled.
+	private FindPlanner planner;
+	
+	//Statistics on the asserted statements. Null for wrapped models.
+	private OntologyStatistics statistics;
+	
+	//RDFS view of the asserted statements, for queries at the RDFS reasoning
+	//level. Built on first use, and bound again when the statements change.
+	private InfModel rdfsModel;
+	private ChangedListener rdfsChanges;
+	
+	//Closure of the asserted statements, for queries at the materialized 
+	//reasoning level. Built on first use, or when loading the ontology if
+	//'materialize_closure' is enabled.
+	private MaterializedClosure closure;
+	
+	//The reasoning level of the requests that do not give one.
+	private ReasoningLevel defaultLevel = ReasoningLevel.FULL;
+	
+	//If true, the reasoner is not refreshed after each removal, but once per
+	//step of the server. See reasonerRemoved().
+	private boolean deferredRemovals;
+	private boolean reasonerNeedsRefresh;
 	
 	private boolean isInInconsistentState;
 	
@@ -126,24 +182,52 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	private boolean modelChanged = true;
 	private boolean forceLookupTableUpdate = false; //useful to systematically rebuild the lookup table when a statement has been removed.
 	
-	/*This set stores *at initialization* the list of functional properties.
-	* This is used by the update() method to quickly discard update on non-
+	/* These sets store the list of functional and inverse functional 
+	* properties. They are initialized from the ontology and then kept up to 
+	* date every time a property is declared (or undeclared) as functional.
+	* They are used by the update() method to quickly discard update on non-
 	* functional properties.
-	* 
-	* \TODO Attention: if a functional property is added at runtime, it won't
-	* be correctly handled (ie, update() won't work for this property. This
-	* could be fixed by updating this set when a FunctionalProperty is added. Or
-	* use OntProperty#hasSubproperty() (but this will be slower)
 	*/
-	Set<OntProperty> functionalProperties;
+	Set<Property> functionalProperties;
+	Set<Property> inverseFunctionalProperties;
 	
 	private MemoryManager memoryManager;
+	private boolean memoryManagerEnabled;
 
 	private EventProcessor eventProcessor;
+	
+	private OperationLog journal;
+	
+	private BackgroundSave backgroundSave;
+	private long journalCheckpointPeriod;
+	private long lastCheckpoint;
 
 	//True if this model has already been closed
 	private boolean isClosed;
 	
+	//Incremented each time the model changes.
+	private long version = 0;
+	
+	private boolean snapshotsEnabled;
+	
+	//The last published snapshot. Can be read from any thread.
+	private volatile OntologySnapshot snapshot;
+	
+	//The changes of the asserted statements since the last published snapshot,
+	//on top of it.
+	private SnapshotGraph snapshotChanges;
+	
+	//Above this depth of the chain of snapshots, a full copy of the model is
+	//published instead of the changes.
+	private static final int MAX_SNAPSHOT_DEPTH = 16;
+	
+	//True if this backend wraps an OntologySnapshot.
+	private final boolean readOnly;
+	
+	//The name of the entry of a wrapped model in the lookup cache, or null if
+	//it is not cached.
+	private final String cacheName;
+	
 	/***************************************
 	 *          Constructors               *
 	 **************************************/
@@ -177,6 +261,8 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	public OpenRobotsOntology(Properties parameters){
 		if (parameters == null) throw new IllegalArgumentException();
 		this.parameters = parameters;
+		this.readOnly = false;
+		this.cacheName = null;
 		initialize();
 	}
 	
@@ -191,6 +277,49 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	}
 
 	public OpenRobotsOntology(OntModel onto, Properties parameters){
+		this(onto, parameters, false, null);
+	}
+	
+	/**
+	 * Constructor which wraps a Jena {@linkplain OntModel} built from the 
+	 * base ontologies of the configuration only ({@code oro_common_sense} and
+	 * {@code oro_scenario}), like the models of the agents.<br/>
+	 * 
+	 * If the {@code lookup_cache} option is set, the initial classification 
+	 * of the model, its lookup table and its functional properties are 
+	 * cached, like for the main ontology.
+	 * 
+	 * @param onto An already built ontology model. The OpenRobotsOntology will 
+	 * wrap it.
+	 * @param cacheName the name of the model in the lookup cache. Models built
+	 * the same way share the same name.
+	 * @since 0.9.0
+	 */
+	public OpenRobotsOntology(OntModel onto, Properties parameters, String cacheName){
+		this(onto, parameters, false, cacheName);
+	}
+	
+	/**
+	 * Constructor which wraps a Jena {@linkplain OntModel}, possibly 
+	 * read-only.<br/>
+	 * 
+	 * A read-only backend is meant to read an {@link OntologySnapshot}: it 
+	 * leaves the namespaces of the server untouched, builds its lookup table 
+	 * only at the first lookup, and has no memory manager, no event processor
+	 * and no journal. Its model is not expected to have a reasoner: requests
+	 * that rely on the reasoner ({@link ReasoningLevel#FULL}, the default) 
+	 * are answered from the materialized closure, built at the first of 
+	 * them.
+	 * 
+	 * @param onto An already built ontology model. The OpenRobotsOntology will 
+	 * wrap it.
+	 * @param readOnly true if the model is not to be modified.
+	 */
+	OpenRobotsOntology(OntModel onto, Properties parameters, boolean readOnly){
+		this(onto, parameters, readOnly, null);
+	}
+	
+	private OpenRobotsOntology(OntModel onto, Properties parameters, boolean readOnly, String cacheName){
 		
 		if (onto == null) throw new IllegalArgumentException();
 		this.onto = onto;
@@ -198,6 +327,8 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		if (parameters == null) throw new IllegalArgumentException("No " + 
 				"parameters provided in OroServer to instanciate agent models");
 		this.parameters = parameters;
+		this.readOnly = readOnly;
+		this.cacheName = cacheName;
 		
 		isClosed = false;
 		
@@ -337,6 +468,8 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	@Override
 	public boolean add(Set<Statement> statements, MemoryProfile memProfile, boolean safe) throws IllegalStatementException
 	{
+		checkWritable();
+		
 		if (statements.isEmpty()) return true;
 		
 		boolean allHaveBeenInserted = true;
@@ -347,19 +480,7 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		for (Statement s : statements) ss += "\n\t ["+ Namespaces.toLightString(s) + "]";
 		Logger.log("Adding statements " + ((memProfile != MemoryProfile.DEFAULT) ? ("to " + memProfile + " memory") : "") + ss +"\n");
 		
-		for (Statement statement : statements) {
-		
-			try {
-				onto.add(statement);
-			}
-			catch (ConversionException e) {
-				Logger.log("Impossible to assert " + statement + ". A concept can not be a class " +
-						"and an instance at the same time in OWL DL.\n", VerboseLevel.ERROR);
-				throw new IllegalStatementException("Impossible to assert " + statement + 
-						". A concept can not be a class and an instance at the same time in OWL DL.");
-
-			}
-		}
+		assertStatements(statements);
 		
 		Set<Statement> actuallyAdded = statements;
 		
@@ -375,30 +496,52 @@ public class OpenRobotsOntology implements IOntologyBackend {
 			}
 		}
 
-		for (Statement statement : actuallyAdded) {
-			if (!(memProfile == MemoryProfile.LONGTERM || memProfile == MemoryProfile.DEFAULT)) //not LONGTERM memory
-			{
-				//create a name for this reified statement (concatenation of "rs" with hash made from S + P + O)
-				String rsName = "rs_" + Math.abs(statement.hashCode()); 
-				
-				onto.createReifiedStatement(Namespaces.addDefault(rsName), statement);
-				
-				Statement metaStmt = createStatement(rsName + " stmtCreatedOn " + onto.createTypedLiteral(Calendar.getInstance()));
-				//Statement metaStmt = oro.createStatement(rsName + " stmtCreatedOn " + toXSDDate(new Date())); //without timezone
-				Statement metaStmt2 = createStatement(rsName + " stmtMemoryProfile " + memProfile + "^^xsd:string");
-				onto.add(metaStmt);
-				onto.add(metaStmt2);
-
-			}
-		}					
+		Set<Statement> changes = new HashSet<Statement>(actuallyAdded);
+		
+		if (!(memProfile == MemoryProfile.LONGTERM || memProfile == MemoryProfile.DEFAULT)) //not LONGTERM memory
+		{
+			//The memory metadata are kept out of the model, in the memory 
+			//manager side table (see exposeMemoryMetadata()).
+			long createdOn = System.currentTimeMillis();
+			for (Statement statement : actuallyAdded)
+				memoryManager.record(statement, memProfile, createdOn);
+		}
+		
+		appendToJournal(OperationLog.Operation.ADD, memProfile, actuallyAdded);
+		
+		updateFunctionalPropertiesRegistry(actuallyAdded, null);
 		
 		//TODO: optimization possible for reified statement with onModelChange(rsName)
 		//notify the events subscribers.
-		if(!isInInconsistentState) onModelChange();
+		if(!isInInconsistentState) onModelChange(changes, new HashSet<Statement>());
 		
 		return allHaveBeenInserted;
 	}
 
+	/**
+	 * Adds a set of statements to the underlying model, without any further 
+	 * processing (no consistency checking, no memory management, no event 
+	 * notification).
+	 * 
+	 * @throws IllegalStatementException if one of the statement can not be
+	 * asserted (for instance, a concept used both as a class and an instance).
+	 */
+	private void assertStatements(Set<Statement> statements) throws IllegalStatementException {
+		for (Statement statement : statements) {
+		
+			try {
+				onto.add(statement);
+			}
+			catch (ConversionException e) {
+				Logger.log("Impossible to assert " + statement + ". A concept can not be a class " +
+						"and an instance at the same time in OWL DL.\n", VerboseLevel.ERROR);
+				throw new IllegalStatementException("Impossible to assert " + statement + 
+						". A concept can not be a class and an instance at the same time in OWL DL.");
+
+			}
+		}
+	}
+	
 	/**
 	 * This method carefully adds statements one after the other to ensure
 	 * only safe statements (ie, statements that do not lead to inconsistencies)
@@ -468,6 +611,84 @@ public class OpenRobotsOntology implements IOntologyBackend {
 
 	}
 	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#check(java.util.Collection)
+	 */
+	@Override
+	public Map<Statement, Boolean> check(Collection<? extends Statement> statements) {
+		return check(statements, ReasoningLevel.DEFAULT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#check(java.util.Collection, laas.openrobots.ontology.backends.ReasoningLevel)
+	 */
+	@Override
+	public Map<Statement, Boolean> check(Collection<? extends Statement> statements, ReasoningLevel level) {
+		
+		Model model = getModel(level);
+		
+		Map<Statement, Boolean> result = new HashMap<Statement, Boolean>();
+		List<PartialStatement> patterns = new ArrayList<PartialStatement>();
+		
+		for (Statement s : statements) {
+			if (!(s instanceof PartialStatement)) {
+				result.put(s, model.contains(s));
+			}
+			//Patterns where each variable appears once are answered by a
+			//lookup, the variables being wildcards.
+			else if (!((PartialStatement) s).hasRepeatedVariables()) {
+				result.put(s, model.contains(s.getSubject(), s.getPredicate(), s.getObject()));
+			}
+			else patterns.add((PartialStatement) s);
+		}
+		
+		if (patterns.isEmpty()) return result;
+		
+		//The remaining patterns are merged in a single query, as the branches
+		//of an UNION. Each branch has its own variables, and a branch matches
+		//as soon as one solution binds them.
+		String resultQuery = "SELECT * WHERE {\n";
+		String[] markers = new String[patterns.size()];
+		for (int i = 0 ; i < patterns.size() ; i++) {
+			resultQuery += (i == 0 ? "" : " UNION ") + "{ " + patterns.get(i).asSparqlRow("b" + i + "_") + " }";
+			markers[i] = "b" + i + "_" + patterns.get(i).getVariables().get(0);
+			result.put(patterns.get(i), false);
+		}
+		resultQuery += "}";
+		
+		int remaining = patterns.size();
+		
+		try	{
+			Query myQuery = QueryFactory.create(resultQuery, Syntax.syntaxSPARQL);
+		
+			QueryExecution myQueryExecution = QueryExecutionFactory.create(myQuery, model);
+			ResultSet rawResult = myQueryExecution.execSelect();
+			
+			while (remaining > 0 && rawResult.hasNext()) {
+				QuerySolution row = rawResult.nextSolution();
+				for (int i = 0 ; i < markers.length ; i++) {
+					if (markers[i] != null && row.contains(markers[i])) {
+						result.put(patterns.get(i), true);
+						markers[i] = null;
+						remaining--;
+					}
+				}
+			}
+			
+			myQueryExecution.close();
+		}
+		catch (QueryParseException e) {
+			Logger.log("internal error during query parsing while trying to check partial statements! ("+ e.getLocalizedMessage() +").\nPlease contact the maintainer :-)\n", VerboseLevel.SERIOUS_ERROR);
+			throw e;
+		}
+		catch (QueryExecException e) {
+			Logger.log("internal error during query execution while trying to check partial statements! ("+ e.getLocalizedMessage() +").\nPlease contact the maintainer :-)\n", VerboseLevel.SERIOUS_ERROR);
+			throw e;
+		}
+		
+		return result;
+	}
+	
 	/* (non-Javadoc)
 	 * @see laas.openrobots.ontology.backends.IOntologyBackend#checkConsistency()
 	 */
@@ -502,6 +723,15 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	 */
 	//public Set<RDFNode> query(String query) throws InvalidQueryException
 	public Set<RDFNode> query(String key, String query) throws InvalidQueryException
+	{
+		return query(key, query, ReasoningLevel.DEFAULT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#query(java.lang.String, java.lang.String, laas.openrobots.ontology.backends.ReasoningLevel)
+	 */
+	@Override
+	public Set<RDFNode> query(String key, String query, ReasoningLevel level) throws InvalidQueryException
 	{
 		//TODO: do some detection to check that the first param is the key, and throw nice exceptions when required.
 		
@@ -511,17 +741,17 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		//Add the common prefixes.
 		query = Namespaces.prefixes() + query;
 		
-		this.lastQuery = query;
+		long startTime = System.currentTimeMillis();
 		
 		try	{
 			Query myQuery = QueryFactory.create(query, Syntax.syntaxSPARQL );
 		
-			QueryExecution myQueryExecution = QueryExecutionFactory.create(myQuery, onto);
-			this.lastQueryResult = myQueryExecution.execSelect();
+			QueryExecution myQueryExecution = QueryExecutionFactory.create(myQuery, getModel(level));
+			ResultSet rawResult = myQueryExecution.execSelect();
 			
 			try {
-				while (this.lastQueryResult.hasNext()) {
-					QuerySolution s = this.lastQueryResult.nextSolution();
+				while (rawResult.hasNext()) {
+					QuerySolution s = rawResult.nextSolution();
 					res.add(s.get(key));
 				}
 			}
@@ -538,18 +768,63 @@ public class OpenRobotsOntology implements IOntologyBackend {
 			throw new InvalidQueryException("Error during query execution ! ("+ e.getLocalizedMessage() +")");
 		}
 		
+		long duration = System.currentTimeMillis() - startTime;
+		if (slowQueryThreshold > 0 && duration > slowQueryThreshold) logSlowQuery(query, level, duration);
+		
 		return res;
 	}
 	
-	@Override
-	public Set<RDFNode> find(	String varName,	Set<PartialStatement> statements, 
-							Set<String> filters) throws InvalidQueryException {
+	/**
+	 * Logs a query which took longer than {@code slow_query_threshold} to 
+	 * execute, with its profile if {@code profile_slow_queries} is enabled 
+ * (the query is then executed again by the profiler).
+	 */
+	private void logSlowQuery(String query, ReasoningLevel level, long duration) {
 		
-		Logger.demo("Looking for '" + varName + "' such as:", statements);
+		String msg = "Slow query (" + duration + "ms, reasoning level: " + level + "):\n" + 
+					query.substring(Namespaces.prefixes().length()) + "\n";
+		
+		if (profileSlowQueries) {
+			try {
+				msg += QueryProfiler.format(new QueryProfiler(getModel(level).getGraph()).profile(query));
+			} catch (InvalidQueryException e) {
+				msg += "(the query could not be profiled: " + e.getMessage() + ")\n";
+			}
+		}
+		
+		Logger.log(msg, VerboseLevel.WARNING);
+	}
+	
+	/**
+	 * Builds the SPARQL query used by {@link #find(String, Set, Set)}. Unless 
+	 * {@code reorder_find_patterns} is disabled, the partial statements are 
+	 * ordered by the {@link FindPlanner}, most selective first.
+	 */
+	private String findQuery(String varName, Set<PartialStatement> statements, 
+							Set<String> filters) {
+		return findQuery(Collections.singletonList(varName), statements, filters, 0, false);
+	}
+	
+	/**
+	 * Builds the SPARQL query used by {@link #find(String, Set, Set)} and 
+	 * {@link #findBindings(List, Set, Set, int, boolean)}, projected on 
+	 * several variables.
+	 * 
+	 * @param limit the maximum amount of rows, or 0 for no limit.
+	 * @param distinct if true, a {@code SELECT DISTINCT} query is built.
+	 */
+	private String findQuery(List<String> varNames, Set<PartialStatement> statements, 
+							Set<String> filters, int limit, boolean distinct) {
 		
-		String query = "SELECT ?" + varName + "\n" +
+		Collection<PartialStatement> patterns = statements;
+		if (planner != null) patterns = planner.order(statements, filters);
+		
+		String query = "SELECT" + (distinct ? " DISTINCT" : "");
+		for (String v : varNames) query += " ?" + v;
+		
+		query += "\n" +
 		"WHERE {\n";
-		for (PartialStatement ps : statements)
+		for (PartialStatement ps : patterns)
 		{
 			query += ps.asSparqlRow();
 		}
@@ -563,13 +838,241 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		}		
 		query += "}";
 		
-		Set<RDFNode> res = query(varName, query);
+		if (limit > 0) query += "\nLIMIT " + limit;
+		
+		return query;
+	}
+	
+	@Override
+	public Set<RDFNode> find(	String varName,	Set<PartialStatement> statements, 
+							Set<String> filters) throws InvalidQueryException {
+		return find(varName, statements, filters, ReasoningLevel.DEFAULT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#find(java.lang.String, java.util.Set, java.util.Set, laas.openrobots.ontology.backends.ReasoningLevel)
+	 */
+	@Override
+	public Set<RDFNode> find(	String varName,	Set<PartialStatement> statements, 
+							Set<String> filters, ReasoningLevel level) throws InvalidQueryException {
+		
+		Logger.demo("Looking for '" + varName + "' such as:", statements);
+		
+		Set<RDFNode> res = query(varName, findQuery(varName, statements, filters), level);
 		
 		Logger.demo_nodes("Result", res);
 		
 		return res;
 	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#profile(java.lang.String)
+	 */
+	@Override
+	public Map<String, Object> profile(String query) throws InvalidQueryException {
+		return new QueryProfiler(onto.getGraph()).profile(Namespaces.prefixes() + query);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#profileFind(java.lang.String, java.util.Set, java.util.Set)
+	 */
+	@Override
+	public Map<String, Object> profileFind(String varName, Set<PartialStatement> statements, 
+							Set<String> filters) throws InvalidQueryException {
+		return profile(findQuery(varName, statements, filters));
+	}
+
+
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#openCursor(java.lang.String, laas.openrobots.ontology.modules.events.IEventConsumer)
+	 */
+	@Override
+	public UUID openCursor(String query, IEventConsumer client) throws InvalidQueryException, OntologyServerException {
+		
+		closeIdleCursors();
+		
+		Map<UUID, QueryCursor> clientCursors = cursors.get(client);
+		if (clientCursors == null) {
+			clientCursors = new HashMap<UUID, QueryCursor>();
+			cursors.put(client, clientCursors);
+		}
+		
+		if (clientCursors.size() >= maxCursors)
+			throw new OntologyServerException("Too many open cursors (" + 
+					maxCursors + " max). Close some cursors before opening a new one.");
+		
+		QueryCursor cursor = new QueryCursor(Namespaces.prefixes() + query, onto, version);
+		clientCursors.put(cursor.getId(), cursor);
+		
+		Logger.log("Opened cursor " + cursor.getId() + ".\n", VerboseLevel.DEBUG);
+		
+		return cursor.getId();
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#fetch(java.util.UUID, int, laas.openrobots.ontology.modules.events.IEventConsumer)
+	 */
+	@Override
+	public List<Map<String, RDFNode>> fetch(UUID cursorId, int n, IEventConsumer client) throws InvalidQueryException, OntologyServerException {
+		
+		if (n <= 0)
+			throw new OntologyServerException("At least one row must be fetched.");
+		
+		Map<UUID, QueryCursor> clientCursors = cursors.get(client);
+		QueryCursor cursor = (clientCursors == null) ? null : clientCursors.get(cursorId);
+		
+		if (cursor == null)
+			throw new OntologyServerException("Unknown cursor " + cursorId + 
+					" (it may have been closed after " + cursorTimeout / 1000 + "s of inactivity).");
+		
+		List<Map<String, RDFNode>> rows = cursor.fetch(n, version);
+		
+		//Exhausted cursors are automatically closed.
+		if (cursor.isExhausted()) closeCursor(cursorId, client);
+		
+		return rows;
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#closeCursor(java.util.UUID, laas.openrobots.ontology.modules.events.IEventConsumer)
+	 */
+	@Override
+	public void closeCursor(UUID cursorId, IEventConsumer client) {
+		
+		Map<UUID, QueryCursor> clientCursors = cursors.get(client);
+		if (clientCursors == null) return;
+		
+		QueryCursor cursor = clientCursors.remove(cursorId);
+		if (cursor != null) {
+			cursor.close();
+			Logger.log("Closed cursor " + cursorId + " after " + cursor.getPosition() + " rows.\n", VerboseLevel.DEBUG);
+		}
+		
+		if (clientCursors.isEmpty()) cursors.remove(client);
+	}
+	
+	/**
+	 * Closes the cursors which have not been used for more than 
+	 * {@code cursor_timeout} seconds.
+	 */
+	private void closeIdleCursors() {
+		
+		if (cursors.isEmpty()) return;
+		
+		Iterator<Map<UUID, QueryCursor>> clients = cursors.values().iterator();
+		while (clients.hasNext()) {
+			Map<UUID, QueryCursor> clientCursors = clients.next();
+			
+			Iterator<QueryCursor> it = clientCursors.values().iterator();
+			while (it.hasNext()) {
+				QueryCursor c = it.next();
+				if (c.getIdleTime() > cursorTimeout) {
+					Logger.log("Closing cursor " + c.getId() + " after " + 
+							cursorTimeout / 1000 + "s of inactivity.\n", VerboseLevel.WARNING);
+					c.close();
+					it.remove();
+				}
+			}
+			
+			if (clientCursors.isEmpty()) clients.remove();
+		}
+	}
 
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#findBindings(java.util.List, java.util.Set, java.util.Set, int, boolean)
+	 */
+	@Override
+	public Iterator<Map<String, RDFNode>> findBindings(List<String> varNames, 
+							Set<PartialStatement> statements, 
+							Set<String> filters,
+							int limit,
+							boolean distinct) throws InvalidQueryException {
+		return findBindings(varNames, statements, filters, limit, distinct, ReasoningLevel.DEFAULT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#findBindings(java.util.List, java.util.Set, java.util.Set, int, boolean, laas.openrobots.ontology.backends.ReasoningLevel)
+	 */
+	@Override
+	public Iterator<Map<String, RDFNode>> findBindings(final List<String> varNames, 
+							Set<PartialStatement> statements, 
+							Set<String> filters,
+							int limit,
+							boolean distinct,
+							final ReasoningLevel level) throws InvalidQueryException {
+		
+		Logger.demo("Looking for " + varNames + " such as:", statements);
+		
+		final String query = Namespaces.prefixes() + findQuery(varNames, statements, filters, limit, distinct);
+		
+		final long startTime = System.currentTimeMillis();
+		
+		final QueryExecution myQueryExecution;
+		final ResultSet rawResult;
+		
+		try	{
+			Query myQuery = QueryFactory.create(query, Syntax.syntaxSPARQL);
+		
+			myQueryExecution = QueryExecutionFactory.create(myQuery, getModel(level));
+			rawResult = myQueryExecution.execSelect();
+		}
+		catch (QueryParseException e) {
+			Logger.log("Error during query parsing ! ("+ e.getLocalizedMessage() +").", VerboseLevel.ERROR);
+			throw new InvalidQueryException("Error during query parsing ! ("+ e.getLocalizedMessage() +")");
+		}
+		catch (QueryExecException e) {
+			Logger.log("Error during query execution ! ("+ e.getLocalizedMessage() +").", VerboseLevel.SERIOUS_ERROR);
+			throw new InvalidQueryException("Error during query execution ! ("+ e.getLocalizedMessage() +")");
+		}
+		
+		return new Iterator<Map<String, RDFNode>>() {
+			
+			private boolean closed = false;
+			
+			@Override
+			public boolean hasNext() {
+				if (closed) return false;
+				
+				boolean hasNext;
+				try {
+					hasNext = rawResult.hasNext();
+				}
+				catch (NoSuchElementException nsee) { // same workaround as in query()
+					hasNext = false;
+				}
+				
+				if (!hasNext) {
+					myQueryExecution.close();
+					closed = true;
+					
+					//The rows are lazily read: the duration includes the 
+					//time spent by the caller between two rows.
+					long duration = System.currentTimeMillis() - startTime;
+					if (slowQueryThreshold > 0 && duration > slowQueryThreshold) logSlowQuery(query, level, duration);
+				}
+				return hasNext;
+			}
+			
+			@Override
+			public Map<String, RDFNode> next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				
+				QuerySolution s = rawResult.nextSolution();
+				
+				Map<String, RDFNode> row = new HashMap<String, RDFNode>();
+				for (String v : varNames) {
+					RDFNode n = s.get(v);
+					if (n != null) row.put(v, n);
+				}
+				return row;
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
 
 	/* (non-Javadoc)
 	 * @see laas.openrobots.ontology.backends.IOntologyBackend#getResource(String)
@@ -859,16 +1362,24 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	@Override
 	public void remove(Set<Statement> stmts) throws OntologyServerException {
 		
+		checkWritable();
+		
 		String ss = "";
 		for (Statement s : stmts) ss += "\n\t ["+ Namespaces.toLightString(s) + "]";
 		Logger.log("Removing statements " + ss +"\n");
 		
 		onto.remove(new ArrayList<Statement>(stmts));
 		
-		((PelletInfGraph) onto.getGraph()).reload();
+		for (Statement s : stmts) memoryManager.forget(s);
+		
+		appendToJournal(OperationLog.Operation.REMOVE, MemoryProfile.DEFAULT, stmts);
+		
+		reasonerRemoved();
+		
+		updateFunctionalPropertiesRegistry(null, stmts);
 		
 		//notify the events subscribers.
-		if (!isInInconsistentState) onModelChange();
+		if (!isInInconsistentState) onModelChange(new HashSet<Statement>(), stmts);
 		
 		//force the rebuilt of the lookup table at the next lookup.
 		forceLookupTableUpdate = true;
@@ -876,31 +1387,76 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	}
 	
 
+	/**
+	 * Replaces in one pass the values of the functional (resp. inverse 
+	 * functional) properties of the given statements.<br/>
+	 * 
+	 * The statements are first indexed by (subject, predicate) (resp. 
+	 * (object, predicate) for inverse functional properties). Each key of this
+	 * index is then used to retrieve the asserted statements that are to be
+	 * replaced. Removals and additions are performed together, and the
+	 * reasoner is refreshed at most once for the whole batch.
+	 */
 	@Override
 	public void update(Set<Statement> stmts) throws IllegalStatementException, InconsistentOntologyException, OntologyServerException {
 		
-		Set<Statement> stmtsToRemove = new HashSet<Statement>();
+		checkWritable();
+		
+		if (stmts.isEmpty()) return;
+		
+		Set<Pair<Resource, Property>> functionalKeys = new HashSet<Pair<Resource, Property>>();
+		Set<Pair<RDFNode, Property>> inverseFunctionalKeys = new HashSet<Pair<RDFNode, Property>>();
 		
 		for (Statement stmt : stmts) {
-			if(functionalProperties.contains(stmt.getPredicate())) {
-				Selector selector = new SimpleSelector(stmt.getSubject(), stmt.getPredicate(), (RDFNode)null);
-				
-				StmtIterator stmtsToRemoveIt = null;
-				try {
-					stmtsToRemoveIt = onto.listStatements(selector);
-					stmtsToRemove.addAll(stmtsToRemoveIt.toSet());
-				} catch (org.mindswap.pellet.exceptions.InconsistentOntologyException ioe) {
-					Logger.log("The ontology is in an inconsistent state! I couldn't " +
-							"update any statements.\n ", VerboseLevel.WARNING);
-					throw new InconsistentOntologyException("The ontology is in an inconsistent state! I couldn't " +
-							"update any statements.");
-				}				
-			}
+			if (functionalProperties.contains(stmt.getPredicate()))
+				functionalKeys.add(new Pair<Resource, Property>(stmt.getSubject(), stmt.getPredicate()));
+			if (inverseFunctionalProperties.contains(stmt.getPredicate()))
+				inverseFunctionalKeys.add(new Pair<RDFNode, Property>(stmt.getObject(), stmt.getPredicate()));
 		}
-
-		remove(stmtsToRemove);
 		
-		add(stmts, MemoryProfile.DEFAULT, false);
+		//Only asserted statements can be actually removed: we look for them
+		//in the base model, which spares us a (potentially costly) query to 
+		//the reasoner.
+		Model base = onto.getBaseModel();
+		Set<Statement> stmtsToRemove = new HashSet<Statement>();
+		
+		for (Pair<Resource, Property> key : functionalKeys)
+			stmtsToRemove.addAll(base.listStatements(key.getLeft(), key.getRight(), (RDFNode)null).toSet());
+		
+		for (Pair<RDFNode, Property> key : inverseFunctionalKeys)
+			stmtsToRemove.addAll(base.listStatements(null, key.getRight(), key.getLeft()).toSet());
+		
+		//Statements that are both removed and re-asserted are left untouched.
+		stmtsToRemove.removeAll(stmts);
+		
+		String ss = "";
+		for (Statement s : stmts) ss += "\n\t ["+ Namespaces.toLightString(s) + "]";
+		Logger.log("Updating statements " + ss +"\n");
+		
+		if (!stmtsToRemove.isEmpty()) {
+			ss = "";
+			for (Statement s : stmtsToRemove) ss += "\n\t ["+ Namespaces.toLightString(s) + "]";
+			Logger.log("Replaced statements " + ss +"\n");
+		}
+		
+		onto.remove(new ArrayList<Statement>(stmtsToRemove));
+		
+		for (Statement s : stmtsToRemove) memoryManager.forget(s);
+		
+		assertStatements(stmts);
+		
+		appendToJournal(OperationLog.Operation.UPDATE, MemoryProfile.DEFAULT, stmts);
+		
+		if (!stmtsToRemove.isEmpty()) {
+			reasonerRemoved();
+			//force the rebuilt of the lookup table at the next lookup.
+			forceLookupTableUpdate = true;
+		}
+		
+		updateFunctionalPropertiesRegistry(stmts, stmtsToRemove);
+		
+		//notify the events subscribers.
+		if (!isInInconsistentState) onModelChange(stmts, stmtsToRemove);
 		
 	}
 
@@ -921,8 +1477,226 @@ public class OpenRobotsOntology implements IOntologyBackend {
 			throw new OntologyServerException("Error while opening " + path + " to output the ontology. Check it's a valid filename and a writable location!");
 		}
 
-		onto.write(file);
+		OutputStream out = new BufferedOutputStream(file, 65536);
+		onto.write(out);
+		
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new OntologyServerException("Error while writing the ontology to " + path + ": " + e.getMessage());
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#saveInBackground(java.lang.String)
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="exports the asserted statements of the current ontology in the " +
+					"background, in N-Triples (which Turtle parsers also read), " +
+					"gzip-compressed if the path ends with '.gz'. Use " +
+					"'saveStatus' to follow the progress of the save."
+	)
+	public void saveInBackground(String path) throws OntologyServerException {
+		
+		if (backgroundSave != null && backgroundSave.isRunning())
+			throw new OntologyServerException("A save is already running (" + 
+					backgroundSave.getStatus().get("path") + "). Try again later.");
+		
+		//Take a point-in-time copy of the asserted statements: the last 
+		//published snapshot if it is up to date, a fresh copy else.
+		OntologySnapshot s = snapshot;
+		if (s == null || s.getVersion() != version) {
+			Model copy = ModelFactory.createDefaultModel();
+			copy.setNsPrefixes(onto.getNsPrefixMap());
+			copy.add(onto.getRawModel());
+			s = new OntologySnapshot(version, copy, parameters);
+		}
+		
+		Logger.log("Saving ontology to " + path +" in the background.\n", VerboseLevel.IMPORTANT);
+		
+		backgroundSave = new BackgroundSave(path, s.getAssertedModel(), s);
+		backgroundSave.start();
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#saveStatus()
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="returns the status of the last background save: its state " +
+					"(running, done or failed), the amount of statements written " +
+					"and to write, the progress in percent and the duration in ms."
+	)
+	public Map<String, String> saveStatus() {
+		if (backgroundSave == null) {
+			Map<String, String> status = new HashMap<String, String>();
+			status.put("state", "idle");
+			return status;
+		}
+		return backgroundSave.getStatus();
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#saveBinary(java.lang.String)
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="exports the asserted statements of the current ontology to a " +
+					"compact binary file. If named after an ontology with the " +
+					"'.bin' suffix, it is loaded instead of the ontology at " +
+					"startup, which is much faster."
+	)
+	public void saveBinary(String path) throws OntologyServerException {
+		Logger.log("Saving ontology in binary format to " + path +".\n", VerboseLevel.IMPORTANT);
 		
+		long startTime = System.currentTimeMillis();
+		try {
+			BinaryModel.write(onto.getBaseModel(), new File(path));
+		} catch (IOException e) {
+			throw new OntologyServerException("Error while writing the ontology to " + path + ": " + e.getMessage());
+		}
+		Logger.log("Binary ontology saved in " + (System.currentTimeMillis() - startTime) + "ms.\n");
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#importFile(java.lang.String)
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="adds in one pass the statements of a N-Triples file (or " +
+					"Turtle, if the path ends with '.ttl' or '.n3'), " +
+					"gzip-compressed if the path ends with '.gz', and returns " +
+					"the amount of statements added. The file must be readable " +
+					"by the server. Much faster than 'add' for large sets of " +
+					"statements, but no consistency check is performed."
+	)
+	public long importFile(String path) throws OntologyServerException {
+		
+		String lower = path.toLowerCase();
+		boolean gzip = lower.endsWith(".gz");
+		if (gzip) lower = lower.substring(0, lower.length() - 3);
+		String lang = (lower.endsWith(".ttl") || lower.endsWith(".n3")) ? "TURTLE" : "N-TRIPLE";
+		
+		Model parsed = ModelFactory.createDefaultModel();
+		
+		try {
+			InputStream in = new FileInputStream(path);
+			if (gzip) in = new GZIPInputStream(in, 65536);
+			in = new BufferedInputStream(in, 65536);
+			
+			try {
+				parsed.read(in, Namespaces.DEFAULT_NS, lang);
+			}
+			finally {
+				in.close();
+			}
+		} catch (FileNotFoundException e) {
+			throw new OntologyServerException("Error while opening " + path + " to import statements. Check it's a valid filename and a readable location!");
+		} catch (IOException e) {
+			throw new OntologyServerException("Error while reading " + path + ": " + e.getMessage());
+		} catch (JenaException e) {
+			throw new OntologyServerException("Error while parsing " + path + ": " + e.getMessage());
+		}
+		
+		return importStatements(parsed, path);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#importStatements(java.lang.String, java.lang.String)
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="adds in one pass statements given in N-Triples or Turtle " +
+					"(second parameter: 'n-triple' or 'turtle'), and returns the " +
+					"amount of statements added. In Turtle, the default " +
+					"namespace is bound to the empty prefix, and the rdf, rdfs, " +
+					"owl and xsd prefixes are predefined. Much faster than 'add' for " +
+					"large sets of statements, but no consistency check is " +
+					"performed."
+	)
+	public long importStatements(String statements, String format) throws OntologyServerException {
+		
+		String lang;
+		String f = format.trim().toUpperCase();
+		if (f.equals("N-TRIPLE") || f.equals("N-TRIPLES") || f.equals("NTRIPLES") || f.equals("NT"))
+			lang = "N-TRIPLE";
+		else if (f.equals("TURTLE") || f.equals("TTL") || f.equals("N3"))
+			lang = "TURTLE";
+		else
+			throw new OntologyServerException("Unknown format " + format + " for the statements to import. Use N-TRIPLE or TURTLE.");
+		
+		//The usual prefixes are predefined, on the first line (not to shift
+		//the line numbers of parse errors). They can be declared again.
+		if (lang.equals("TURTLE"))
+			statements = "@prefix : <" + Namespaces.DEFAULT_NS + "> . " +
+						"@prefix rdf: <" + Namespaces.rdf_ns + "> . " +
+						"@prefix rdfs: <" + Namespaces.rdfs_ns + "> . " +
+						"@prefix owl: <" + Namespaces.owl_ns + "> . " +
+						"@prefix xsd: <" + Namespaces.xsd_ns + "> . " + statements;
+		
+		Model parsed = ModelFactory.createDefaultModel();
+		
+		try {
+			parsed.read(new StringReader(statements), Namespaces.DEFAULT_NS, lang);
+		} catch (JenaException e) {
+			throw new OntologyServerException("Error while parsing the statements to import: " + e.getMessage());
+		}
+		
+		return importStatements(parsed, "the request");
+	}
+	
+	/**
+	 * Adds the parsed statements to the ontology, at once.
+	 * 
+	 * The statements are first fully parsed in a model of their own, so that
+	 * a parse error leaves the ontology untouched. They are then added with a
+	 * single bulk update, without the per-statement processing of 
+	 * {@link #add(Set, MemoryProfile, boolean)} (parsing of the statements 
+	 * one by one, logging...). Pellet then classifies the ontology once: it
+	 * has loaded the new facts about individuals incrementally, and only 
+	 * reloads its knowledge base if the import holds class or property 
+	 * axioms.
+	 */
+	private long importStatements(Model parsed, String source) {
+		
+		checkWritable();
+		
+		long startTime = System.currentTimeMillis();
+		
+		Model base = onto.getBaseModel();
+		
+		Set<Statement> added = new HashSet<Statement>();
+		StmtIterator it = parsed.listStatements();
+		while (it.hasNext()) {
+			Statement s = it.nextStatement();
+			if (!base.contains(s)) added.add(s);
+		}
+		
+		if (added.isEmpty()) {
+			Logger.log("Nothing to import from " + source + ": the " + parsed.size() + " statements are already asserted.\n");
+			return 0;
+		}
+		
+		onto.getGraph().getBulkUpdateHandler().add(parsed.getGraph());
+		
+		appendToJournal(OperationLog.Operation.ADD, MemoryProfile.DEFAULT, added);
+		
+		if (onto.getGraph() instanceof PelletInfGraph) classify();
+		
+		updateFunctionalPropertiesRegistry(added, null);
+		
+		if (!isInInconsistentState) onModelChange(added, new HashSet<Statement>());
+		
+		Logger.log("Imported " + added.size() + " statements from " + source + " in " + 
+				(System.currentTimeMillis() - startTime) + "ms.\n", VerboseLevel.IMPORTANT);
+		
+		return added.size();
 	}
 	
 	@RPCMethod(
@@ -937,6 +1711,295 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		
 	}
 	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#exposeMemoryMetadata()
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="adds to the model, as reified statements, the memory profile " +
+					"and the creation date of the statements currently held in " +
+					"short term or episodic memory, making them visible to queries."
+	)
+	public void exposeMemoryMetadata() {
+		checkWritable();
+		
+		//The metadata (and the previously exposed metadata they replace) are
+		//journaled as well: they are part of the checkpoints.
+		final Set<Statement> added = new HashSet<Statement>();
+		final Set<Statement> removed = new HashSet<Statement>();
+		
+		StatementListener listener = new StatementListener() {
+			@Override
+			public void addedStatement(Statement s) {
+				if (!removed.remove(s)) added.add(s);
+			}
+			
+			@Override
+			public void removedStatement(Statement s) {
+				if (!added.remove(s)) removed.add(s);
+			}
+		};
+		
+		onto.getBaseModel().register(listener);
+		Set<Statement> metaStmts;
+		try {
+			metaStmts = memoryManager.exposeMetadata();
+		} finally {
+			onto.getBaseModel().unregister(listener);
+		}
+		
+		//The reification statements are not seen by the listener (see
+		//getReificationQuads()).
+		added.addAll(getReificationQuads().listStatements().toSet());
+		
+		if (!removed.isEmpty()) appendToJournal(OperationLog.Operation.REMOVE, MemoryProfile.DEFAULT, removed);
+		if (!added.isEmpty()) appendToJournal(OperationLog.Operation.ADD, MemoryProfile.DEFAULT, added);
+		
+		Logger.log("Exposed the memory metadata of " + memoryManager.size() + " statements.\n");
+		
+		if (!metaStmts.isEmpty() && !isInInconsistentState) 
+			onModelChange(metaStmts, new HashSet<Statement>());
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#checkpoint()
+	 */
+	@Override
+	@RPCMethod(
+			category = "administration",
+			desc="writes a checkpoint of the current state of the ontology next " +
+					"to the journal, and truncates the journal."
+	)
+	public void checkpoint() throws OntologyServerException {
+		if (journal == null)
+			throw new OntologyServerException("The journal is not enabled. Set the 'journal' option in the server configuration file.");
+		
+		try {
+			journal.checkpoint(ModelFactory.createUnion(onto.getBaseModel(), getReificationQuads()), 
+								memoryManager.getMetadata());
+		} catch (IOException e) {
+			throw new OntologyServerException("Error while writing the checkpoint: " + e.getMessage());
+		}
+		lastCheckpoint = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns the statements that reify the statements of the ontology 
+	 * ({@code rdf:type rdf:Statement}, {@code rdf:subject}, 
+	 * {@code rdf:predicate} and {@code rdf:object}).<br/>
+	 * 
+	 * The reifications are kept by the reifier of the graph, and these 
+	 * statements are hidden from the model: they are explicitly written to 
+	 * the journal and to the checkpoints, and turned back into reifications 
+	 * at replay (see {@link #replayReifications(Set, boolean)}).
+	 */
+	private Model getReificationQuads() {
+		Model quads = ModelFactory.createDefaultModel();
+		
+		RSIterator rsIter = onto.listReifiedStatements();
+		while (rsIter.hasNext()) 
+			quads.add(new ArrayList<Statement>(getReificationQuad(rsIter.nextRS())));
+		
+		return quads;
+	}
+	
+	private static Set<Statement> getReificationQuad(ReifiedStatement rs) {
+		Statement s = rs.getStatement();
+		
+		Set<Statement> quad = new HashSet<Statement>();
+		quad.add(ResourceFactory.createStatement(rs, RDF.type, RDF.Statement));
+		quad.add(ResourceFactory.createStatement(rs, RDF.subject, s.getSubject()));
+		quad.add(ResourceFactory.createStatement(rs, RDF.predicate, s.getPredicate()));
+		quad.add(ResourceFactory.createStatement(rs, RDF.object, s.getObject()));
+		return quad;
+	}
+	
+	/**
+	 * Reifies again (or removes the reifications of) the statements described
+	 * by the reification statements read from the journal or from a 
+	 * checkpoint.
+	 * 
+	 * @param stmts the statements of a journal entry
+	 * @param reify true to create the reifications, false to remove them
+	 * @return the other statements of the entry
+	 */
+	private Set<Statement> replayReifications(Set<Statement> stmts, boolean reify) {
+		
+		Map<Resource, Node[]> quads = new HashMap<Resource, Node[]>();
+		Map<Resource, Set<Statement>> quadStmts = new HashMap<Resource, Set<Statement>>();
+		
+		Set<Statement> others = new HashSet<Statement>();
+		
+		for (Statement s : stmts) {
+			Property p = s.getPredicate();
+			
+			int i = p.equals(RDF.subject) ? 0 : p.equals(RDF.predicate) ? 1 : p.equals(RDF.object) ? 2 : -1;
+			boolean isType = p.equals(RDF.type) && s.getObject().equals(RDF.Statement);
+			
+			if (i < 0 && !isType) {
+				others.add(s);
+				continue;
+			}
+			
+			Resource rs = s.getSubject();
+			if (!quads.containsKey(rs)) {
+				quads.put(rs, new Node[3]);
+				quadStmts.put(rs, new HashSet<Statement>());
+			}
+			if (i >= 0) quads.get(rs)[i] = s.getObject().asNode();
+			quadStmts.get(rs).add(s);
+		}
+		
+		Reifier reifier = onto.getGraph().getReifier();
+		
+		for (Map.Entry<Resource, Node[]> e : quads.entrySet()) {
+			Node[] q = e.getValue();
+			
+			//Not a complete reification: these are regular statements.
+			if (q[0] == null || q[1] == null || q[2] == null) {
+				others.addAll(quadStmts.get(e.getKey()));
+				continue;
+			}
+			
+			Triple t = Triple.create(q[0], q[1], q[2]);
+			
+			if (reify) {
+				try {
+					reifier.reifyAs(e.getKey().asNode(), t);
+				} catch (AlreadyReifiedException are) {
+					Logger.log("Could not restore the reification " + e.getKey() + 
+							": it already reifies another statement.\n", VerboseLevel.ERROR);
+				}
+			}
+			else reifier.remove(e.getKey().asNode(), t);
+		}
+		
+		return others;
+	}
+	
+	/**
+	 * Appends a batch of modifications to the journal, if enabled.
+	 */
+	private void appendToJournal(OperationLog.Operation operation, MemoryProfile memProfile, Set<Statement> stmts) {
+		if (journal == null) return;
+		
+		try {
+			journal.append(operation, memProfile, System.currentTimeMillis(), stmts);
+		} catch (IOException e) {
+			Logger.log("Could not write to the journal: " + e.getMessage() + 
+					"! The last modifications may be lost after a restart.\n", VerboseLevel.SERIOUS_ERROR);
+		}
+	}
+	
+	/**
+	 * Restores the state of the ontology from the last checkpoint and the 
+	 * journal, then opens the journal for appending.
+	 * 
+	 * The checkpoint replaces the asserted statements loaded from the 
+	 * ontologies. The journal entries are then replayed with the regular 
+	 * {@link #add(Set, MemoryProfile, boolean)}, {@link #remove(Set)} and
+	 * {@link #update(Set)} methods.
+	 */
+	private void openJournal(String path) {
+		
+		OperationLog log = new OperationLog(path, 
+				OperationLog.SyncPolicy.fromString(parameters.getProperty("journal_sync", "periodic")), 
+				Long.parseLong(parameters.getProperty("journal_sync_period", "100")));
+		
+		journalCheckpointPeriod = Long.parseLong(parameters.getProperty("journal_checkpoint_period", "300")) * 1000;
+		
+		long startTime = System.currentTimeMillis();
+		int nbEntries = 0;
+		
+		try {
+			if (log.getCheckpointFile().exists()) {
+				OperationLog.Reader reader = new OperationLog.Reader(log.getCheckpointFile());
+				OperationLog.Entry e;
+				
+				while ((e = reader.next()) != null) {
+					if (e.operation == OperationLog.Operation.CHECKPOINT) {
+						Model base = onto.getBaseModel();
+						
+						Set<Statement> asserted = replayReifications(e.statements, true);
+						
+						List<Statement> toRemove = new ArrayList<Statement>();
+						StmtIterator it = base.listStatements();
+						while (it.hasNext()) {
+							Statement s = it.nextStatement();
+							if (!asserted.contains(s)) toRemove.add(s);
+						}
+						
+						List<Statement> toAdd = new ArrayList<Statement>();
+						for (Statement s : asserted)
+							if (!base.contains(s)) toAdd.add(s);
+						
+						onto.remove(toRemove);
+						onto.add(toAdd);
+					}
+					else {
+						for (Statement s : e.statements)
+							memoryManager.record(s, e.memProfile, e.timestamp);
+					}
+					nbEntries++;
+				}
+				reader.close();
+				
+				refreshReasoner();
+				rebuildFunctionalPropertiesList();
+				forceLookupTableUpdate = true;
+				onModelChange();
+			}
+			
+			if (log.getJournalFile().exists()) {
+				OperationLog.Reader reader = new OperationLog.Reader(log.getJournalFile());
+				OperationLog.Entry e;
+				
+				while ((e = reader.next()) != null) {
+					try {
+						switch (e.operation) {
+						case ADD:
+							Set<Statement> added = replayReifications(e.statements, true);
+							add(added, e.memProfile, false);
+							//Restore the original creation date
+							for (Statement s : added)
+								memoryManager.record(s, e.memProfile, e.timestamp);
+							break;
+						case REMOVE:
+							remove(replayReifications(e.statements, false));
+							break;
+						case UPDATE:
+							update(e.statements);
+							break;
+						}
+					} catch (IllegalStatementException ise) {
+						Logger.log("Error while replaying a journal entry: " + ise.getMessage() + "\n", VerboseLevel.ERROR);
+					} catch (InconsistentOntologyException ioe) {
+						Logger.log("Error while replaying a journal entry: " + ioe.getMessage() + "\n", VerboseLevel.ERROR);
+					} catch (OntologyServerException ose) {
+						Logger.log("Error while replaying a journal entry: " + ose.getMessage() + "\n", VerboseLevel.ERROR);
+					}
+					nbEntries++;
+				}
+				reader.close();
+			}
+			
+			log.open();
+			
+		} catch (IOException ioe) {
+			Logger.log("Could not open the journal " + path + ": " + ioe.getMessage() + 
+					". The modifications of the ontology won't be journaled!\n", VerboseLevel.SERIOUS_ERROR);
+			return;
+		}
+		
+		if (nbEntries > 0)
+			Logger.log("Ontology state restored from " + nbEntries + " journal entries in " + 
+					(System.currentTimeMillis() - startTime) + "ms.\n", VerboseLevel.IMPORTANT);
+		
+		journal = log;
+		lastCheckpoint = System.currentTimeMillis();
+	}
+	
 	
 	@RPCMethod(
 			category = "administration",
@@ -972,77 +2035,263 @@ public class OpenRobotsOntology implements IOntologyBackend {
 
 	@Override
 	public void registerEvent(IWatcher watcher) throws EventRegistrationException {
+		checkWritable();
 		eventProcessor.add(watcher);
 	}
 	
 	@Override
 	public void clearEvents() {
+		checkWritable();
 		eventProcessor.clear();
 	}
 	
 	@Override
 	public void clearEvent(IWatcher watcher) throws OntologyServerException {
+		checkWritable();
 		eventProcessor.remove(watcher);
 	}
 
 	@Override
 	public Set<EventType> getSupportedEvents() {
+		checkWritable();
 		return eventProcessor.getSupportedEvents();
 	}
 	
+	@Override
+	public Map<String, String> getEventsStatistics() {
+		checkWritable();
+		return eventProcessor.getStatistics();
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#getStatistics()
+	 */
+	@Override
+	public Map<String, String> getStatistics() {
+		Map<String, String> stats = (statistics == null) ? 
+						new HashMap<String, String>() : statistics.toMap();
+		
+		if (memoryManager != null) {
+			stats.put("nb_shortterm_statements", String.valueOf(memoryManager.size(MemoryProfile.SHORTTERM)));
+			stats.put("nb_episodic_statements", String.valueOf(memoryManager.size(MemoryProfile.EPISODIC)));
+		}
+		
+		return stats;
+	}
+	
 	/***************************************
 	 *          Private methods            *
 	 **************************************/
 	
+	/**
+	 * Returns the model to evaluate a query on, for a given reasoning level: 
+	 * the ontology itself (with the inferences of its reasoner), the 
+	 * materialized closure or a RDFS view of the asserted statements, or the
+	 * asserted statements only.
+	 */
+	private Model getModel(ReasoningLevel level) {
+		if (level == ReasoningLevel.DEFAULT) level = defaultLevel;
+		
+		//Read-only backends (ie, snapshots) have no reasoner.
+		if (readOnly && level == ReasoningLevel.FULL) level = ReasoningLevel.MATERIALIZED;
+		
+		switch (level) {
+		case ASSERTED:
+			return onto.getBaseModel();
+		case RDFS:
+			if (rdfsModel == null) {
+				rdfsChanges = new ChangedListener();
+				onto.getBaseModel().register(rdfsChanges);
+				rdfsModel = ModelFactory.createRDFSModel(onto.getBaseModel());
+			}
+			//The RDFS reasoner is not notified of the changes of the 
+			//statements it is bound to.
+			else if (rdfsChanges.hasChanged()) rdfsModel.rebind();
+			return rdfsModel;
+		case MATERIALIZED:
+			if (closure == null) closure = new MaterializedClosure(onto.getBaseModel());
+			return closure.getModel();
+		default:
+			return onto;
+		}
+	}
+	
 
 	private void initialize(){
 		
-		this.lastQuery = "";
-		this.lastQueryResult = null;
+		//Only the main ontology (ie, not the models wrapped by this class, like
+		//the agent models or the snapshots) is journaled.
+		boolean loadedFromFiles = (onto == null);
+		
 		this.isInInconsistentState = true;
-					
-		Namespaces.loadNamespaces(parameters);
 		
-		if (onto == null) this.load();
-
-		//Force these value to true to ensure the lookup table is build at 
-		// startup
-		modelChanged = true;
-		forceLookupTableUpdate = true;
+		//The namespaces are shared by all the backends: a snapshot reuses the
+		//ones of the ontology it was taken from.
+		if (!readOnly) Namespaces.loadNamespaces(parameters);
+		
 		this.lookupTable = new HashMap<String, Set<Pair<String, ResourceType>>>();
-		this.rebuildLookupTable();
+		this.functionalProperties = new HashSet<Property>();
+		this.inverseFunctionalProperties = new HashSet<Property>();
+		
+		if (onto == null) this.load();
 		
-		this.functionalProperties = new HashSet<OntProperty>();
-		this.rebuildFunctionalPropertiesList();
+		//The main ontology, and the wrapped models built from the base 
+		//ontologies only, can be restored from the lookup cache.
+		boolean classify = loadedFromFiles || cacheName != null;
+		String cacheDir = classify ? parameters.getProperty("lookup_cache", "") : "";
+		
+		if (cacheDir.isEmpty() || !initializeFromCache(new LookupCache(cacheDir))) {
+			if (classify) initialClassification();
+			
+			//Force these value to true to ensure the lookup table is build at 
+			// startup
+			modelChanged = true;
+			forceLookupTableUpdate = true;
+			if (!readOnly) {
+				this.rebuildLookupTable();
+				this.rebuildFunctionalPropertiesList();
+			}
+			
+			if (!cacheDir.isEmpty()) {
+				String key = LookupCache.computeKey(parameters, cacheName);
+				if (key != null) 
+					new LookupCache(cacheDir).store(key, lookupTable, functionalProperties, 
+							inverseFunctionalProperties, !isInInconsistentState);
+			}
+		}
 		
-		// By default, don't enable the memory manager.
-		if (parameters.getProperty("memory_manager", "false").equalsIgnoreCase("true")) {
+		if (!readOnly) {
+			// The memory metadata are always recorded, but by default, statements
+			// are not garbage collected.
 			memoryManager = new MemoryManager(onto);
+			memoryManagerEnabled = parameters.getProperty("memory_manager", "false").equalsIgnoreCase("true");
+			
+			eventProcessor = new EventProcessor(this, parameters);
 		}
 		
-		eventProcessor = new EventProcessor(this);
+		String journalPath = parameters.getProperty("journal", "");
+		if (loadedFromFiles && !journalPath.isEmpty()) openJournal(journalPath);
+		
+		// By default, don't publish snapshots.
+		snapshotsEnabled = !readOnly && parameters.getProperty("snapshots", "false").equalsIgnoreCase("true");
+		if (snapshotsEnabled) {
+			publishSnapshot();
+			
+			onto.getBaseModel().register(new StatementListener() {
+				@Override
+				public void addedStatement(Statement s) {
+					snapshotChanges.add(s.asTriple());
+				}
+				
+				@Override
+				public void removedStatement(Statement s) {
+					snapshotChanges.delete(s.asTriple());
+				}
+			});
+		}
+		
+		cursors = new HashMap<IEventConsumer, Map<UUID, QueryCursor>>();
+		cursorTimeout = Long.parseLong(parameters.getProperty("cursor_timeout", "60")) * 1000;
+		maxCursors = Integer.parseInt(parameters.getProperty("max_cursors", "10"));
+		
+		slowQueryThreshold = Long.parseLong(parameters.getProperty("slow_query_threshold", "0"));
+		profileSlowQueries = parameters.getProperty("profile_slow_queries", "false").equalsIgnoreCase("true");
+		
+		// The statistics are only maintained for the ontology loaded from files
+		// (so snapshots have no planner).
+		if (statistics != null && parameters.getProperty("reorder_find_patterns", "true").equalsIgnoreCase("true"))
+			planner = new FindPlanner(onto.getBaseModel().getGraph(), statistics);
+		
+		// By default, requests rely on the reasoner. With 'materialize_closure',
+		// they read the materialized closure of the asserted statements.
+		// Read-only backends build the closure at their first request only.
+		if (readOnly)
+			defaultLevel = ReasoningLevel.MATERIALIZED;
+		else if (parameters.getProperty("materialize_closure", "false").equalsIgnoreCase("true")) {
+			closure = new MaterializedClosure(onto.getBaseModel());
+			defaultLevel = ReasoningLevel.MATERIALIZED;
+		}
+		
+		// By default, the reasoner is refreshed after each removal.
+		deferredRemovals = parameters.getProperty("deferred_removals", "false").equalsIgnoreCase("true");
 		
 	}
 	
 	@Override
 	public void step() {
-		if (memoryManager != null) {
-			Set<ReifiedStatement> stmtsToRemove = memoryManager.gc();
+		
+		if (readOnly) return;
+		
+		flushRemovals();
+		
+		//Evaluates the changes postponed by the events debounce delay
+		try {
+			eventProcessor.step();
+		}
+		catch (org.mindswap.pellet.exceptions.InconsistentOntologyException ioe) {
+			Logger.log("The ontology is in an inconsistent state! Events can " +
+					"not be evaluated until it is consistent again.\n", VerboseLevel.WARNING);
+		}
+		
+		if (journal != null) {
+			try {
+				journal.step();
+			} catch (IOException e) {
+				Logger.log("Could not sync the journal: " + e.getMessage() + "!\n", VerboseLevel.SERIOUS_ERROR);
+			}
+			
+			if (journalCheckpointPeriod > 0 && journal.size() > 0 &&
+				System.currentTimeMillis() - lastCheckpoint >= journalCheckpointPeriod) {
+				try {
+					checkpoint();
+				} catch (OntologyServerException e) {
+					Logger.log(e.getMessage() + "\n", VerboseLevel.SERIOUS_ERROR);
+				}
+			}
+		}
+		
+		closeIdleCursors();
+		
+		if (memoryManagerEnabled) {
+			Set<Statement> stmtsToRemove = memoryManager.gc();
 			
 			if (stmtsToRemove != null && !stmtsToRemove.isEmpty()) {
 
-				for (ReifiedStatement s : stmtsToRemove) {
-					Logger.log("Cleaning old statement [" + Namespaces.toLightString(s.getStatement()) +"].\n");
-					s.getStatement().removeReification();
-					s.getStatement().remove();
-					s.removeProperties();					
+				Set<Statement> removed = new HashSet<Statement>();
+				Set<Statement> removedMetadata = new HashSet<Statement>();
+				
+				for (Statement s : stmtsToRemove) {
+					Logger.log("Cleaning old statement [" + Namespaces.toLightString(s) +"].\n");
+					removed.add(s);
+					
+					//Remove as well the memory metadata, if they have been
+					//exposed in the model.
+					RSIterator rsIter = s.listReifiedStatements();
+					while (rsIter.hasNext()) {
+						ReifiedStatement rs = rsIter.nextRS();
+						removedMetadata.addAll(rs.listProperties().toSet());
+						removedMetadata.addAll(getReificationQuad(rs));
+						rs.removeProperties();
+					}
+					s.removeReification();
+					s.remove();
 				}
 				stmtsToRemove.clear();
-				onModelChange();
+				
+				//The exposed metadata are part of the checkpoints: their 
+				//removal is journaled like the other changes of the model.
+				if (!removedMetadata.isEmpty()) {
+					appendToJournal(OperationLog.Operation.REMOVE, MemoryProfile.DEFAULT, removedMetadata);
+					removed.addAll(removedMetadata);
+				}
+				
+				onModelChange(new HashSet<Statement>(), removed);
 			}
 			
 			
 		}
+		
+		if (snapshotsEnabled) publishSnapshot();
 	}
 	
 	@Override
@@ -1051,6 +2300,10 @@ public class OpenRobotsOntology implements IOntologyBackend {
 		if (isClosed)
 			return;
 		
+		if (eventProcessor != null) eventProcessor.close();
+		if (journal != null) journal.close();
+		for (Map<UUID, QueryCursor> clientCursors : cursors.values())
+			for (QueryCursor c : clientCursors.values()) c.close();
 		onto.close();
 		
 		isClosed = true;
@@ -1071,13 +2324,34 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	 * @see #onModelChange()
 	 */
 	protected void onModelChange(String rsName) {
+		onModelChange(null, null, rsName);
+	}
+	
+	/**
+	 * Like {@link #onModelChange(String)}, with the set of statements that 
+	 * were added and removed. This allows the event processor to only 
+	 * evaluate the watchers that may be affected by the changes.
+	 * 
+	 * @param addedStmts the added statements, or null if unknown
+	 * @param removedStmts the removed statements, or null if unknown
+	 * @param rsName the name of the reified statements whose creation triggered
+	 *  the update. Can be null if it does not apply.
+	 */
+	private void onModelChange(Set<Statement> addedStmts, Set<Statement> removedStmts, String rsName) {
 
 		modelChanged = true;
+		version++;
 		
 		Logger.log("Model changed!\n", VerboseLevel.DEBUG);
 		
-			//Update the event notifiers
-		eventProcessor.process();
+		//Update the event notifiers
+		try {
+			eventProcessor.process(addedStmts, removedStmts);
+		}
+		catch (org.mindswap.pellet.exceptions.InconsistentOntologyException ioe) {
+			Logger.log("The ontology is in an inconsistent state! Events can " +
+					"not be evaluated until it is consistent again.\n", VerboseLevel.WARNING);
+		}
 		
 		//TODO: do we need to update it every time?
 		rebuildLookupTable();
@@ -1088,14 +2362,136 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	}
 
 	
+	/**
+	 * Publishes a new {@link OntologySnapshot} of the asserted statements, if
+	 * they changed since the last one. Called at each {@link #step()}, so that
+	 * a batch of modifications leads to only one snapshot.
+	 * 
+	 * The new snapshot holds the changes since the previous snapshot, on top 
+	 * of it. Past {@link #MAX_SNAPSHOT_DEPTH} snapshots, it holds instead a 
+	 * private copy of the raw (ie, without inferences) model. In both cases,
+	 * it is never modified afterwards, which makes it safe to read from other 
+	 * threads.
+	 */
+	private void publishSnapshot() {
+		
+		if (snapshot != null && snapshot.getVersion() == version) return;
+		
+		long startTime = System.currentTimeMillis();
+		
+		SnapshotGraph graph = snapshotChanges;
+		
+		if (graph == null || graph.getDepth() > MAX_SNAPSHOT_DEPTH) {
+			Model copy = ModelFactory.createDefaultModel();
+			copy.add(onto.getRawModel());
+			graph = new SnapshotGraph(copy.getGraph());
+		}
+		
+		graph.freeze();
+		snapshotChanges = new SnapshotGraph(graph);
+		
+		snapshot = new OntologySnapshot(version, ModelFactory.createModelForGraph(graph), parameters);
+		
+		Logger.log("Published " + snapshot + " in " + 
+				(System.currentTimeMillis() - startTime) + "ms.\n", VerboseLevel.DEBUG);
+	}
+	
+	/* (non-Javadoc)
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#getSnapshot()
+	 */
+	@Override
+	public OntologySnapshot getSnapshot() {
+		return snapshot;
+	}
+
 	/**
 	 * Simply call {@link #onModelChange(String)} with a  {@code null} string.
 	 */
 	private void onModelChange() {
 		onModelChange(null);		
 	}
+	
+	private void onModelChange(Set<Statement> addedStmts, Set<Statement> removedStmts) {
+		onModelChange(addedStmts, removedStmts, null);		
+	}
 
 	
+	/**
+	 * Performs the initial classification of the ontology loaded from the 
+	 * base ontologies.
+	 */
+	private void initialClassification() {
+		if (checkConsistency()) {
+			Logger.log("\t- Good news: the initial ontology is consistent.\n");
+		} else {
+			Logger.log("Attention! The initial ontology is inconsistent!", VerboseLevel.IMPORTANT);
+		}
+		
+		Logger.cr();
+	}
+	
+	/**
+	 * Initializes the consistency state, the lookup table and the functional
+	 * properties registry from the cache, without calling the reasoner. The 
+	 * reasoner still classifies the ontology when it is first queried.
+	 * 
+	 * @return false if the base ontologies are not in the cache, or if the 
+	 * cache entry can not be used.
+	 * @see LookupCache
+	 */
+	private boolean initializeFromCache(LookupCache cache) {
+		
+		long startTime = System.currentTimeMillis();
+		
+		String key = LookupCache.computeKey(parameters, cacheName);
+		if (key == null) return false;
+		
+		try {
+			Model entry = cache.load(key);
+			if (entry == null) return false;
+			
+			isInInconsistentState = !LookupCache.isConsistent(entry);
+			
+			if (isInInconsistentState) {
+				Logger.log("Attention! The initial ontology is inconsistent!", VerboseLevel.IMPORTANT);
+				//Nothing is cached for an inconsistent ontology: the lookup 
+				//table and the functional properties are built by the reasoner.
+				modelChanged = true;
+				forceLookupTableUpdate = true;
+				rebuildLookupTable();
+				rebuildFunctionalPropertiesList();
+			}
+			else {
+				lookupTable.clear();
+				LookupCache.restoreLookupTable(entry, lookupTable);
+				modelChanged = false;
+				forceLookupTableUpdate = false;
+				
+				functionalProperties.clear();
+				inverseFunctionalProperties.clear();
+				for (String uri : LookupCache.getFunctionalProperties(entry, false))
+					functionalProperties.add(onto.getProperty(uri));
+				for (String uri : LookupCache.getFunctionalProperties(entry, true))
+					inverseFunctionalProperties.add(onto.getProperty(uri));
+			}
+		} catch (RuntimeException e) {
+			Logger.log("Could not use the lookup cache (" + e.getMessage() + 
+					"). Initializing without it.\n", VerboseLevel.WARNING);
+			
+			isInInconsistentState = true;
+			lookupTable.clear();
+			functionalProperties.clear();
+			inverseFunctionalProperties.clear();
+			return false;
+		}
+		
+		Logger.log("\t- Lookup table restored from cache in " + 
+				(System.currentTimeMillis() - startTime) + "ms.\n");
+		Logger.cr();
+		
+		return true;
+	}
+	
 	/**
 	 * Loads into memory the ontology which was specified in the constructor.
 	 */
@@ -1132,13 +2528,13 @@ public class OpenRobotsOntology implements IOntologyBackend {
 			Model scenarioModel = null;
 					
 			try {
-				mainModel = FileManager.get().loadModel(oroCommonSenseUri);
+				mainModel = BinaryModel.loadModel(oroCommonSenseUri);
 				Logger.log("Common sense ontology initialized with "+ 
 						oroCommonSenseUri +".\n", VerboseLevel.IMPORTANT);
 								
 				if (oroScenarioUri != null) 
 				{
-				scenarioModel = FileManager.get().loadModel(oroScenarioUri);
+				scenarioModel = BinaryModel.loadModel(oroScenarioUri);
 				Logger.log("Scenario-specific ontology loaded from " + 
 						oroScenarioUri + ".\n", VerboseLevel.IMPORTANT);
 				}
@@ -1152,6 +2548,11 @@ public class OpenRobotsOntology implements IOntologyBackend {
 						".\nExiting.\n", VerboseLevel.FATAL_ERROR);
 				System.exit(1);
 			}
+			//Statements are counted as they are added to or removed from the 
+			//base model.
+			statistics = new OntologyStatistics();
+			mainModel = ModelFactory.createModelForGraph(statistics.track(mainModel.getGraph()));
+			
 			//Ontology model and reasonner type
 			// OWL_DL_MEM_RDFS_INF: RDFS reasoner -> quick and light
 			// OWL_DL_MEM_RULE_INF: uses a more complete OWL reasonning scheme. REQUIRED for "useful" consistency checking
@@ -1183,16 +2584,6 @@ public class OpenRobotsOntology implements IOntologyBackend {
 			
 			Logger.log("\t- " + onto_model_reasonner_name + " initialized.\n");
 			
-			//Perform an initial classification
-			
-			if (checkConsistency()) {
-				Logger.log("\t- Good news: the initial ontology is consistent.\n");
-			} else {
-				Logger.log("Attention! The initial ontology is inconsistent!", VerboseLevel.IMPORTANT);
-			}
-			
-			Logger.cr();
-			
 		} catch (ReasonerException re){
 			Logger.log("Fatal error at ontology initialization: error with the reasoner\n", VerboseLevel.FATAL_ERROR);
 			re.printStackTrace();
@@ -1327,28 +2718,139 @@ public class OpenRobotsOntology implements IOntologyBackend {
 	
 
 	/**
-	 * 	Initializes the list of functional properties
+	 * 	Initializes the lists of functional and inverse functional properties
 	 */
 	private void rebuildFunctionalPropertiesList() {
 
-		Set<PartialStatement> partialStatements = new HashSet<PartialStatement>();
+		functionalProperties.clear();
+		inverseFunctionalProperties.clear();
+		
 		try {
-			partialStatements.add(createPartialStatement("?f rdf:type owl:FunctionalProperty"));
-		} catch (IllegalStatementException e1) {
+			functionalProperties.addAll(findProperties("owl:FunctionalProperty"));
+			inverseFunctionalProperties.addAll(findProperties("owl:InverseFunctionalProperty"));
+		} catch (IllegalStatementException e) {
 			Logger.log("Serious error while fetching functional properties! 'update()' won't work. Please contact the mainteners!", VerboseLevel.SERIOUS_ERROR);
 			return;
-		}
-		Set<RDFNode> functionalProps = null;
-		try {
-			functionalProps = find("f", partialStatements, null);
 		} catch (OntologyServerException e) {
 			Logger.log("Serious error while fetching functional properties! 'update()' won't work. Please contact the mainteners!", VerboseLevel.SERIOUS_ERROR);
 			return;
 		}
 		
-		for (RDFNode s : functionalProps)
-			functionalProperties.add(s.as(OntProperty.class));
+	}
+	
+	private Set<Property> findProperties(String type) throws IllegalStatementException, OntologyServerException {
+		
+		Set<PartialStatement> partialStatements = new HashSet<PartialStatement>();
+		partialStatements.add(createPartialStatement("?f rdf:type " + type));
+		
+		Set<Property> res = new HashSet<Property>();
+		
+		for (RDFNode s : find("f", partialStatements, null))
+			if (s.isURIResource()) res.add(onto.getProperty(((Resource)s).getURI()));
+		
+		return res;
+	}
+	
+	/**
+	 * Keeps the functional and inverse functional properties registries in
+	 * sync with the TBox, by looking for properties declarations in the given
+	 * added and removed statements.
+	 * 
+	 * @param added the statements that were just added. May be null.
+	 * @param removed the statements that were just removed. May be null.
+	 */
+	private void updateFunctionalPropertiesRegistry(Set<Statement> added, Set<Statement> removed) {
+		
+		if (removed != null)
+			for (Statement s : removed) {
+				if (!s.getPredicate().equals(RDF.type) || !s.getSubject().isURIResource()) continue;
+				
+				if (s.getObject().equals(OWL.FunctionalProperty))
+					functionalProperties.remove(s.getSubject());
+				else if (s.getObject().equals(OWL.InverseFunctionalProperty))
+					inverseFunctionalProperties.remove(s.getSubject());
+			}
+		
+		if (added != null)
+			for (Statement s : added) {
+				if (!s.getPredicate().equals(RDF.type) || !s.getSubject().isURIResource()) continue;
+				
+				if (s.getObject().equals(OWL.FunctionalProperty)) {
+					Logger.log(Namespaces.toLightString(s.getSubject()) + " is now a functional property.\n", VerboseLevel.DEBUG);
+					functionalProperties.add(onto.getProperty(s.getSubject().getURI()));
+				}
+				else if (s.getObject().equals(OWL.InverseFunctionalProperty)) {
+					Logger.log(Namespaces.toLightString(s.getSubject()) + " is now an inverse functional property.\n", VerboseLevel.DEBUG);
+					inverseFunctionalProperties.add(onto.getProperty(s.getSubject().getURI()));
+				}
+			}
+	}
+	
+	/**
+	 * Notifies the reasoner that statements have been removed from the 
+	 * underlying model.
+	 * 
+	 * With Pellet, the knowledge base is reloaded. For Jena internal 
+	 * reasoners, the inference model is rebound to its data.
+	 */
+	private void refreshReasoner() {
+		if (onto.getGraph() instanceof PelletInfGraph)
+			((PelletInfGraph) onto.getGraph()).reload();
+		else
+			onto.rebind();
+	}
+	
+	/**
+	 * Called after statements have been removed from the underlying model.
+	 * 
+	 * By default, the reasoner is refreshed right away (see 
+	 * {@link #refreshReasoner()}). With the {@code deferred_removals} option,
+	 * it is only prepared again once, at the next {@link #step()}, whatever 
+	 * the amount of removals in between.<br/>
+	 * 
+	 * This relies on the reasoners tracking the changes of their data: Pellet
+	 * and Jena's reasoners both notice that statements have been removed, and
+	 * prepare themselves again on the next query if it comes first. Pellet 
+	 * moreover retracts the removed ABox assertions (types and property 
+	 * values of individuals) from its knowledge base as they are removed 
+	 * (unless {@code PROCESS_JENA_UPDATES_INCREMENTALLY} is disabled in the 
+	 * Pellet options): if no TBox statement has been removed, the knowledge 
+	 * base is not reloaded at all, and the classification is kept.
+	 */
+	private void reasonerRemoved() {
+		if (deferredRemovals)
+			reasonerNeedsRefresh = true;
+		else
+			refreshReasoner();
+	}
+	
+	/**
+	 * Ensures this backend can be modified, ie it does not wrap a snapshot.
+	 * 
+	 * @throws UnsupportedOperationException if the backend is read-only.
+	 */
+	private void checkWritable() {
+		if (readOnly)
+			throw new UnsupportedOperationException("This ontology is a read-only snapshot.");
+	}
+	
+	/**
+	 * Prepares the reasoner again if statements have been removed since the
+	 * last step, with the {@code deferred_removals} option.
+	 */
+	private void flushRemovals() {
+		if (!reasonerNeedsRefresh) return;
+		reasonerNeedsRefresh = false;
+		
+		long start = System.currentTimeMillis();
+		
+		if (onto.getGraph() instanceof PelletInfGraph)
+			classify();
+		else
+			onto.prepare();
 		
+		Logger.log("Reasoner prepared after removals in " + 
+				(System.currentTimeMillis() - start) + "ms.\n", VerboseLevel.DEBUG);
 	}
 
 	@Override
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import laas.openrobots.ontology.exceptions.InvalidQueryException;
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecException;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QueryParseException;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * A server-side cursor over the results of a SPARQL {@code SELECT} query.<br/>
+ *
+ * The query is executed when the cursor is opened, and the rows are then read
+ * from the query engine by pages, as the client fetches them: only the current
+ * page is held in memory.<br/>
+ *
+ * If the ontology is modified between two fetches, the results of the query
+ * engine are not valid anymore: the query is executed again on the current
+ * state of the ontology, and the rows already fetched are skipped. Rows may
+ * therefore be missed or fetched twice if the modifications affect the rows
+ * before the position of the cursor.
+ *
+ * @since 0.9.0
+ */
+class QueryCursor {
+
+	private final UUID id = UUID.randomUUID();
+	private final String query;
+	private final Model model;
+
+	private QueryExecution execution;
+	private ResultSet results;
+
+	private List<String> vars;
+
+	/** the version of the ontology the current results were computed on */
+	private long version;
+	private long position = 0;
+	private boolean exhausted = false;
+
+	private long lastAccess;
+
+	/**
+	 * Opens a cursor.
+	 *
+	 * @param query a SPARQL {@code SELECT} query, with its prefixes
+	 * @param model the model to query
+	 * @param version the current version of the ontology
+	 * @throws InvalidQueryException if the query can not be parsed, or is not
+	 * a {@code SELECT} query.
+	 */
+	QueryCursor(String query, Model model, long version) throws InvalidQueryException {
+		this.query = query;
+		this.model = model;
+		this.lastAccess = System.currentTimeMillis();
+
+		execute(version);
+	}
+
+	UUID getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the number of rows fetched so far.
+	 */
+	long getPosition() {
+		return position;
+	}
+
+	boolean isExhausted() {
+		return exhausted;
+	}
+
+	/**
+	 * Returns the time (in ms) since the cursor was last used.
+	 */
+	long getIdleTime() {
+		return System.currentTimeMillis() - lastAccess;
+	}
+
+	private void execute(long version) throws InvalidQueryException {
+
+		try	{
+			Query myQuery = QueryFactory.create(query, Syntax.syntaxSPARQL);
+
+			if (!myQuery.isSelectType())
+				throw new InvalidQueryException("Only SELECT queries can be used with a cursor.");
+
+			execution = QueryExecutionFactory.create(myQuery, model);
+			results = execution.execSelect();
+			vars = results.getResultVars();
+		}
+		catch (QueryParseException e) {
+			Logger.log("Error during query parsing ! ("+ e.getLocalizedMessage() +").", VerboseLevel.ERROR);
+			throw new InvalidQueryException("Error during query parsing ! ("+ e.getLocalizedMessage() +")");
+		}
+		catch (QueryExecException e) {
+			Logger.log("Error during query execution ! ("+ e.getLocalizedMessage() +").", VerboseLevel.SERIOUS_ERROR);
+			throw new InvalidQueryException("Error during query execution ! ("+ e.getLocalizedMessage() +")");
+		}
+
+		this.version = version;
+
+		//Skip the rows already fetched
+		for (long i = 0 ; i < position && hasNext() ; i++)
+			results.nextSolution();
+	}
+
+	private boolean hasNext() {
+		try {
+			return results.hasNext();
+		}
+		catch (NoSuchElementException nsee) { // same workaround as in OpenRobotsOntology.query()
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches the next rows of results.
+	 *
+	 * @param n the maximum amount of rows to fetch
+	 * @param currentVersion the current version of the ontology
+	 * @return at most {@code n} rows, each row associating the variables of
+	 * the query to their value (unbound variables are absent). Less than
+	 * {@code n} rows means the cursor is exhausted.
+	 * @throws InvalidQueryException if the query needs to be executed again,
+	 * and fails.
+	 */
+	List<Map<String, RDFNode>> fetch(int n, long currentVersion) throws InvalidQueryException {
+
+		lastAccess = System.currentTimeMillis();
+
+		List<Map<String, RDFNode>> rows = new ArrayList<Map<String, RDFNode>>();
+
+		if (exhausted) return rows;
+
+		if (currentVersion != version) {
+			Logger.log("The ontology changed since the cursor " + id + " was opened. " +
+					"Executing the query again from row " + position + ".\n", VerboseLevel.DEBUG);
+			execution.close();
+			execute(currentVersion);
+		}
+
+		while (rows.size() < n && hasNext()) {
+			QuerySolution s = results.nextSolution();
+
+			Map<String, RDFNode> row = new HashMap<String, RDFNode>();
+			for (String v : vars) {
+				RDFNode node = s.get(v);
+				if (node != null) row.put(v, node);
+			}
+			rows.add(row);
+		}
+
+		position += rows.size();
+
+		if (rows.size() < n) {
+			exhausted = true;
+			execution.close();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Releases the resources held by the query engine.
+	 */
+	void close() {
+		if (!exhausted) execution.close();
+		exhausted = true;
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import laas.openrobots.ontology.exceptions.InvalidQueryException;
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.WrappedGraph;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecException;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QueryParseException;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.OpVisitorBase;
+import com.hp.hpl.jena.sparql.algebra.OpWalker;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpSequence;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.util.FmtUtils;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * Profiles the execution of a SPARQL {@code SELECT} query.<br/>
+ *
+ * The profile contains:
+ * <ul>
+ * <li>{@code algebra}: the query, compiled and optimized by ARQ,</li>
+ * <li>{@code join_order}: the triple patterns, in the order they are joined
+ * (ARQ does not reorder the patterns of a query on an inference graph: they
+ * are joined in the order they are written),</li>
+ * <li>{@code patterns}: for each triple pattern, the amount of statements it
+ * matches on its own (variables being wildcards), and the time to list them,</li>
+ * <li>{@code steps}: for each join and each filter, in order, the amount of
+ * intermediate results and the time spent in the operator,</li>
+ * <li>{@code results}, {@code total_time}: the amount of results and the
+ * duration of the query,</li>
+ * <li>{@code reasoner_time}, {@code reasoner_calls}: the time spent inside the
+ * inference graph (ie, in the reasoner) during the query, and the amount of
+ * calls to it.</li>
+ * </ul>
+ *
+ * ARQ can not time its operators by itself: the time of a step is measured by
+ * evaluating the patterns and filters up to this step (in sequence, like ARQ
+ * does), and subtracting the time of the previous step. Profiling a query is therefore much more expensive than
+ * executing it. All the times are in milliseconds.
+ *
+ * @since 0.9.0
+ */
+class QueryProfiler {
+
+	/**
+	 * A graph that measures the time spent in the calls to the graph it wraps,
+	 * including the iteration over the returned statements.
+	 */
+	private static class TimedGraph extends WrappedGraph {
+
+		long nanos = 0;
+		long calls = 0;
+
+		TimedGraph(Graph base) {
+			super(base);
+		}
+
+		private ExtendedIterator<Triple> timed(final ExtendedIterator<Triple> it) {
+			return new NiceIterator<Triple>() {
+				@Override
+				public boolean hasNext() {
+					long start = System.nanoTime();
+					try {
+						return it.hasNext();
+					}
+					finally {
+						nanos += System.nanoTime() - start;
+					}
+				}
+
+				@Override
+				public Triple next() {
+					long start = System.nanoTime();
+					try {
+						return it.next();
+					}
+					finally {
+						nanos += System.nanoTime() - start;
+					}
+				}
+
+				@Override
+				public void close() {
+					it.close();
+				}
+			};
+		}
+
+		@Override
+		public ExtendedIterator<Triple> find(TripleMatch m) {
+			calls++;
+			long start = System.nanoTime();
+			ExtendedIterator<Triple> it = base.find(m);
+			nanos += System.nanoTime() - start;
+			return timed(it);
+		}
+
+		@Override
+		public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+			calls++;
+			long start = System.nanoTime();
+			ExtendedIterator<Triple> it = base.find(s, p, o);
+			nanos += System.nanoTime() - start;
+			return timed(it);
+		}
+
+		@Override
+		public boolean contains(Node s, Node p, Node o) {
+			calls++;
+			long start = System.nanoTime();
+			try {
+				return base.contains(s, p, o);
+			}
+			finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public boolean contains(Triple t) {
+			calls++;
+			long start = System.nanoTime();
+			try {
+				return base.contains(t);
+			}
+			finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	private final Graph graph;
+
+	/**
+	 * @param graph the graph to query (typically, the graph of the ontology,
+	 * backed by the reasoner)
+	 */
+	QueryProfiler(Graph graph) {
+		this.graph = graph;
+	}
+
+	private static String ms(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	/**
+	 * Returns the variables of a triple pattern as wildcards.
+	 */
+	private static Node any(Node n) {
+		return n.isVariable() ? Node.ANY : n;
+	}
+
+	/**
+	 * Profiles a query.
+	 *
+	 * @param query a SPARQL {@code SELECT} query, with its prefixes
+	 * @return the profile of the query (see the class description)
+	 * @throws InvalidQueryException if the query can not be parsed or
+	 * executed, or is not a {@code SELECT} query.
+	 */
+	Map<String, Object> profile(String query) throws InvalidQueryException {
+
+		Map<String, Object> profile = new LinkedHashMap<String, Object>();
+
+		Query myQuery;
+		try {
+			myQuery = QueryFactory.create(query, Syntax.syntaxSPARQL);
+		}
+		catch (QueryParseException e) {
+			Logger.log("Error during query parsing ! ("+ e.getLocalizedMessage() +").", VerboseLevel.ERROR);
+			throw new InvalidQueryException("Error during query parsing ! ("+ e.getLocalizedMessage() +")");
+		}
+
+		if (!myQuery.isSelectType())
+			throw new InvalidQueryException("Only SELECT queries can be profiled.");
+
+		final Op op = Algebra.optimize(Algebra.compile(myQuery));
+		PrefixMapping pm = myQuery.getPrefixMapping();
+		profile.put("algebra", op.toString(pm));
+
+		/** First, the query itself, on a timed view of the graph **/
+		TimedGraph timedGraph = new TimedGraph(graph);
+		long results = 0;
+
+		long start = System.nanoTime();
+		try {
+			QueryExecution myQueryExecution = QueryExecutionFactory.create(myQuery, ModelFactory.createModelForGraph(timedGraph));
+			ResultSet rawResult = myQueryExecution.execSelect();
+
+			try {
+				while (rawResult.hasNext()) {
+					rawResult.nextSolution();
+					results++;
+				}
+			}
+			catch (NoSuchElementException nsee) {} // same workaround as in OpenRobotsOntology.query()
+
+			myQueryExecution.close();
+		}
+		catch (QueryExecException e) {
+			Logger.log("Error during query execution ! ("+ e.getLocalizedMessage() +").", VerboseLevel.SERIOUS_ERROR);
+			throw new InvalidQueryException("Error during query execution ! ("+ e.getLocalizedMessage() +")");
+		}
+		long totalTime = System.nanoTime() - start;
+
+		/** Then, the basic graph patterns and the filters, in the order they are evaluated **/
+		final List<Op> operators = new ArrayList<Op>();
+		OpWalker.walk(op, new OpVisitorBase() {
+			@Override
+			public void visit(OpBGP opBGP) {
+				operators.add(opBGP);
+			}
+
+			@Override
+			public void visit(OpFilter opFilter) {
+				operators.add(opFilter);
+			}
+		});
+
+		List<String> joinOrder = new ArrayList<String>();
+		List<Map<String, String>> patterns = new ArrayList<Map<String, String>>();
+		List<Map<String, String>> steps = new ArrayList<Map<String, String>>();
+
+		//The operators evaluated so far, and the time they took
+		Op done = null;
+		long previous = 0;
+
+		for (Op o : operators) {
+
+			if (o instanceof OpBGP) {
+				BasicPattern prefix = new BasicPattern();
+				Op current = done;
+
+				for (Triple t : ((OpBGP) o).getPattern()) {
+					String str = FmtUtils.stringForTriple(t, pm);
+					joinOrder.add(str);
+
+					//Cardinality of the pattern alone
+					long cardinality = 0;
+					start = System.nanoTime();
+					ExtendedIterator<Triple> it = graph.find(any(t.getSubject()), any(t.getPredicate()), any(t.getObject()));
+					while (it.hasNext()) {
+						it.next();
+						cardinality++;
+					}
+					it.close();
+
+					Map<String, String> pattern = new LinkedHashMap<String, String>();
+					pattern.put("pattern", str);
+					pattern.put("cardinality", String.valueOf(cardinality));
+					pattern.put("time", ms(System.nanoTime() - start));
+					patterns.add(pattern);
+
+					//Join with the previous patterns
+					prefix.add(t);
+					Op bgp = new OpBGP(new BasicPattern(prefix));
+					current = (done == null) ? bgp : OpSequence.create(done, bgp);
+					long[] eval = evaluate(current);
+
+					Map<String, String> step = new LinkedHashMap<String, String>();
+					step.put("operator", (done == null && prefix.size() == 1 ? "scan " : "join ") + str);
+					step.put("rows", String.valueOf(eval[0]));
+					step.put("time", ms(Math.max(0, eval[1] - previous)));
+					steps.add(step);
+
+					previous = eval[1];
+				}
+
+				done = current;
+			}
+			else if (done != null) {
+				OpFilter filter = (OpFilter) o;
+
+				done = OpFilter.filterDirect(filter.getExprs(), done);
+				long[] eval = evaluate(done);
+
+				Map<String, String> step = new LinkedHashMap<String, String>();
+				step.put("operator", "filter " + filter.getExprs());
+				step.put("rows", String.valueOf(eval[0]));
+				step.put("time", ms(Math.max(0, eval[1] - previous)));
+				steps.add(step);
+
+				previous = eval[1];
+			}
+		}
+
+		profile.put("join_order", joinOrder);
+		profile.put("patterns", patterns);
+		profile.put("steps", steps);
+		profile.put("results", String.valueOf(results));
+		profile.put("total_time", ms(totalTime));
+		profile.put("reasoner_time", ms(timedGraph.nanos));
+		profile.put("reasoner_calls", String.valueOf(timedGraph.calls));
+
+		return profile;
+	}
+
+	/**
+	 * Evaluates an operator on the graph.
+	 *
+	 * @return the amount of results, and the duration of the evaluation (in ns)
+	 */
+	private long[] evaluate(Op op) {
+		long rows = 0;
+		long start = System.nanoTime();
+
+		QueryIterator it = Algebra.exec(op, graph);
+		while (it.hasNext()) {
+			it.nextBinding();
+			rows++;
+		}
+		it.close();
+
+		return new long[] {rows, System.nanoTime() - start};
+	}
+
+	/**
+	 * Formats a profile as a human-readable text, for the logs.
+	 */
+	@SuppressWarnings("unchecked")
+	static String format(Map<String, Object> profile) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("Algebra:\n").append(profile.get("algebra"));
+
+		sb.append("Patterns (in join order):\n");
+		for (Map<String, String> p : (List<Map<String, String>>) profile.get("patterns"))
+			sb.append("\t").append(p.get("pattern")).append(": ")
+			  .append(p.get("cardinality")).append(" matches, ").append(p.get("time")).append("ms\n");
+
+		sb.append("Steps:\n");
+		for (Map<String, String> s : (List<Map<String, String>>) profile.get("steps"))
+			sb.append("\t").append(s.get("operator")).append(": ")
+			  .append(s.get("rows")).append(" rows, ").append(s.get("time")).append("ms\n");
+
+		sb.append(profile.get("results")).append(" results in ").append(profile.get("total_time"))
+		  .append("ms, including ").append(profile.get("reasoner_time")).append("ms in ")
+		  .append(profile.get("reasoner_calls")).append(" calls to the reasoner.\n");
+
+		return sb.toString();
+	}
+}
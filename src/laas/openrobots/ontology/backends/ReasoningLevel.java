@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+/**
+ * The amount of inference a {@code find}, {@code check} or {@code query}
+ * relies on.<br/>
+ *
+ * Lookups on asserted facts only do not need to go through the reasoner:
+ * cheaper levels are evaluated on the asserted statements, on a RDFS view of
+ * them or on their materialized closure, instead of the inference model of
+ * the ontology.
+ *
+ * @since 0.9.0
+ */
+public enum ReasoningLevel {
+	/**
+	 * Only the asserted statements are considered. Nothing is inferred.
+	 */
+	ASSERTED,
+	/**
+	 * The asserted statements and the RDFS entailments (subclasses,
+	 * subproperties, domains and ranges), whatever the reasoner of the
+	 * ontology.
+	 */
+	RDFS,
+	/**
+	 * The asserted statements and their closure under the subclasses,
+	 * subproperties, domains and ranges, inverse, transitive and symmetric
+	 * properties, and {@code owl:sameAs}. The closure is materialized and
+	 * maintained as the ontology changes: queries are as fast as on the
+	 * asserted statements.
+	 */
+	MATERIALIZED,
+	/**
+	 * The asserted statements and everything the reasoner of the ontology
+	 * infers.
+	 */
+	FULL,
+	/**
+	 * The level used when none is given: {@link #MATERIALIZED} if the
+	 * {@code materialize_closure} option is enabled (and for the snapshots of
+	 * the ontology), {@link #FULL} otherwise.
+	 */
+	DEFAULT;
+
+	/**
+	 * Returns a ReasoningLevel constant from its string representation, or
+	 * {@link #DEFAULT} if the string is not recognized.
+	 * @param level the string representation of a ReasoningLevel
+	 * @return The corresponding ReasoningLevel constant.
+	 */
+	public static ReasoningLevel fromString(String level) {
+		try {
+			return Enum.valueOf(ReasoningLevel.class, level.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return DEFAULT;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.backends;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+/**
+ * The statements of an {@link OntologySnapshot}: the statements of a base
+ * graph (usually, the graph of the previous snapshot), plus the statements
+ * added and minus the statements removed since then.<br/>
+ *
+ * This lets a new snapshot share all the unchanged statements with the
+ * previous one, instead of copying the whole model. The graph records the
+ * changes until it is {@linkplain #freeze() frozen}, when its snapshot is
+ * published. It can not be modified afterwards, and the base graph is never
+ * modified at all.
+ *
+ * @since 0.9.0
+ */
+class SnapshotGraph extends GraphBase {
+
+	private final Graph base;
+	private final int depth;
+
+	private final Graph additions = Factory.createGraphMem();
+	private final Graph deletions = Factory.createGraphMem();
+
+	private volatile boolean frozen = false;
+
+	/**
+	 * Creates a new graph, initially with the same statements as its base.
+	 *
+	 * @param base the base graph. It must not be modified afterwards.
+	 */
+	SnapshotGraph(Graph base) {
+		this.base = base;
+		this.depth = (base instanceof SnapshotGraph) ? ((SnapshotGraph) base).depth + 1 : 0;
+	}
+
+	/**
+	 * Returns the amount of SnapshotGraphs a lookup goes through before
+	 * reaching the full copy at the bottom of the chain.
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Denies any further modification.
+	 */
+	void freeze() {
+		frozen = true;
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		if (frozen) throw new AddDeniedException("Snapshots are read-only", t);
+
+		if (deletions.contains(t)) deletions.delete(t);
+		else if (!base.contains(t)) additions.add(t);
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		if (frozen) throw new DeleteDeniedException("Snapshots are read-only", t);
+
+		if (additions.contains(t)) additions.delete(t);
+		else if (base.contains(t)) deletions.add(t);
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+		ExtendedIterator<Triple> it = base.find(m);
+
+		if (!deletions.isEmpty())
+			it = it.filterDrop(new Filter<Triple>() {
+				@Override
+				public boolean accept(Triple t) {
+					return deletions.contains(t);
+				}
+			});
+
+		return it.andThen(additions.find(m));
+	}
+
+	@Override
+	protected boolean graphBaseContains(Triple t) {
+		if (!t.isConcrete()) return containsByFind(t);
+
+		return additions.contains(t) || (base.contains(t) && !deletions.contains(t));
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		return base.size() + additions.size() - deletions.size();
+	}
+}
@@ -36,6 +36,14 @@ public interface IConnector extends Runnable {
 	 * @throws MalformedYarpMessageException 
 	 */
 	public abstract void run();
+	
+	/**
+	 * Returns the amount of clients currently connected through this 
+	 * connector.
+	 * 
+	 * @since 0.9.0
+	 */
+	public abstract int getNbClients();
 
 	public abstract void refreshServiceList(Map<String, IService> registredServices);
 
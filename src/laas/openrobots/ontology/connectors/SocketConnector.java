@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import laas.openrobots.ontology.OroServer;
 import laas.openrobots.ontology.Request;
@@ -51,6 +52,7 @@ import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.events.IWatcher;
 import laas.openrobots.ontology.modules.events.OroEvent;
 import laas.openrobots.ontology.service.IService;
+import laas.openrobots.ontology.service.RPCMethod;
 
 /** Implements a socket interface to {@code oro-server} RPC methods.<br/>
  * <br/>
@@ -200,6 +202,9 @@ public class SocketConnector implements IConnector, Runnable {
 	
 	private volatile boolean keepOn = true;
 
+	//The amount of clients currently served.
+	private AtomicInteger nbClients = new AtomicInteger(0);
+
 	private OroServer mainThread;
 	
 	/**
@@ -277,6 +282,16 @@ public class SocketConnector implements IConnector, Runnable {
 		  }
 		  
 		  public void run() {
+			  nbClients.incrementAndGet();
+			  try {
+				  serve();
+			  }
+			  finally {
+				  nbClients.decrementAndGet();
+			  }
+		  }
+		  
+		  private void serve() {
 
 			List<String> req = null;
 		    long timeLastActivity = System.currentTimeMillis();
@@ -549,7 +564,12 @@ public class SocketConnector implements IConnector, Runnable {
 	    	    		
     			Request r = new Request(m,o,args);
     			
-	    		mainThread.pushRequest(r);
+    			//Concurrent methods do not need to wait for the main loop.
+    			RPCMethod rpc = m.getAnnotation(RPCMethod.class);
+    			if (rpc != null && rpc.concurrent())
+    				r.execute();
+    			else
+    				mainThread.pushRequest(r);
     			
     			try {
 					result = r.result.take(); //Blocks until a result is available
@@ -647,6 +667,11 @@ public class SocketConnector implements IConnector, Runnable {
 
 	}
 
+	@Override
+	public int getNbClients() {
+		return nbClients.get();
+	}
+
 	@Override
 	public void refreshServiceList(
 			Map<String, IService> registredServices) {
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Reads and writes RDF models in a compact binary format, much faster to load
+ * than RDF/XML.<br/>
+ *
+ * The format is made of:
+ * <ul>
+ * <li>a header: the {@code OROB} magic number and the format version,</li>
+ * <li>the namespace prefixes of the model,</li>
+ * <li>a dictionary of all the terms (URIs, blank nodes and literals) used in
+ * the model, each term being then identified by its index in the
+ * dictionary,</li>
+ * <li>the triples, as blocks of three term indexes sorted by subject,
+ * predicate and object.</li>
+ * </ul>
+ * All integers are big-endian, and strings are UTF-8 encoded and prefixed by
+ * their length in bytes. Files are read through a memory mapping.<br/>
+ *
+ * {@link #loadModel(String)} can be used in place of
+ * {@link FileManager#loadModel(String)}: it prefers the binary version of the
+ * ontology when it exists.
+ *
+ * @since 0.9.0
+ */
+public class BinaryModel {
+
+	private static final byte[] MAGIC = {'O', 'R', 'O', 'B'};
+	private static final int VERSION = 1;
+
+	/**
+	 * The suffix appended to the path of an ontology to find its binary
+	 * version ({@value}).
+	 */
+	public static final String SUFFIX = ".bin";
+
+	private static final byte URI = 0;
+	private static final byte BLANK = 1;
+	private static final byte LITERAL = 2;
+
+	/**
+	 * Loads a model, preferring its binary version when it exists.<br/>
+	 *
+	 * If {@code uri} is itself a binary model, it is directly read. Else, if
+	 * a file {@code uri + ".bin"} exists and is not older than {@code uri}, it
+	 * is read instead of {@code uri}. In every other case (or if the binary
+	 * file can not be read), the model is loaded by Jena
+	 * {@link FileManager}.
+	 *
+	 * @param uri the path or the URI of the ontology
+	 * @return the loaded model
+	 * @throws com.hp.hpl.jena.shared.NotFoundException if the ontology can not
+	 * be found.
+	 */
+	public static Model loadModel(String uri) {
+
+		File file = resolve(uri);
+
+		if (file != null && isBinaryModel(file)) {
+			try {
+				Logger.log("Loading binary model " + file + ".\n", VerboseLevel.DEBUG);
+				return read(file);
+			} catch (IOException e) {
+				Logger.log("Could not read the binary model for " + uri + " (" +
+						e.getMessage() + "). Loading the original ontology.\n", VerboseLevel.WARNING);
+			}
+		}
+
+		return FileManager.get().loadModel(uri);
+	}
+
+	/**
+	 * Returns the local file {@link #loadModel(String)} would read to load
+	 * {@code uri}: either its binary version, or the file itself.
+	 *
+	 * @param uri the path or the URI of the ontology
+	 * @return the file to read, or null if {@code uri} is not a local file.
+	 */
+	public static File resolve(String uri) {
+
+		File source = toFile(uri);
+
+		if (source == null || isBinaryModel(source)) return source;
+
+		File binary = new File(source.getPath() + SUFFIX);
+		if (binary.exists() && binary.lastModified() >= source.lastModified() && isBinaryModel(binary))
+			return binary;
+
+		return source;
+	}
+
+	private static File toFile(String uri) {
+		if (uri == null) return null;
+
+		String path = uri;
+		if (path.startsWith("file://")) path = path.substring(7);
+		else if (path.startsWith("file:")) path = path.substring(5);
+		else if (path.contains("://")) return null;
+
+		File f = new File(path);
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * Returns true if the file starts with the binary model magic number.
+	 */
+	public static boolean isBinaryModel(File file) {
+		byte[] header = new byte[MAGIC.length];
+
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				if (in.read(header) != MAGIC.length) return false;
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+
+		return Arrays.equals(header, MAGIC);
+	}
+
+	/**
+	 * Writes a model to a file in the binary format.
+	 *
+	 * @param model the model to write. For an inference model, pass its base
+	 * model to only write the asserted statements.
+	 * @param file the output file
+	 */
+	public static void write(Model model, File file) throws IOException {
+
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		List<Node> terms = new ArrayList<Node>();
+
+		Graph graph = model.getGraph();
+		int[][] triples = new int[graph.size()][];
+
+		int n = 0;
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+		while (it.hasNext()) {
+			Triple t = it.next();
+			if (n == triples.length) triples = Arrays.copyOf(triples, n * 2 + 1);
+			triples[n++] = new int[] {id(t.getSubject(), ids, terms),
+									id(t.getPredicate(), ids, terms),
+									id(t.getObject(), ids, terms)};
+		}
+		it.close();
+
+		triples = Arrays.copyOf(triples, n);
+		Arrays.sort(triples, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				for (int i = 0 ; i < 3 ; i++)
+					if (a[i] != b[i]) return (a[i] < b[i]) ? -1 : 1;
+				return 0;
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+		try {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+
+			Map<String, String> prefixes = model.getNsPrefixMap();
+			out.writeInt(prefixes.size());
+			for (Map.Entry<String, String> p : prefixes.entrySet()) {
+				writeString(out, p.getKey());
+				writeString(out, p.getValue());
+			}
+
+			out.writeInt(terms.size());
+			for (Node term : terms) {
+				if (term.isURI()) {
+					out.writeByte(URI);
+					writeString(out, term.getURI());
+				}
+				else if (term.isBlank()) {
+					out.writeByte(BLANK);
+					writeString(out, term.getBlankNodeLabel());
+				}
+				else {
+					out.writeByte(LITERAL);
+					writeString(out, term.getLiteralLexicalForm());
+					writeString(out, term.getLiteralLanguage());
+					String datatype = term.getLiteralDatatypeURI();
+					writeString(out, datatype == null ? "" : datatype);
+				}
+			}
+
+			out.writeInt(triples.length);
+			for (int[] t : triples) {
+				out.writeInt(t[0]);
+				out.writeInt(t[1]);
+				out.writeInt(t[2]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static int id(Node node, Map<Node, Integer> ids, List<Node> terms) {
+		Integer id = ids.get(node);
+		if (id == null) {
+			id = terms.size();
+			ids.put(node, id);
+			terms.add(node);
+		}
+		return id;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a model written by {@link #write(Model, File)}.
+	 *
+	 * @param file a binary model
+	 * @return a new (non-inference) model with the content of the file
+	 * @throws IOException if the file can not be read, or is not a valid
+	 * binary model.
+	 */
+	public static Model read(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			//The mapping remains valid after the channel is closed.
+			raf.close();
+		}
+
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException(file + " is not a binary model.");
+
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported binary model version (" + version + ").");
+
+			Model model = ModelFactory.createDefaultModel();
+
+			int nbPrefixes = buffer.getInt();
+			for (int i = 0 ; i < nbPrefixes ; i++)
+				model.setNsPrefix(readString(buffer), readString(buffer));
+
+			TypeMapper typeMapper = TypeMapper.getInstance();
+
+			Node[] terms = new Node[buffer.getInt()];
+			for (int i = 0 ; i < terms.length ; i++) {
+				byte kind = buffer.get();
+				switch (kind) {
+				case URI:
+					terms[i] = Node.createURI(readString(buffer));
+					break;
+				case BLANK:
+					terms[i] = Node.createAnon(new AnonId(readString(buffer)));
+					break;
+				case LITERAL:
+					String lex = readString(buffer);
+					String lang = readString(buffer);
+					String datatypeUri = readString(buffer);
+					RDFDatatype datatype = datatypeUri.isEmpty() ? null : typeMapper.getSafeTypeByName(datatypeUri);
+					terms[i] = Node.createLiteral(lex, lang, datatype);
+					break;
+				default:
+					throw new IOException("Invalid term kind in binary model: " + kind);
+				}
+			}
+
+			int nbTriples = buffer.getInt();
+			IntBuffer ints = buffer.asIntBuffer();
+
+			Graph graph = model.getGraph();
+			for (int i = 0 ; i < nbTriples ; i++)
+				graph.add(Triple.create(terms[ints.get()], terms[ints.get()], terms[ints.get()]));
+
+			return model;
+
+		} catch (java.nio.BufferUnderflowException e) {
+			throw new IOException("Truncated binary model: " + file);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupted binary model: " + file);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new IOException("Corrupted binary model.");
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -179,6 +179,20 @@ public class Helpers {
 					resource.getLabel(languageCode)); 
 	}
 	
+	/**
+	 * Formats a node of a query result the way {@code find} returns it: 
+	 * resources with their short URI, literals with their lexical form.
+	 * 
+	 * @param node a node, as returned by the query engine
+	 * @return the node as a string, or null for blank nodes.
+	 * @since 0.9.0
+	 */
+	public static String toResultString(RDFNode node) {
+		if (node.isLiteral()) return ((Literal) node).getLexicalForm();
+		if (node.isAnon()) return null;
+		return Namespaces.toLightString(node);
+	}
+	
 	public static String getId(OntResource resource) {
 		return Namespaces.contract(resource.getURI());
 		/*
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable, precompiled view of the known namespaces, used by
+ * {@link Namespaces}.<br/>
+ *
+ * It holds a map from prefixes to namespaces for expansion, the reverse map,
+ * a trie over the namespace URIs for contraction, and the SPARQL
+ * {@code PREFIX} prologue. A new resolver is built each time the namespaces
+ * change: since a resolver is never modified, it can be read from any thread
+ * without locking.
+ *
+ * @since 0.9.0
+ */
+final class NamespaceResolver {
+
+	/**
+	 * A node of the trie over the namespace URIs. Children are stored in a
+	 * sorted array of characters, since the fan-out is small.
+	 */
+	private static final class Node {
+		char[] keys = new char[0];
+		Node[] children = new Node[0];
+		/** the prefix of the namespace ending at this node, if any */
+		String prefix;
+
+		Node child(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			return (i < 0) ? null : children[i];
+		}
+
+		Node addChild(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			if (i >= 0) return children[i];
+
+			i = -i - 1;
+			char[] k = new char[keys.length + 1];
+			Node[] ch = new Node[children.length + 1];
+			System.arraycopy(keys, 0, k, 0, i);
+			System.arraycopy(children, 0, ch, 0, i);
+			System.arraycopy(keys, i, k, i + 1, keys.length - i);
+			System.arraycopy(children, i, ch, i + 1, children.length - i);
+			k[i] = c;
+			ch[i] = new Node();
+			keys = k;
+			children = ch;
+			return ch[i];
+		}
+	}
+
+	private final Map<String, String> namespaces;
+	private final Map<String, String> prefixes;
+	private final String defaultNs;
+	private final Node root = new Node();
+	private final String prologue;
+
+	/**
+	 * @param namespaces the known namespaces, indexed by their prefix
+	 * @param defaultNs the default namespace (its URIs are contracted to
+	 * their local name)
+	 */
+	NamespaceResolver(Map<String, String> namespaces, String defaultNs) {
+
+		this.namespaces = Collections.unmodifiableMap(new HashMap<String, String>(namespaces));
+		this.defaultNs = defaultNs;
+
+		Map<String, String> reverse = new HashMap<String, String>();
+		StringBuilder sb = new StringBuilder();
+
+		for (Map.Entry<String, String> ns : this.namespaces.entrySet()) {
+			reverse.put(ns.getValue(), ns.getKey());
+
+			Node n = root;
+			for (int i = 0 ; i < ns.getValue().length() ; i++)
+				n = n.addChild(ns.getValue().charAt(i));
+			n.prefix = ns.getKey();
+
+			sb.append("PREFIX ").append(ns.getKey()).append(": <").append(ns.getValue()).append("> \n");
+		}
+
+		this.prefixes = Collections.unmodifiableMap(reverse);
+		this.prologue = sb.toString();
+	}
+
+	/**
+	 * Returns a new resolver with one more namespace (or with a different
+	 * namespace for an existing prefix).
+	 */
+	NamespaceResolver with(String prefix, String namespace) {
+		Map<String, String> ns = new HashMap<String, String>(namespaces);
+		ns.put(prefix, namespace);
+		return new NamespaceResolver(ns, defaultNs);
+	}
+
+	/**
+	 * Returns a new resolver with a different default namespace.
+	 */
+	NamespaceResolver withDefault(String defaultNs) {
+		return new NamespaceResolver(namespaces, defaultNs);
+	}
+
+	String getDefault() {
+		return defaultNs;
+	}
+
+	/**
+	 * Returns the namespace of a prefix, or null if it is unknown.
+	 */
+	String getNamespace(String prefix) {
+		return namespaces.get(prefix);
+	}
+
+	/**
+	 * Returns the prefix of a namespace, or null if it is unknown.
+	 */
+	String getPrefix(String namespace) {
+		return prefixes.get(namespace);
+	}
+
+	/**
+	 * Returns the SPARQL {@code PREFIX} declarations of all the namespaces.
+	 */
+	String getPrologue() {
+		return prologue;
+	}
+
+	/**
+	 * Replaces the namespace of an URI by its prefix, or removes it if it is
+	 * the default namespace. If several known namespaces match, the longest
+	 * one is used.
+	 *
+	 * @return the contracted URI, or the URI itself if its namespace is not
+	 * known.
+	 */
+	String contract(String uri) {
+		if (uri.startsWith(defaultNs))
+			return uri.substring(defaultNs.length());
+
+		String prefix = null;
+		int length = 0;
+
+		Node n = root;
+		for (int i = 0 ; i < uri.length() ; i++) {
+			n = n.child(uri.charAt(i));
+			if (n == null) break;
+			if (n.prefix != null) {
+				prefix = n.prefix;
+				length = i + 1;
+			}
+		}
+
+		if (prefix == null) return uri;
+
+		return prefix + ":" + uri.substring(length);
+	}
+}
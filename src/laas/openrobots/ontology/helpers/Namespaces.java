@@ -16,7 +16,8 @@
 
 package laas.openrobots.ontology.helpers;
 
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
@@ -57,15 +58,21 @@ public class Namespaces {
 	 */
 	public static String DEFAULT_NS = "";
 		
-	private static Hashtable<String, String> Namespaces;
+	/**
+	 * The current namespaces. The resolver is immutable: it is replaced by a
+	 * new one each time a namespace is registered, so that readers never
+	 * need to lock.
+	 */
+	private static volatile NamespaceResolver resolver;
 	
 	static
 	{
-		Namespaces = new Hashtable<String, String>();
-		Namespaces.put("owl", owl_ns);
-		Namespaces.put("rdf", rdf_ns);
-		Namespaces.put("rdfs", rdfs_ns);
-		Namespaces.put("xsd", xsd_ns);
+		Map<String, String> ns = new HashMap<String, String>();
+		ns.put("owl", owl_ns);
+		ns.put("rdf", rdf_ns);
+		ns.put("rdfs", rdfs_ns);
+		ns.put("xsd", xsd_ns);
+		resolver = new NamespaceResolver(ns, DEFAULT_NS);
 	}
 
 	/**
@@ -75,17 +82,11 @@ public class Namespaces {
 	 */
 	public static String prefixes()
 	{
-		String result = "";
-		
-		for(String prefix: Namespaces.keySet()){
-	        	result += "PREFIX "+ prefix + ": <" + Namespaces.get(prefix) + "> \n";
-	    }
-	    
 		//Doesn't seem to work...
 		//result += "PREFIX <" + DEFAULT_NS + "> \n";
 		//result += "BASE <" + DEFAULT_NS + "> \n";
 		
-		return result;
+		return resolver.getPrologue();
 	}
 	
 	/**
@@ -99,7 +100,8 @@ public class Namespaces {
 	 * @see #getPrefix(String)
 	 */
 	public static String getNamespace(final String ns){
-		if (Namespaces.containsKey(ns)) return Namespaces.get(ns);
+		String namespace = resolver.getNamespace(ns);
+		if (namespace != null) return namespace;
 		else return ns + ":";
 	}
 
@@ -115,14 +117,8 @@ public class Namespaces {
 		
 		if (ns.compareTo(DEFAULT_NS) == 0) return "";
 		
-		if (Namespaces.containsValue(ns))
-		{
-			for(String prefix: Namespaces.keySet()){
-		        if(Namespaces.get(prefix).equals(ns)) {
-		            return prefix + ":";
-		        }
-		    }			
-		}
+		String prefix = resolver.getPrefix(ns);
+		if (prefix != null) return prefix + ":";
 		
 		return ns;
 	}
@@ -164,22 +160,21 @@ public class Namespaces {
 		
 		int step1 = uri.indexOf("^^");
 		
-		for (String prefix : Namespaces.keySet()) {
-			if (uri.startsWith(DEFAULT_NS)) {
-				uri = uri.substring(DEFAULT_NS.length());
-				break;
-			}
-			if (uri.startsWith(Namespaces.get(prefix))) {
-				uri = prefix + ":" + uri.substring(Namespaces.get(prefix).length());
-				break;
-			}
-		}
+		//Plain URIs: the short form is cached by the term dictionary.
+		if (step1 == -1) return TermDictionary.shortForm(uri);
 		
-		if (step1 == -1) return uri;
+		uri = doContract(uri);
 		
 		return uri.substring(0,step1+2) + contract(uri.substring(step1+2));
-		
-
+	}
+	
+	/**
+	 * Replaces the namespace of an URI by its prefix, without going through
+	 * the {@link TermDictionary} cache.
+	 */
+	static String doContract(String uri)
+	{
+		return resolver.contract(uri);
 	}
 	
 	/**
@@ -271,7 +266,13 @@ public class Namespaces {
 	 */
 	public static void setDefault(final String defaultNS)
 	{
-		if(defaultNS != null) DEFAULT_NS = defaultNS;
+		if(defaultNS != null) {
+			synchronized (Namespaces.class) {
+				resolver = resolver.withDefault(defaultNS);
+				DEFAULT_NS = defaultNS;
+			}
+			TermDictionary.invalidateShortForms();
+		}
 	}
 
 	public static void loadNamespaces(Properties parameters) {
@@ -285,7 +286,10 @@ public class Namespaces {
 					if (! (ns2[1].endsWith("#") || ns2[1].endsWith("/")))
 						ns2[1] += "#";
 					
-					Namespaces.put(ns2[0], ns2[1]);
+					synchronized (Namespaces.class) {
+						resolver = resolver.with(ns2[0], ns2[1]);
+					}
+					TermDictionary.invalidateShortForms();
 					Logger.log("Registered namespace " + ns2[1] + " (" + 
 					ns2[0] + ")\n", VerboseLevel.VERBOSE);
 				} else
@@ -295,7 +299,7 @@ public class Namespaces {
 			}
 		}
 		
-		setDefault(Namespaces.get(parameters.getProperty("default_namespace", "").trim()));
+		setDefault(resolver.getNamespace(parameters.getProperty("default_namespace", "").trim()));
 		
 	}
 	
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.helpers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.impl.Util;
+
+/**
+ * A dictionary of the URIs returned by the server.<br/>
+ *
+ * The dictionary caches, for each URI, its short form (the URI with its
+ * namespace replaced by the corresponding prefix, as returned by
+ * {@link Namespaces#contract(String)}) and its local name, so that the
+ * resources that appear again and again in the results of {@code find},
+ * {@code getInfos} or {@code getInstancesOf} are only contracted once.<br/>
+ *
+ * Terms are keyed by their URI, and not by an integer id: the results are
+ * formatted from Jena nodes, which only carry their URI, so an id would cost
+ * one more lookup for each node.<br/>
+ *
+ * The dictionary is emptied when the known namespaces change (the cached
+ * short forms are then stale), and when it reaches {@link #MAX_SIZE} terms.
+ *
+ * @since 0.9.0
+ */
+public class TermDictionary {
+
+	/**
+	 * When the dictionary reaches this number of terms, it is emptied, so 
+	 * that the URIs currently in use are cached again.
+	 */
+	public static final int MAX_SIZE = 1 << 20;
+
+	private static final class ShortForm {
+		final int generation;
+		final String value;
+
+		ShortForm(int generation, String value) {
+			this.generation = generation;
+			this.value = value;
+		}
+	}
+
+	private static final class Term {
+		volatile ShortForm shortForm;
+		volatile String localName;
+	}
+
+	private static final ConcurrentHashMap<String, Term> terms = new ConcurrentHashMap<String, Term>();
+
+	private static volatile int generation = 0;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the cached data of a URI, adding it to the dictionary if needed.
+	 */
+	private static Term lookup(String uri) {
+		Term t = terms.get(uri);
+		if (t != null) return t;
+
+		if (terms.size() >= MAX_SIZE) terms.clear();
+
+		t = new Term();
+		Term previous = terms.putIfAbsent(uri, t);
+		return (previous == null) ? t : previous;
+	}
+
+	/**
+	 * Returns the short form of a URI (see {@link Namespaces#contract(String)}),
+	 * from the cache if possible.
+	 */
+	public static String shortForm(String uri) {
+		Term t = lookup(uri);
+
+		int g = generation;
+		ShortForm sf = t.shortForm;
+		if (sf != null && sf.generation == g) {
+			hits.incrementAndGet();
+			return sf.value;
+		}
+
+		misses.incrementAndGet();
+		sf = new ShortForm(g, Namespaces.doContract(uri));
+		t.shortForm = sf;
+		return sf.value;
+	}
+
+	/**
+	 * Returns the local name of a URI (the part after its namespace, as
+	 * returned by {@link Resource#getLocalName()}), from the cache if possible.
+	 */
+	public static String localName(String uri) {
+		Term t = lookup(uri);
+
+		String ln = t.localName;
+		if (ln == null) {
+			ln = uri.substring(Util.splitNamespace(uri));
+			t.localName = ln;
+		}
+		return ln;
+	}
+
+	/**
+	 * Returns the local name of a resource, from the cache if the resource
+	 * has an URI.
+	 *
+	 * @see #localName(String)
+	 */
+	public static String localName(Resource res) {
+		if (res.isURIResource()) return localName(res.getURI());
+		return res.getLocalName();
+	}
+
+	/**
+	 * Invalidates the cached short forms, and empties the dictionary. To be 
+	 * called when a namespace or the default namespace changes.
+	 */
+	public static void invalidateShortForms() {
+		//The generation guards the terms still in use by other threads.
+		generation++;
+		terms.clear();
+	}
+
+	/**
+	 * Returns the number of URIs in the dictionary.
+	 */
+	public static int size() {
+		return terms.size();
+	}
+
+	/**
+	 * Returns a string with the number of terms and the hit ratio of the
+	 * short form cache, for statistics.
+	 */
+	public static String stats() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return size() + " terms, " + (total == 0 ? 0 : (100 * h / total)) + "% short form cache hits";
+	}
+}
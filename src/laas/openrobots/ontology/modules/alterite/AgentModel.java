@@ -22,6 +22,7 @@ import laas.openrobots.ontology.backends.IOntologyBackend;
 import laas.openrobots.ontology.backends.OpenRobotsOntology;
 import laas.openrobots.ontology.exceptions.IllegalStatementException;
 import laas.openrobots.ontology.exceptions.InvalidModelException;
+import laas.openrobots.ontology.helpers.BinaryModel;
 import laas.openrobots.ontology.helpers.Logger;
 import laas.openrobots.ontology.helpers.VerboseLevel;
 import laas.openrobots.ontology.modules.events.EventModule;
@@ -36,7 +37,6 @@ import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.reasoner.ReasonerException;
 import com.hp.hpl.jena.shared.JenaException;
 import com.hp.hpl.jena.shared.NotFoundException;
-import com.hp.hpl.jena.util.FileManager;
 
 public class AgentModel {
 
@@ -91,10 +91,10 @@ public class AgentModel {
 			Model scenarioModel = null;
 					
 			try {
-				mainModel = FileManager.get().loadModel(oroCommonSenseUri);
+				mainModel = BinaryModel.loadModel(oroCommonSenseUri);
 
 				if (oroScenarioUri != null) 
-					scenarioModel = FileManager.get().loadModel(oroScenarioUri);
+					scenarioModel = BinaryModel.loadModel(oroScenarioUri);
 				
 			} catch (NotFoundException nfe) {
 				Logger.log("Unexpected error while initializing a new cognitive " +
@@ -125,7 +125,9 @@ public class AgentModel {
 		
 		if (onto == null) return null;
 		
-		IOntologyBackend agentModel = new OpenRobotsOntology(onto, parameters);
+		//All the agent models are built from the same ontologies: they share
+		//the same entry in the lookup cache.
+		IOntologyBackend agentModel = new OpenRobotsOntology(onto, parameters, "agent");
 		
 		//Add a first assertion: in this model, 'myself' is the agent.
 		try {
@@ -138,8 +140,11 @@ public class AgentModel {
 					"model.\n", VerboseLevel.SERIOUS_ERROR);
 		}
 		
-		// Performs an initial classification.
-		agentModel.checkConsistency();
+		// Performs an initial classification. With the lookup cache, the 
+		// model has been classified when it was built, or restored from the 
+		// cache: the reasoner then classifies it at the first query.
+		if (parameters.getProperty("lookup_cache", "").isEmpty())
+			agentModel.checkConsistency();
 		
 		
 		String defaultRobotId = parameters.getProperty("robot_id");
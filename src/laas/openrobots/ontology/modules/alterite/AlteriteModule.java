@@ -16,8 +16,10 @@
 
 package laas.openrobots.ontology.modules.alterite;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -42,6 +44,7 @@ import laas.openrobots.ontology.exceptions.OntologyServerException;
 import laas.openrobots.ontology.helpers.Helpers;
 import laas.openrobots.ontology.helpers.Logger;
 import laas.openrobots.ontology.helpers.Namespaces;
+import laas.openrobots.ontology.helpers.TermDictionary;
 import laas.openrobots.ontology.helpers.VerboseLevel;
 import laas.openrobots.ontology.json.JSONException;
 import laas.openrobots.ontology.json.JSONObject;
@@ -521,14 +524,14 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 			String objString;
 		
 			if (obj.isResource())
-				objString = (obj.as(Resource.class)).getLocalName();
+				objString = TermDictionary.localName(obj.as(Resource.class));
 			else if (obj.isLiteral())
 				objString = (obj.as(Literal.class)).getLexicalForm();
 			else
 				objString = obj.toString();
 
-			result.add(	stmt.getSubject().getLocalName() + " " + 
-						stmt.getPredicate().getLocalName() + " " +
+			result.add(	TermDictionary.localName(stmt.getSubject()) + " " + 
+						TermDictionary.localName(stmt.getPredicate()) + " " +
 						objString);
 		}
 		
@@ -559,6 +562,15 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 		return find(varNames, statements, filters, agents);
 	}
 
+	/**
+	 * Tries to identify resources given a set of partially defined statements 
+	 * and restrictions in the models of some agents.<br/>
+	 * 
+	 * If several variables are given, the result is the set of resources bound 
+	 * to any of them, computed by a single query. Use 
+	 * {@link #findBindingsForAgent(String, List, Set, Set, Integer, Boolean)} 
+	 * to know which resources go together.
+	 */
 	@RPCMethod(
 			category = "agents",
 			desc="tries to identify a resource given a set of partially defined " +
@@ -571,17 +583,10 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 			throws IllegalStatementException, OntologyServerException
 
 	{
-		if (varNames.size() > 1)
-		{
-			throw new NotImplementedException("find can be executed only on a single agent model");
-		}
-
 		if (varNames.size() == 0) {
 			throw new OntologyServerException("One unbound variable must be given to execute a 'find'");
 		}
 		
-		String varName = Helpers.pickRandom(varNames);
-		
 		if (agents.size() > 1)
 		{
 			throw new NotImplementedException("find can be executed only on a single agent model");
@@ -595,9 +600,13 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 		
 		Set<String> res = new HashSet<String>();
 		
-		if (varName.isEmpty()) {
-			Logger.log(id +": Calling the findForAgent() method with an empty variable.\n", VerboseLevel.ERROR);
-			throw new OntologyServerException("Calling the find() method with an empty variable.");
+		List<String> vars = new ArrayList<String>();
+		for (String varName : varNames) {
+			if (varName.isEmpty()) {
+				Logger.log(id +": Calling the findForAgent() method with an empty variable.\n", VerboseLevel.ERROR);
+				throw new OntologyServerException("Calling the find() method with an empty variable.");
+			}
+			vars.add((varName.charAt(0) == '?') ? varName.substring(1) : varName);
 		}
 		
 		if (statements.isEmpty()) {
@@ -616,13 +625,20 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 		
 		Set<PartialStatement> stmts = new HashSet<PartialStatement>();
 		
-		if (varName.length() > 0 && varName.charAt(0) == '?') varName = varName.substring(1);
-		
 		for (String ps : statements) {
 			stmts.add(oro.createPartialStatement(ps));
 		}
-			
-		Set<RDFNode> raw = oro.find(varName, stmts, filters);
+		
+		Set<RDFNode> raw;
+		
+		if (vars.size() == 1)
+			raw = oro.find(vars.get(0), stmts, filters);
+		else {
+			raw = new HashSet<RDFNode>();
+			Iterator<Map<String, RDFNode>> rows = oro.findBindings(vars, stmts, filters, 0, true);
+			while (rows.hasNext())
+				raw.addAll(rows.next().values());
+		}
 		
 		for (RDFNode n : raw) {
 			try {
@@ -663,6 +679,35 @@ public class AlteriteModule implements IModule, IServiceProvider, IEventConsumer
 	{
 		return findForAgent(id, varName, statements, null);
 	}
+	
+	/**
+	 * Tries to identify several resources at once in an specific agent model, 
+	 * and returns the rows of bindings.
+	 * 
+	 * @see BaseModule#findBindings(List, Set, Set, Integer, Boolean)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category = "agents",
+			desc="tries to identify several resources at once given a set of partially defined " +
+					"statements and restrictions in an specific agent model. Returns a list of rows {variable: value}."
+	)
+	public List<Map<String, String>> findBindingsForAgent(String id, 
+									List<String> varNames, 
+									Set<String> statements, 
+									Set<String> filters,
+									Integer limit,
+									Boolean distinct) 
+						throws IllegalStatementException, OntologyServerException
+	{
+		Logger.agent(id); //Tell the logger we are working on a specific agent model
+		
+		List<Map<String, String>> res = new BaseModule(getModelForAgent(id)).findBindings(varNames, statements, filters, limit, distinct);
+		
+		Logger.agent(null); //Go back to the robot model
+		
+		return res;
+	}
 
 	@RPCMethod(
 			category = "agents",
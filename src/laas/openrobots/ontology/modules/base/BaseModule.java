@@ -16,16 +16,20 @@
 
 package laas.openrobots.ontology.modules.base;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.Vector;
 
 import laas.openrobots.ontology.OroServer;
 import laas.openrobots.ontology.PartialStatement;
 import laas.openrobots.ontology.backends.IOntologyBackend;
+import laas.openrobots.ontology.backends.ReasoningLevel;
 import laas.openrobots.ontology.backends.ResourceType;
 import laas.openrobots.ontology.connectors.SocketConnector;
 import laas.openrobots.ontology.exceptions.IllegalStatementException;
@@ -35,7 +39,9 @@ import laas.openrobots.ontology.exceptions.OntologyServerException;
 import laas.openrobots.ontology.helpers.Helpers;
 import laas.openrobots.ontology.helpers.Logger;
 import laas.openrobots.ontology.helpers.Namespaces;
+import laas.openrobots.ontology.helpers.TermDictionary;
 import laas.openrobots.ontology.helpers.VerboseLevel;
+import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
 import laas.openrobots.ontology.service.IServiceProvider;
 import laas.openrobots.ontology.service.RPCMethod;
@@ -323,21 +329,90 @@ public class BaseModule implements IServiceProvider {
 			desc="checks that one or several statements are asserted or can be inferred from the ontology"
 	)
 	public Boolean check(Set<String> stmts) throws IllegalStatementException{
+		return check(stmts, ReasoningLevel.DEFAULT.toString());
+	}
+	
+	/**
+	 * Like {@link #check(Set)}, with a given amount of inference.
+	 * 
+	 * @param stmts a set of statements or partial statements
+	 * @param reasoning the reasoning level: {@code asserted} (only the 
+	 * asserted statements), {@code rdfs} (RDFS entailments only), 
+	 * {@code materialized} (the materialized closure of the asserted 
+	 * statements), {@code full} (everything the reasoner infers) or 
+	 * {@code default}
+	 * @return true if all the statements hold at this reasoning level
+	 * @throws IllegalStatementException
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			desc="checks that one or several statements are asserted or can be inferred at a given reasoning level (asserted, rdfs, materialized, full or default)"
+	)
+	public Boolean check(Set<String> stmts, String reasoning) throws IllegalStatementException{
 	
 		Logger.log("Checking facts: "+ stmts + "\n");
 		
+		return !checkEach(stmts, reasoning).containsValue(false);
+	}
+	
+	/**
+	 * Checks a set of statements or partial statements in one call, and 
+	 * returns the result of the check for each of them.<br/>
+	 * 
+	 * Ground statements and simple patterns are answered by direct lookups, 
+	 * the other patterns are evaluated together by a single query.
+	 * 
+	 * @param stmts a set of statements or partial statements
+	 * @return a map associating each statement to true if it is asserted or 
+	 * can be inferred from the ontology (or, for partial statements, if it 
+	 * matches at least one statement), false otherwise.
+	 * @throws IllegalStatementException
+	 * @see IOntologyBackend#check(java.util.Collection)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			desc="checks each statement of a set in one pass, and returns a map {statement, true if it is asserted or can be inferred}"
+	)
+	public Map<String, Boolean> checkEach(Set<String> stmts) throws IllegalStatementException{
+		return checkEach(stmts, ReasoningLevel.DEFAULT.toString());
+	}
+	
+	/**
+	 * Like {@link #checkEach(Set)}, with a given amount of inference.
+	 * 
+	 * @param stmts a set of statements or partial statements
+	 * @param reasoning the reasoning level: {@code asserted}, {@code rdfs}, 
+	 * {@code materialized}, {@code full} or {@code default}
+	 * @return a map associating each statement to true if it holds at this 
+	 * reasoning level, false otherwise.
+	 * @throws IllegalStatementException
+	 * @see IOntologyBackend#check(java.util.Collection, ReasoningLevel)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			desc="checks each statement of a set in one pass at a given reasoning level (asserted, rdfs, materialized, full or default), and returns a map {statement, true if it holds}"
+	)
+	public Map<String, Boolean> checkEach(Set<String> stmts, String reasoning) throws IllegalStatementException{
+		
+		Map<String, Statement> parsedStmts = new HashMap<String, Statement>();
+		
 		for (String s : stmts)
 		{
-			if (PartialStatement.isPartialStatement(s)) {
-				if (!oro.check(oro.createPartialStatement(s))) return false;
-			}
-			else {
-				Statement stmt = oro.createStatement(s);
-				if (!oro.check(stmt)) return false;
-			}
+			if (PartialStatement.isPartialStatement(s))
+				parsedStmts.put(s, oro.createPartialStatement(s));
+			else
+				parsedStmts.put(s, oro.createStatement(s));
 		}
 		
-		return true;
+		Map<Statement, Boolean> checked = oro.check(parsedStmts.values(), ReasoningLevel.fromString(reasoning));
+		
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		
+		for (Map.Entry<String, Statement> s : parsedStmts.entrySet())
+			result.put(s.getKey(), checked.get(s.getValue()));
+		
+		return result;
 	}
 	
 
@@ -402,10 +477,28 @@ public class BaseModule implements IServiceProvider {
 			desc="performs one SPARQL query on the ontology"
 	)
 	public Set<String> query(String key, String q) throws InvalidQueryException, OntologyServerException
+	{
+		return query(key, q, ReasoningLevel.DEFAULT.toString());
+	}
+	
+	/**
+	 * Maps {@link IOntologyBackend#query(String, String, ReasoningLevel)} into
+	 * a RPC call.
+	 * 
+	 * @param reasoning the reasoning level: {@code asserted}, {@code rdfs}, 
+	 * {@code materialized}, {@code full} or {@code default}
+	 * @see laas.openrobots.ontology.backends.IOntologyBackend#query(String, String, ReasoningLevel)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="performs one SPARQL query on the ontology, at a given reasoning level (asserted, rdfs, materialized, full or default)"
+	)
+	public Set<String> query(String key, String q, String reasoning) throws InvalidQueryException, OntologyServerException
 	{
 		Logger.log("Processing query:\n" + q + "\n");
 		
-		Set<RDFNode> raw = oro.query(key, q);
+		Set<RDFNode> raw = oro.query(key, q, ReasoningLevel.fromString(reasoning));
 		Set<String> res = new HashSet<String>();
 		
 		for (RDFNode n : raw) {
@@ -530,6 +623,33 @@ public class BaseModule implements IServiceProvider {
 			desc="tries to identify a resource given a set of partially defined statements plus restrictions about this resource."
 	)	
 	public Set<String> find(String varName,	Set<String> statements, Set<String> filters) throws IllegalStatementException, OntologyServerException {
+		return find(varName, statements, filters, ReasoningLevel.DEFAULT.toString());
+	}
+	
+	/**
+	 * Like {@link #find(String, Set, Set)}, with a given amount of inference.
+	 * Lookups on asserted facts (like {@code ?obj isAt ?place}) do not need 
+	 * the reasoner, and are much faster at the {@code asserted} level.
+	 * 
+	 * @param varName The name of the variable to identify, as used in the statements.
+	 * @param statements The partial statement statements defining (more or less) the resource your looking for.
+	 * @param filters a set of SPARQL filters, or null
+	 * @param reasoning the reasoning level: {@code asserted} (only the 
+	 * asserted statements), {@code rdfs} (RDFS entailments only), 
+	 * {@code materialized} (the materialized closure of the asserted 
+	 * statements), {@code full} (everything the reasoner infers) or 
+	 * {@code default}
+	 * @return A set of resources which match the statements.
+	 * @throws IllegalStatementException 
+	 * @throws OntologyServerException 
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="tries to identify a resource given a set of partially defined statements plus restrictions about this resource, at a given reasoning level (asserted, rdfs, materialized, full or default)."
+	)	
+	public Set<String> find(String varName,	Set<String> statements, Set<String> filters, String reasoning) throws IllegalStatementException, OntologyServerException {
 		
 		Set<String> res = new HashSet<String>();
 		
@@ -558,7 +678,7 @@ public class BaseModule implements IServiceProvider {
 			stmts.add(oro.createPartialStatement(ps));
 		}
 
-		Set<RDFNode> raw = oro.find(varName, stmts, filters);
+		Set<RDFNode> raw = oro.find(varName, stmts, filters, ReasoningLevel.fromString(reasoning));
 				
 		for (RDFNode n : raw) {
 			try {
@@ -635,9 +755,316 @@ public class BaseModule implements IServiceProvider {
 		return find(varName, statements, null);
 	}
 
+	/**
+	 * Profiles the execution of a SPARQL {@code SELECT} query, to understand 
+	 * why it is slow.<br/>
+	 * 
+	 * The profile contains the compiled algebra of the query, the triple 
+	 * patterns in the order they are joined, the amount of statements matching 
+	 * each pattern, the amount of intermediate results and the time of each 
+	 * join and filter, and the time spent in the reasoner.<br/>
+	 * 
+	 * The query is executed several times: profiling is much more expensive 
+	 * than a regular {@link #query(String, String) query}.
+	 * 
+	 * @param q a SPARQL {@code SELECT} query. The common prefixes may be 
+	 * omitted.
+	 * @return the profile of the query.
+	 * @see IOntologyBackend#profile(String)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="executes a SPARQL SELECT query and returns its execution profile (algebra, join order, cardinalities, time per operator and time in the reasoner)."
+	)
+	public Map<String, Object> profile(String q) throws InvalidQueryException {
+		Logger.log("Profiling query:\n" + q + "\n");
+		return oro.profile(q);
+	}
+
+	/**
+	 * Profiles the execution of a {@link #find(String, Set, Set) find}.
+	 * 
+	 * @see #profile(String)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="profiles the execution of a 'find' and returns its execution profile (algebra, join order, cardinalities, time per operator and time in the reasoner)."
+	)
+	public Map<String, Object> profileFind(String varName, Set<String> statements, Set<String> filters) throws IllegalStatementException, InvalidQueryException {
+		
+		if (varName.length() > 0 && varName.charAt(0) == '?') varName = varName.substring(1);
+		
+		Set<PartialStatement> stmts = new HashSet<PartialStatement>();
+		for (String ps : statements) {
+			stmts.add(oro.createPartialStatement(ps));
+		}
+		
+		return oro.profileFind(varName, stmts, filters);
+	}
+
+	/**
+	 * Profiles the execution of a {@link #find(String, Set) find}.
+	 * 
+	 * @see #profile(String)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="profiles the execution of a 'find' and returns its execution profile (algebra, join order, cardinalities, time per operator and time in the reasoner)."
+	)
+	public Map<String, Object> profileFind(String varName, Set<String> statements) throws IllegalStatementException, InvalidQueryException {
+		return profileFind(varName, statements, null);
+	}
+
+	/**
+	 * Opens a server-side cursor over the results of a SPARQL {@code SELECT} 
+	 * query.<br/>
+	 * 
+	 * Contrary to {@link #query(String, String)}, the results are not all 
+	 * returned at once: they are fetched by pages with 
+	 * {@link #fetch(String, Integer, IEventConsumer)}, which allows to go 
+	 * through huge result sets with a bounded memory usage.<br/>
+	 * 
+	 * Cursors are bound to the client connection. A client can not open more 
+	 * than {@code max_cursors} cursors at the same time, and cursors are 
+	 * closed after {@code cursor_timeout} seconds of inactivity.
+	 * 
+	 * @param q a SPARQL {@code SELECT} query. The common prefixes may be 
+	 * omitted.
+	 * @param client the client (automatically provided by the connector)
+	 * @return the id of the new cursor.
+	 * @see IOntologyBackend#openCursor(String, IEventConsumer)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="opens a cursor over the results of a SPARQL SELECT query, and returns its id. Rows are then retrieved with 'fetch'."
+	)
+	public UUID openCursor(String q, IEventConsumer client) throws InvalidQueryException, OntologyServerException {
+		Logger.log("Opening a cursor on query: " + q + "\n");
+		return oro.openCursor(q, client);
+	}
+	
+	/**
+	 * Fetches the next rows of a cursor. The cursor is automatically closed 
+	 * when all the rows have been fetched.
+	 * 
+	 * @param cursorId the id of the cursor, as returned by 
+	 * {@link #openCursor(String, IEventConsumer)}
+	 * @param n the maximum number of rows to return
+	 * @param client the client (automatically provided by the connector)
+	 * @return at most {@code n} rows {variable: value}. Less than {@code n} 
+	 * rows means that all the rows have been fetched.
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="returns the next rows {variable: value} of a cursor (at most the given number of rows). Less rows than requested means the cursor is exhausted (and closed)."
+	)
+	public List<Map<String, String>> fetch(String cursorId, Integer n, IEventConsumer client) throws InvalidQueryException, OntologyServerException {
+		
+		List<Map<String, String>> res = new ArrayList<Map<String, String>>();
+		
+		for (Map<String, RDFNode> rawRow : oro.fetch(parseCursorId(cursorId), n, client)) {
+			Map<String, String> row = new HashMap<String, String>();
+			for (Map.Entry<String, RDFNode> binding : rawRow.entrySet()) {
+				String value = Helpers.toResultString(binding.getValue());
+				if (value != null) row.put(binding.getKey(), value);
+			}
+			res.add(row);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Closes a cursor before all its rows have been fetched.
+	 * 
+	 * @param cursorId the id of the cursor
+	 * @param client the client (automatically provided by the connector)
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="closes a cursor."
+	)
+	public void closeCursor(String cursorId, IEventConsumer client) throws OntologyServerException {
+		oro.closeCursor(parseCursorId(cursorId), client);
+	}
+	
+	private UUID parseCursorId(String cursorId) throws OntologyServerException {
+		try {
+			return UUID.fromString(cursorId);
+		} catch (IllegalArgumentException e) {
+			throw new OntologyServerException("Invalid cursor id: " + cursorId);
+		}
+	}
+	
+	/**
+	 * Tries to identify several resources given a set of partially defined 
+	 * statements about them, and returns, for each variable, the set of 
+	 * resources it is bound to.<br/>
+	 * 
+	 * The bindings are computed by a single query (see 
+	 * {@link #findBindings(List, Set, Set, Integer, Boolean)}), and then 
+	 * projected on each variable: use {@code findBindings} to know which 
+	 * resources go together.
+	 * 
+	 * @param variables The names of the variables to identify, as used in the 
+	 * statements.
+	 * @param partialStatements The partial statement statements defining the 
+	 * resources your looking for.
+	 * @return A map associating each variable to the resources it is bound to.
+	 * @throws IllegalStatementException
+	 * @throws OntologyServerException
+	 * @see #findBindings(List, Set, Set, Integer, Boolean)
+	 */
 	public Map<String, Set<String>> find(Set<String> variables,
-			Set<String> partialStatements) {
-		return null;
+			Set<String> partialStatements) throws IllegalStatementException, OntologyServerException {
+		
+		Map<String, Set<String>> res = new HashMap<String, Set<String>>();
+		
+		List<String> varNames = new ArrayList<String>();
+		for (String v : variables) {
+			if (v.length() > 0 && v.charAt(0) == '?') v = v.substring(1);
+			varNames.add(v);
+			res.put(v, new HashSet<String>());
+		}
+		
+		for (Map<String, String> row : findBindings(varNames, partialStatements, null, 0, true))
+			for (Map.Entry<String, String> binding : row.entrySet())
+				res.get(binding.getKey()).add(binding.getValue());
+		
+		return res;
+	}
+	
+	/**
+	 * Tries to identify several resources at once, given a set of partially 
+	 * defined statements (plus optional restrictions) about them.<br/>
+	 * 
+	 * The result is a table of bindings: each row associates a value to each 
+	 * of the variables, and represents one solution of the search. For 
+	 * instance, with the variables {@code [animal, food]} and the partial 
+	 * statement {@code ?animal eats ?food}, the result could be:
+	 * <pre>
+	 * [{"animal":"monkey", "food":"banana"}, {"animal":"sheep", "food":"grass"}]
+	 * </pre>
+	 * All the rows are computed by a single query execution. They are 
+	 * collected in a list before being returned: the {@code limit} parameter
+	 * allows to bound the size of the answer. Large results are better read 
+	 * page by page with a cursor (see {@link #openCursor(String, IEventConsumer)}
+	 * and {@link #fetch(String, Integer, IEventConsumer)}).
+	 * 
+	 * @param varNames The names of the variables to identify, as used in the 
+	 * statements (with or without the leading "?").
+	 * @param statements The partial statements defining the resources your 
+	 * looking for.
+	 * @param filters SPARQL filters (see {@link #find(String, Set, Set)}), or 
+	 * null.
+	 * @param limit the maximum number of rows to return, 0 for no limit.
+	 * @param distinct if true, duplicated rows are removed.
+	 * @return the rows of bindings. Variables which are bound to a blank node 
+	 * (or not bound) in a solution do not appear in the corresponding row.
+	 * @throws IllegalStatementException 
+	 * @throws OntologyServerException 
+	 * @see SocketConnector General syntax of RPCs for the oro-server socket connector.
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="tries to identify several resources at once given a set of partially defined statements and restrictions. Returns a list of rows {variable: value}, optionally limited in size and without duplicates."
+	)	
+	public List<Map<String, String>> findBindings(List<String> varNames, Set<String> statements, Set<String> filters, Integer limit, Boolean distinct) throws IllegalStatementException, OntologyServerException {
+		return findBindings(varNames, statements, filters, limit, distinct, ReasoningLevel.DEFAULT.toString());
+	}
+	
+	/**
+	 * Like {@link #findBindings(List, Set, Set, Integer, Boolean)}, with a 
+	 * given amount of inference.
+	 * 
+	 * @param varNames The names of the variables to identify, as used in the 
+	 * statements (with or without the leading "?").
+	 * @param statements The partial statements defining the resources your 
+	 * looking for.
+	 * @param filters SPARQL filters (see {@link #find(String, Set, Set)}), or 
+	 * null.
+	 * @param limit the maximum number of rows to return, 0 for no limit.
+	 * @param distinct if true, duplicated rows are removed.
+	 * @param reasoning the reasoning level: {@code asserted} (only the 
+	 * asserted statements), {@code rdfs} (RDFS entailments only), 
+	 * {@code materialized} (the materialized closure of the asserted 
+	 * statements), {@code full} (everything the reasoner infers) or 
+	 * {@code default}
+	 * @return the rows of bindings.
+	 * @throws IllegalStatementException 
+	 * @throws OntologyServerException 
+	 * @see ReasoningLevel
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="tries to identify several resources at once given a set of partially defined statements and restrictions, at a given reasoning level (asserted, rdfs, materialized, full or default). Returns a list of rows {variable: value}."
+	)	
+	public List<Map<String, String>> findBindings(List<String> varNames, Set<String> statements, Set<String> filters, Integer limit, Boolean distinct, String reasoning) throws IllegalStatementException, OntologyServerException {
+		
+		List<Map<String, String>> res = new ArrayList<Map<String, String>>();
+		
+		if (varNames.isEmpty()) {
+			Logger.log("Calling the findBindings() method without variables.\n", VerboseLevel.ERROR);
+			throw new OntologyServerException("Calling the findBindings() method without variables.");
+		}
+		
+		if (statements.isEmpty()) {
+			Logger.log("Calling the findBindings() method without partial statement. Returning an empty set of result.\n", VerboseLevel.WARNING);
+			return res;
+		}
+		
+		Logger.log("Searching " + varNames + " in the ontology matching " + statements + 
+				(filters == null ? "" : " " + filters) + "\n");
+		
+		List<String> vars = new ArrayList<String>();
+		for (String v : varNames) 
+			vars.add((v.length() > 0 && v.charAt(0) == '?') ? v.substring(1) : v);
+		
+		Set<PartialStatement> stmts = new HashSet<PartialStatement>();
+		for (String ps : statements) {
+			stmts.add(oro.createPartialStatement(ps));
+		}
+		
+		Iterator<Map<String, RDFNode>> rows = oro.findBindings(vars, stmts, filters, limit, distinct, ReasoningLevel.fromString(reasoning));
+		
+		while (rows.hasNext()) {
+			Map<String, String> row = new HashMap<String, String>();
+			for (Map.Entry<String, RDFNode> binding : rows.next().entrySet()) {
+				String value = Helpers.toResultString(binding.getValue());
+				if (value != null) row.put(binding.getKey(), value);
+			}
+			res.add(row);
+		}
+		
+		Logger.log("\t => found " + res.size() + " rows.\n", false);
+		
+		return res;
+	}
+	
+	/**
+	 * Tries to identify several resources at once, given a set of partially 
+	 * defined statements about them.<br/>
+	 * 
+	 * This is a simpler form for 
+	 * {@link #findBindings(List, Set, Set, Integer, Boolean)}, without filters 
+	 * nor limit, and without duplicated rows.
+	 * 
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category="querying",
+			desc="tries to identify several resources at once given a set of partially defined statements. Returns a list of rows {variable: value}."
+	)	
+	public List<Map<String, String>> findBindings(List<String> varNames, Set<String> statements) throws IllegalStatementException, OntologyServerException {
+		return findBindings(varNames, statements, null, 0, true);
 	}
 	
 	/**
@@ -694,14 +1121,14 @@ public class BaseModule implements IServiceProvider {
 			//TODO: if changing that, change it as well in getInfosForAgent 
 			
 			if (obj.isResource())
-				objString = (obj.as(Resource.class)).getLocalName();
+				objString = TermDictionary.localName(obj.as(Resource.class));
 			else if (obj.isLiteral())
 				objString = (obj.as(Literal.class)).getLexicalForm();
 			else
 				objString = obj.toString();
 
-			result.add(	stmt.getSubject().getLocalName() + " " + 
-						stmt.getPredicate().getLocalName() + " " +
+			result.add(	TermDictionary.localName(stmt.getSubject()) + " " + 
+						TermDictionary.localName(stmt.getPredicate()) + " " +
 						objString);
 		}
 		
@@ -19,6 +19,7 @@ package laas.openrobots.ontology.modules.events;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -179,5 +180,46 @@ public class EventModule implements IServiceProvider {
 		registredEvents.remove(evtToRemove);
 		
 	}
+	
+	/** Sets the minimum delay between two evaluations of an event. Changes of
+	 * the model that occur in between are evaluated at the end of the delay.
+	 * 
+	 * Since identical events are shared between clients, the latency applies 
+	 * to all the subscribers of the event.
+	 * 
+	 * @param eventId the string representation of the UUID of the event, as 
+	 * returned by #registerEvent
+	 * @param latency the minimum latency, in ms.
+	 * @throws OntologyServerException 
+	 * @see IWatcher#getMinimumLatency()
+	 * @since 0.9.0
+	 */
+	@RPCMethod(
+			category = "events",
+			desc = "sets the minimum delay (in ms) between two evaluations of an event."
+	)
+	public void setEventMinimumLatency(String eventId, Integer latency) throws OntologyServerException {
+		
+		UUID id = UUID.fromString(eventId);
+		
+		for (IWatcher e : registredEvents) {
+			if (e.getId().equals(id)) {
+				((GenericWatcher) e).setMinimumLatency(latency);
+				return;
+			}
+		}
+		
+		throw new EventNotFoundException("Event " + eventId + " does not exist in the model");
+	}
+	
+	@RPCMethod(
+			category = "events",
+			desc = "returns statistics on the evaluation of events (amount of " +
+					"evaluations, last, mean and max delay in ms between a " +
+					"change of the model and the evaluation of the events)."
+	)
+	public Map<String, String> eventsStatistics() {
+		return onto.getEventsStatistics();
+	}
 
 }
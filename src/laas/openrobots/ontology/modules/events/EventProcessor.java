@@ -17,10 +17,21 @@
 package laas.openrobots.ontology.modules.events;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import laas.openrobots.ontology.PartialStatement;
 import laas.openrobots.ontology.backends.IOntologyBackend;
@@ -33,7 +44,10 @@ import laas.openrobots.ontology.helpers.Namespaces;
 import laas.openrobots.ontology.helpers.VerboseLevel;
 import laas.openrobots.ontology.modules.events.IWatcher.EventType;
 
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntProperty;
 import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecException;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
@@ -42,15 +56,127 @@ import com.hp.hpl.jena.query.QueryParseException;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.reasoner.InfGraph;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
 
+/**
+ * The EventProcessor evaluates the registered {@link IWatcher}s against the
+ * ontology when the model changes, and notifies their subscribers.<br/>
+ * 
+ * To avoid re-evaluating every watcher at each change, watchers are indexed by
+ * the predicates and the classes that appear in their patterns. When the 
+ * delta of added and removed statements is provided to 
+ * {@link #process(Set, Set)}, only the watchers whose patterns could be 
+ * affected by these statements are evaluated. Since the reasoner may infer new
+ * facts from a single statement, a statement is considered to affect:
+ * <ul>
+ * <li>the watchers on its predicate, its super properties, their equivalent
+ * and inverse properties,</li>
+ * <li>for a {@code rdf:type} statement, the watchers on its class and its 
+ * super classes,</li>
+ * <li>the watchers on classes if its predicate has a domain, a range or is 
+ * used in a class restriction (and conversely),</li>
+ * <li>all the watchers if it is a TBox statement (like {@code rdfs:subClassOf}
+ * or {@code owl:sameAs}), or if its predicate is a functional or inverse 
+ * functional object property (it may lead to new {@code owl:sameAs}).</li>
+ * </ul>
+ * Property chains are not taken into account.<br/>
+ * 
+ * Besides, the FACT_CHECKING and NEW_INSTANCE watchers whose patterns only
+ * rely on asserted facts (no predicate that the reasoner could infer) are 
+ * evaluated incrementally by an {@link IncrementalMatcher}: their status is 
+ * updated from the delta alone, without running any query. This can be 
+ * disabled with the {@code incremental_events} option.<br/>
+ * 
+ * Changes are coalesced during the {@code events_debounce} delay, and each 
+ * watcher may ask not to be evaluated more often than its 
+ * {@linkplain IWatcher#getMinimumLatency() minimum latency}. Postponed
+ * evaluations are always performed at the end of the delay by 
+ * {@link #step()}.
+ */
 public class EventProcessor {
 	
-	public final int PROCESS_DELAY = 200; //in ms between two events processing
+	/* Minimum delay (in ms) between two evaluations of the watchers. Changes
+	 * that occur in between are coalesced and evaluated at the end of the 
+	 * delay.
+	 */
+	private final long debounce;
 	private Set<EventType> supportedEventTypes;
 	private long lastProcessTimestamp;
+	
+	/* Time of the oldest change not evaluated yet, 0 if none. */
+	private long pendingSince;
 	IOntologyBackend onto;
 	
+	/* Changes accumulated since the last actual processing of the watchers.
+	 * A null set means that the changes are unknown: all watchers need to be 
+	 * evaluated.
+	 */
+	private Set<Statement> pendingAddedStmts;
+	private Set<Statement> pendingRemovedStmts;
+	private boolean pendingFullProcessing;
+	
+	/* Index of the watchers, by predicate and by class. */
+	private Map<Resource, Set<WatcherHolder>> watchersByPredicate;
+	private Map<Resource, Set<WatcherHolder>> watchersByClass;
+	private Set<WatcherHolder> unindexedWatchers;
+	
+	/* Watchers that have been registered since the last processing. They are
+	 * always evaluated at the next processing, whatever the changes are.
+	 */
+	private Set<WatcherHolder> newWatchers;
+	
+	/* Watchers whose evaluation is postponed until their minimum latency is
+	 * elapsed.
+	 */
+	private Set<WatcherHolder> deferredWatchers;
+	
+	/* The pool of threads used to evaluate the watchers in parallel, or null
+	 * if the watchers are evaluated sequentially.
+	 */
+	private ExecutorService executor;
+	private int nbThreads;
+	
+	/* Registration order of the watchers, used to notify the subscribers in a
+	 * deterministic order.
+	 */
+	private long nextSequence = 0;
+	
+	/* If true, the triple patterns shared by several watchers are only 
+	 * evaluated once per evaluation cycle.
+	 */
+	private boolean sharedPatterns;
+	
+	/* Statistics on the event lag. */
+	private long nbProcessings;
+	private long nbEvaluations;
+	private long totalLag;
+	private long maxLag;
+	private long lastLag;
+	
+	/* Caches for the schema-related lookups performed while dispatching. They
+	 * are reset every time the TBox may have changed.
+	 */
+	private Map<Resource, Set<Resource>> relatedPropertiesCache;
+	private Map<Resource, Set<Resource>> superClassesCache;
+	private Set<Resource> typeInferringProperties;
+	private Set<Resource> sameAsInferringProperties;
+	private Set<Resource> definedClasses;
+	
+	/* If true, incremental matchers are used for the watchers that support
+	 * them.
+	 */
+	private boolean incrementalEvents;
+	
 	/**
 	 * The WatcherHolder class is a pre-compiled version of an {@link IWatcher}
 	 * plus some caching mechanisms. 
@@ -67,6 +193,34 @@ public class EventProcessor {
 		
 		public boolean lastStatus;
 		public Set<Resource> lastMatchedResources;
+		
+		/* The incremental matcher of this watcher, or null if the watcher is 
+		 * evaluated with its query.
+		 */
+		public IncrementalMatcher matcher;
+		
+		/* True if the matcher missed some changes and must be rebuilt. */
+		public boolean matcherOutdated;
+		
+		/* Time of the last evaluation, and time of the oldest change not 
+		 * evaluated yet for this watcher (0 if none).
+		 */
+		public long lastEvaluationTimestamp;
+		public long deferredSince;
+		
+		/* Registration order of the watcher. */
+		public long sequence;
+		
+		/* The triple patterns of the watcher, as SPARQL rows. */
+		public List<String> patternRows;
+		
+		/* The predicates and the classes this watcher depends on. If 
+		 * dependsOnEverything is true, the watcher has at least one pattern
+		 * with an unbound predicate and is always evaluated.
+		 */
+		public Set<Resource> predicates;
+		public Set<Resource> classes;
+		public boolean dependsOnEverything;
 
 		public WatcherHolder(IWatcher watcher) throws EventRegistrationException {
 			super();
@@ -74,9 +228,27 @@ public class EventProcessor {
 			
 			lastStatus = false;
 			
+			predicates = new HashSet<Resource>();
+			classes = new HashSet<Resource>();
+			dependsOnEverything = false;
+			
+			patternRows = new ArrayList<String>();
+			
 			compilePattern();
 		}
 		
+		private void addDependency(Statement s) {
+			Property p = s.getPredicate();
+			RDFNode o = s.getObject();
+			
+			if (p == null)
+				dependsOnEverything = true;
+			else if (p.equals(RDF.type) && o != null && o.isURIResource())
+				classes.add((Resource) o);
+			else
+				predicates.add(p);
+		}
+		
 		public IWatcher getWatcher() {
 			return watcher;
 		}
@@ -92,9 +264,18 @@ public class EventProcessor {
 				try {
 					
 					for (String s : watcher.getWatchPattern())
-						if (PartialStatement.isPartialStatement(s))
-							statement += onto.createPartialStatement(s).asSparqlRow();
-						else statement += Helpers.asSparqlRow(onto.createStatement(s));
+						if (PartialStatement.isPartialStatement(s)) {
+							PartialStatement ps = onto.createPartialStatement(s);
+							addDependency(ps);
+							patternRows.add(ps.asSparqlRow());
+							statement += ps.asSparqlRow();
+						}
+						else {
+							Statement stmt = onto.createStatement(s);
+							addDependency(stmt);
+							patternRows.add(Helpers.asSparqlRow(stmt));
+							statement += Helpers.asSparqlRow(stmt);
+						}
 					
 				} catch (IllegalStatementException e) {
 					Logger.log("Error while parsing a new watch pattern! ("+ 
@@ -122,10 +303,13 @@ public class EventProcessor {
 							"your statement.\n");
 				}
 				
+				compileMatcher(new ArrayList<String>(watcher.getWatchPattern()), null);
+
 				Logger.log("New FACT_CHECKING event registered:" +
 						"\n\tPattern: " +  watcher.getWatchPattern() +
-						"\n\tTriggering type: " + watcher.getTriggeringType() + 
-						"\n\tID: " + watcher.getId() + "\n");
+						"\n\tTriggering type: " + watcher.getTriggeringType() +
+						"\n\tID: " + watcher.getId() + "\n" +
+						(matcher != null ? "\tEvaluated incrementally.\n" : ""));
 
 				
 				break;
@@ -161,6 +345,8 @@ public class EventProcessor {
 				//Initialize the list of matching instance from the current 
 				//state on the ontology.
 				
+				classes.add(referenceClass);
+				
 				lastMatchedResources = new HashSet<Resource>(onto.getInstancesOf(referenceClass, false));
 				
 				Logger.log("Initial matching instances: " + lastMatchedResources + 
@@ -190,8 +376,12 @@ public class EventProcessor {
 				
 				try {
 					
-					for (String s : pattern)
-						query += onto.createPartialStatement(s).asSparqlRow();
+					for (String s : pattern) {
+						PartialStatement ps = onto.createPartialStatement(s);
+						addDependency(ps);
+						patternRows.add(ps.asSparqlRow());
+						query += ps.asSparqlRow();
+					}
 					
 				} catch (IllegalStatementException e) {
 					Logger.log("Error while parsing partial statement ("+ 
@@ -244,16 +434,54 @@ public class EventProcessor {
 				Logger.log("Initial matching instances: " + lastMatchedResources +
 						" (they won't be reported).\n", VerboseLevel.DEBUG);
 
-				
+				compileMatcher(pattern, varName);
+
 				Logger.log("New NEW_INSTANCE event registered " +
 						"\n\tPattern: " +  watcher.getWatchPattern() +
-						"\n\tTriggering type: " + watcher.getTriggeringType() + 
-						"\n\tID: " + watcher.getId() + "\n");
+						"\n\tTriggering type: " + watcher.getTriggeringType() +
+						"\n\tID: " + watcher.getId() + "\n" +
+						(matcher != null ? "\tEvaluated incrementally.\n" : ""));
 			}
 		}
-		
-		
+
+
 	}
+
+		/**
+		 * Builds an incremental matcher for the pattern if possible, and checks
+		 * that it agrees with the query on the current state of the ontology.
+		 * Otherwise, the watcher keeps being evaluated with its query.
+		 */
+		private void compileMatcher(List<String> pattern, String projectedVar) {
+
+			matcher = null;
+
+			if (!incrementalEvents || !IncrementalMatcher.supports(onto, pattern))
+				return;
+
+			try {
+				matcher = new IncrementalMatcher(onto, pattern, projectedVar);
+			} catch (IllegalStatementException e) {
+				return;
+			}
+
+			boolean agrees = matcher.populate();
+
+			if (agrees) {
+				if (projectedVar == null)
+					agrees = (matcher.getNbMatches() > 0) ==
+						QueryExecutionFactory.create(cachedQuery, onto.getModel()).execAsk();
+				else
+					agrees = toResources(matcher.getValues()).equals(lastMatchedResources);
+			}
+
+			if (!agrees) {
+				Logger.log("The incremental matcher disagrees with the reasoner " +
+						"for pattern " + watcher.getWatchPattern() + ". Using " +
+						"queries instead.\n", VerboseLevel.DEBUG);
+				matcher = null;
+			}
+		}
 	}
 	
 	/**
@@ -264,13 +492,74 @@ public class EventProcessor {
 	private Set<WatcherHolder> watchers;
 		
 	public EventProcessor(IOntologyBackend onto) {
+		this(onto, new Properties());
+	}
+	
+	/**
+	 * Creates a new event processor.
+	 * 
+	 * @param onto the ontology the watchers are evaluated against.
+	 * @param parameters the server parameters. The {@code incremental_events}
+	 * option (true by default) enables the incremental evaluation of the 
+	 * watchers that support it. The {@code events_debounce} option (0 by 
+	 * default) sets the minimum delay, in ms, between two evaluations of the
+	 * watchers. If the {@code events_threads} option is greater than 1 and 
+	 * the model has no reasoner, the watchers are evaluated in parallel on 
+	 * this amount of threads. The 
+	 * {@code events_shared_patterns} option (false by default) enables the
+	 * shared evaluation of the triple patterns common to several watchers.
+	 * @since 0.9.0
+	 */
+	public EventProcessor(IOntologyBackend onto, Properties parameters) {
 
-		this.lastProcessTimestamp = System.currentTimeMillis();
+		this.incrementalEvents = parameters.getProperty("incremental_events", "true").equalsIgnoreCase("true");
+		
+		this.sharedPatterns = parameters.getProperty("events_shared_patterns", "false").equalsIgnoreCase("true");
+		
+		this.debounce = Long.parseLong(parameters.getProperty("events_debounce", "0"));
+		
+		nbThreads = Integer.parseInt(parameters.getProperty("events_threads", "1"));
+		
+		//Reasoners (Pellet's knowledge base as well as Jena's inference 
+		//graphs) update their internal state while answering queries: they 
+		//can not be read from several threads at once.
+		if (nbThreads > 1 && onto.getModel().getGraph() instanceof InfGraph) {
+			Logger.log("The reasoner does not support concurrent reads: events " +
+					"are evaluated sequentially (events_threads ignored).\n", VerboseLevel.WARNING);
+			nbThreads = 1;
+		}
+		
+		if (nbThreads > 1) {
+			executor = Executors.newFixedThreadPool(nbThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "oro-events");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			Logger.log("Events evaluated in parallel on " + nbThreads + " threads.\n", VerboseLevel.INFO);
+		}
+		
+		this.lastProcessTimestamp = 0;
+		this.pendingSince = 0;
 
 		this.onto = onto;
 
 		this.watchers = new HashSet<WatcherHolder>();
 		
+		this.watchersByPredicate = new HashMap<Resource, Set<WatcherHolder>>();
+		this.watchersByClass = new HashMap<Resource, Set<WatcherHolder>>();
+		this.unindexedWatchers = new HashSet<WatcherHolder>();
+		this.newWatchers = new HashSet<WatcherHolder>();
+		this.deferredWatchers = new HashSet<WatcherHolder>();
+		
+		this.pendingAddedStmts = new HashSet<Statement>();
+		this.pendingRemovedStmts = new HashSet<Statement>();
+		this.pendingFullProcessing = false;
+		
+		resetSchemaCaches();
+		
 		this.supportedEventTypes = new HashSet<EventType>();
 		supportedEventTypes.add(EventType.FACT_CHECKING);
 		supportedEventTypes.add(EventType.NEW_CLASS_INSTANCE);
@@ -278,45 +567,721 @@ public class EventProcessor {
 		
 	}
 
+	/**
+	 * Evaluates all the registered watchers against the ontology. To be used
+	 * when the changes of the model are unknown.
+	 * 
+	 * @see #process(Set, Set)
+	 */
 	public void process() {
+		process(null, null);
+	}
+	
+	/**
+	 * Notifies the event processor that the model changed.<br/>
+	 * 
+	 * The changes are accumulated, and the watchers that may be affected by 
+	 * them are evaluated at once if the last evaluation is older than the 
+	 * debounce delay. Otherwise, the evaluation is postponed until the 
+	 * debounce delay is elapsed, and performed by {@link #step()}: a change is
+	 * thus always evaluated, at most {@code events_debounce} ms after it 
+	 * occurred.
+	 * 
+	 * @param addedStmts the statements added to the model since the last call.
+	 * Null if unknown.
+	 * @param removedStmts the statements removed from the model since the last
+	 * call. Null if unknown.
+	 */
+	public void process(Set<Statement> addedStmts, Set<Statement> removedStmts) {
 
-		if (System.currentTimeMillis() - this.lastProcessTimestamp < PROCESS_DELAY) return;
-
-		this.lastProcessTimestamp = System.currentTimeMillis();
+		synchronized (watchers) {
+			
+			if (addedStmts == null || removedStmts == null)
+				pendingFullProcessing = true;
+			else {
+				pendingAddedStmts.addAll(addedStmts);
+				pendingRemovedStmts.addAll(removedStmts);
+			}
+			
+			if (pendingSince == 0) pendingSince = System.currentTimeMillis();
+			
+			if (System.currentTimeMillis() - lastProcessTimestamp >= debounce)
+				evaluatePendingChanges();
+		}
+			
+	}
+	
+	/**
+	 * Runs the trailing evaluation of the changes that were postponed by the
+	 * debounce delay, and the evaluation of the watchers whose minimum latency
+	 * is elapsed. To be called regularly (typically, at each step of the 
+	 * server main loop).
+	 * 
+	 * @since 0.9.0
+	 */
+	public void step() {
+		synchronized (watchers) {
+			long now = System.currentTimeMillis();
+			
+			if (pendingSince != 0 && now - lastProcessTimestamp >= debounce)
+				evaluatePendingChanges();
+			
+			if (!deferredWatchers.isEmpty()) {
+				Set<WatcherHolder> dueWatchers = new HashSet<WatcherHolder>();
 				
+				for (WatcherHolder holder : deferredWatchers)
+					if (now - holder.lastEvaluationTimestamp >= holder.watcher.getMinimumLatency())
+						dueWatchers.add(holder);
+				
+				if (!dueWatchers.isEmpty())
+					evaluate(dueWatchers, true, new HashSet<Triple>(), new HashSet<Triple>());
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates the watchers that may be affected by the pending changes of
+	 * the model, and notifies their subscribers when needed.
+	 */
+	private void evaluatePendingChanges() {
+		
+		lastProcessTimestamp = System.currentTimeMillis();
+		
+		if (watchers.isEmpty()) {
+			pendingSince = 0;
+			pendingFullProcessing = false;
+			pendingAddedStmts.clear();
+			pendingRemovedStmts.clear();
+			return;
+		}
+		
+		nbProcessings++;
+		
+		Set<WatcherHolder> affectedWatchers;
+		
+		//If the incremental matchers can not trust the delta alone, they are
+		//rebuilt from the model.
+		boolean rebuildMatchers = pendingFullProcessing;
+		
+		if (pendingFullProcessing) {
+			resetSchemaCaches();
+			affectedWatchers = new HashSet<WatcherHolder>(watchers);
+		}
+		else {
+			rebuildMatchers = mayInvalidateMatchers(pendingAddedStmts, pendingRemovedStmts);
+			affectedWatchers = getAffectedWatchers(pendingAddedStmts, pendingRemovedStmts);
+			affectedWatchers.addAll(newWatchers);
+		}
+		
+		newWatchers.clear();
+		
+		Logger.log(affectedWatchers.size() + " out of " + watchers.size() + 
+				" watchers to evaluate.\n", VerboseLevel.DEBUG);
+		
+		Set<Triple> addedTriples = new HashSet<Triple>();
+		Set<Triple> removedTriples = new HashSet<Triple>();
+		if (!rebuildMatchers)
+			computeNetDelta(addedTriples, removedTriples);
+		
+		//Watchers evaluated less than their minimum latency ago are deferred.
+		for (WatcherHolder holder : affectedWatchers)
+			if (holder.watcher.getMinimumLatency() > 0 && 
+				lastProcessTimestamp - holder.lastEvaluationTimestamp < holder.watcher.getMinimumLatency()) {
+				
+				if (holder.deferredSince == 0) holder.deferredSince = pendingSince;
+				//the incremental matcher misses this delta: it will have to 
+				//be rebuilt.
+				holder.matcherOutdated = true;
+				deferredWatchers.add(holder);
+			}
+		
+		affectedWatchers.removeAll(deferredWatchers);
+		
+		for (WatcherHolder holder : affectedWatchers)
+			holder.deferredSince = pendingSince;
+		
+		pendingSince = 0;
+		pendingFullProcessing = false;
+		pendingAddedStmts.clear();
+		pendingRemovedStmts.clear();
+		
+		evaluate(affectedWatchers, rebuildMatchers, addedTriples, removedTriples);
+	}
+	
+	/**
+	 * Evaluates a set of watchers and notifies the subscribers when needed.
+	 * 
+	 * If a thread pool is available, the watchers are evaluated in parallel.
+	 * The model can not change in the meantime, since the thread that 
+	 * modifies it waits for the evaluation to complete. The subscribers are 
+	 * then notified sequentially, in the order the watchers were registered.
+	 */
+	private void evaluate(Set<WatcherHolder> holders, final boolean rebuildMatchers, final Set<Triple> addedTriples, final Set<Triple> removedTriples) {
+		
+		List<WatcherHolder> orderedHolders = new ArrayList<WatcherHolder>(holders);
+		Collections.sort(orderedHolders, new Comparator<WatcherHolder>() {
+			@Override
+			public int compare(WatcherHolder h1, WatcherHolder h2) {
+				return h1.sequence < h2.sequence ? -1 : (h1.sequence == h2.sequence ? 0 : 1);
+			}
+		});
+		
+		long now = System.currentTimeMillis();
+		
+		for (WatcherHolder holder : orderedHolders) {
+			deferredWatchers.remove(holder);
+			
+			recordLag(now - holder.deferredSince);
+			holder.deferredSince = 0;
+			holder.lastEvaluationTimestamp = now;
+		}
+		
+		final SharedPatternEvaluator shared = getSharedPatternEvaluator(orderedHolders);
+		
+		List<Object> results = new ArrayList<Object>();
+		
+		if (executor == null || orderedHolders.size() < 2) {
+			for (WatcherHolder holder : orderedHolders)
+				results.add(evaluateWatcher(holder, rebuildMatchers, addedTriples, removedTriples, shared));
+		}
+		else {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			
+			for (final WatcherHolder holder : orderedHolders)
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						return evaluateWatcher(holder, rebuildMatchers, addedTriples, removedTriples, shared);
+					}
+				});
+			
+			try {
+				for (Future<Object> f : executor.invokeAll(tasks))
+					results.add(f.get());
+			} catch (InterruptedException e) {
+				Logger.log("Interrupted while evaluating the events! Some " +
+						"events may be lost.\n", VerboseLevel.SERIOUS_ERROR);
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				//Errors of the reasoner are forwarded to the caller, like in
+				//the sequential case.
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		
+		if (shared != null) shared.logStatistics();
+		
 		Set<WatcherHolder> watchersToBeRemoved = new HashSet<WatcherHolder>();
+	
+		//notify the subscribers when needed, in a deterministic order.
+		for (int i = 0; i < orderedHolders.size(); i++)
+			notifyWatcher(orderedHolders.get(i), results.get(i), watchersToBeRemoved);
 		
-		//iterate over the various registered watchers and notify the subscribers 
-		//when needed.
-		synchronized (watchers) {
+		for (WatcherHolder holder : watchersToBeRemoved)
+			removeHolder(holder);
+	}
+	
+	/**
+	 * Computes the current result of a watcher, without notifying anyone: a 
+	 * Boolean for FACT_CHECKING watchers, the set of matching resources 
+	 * otherwise. This method only reads the model and the state of the given
+	 * watcher: several watchers can be evaluated concurrently.
+	 */
+	private Object evaluateWatcher(WatcherHolder holder, boolean rebuildMatchers, Set<Triple> addedTriples, Set<Triple> removedTriples, SharedPatternEvaluator shared) {
+		
+		boolean rebuild = rebuildMatchers || holder.matcherOutdated;
+		holder.matcherOutdated = false;
 		
-			for (WatcherHolder holder : watchers) {
-				
-				switch (holder.getWatcher().getPatternType()) {
-					case FACT_CHECKING:
-						processFactChecking(holder, watchersToBeRemoved);
-						break;
-						
-					case NEW_CLASS_INSTANCE:
-						processNewClassInstance(holder, watchersToBeRemoved);
-						break;
-						
-					case NEW_INSTANCE:
-						processNewInstance(holder, watchersToBeRemoved);
-						break;
+		if (holder.matcher != null) {
+			Object res = evaluateIncrementally(holder, rebuild, addedTriples, removedTriples);
+			if (res != null) return res;
+		}
+		
+		switch (holder.getWatcher().getPatternType()) {
+			case FACT_CHECKING:
+				if (shared != null && holder.patternRows != null && shared.isShared(holder.patternRows))
+					return shared.ask(holder.patternRows);
+				return evaluateFactChecking(holder);
+				
+			case NEW_CLASS_INSTANCE:
+				return evaluateNewClassInstance(holder);
 				
+			case NEW_INSTANCE:
+				if (shared != null && holder.patternRows != null && shared.isShared(holder.patternRows)) {
+					Set<Resource> instances = new HashSet<Resource>();
+					for (RDFNode n : shared.select(holder.patternRows, holder.varName))
+						if (n.isResource()) instances.add((Resource) n);
+					return instances;
 				}
+				return evaluateNewInstance(holder);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns an evaluator that shares the evaluation of the triple patterns
+	 * common to several of the given watchers, or null if sharing is disabled
+	 * or if there is nothing to share. Only the watchers evaluated with 
+	 * queries, and whose patterns have bound predicates, take part.
+	 */
+	private SharedPatternEvaluator getSharedPatternEvaluator(List<WatcherHolder> holders) {
+		
+		if (!sharedPatterns) return null;
+		
+		List<List<String>> patterns = new ArrayList<List<String>>();
+		
+		for (WatcherHolder holder : holders) {
+			if (holder.matcher != null || holder.dependsOnEverything || 
+				holder.getWatcher().getPatternType() == EventType.NEW_CLASS_INSTANCE)
+				continue;
+			
+			patterns.add(holder.patternRows);
+		}
+		
+		if (patterns.size() < 2) return null;
+		
+		return new SharedPatternEvaluator(onto, patterns);
+	}
+	
+	/**
+	 * Notifies the subscribers of a watcher according to the result of its
+	 * evaluation, and updates its state.
+	 */
+	@SuppressWarnings("unchecked")
+	private void notifyWatcher(WatcherHolder holder, Object result, Set<WatcherHolder> watchersToBeRemoved) {
+		
+		switch (holder.getWatcher().getPatternType()) {
+			case FACT_CHECKING:
+				notifyFactChecking(holder, (Boolean) result, watchersToBeRemoved);
+				break;
+				
+			case NEW_CLASS_INSTANCE:
+				notifyNewClassInstances(holder, (Set<Resource>) result, watchersToBeRemoved);
+				break;
+				
+			case NEW_INSTANCE:
+				notifyNewInstances(holder, (Set<Resource>) result, watchersToBeRemoved);
+				break;
+		}
+	}
+	
+	private void recordLag(long lag) {
+		nbEvaluations++;
+		totalLag += lag;
+		lastLag = lag;
+		if (lag > maxLag) maxLag = lag;
+	}
+	
+	/**
+	 * Returns statistics on the event processing:
+	 * <ul>
+	 * <li>{@code watchers}: the number of registered watchers,</li>
+	 * <li>{@code threads}: the number of threads the watchers are evaluated
+	 * on,</li>
+	 * <li>{@code deferred_watchers}: the number of watchers whose evaluation 
+	 * is delayed by their minimum latency,</li>
+	 * <li>{@code processings}: the number of evaluation rounds,</li>
+	 * <li>{@code evaluations}: the number of watcher evaluations,</li>
+	 * <li>{@code last_lag}, {@code mean_lag}, {@code max_lag}: the delay (in
+	 * ms) between a change of the model and the evaluation of the watchers it
+	 * affects.</li>
+	 * </ul>
+	 * 
+	 * @since 0.9.0
+	 */
+	public Map<String, String> getStatistics() {
+		Map<String, String> res = new HashMap<String, String>();
+		
+		synchronized (watchers) {
+			res.put("watchers", String.valueOf(watchers.size()));
+			res.put("threads", String.valueOf(nbThreads));
+			res.put("deferred_watchers", String.valueOf(deferredWatchers.size()));
+			res.put("processings", String.valueOf(nbProcessings));
+			res.put("evaluations", String.valueOf(nbEvaluations));
+			res.put("last_lag", String.valueOf(lastLag));
+			res.put("mean_lag", String.valueOf(nbEvaluations == 0 ? 0 : totalLag / nbEvaluations));
+			res.put("max_lag", String.valueOf(maxLag));
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Returns the set of watchers that may be affected by the given changes.
+	 */
+	private Set<WatcherHolder> getAffectedWatchers(Set<Statement> addedStmts, Set<Statement> removedStmts) {
+		
+		Set<WatcherHolder> res = new HashSet<WatcherHolder>(unindexedWatchers);
 		
+		Set<Statement> changes = new HashSet<Statement>(addedStmts);
+		changes.addAll(removedStmts);
+		
+		boolean classWatchersAffected = false;
+		
+		for (Statement s : changes) {
+			
+			if (isSchemaStatement(s)) {
+				//The TBox has changed: the inferences can be affected in any
+				//way.
+				resetSchemaCaches();
+				return new HashSet<WatcherHolder>(watchers);
 			}
 			
-			watchers.removeAll(watchersToBeRemoved);
+			Property p = s.getPredicate();
+			
+			if (p.equals(RDF.type)) {
+				addWatchers(res, watchersByPredicate, RDF.type);
+				
+				if (s.getObject().isURIResource())
+					for (Resource c : getSuperClasses((Resource) s.getObject()))
+						addWatchers(res, watchersByClass, c);
+				
+				//A new type may as well lead to new memberships of the 
+				//classes defined by a class expression, whatever the type.
+				for (Resource d : getDefinedClasses())
+					for (Resource c : getSuperClasses(d))
+						addWatchers(res, watchersByClass, c);
+				
+				//A new type may lead to new property assertions through 
+				//restrictions.
+				for (Resource q : getTypeInferringProperties())
+					addWatchers(res, watchersByPredicate, q);
+			}
+			else {
+				Set<Resource> relatedProperties = getRelatedProperties(p);
+				
+				for (Resource q : relatedProperties) {
+					if (getSameAsInferringProperties().contains(q)) 
+						return new HashSet<WatcherHolder>(watchers);
+					
+					addWatchers(res, watchersByPredicate, q);
+					
+					if (getTypeInferringProperties().contains(q)) 
+						classWatchersAffected = true;
+				}
+			}
+		}
 		
+		if (classWatchersAffected) {
+			addWatchers(res, watchersByPredicate, RDF.type);
+			for (Set<WatcherHolder> holders : watchersByClass.values())
+				res.addAll(holders);
 		}
+		
+		return res;
+	}
+	
+	private void addWatchers(Set<WatcherHolder> res, Map<Resource, Set<WatcherHolder>> index, Resource key) {
+		Set<WatcherHolder> holders = index.get(key);
+		if (holders != null) res.addAll(holders);
+	}
+	
+	/**
+	 * Returns true if the statement may change the terminology of the ontology
+	 * (declaration of classes or properties, hierarchies, restrictions, 
+	 * equivalences...).
+	 */
+	private boolean isSchemaStatement(Statement s) {
+		
+		if (s.getSubject().isAnon()) return true;
+		
+		Property p = s.getPredicate();
+		String ns = p.getNameSpace();
+		
+		if (ns == null) return false;
+		
+		if (ns.equals(OWL.getURI())) return true;
+		
+		if (ns.equals(RDFS.getURI()))
+			return !(p.equals(RDFS.label) || p.equals(RDFS.comment) || 
+					p.equals(RDFS.seeAlso) || p.equals(RDFS.isDefinedBy));
+		
+		if (p.equals(RDF.first) || p.equals(RDF.rest)) return true;
+		
+		if (p.equals(RDF.type) && s.getObject().isURIResource()) {
+			String objNs = ((Resource) s.getObject()).getNameSpace();
+			return objNs.equals(OWL.getURI()) || objNs.equals(RDFS.getURI());
+		}
+		
+		return false;
+	}
+	
+	private void resetSchemaCaches() {
+		relatedPropertiesCache = new HashMap<Resource, Set<Resource>>();
+		superClassesCache = new HashMap<Resource, Set<Resource>>();
+		typeInferringProperties = null;
+		sameAsInferringProperties = null;
+		definedClasses = null;
+	}
+	
+	/**
+	 * Returns the given property, its super properties, and their equivalent
+	 * and inverse properties.
+	 */
+	private Set<Resource> getRelatedProperties(Property p) {
+		
+		Set<Resource> res = relatedPropertiesCache.get(p);
+		if (res != null) return res;
+		
+		res = new HashSet<Resource>();
+		res.add(p);
+		
+		OntProperty op = onto.getModel().getOntProperty(p.getURI());
+		
+		if (op != null) {
+			Set<OntProperty> supers = new HashSet<OntProperty>();
+			supers.add(op);
+			supers.addAll(op.listSuperProperties().toSet());
+			supers.addAll(op.listEquivalentProperties().toSet());
 			
+			for (OntProperty sp : supers) {
+				res.add(sp);
+				res.addAll(sp.listInverse().toSet());
+				res.addAll(sp.listInverseOf().toSet());
+			}
+		}
+		
+		relatedPropertiesCache.put(p, res);
+		return res;
+	}
+	
+	/**
+	 * Returns the given class, its super classes and its equivalent classes.
+	 */
+	private Set<Resource> getSuperClasses(Resource c) {
+		
+		Set<Resource> res = superClassesCache.get(c);
+		if (res != null) return res;
+		
+		res = new HashSet<Resource>();
+		res.add(c);
+		
+		OntClass oc = onto.getModel().getOntClass(c.getURI());
+		
+		if (oc != null) {
+			ExtendedIterator<OntClass> it = oc.listSuperClasses();
+			while (it.hasNext()) res.add(it.next());
+			
+			it = oc.listEquivalentClasses();
+			while (it.hasNext()) res.add(it.next());
+		}
+		
+		superClassesCache.put(c, res);
+		return res;
+	}
+	
+	/**
+	 * Returns the properties that may lead to the inference of new class 
+	 * memberships (properties with a domain or a range, or used in a class 
+	 * restriction).
+	 */
+	private Set<Resource> getTypeInferringProperties() {
+		
+		if (typeInferringProperties != null) return typeInferringProperties;
+		
+		Model raw = onto.getModel().getRawModel();
+		
+		typeInferringProperties = new HashSet<Resource>();
+		typeInferringProperties.addAll(raw.listSubjectsWithProperty(RDFS.domain).toSet());
+		typeInferringProperties.addAll(raw.listSubjectsWithProperty(RDFS.range).toSet());
+		
+		for (RDFNode n : raw.listObjectsOfProperty(OWL.onProperty).toSet())
+			if (n.isResource()) typeInferringProperties.add((Resource) n);
+		
+		return typeInferringProperties;
+	}
+	
+	/**
+	 * Returns the named classes that are equivalent to a class expression
+	 * (a restriction, an intersection...): their instances may be inferred 
+	 * from the types of other individuals.
+	 */
+	private Set<Resource> getDefinedClasses() {
+		
+		if (definedClasses != null) return definedClasses;
+		
+		Model raw = onto.getModel().getRawModel();
+		
+		definedClasses = new HashSet<Resource>();
+		
+		StmtIterator it = raw.listStatements(null, OWL.equivalentClass, (RDFNode) null);
+		while (it.hasNext()) {
+			Statement s = it.nextStatement();
+			if (!s.getObject().isResource()) continue;
+			Resource o = (Resource) s.getObject();
+			
+			if (s.getSubject().isURIResource() && o.isAnon()) definedClasses.add(s.getSubject());
+			if (o.isURIResource() && s.getSubject().isAnon()) definedClasses.add(o);
+		}
+		
+		return definedClasses;
+	}
+	
+	/**
+	 * Returns the object properties that may lead to the inference of new 
+	 * {@code owl:sameAs} statements (functional and inverse functional object
+	 * properties).
+	 */
+	private Set<Resource> getSameAsInferringProperties() {
+		
+		if (sameAsInferringProperties != null) return sameAsInferringProperties;
+		
+		Model raw = onto.getModel().getRawModel();
+		
+		sameAsInferringProperties = new HashSet<Resource>();
+		
+		for (Resource p : raw.listSubjectsWithProperty(RDF.type, OWL.FunctionalProperty).toSet())
+			if (!raw.contains(p, RDF.type, OWL.DatatypeProperty))
+				sameAsInferringProperties.add(p);
+		
+		sameAsInferringProperties.addAll(raw.listSubjectsWithProperty(RDF.type, OWL.InverseFunctionalProperty).toSet());
+		
+		return sameAsInferringProperties;
+	}
+	
+	private void addHolder(WatcherHolder holder) {
+		holder.sequence = nextSequence++;
+		watchers.add(holder);
+		newWatchers.add(holder);
+		
+		if (holder.dependsOnEverything) {
+			unindexedWatchers.add(holder);
+			return;
+		}
+		
+		for (Resource p : holder.predicates) {
+			if (!watchersByPredicate.containsKey(p))
+				watchersByPredicate.put(p, new HashSet<WatcherHolder>());
+			watchersByPredicate.get(p).add(holder);
+		}
+		
+		for (Resource c : holder.classes) {
+			if (!watchersByClass.containsKey(c))
+				watchersByClass.put(c, new HashSet<WatcherHolder>());
+			watchersByClass.get(c).add(holder);
+		}
+	}
+	
+	private void removeHolder(WatcherHolder holder) {
+		watchers.remove(holder);
+		unindexedWatchers.remove(holder);
+		newWatchers.remove(holder);
+		deferredWatchers.remove(holder);
+		
+		for (Resource p : holder.predicates) {
+			Set<WatcherHolder> holders = watchersByPredicate.get(p);
+			if (holders == null) continue;
+			holders.remove(holder);
+			if (holders.isEmpty()) watchersByPredicate.remove(p);
+		}
+		
+		for (Resource c : holder.classes) {
+			Set<WatcherHolder> holders = watchersByClass.get(c);
+			if (holders == null) continue;
+			holders.remove(holder);
+			if (holders.isEmpty()) watchersByClass.remove(c);
+		}
 	}
 
+	/**
+	 * Returns true if the changes may affect the results of the incremental
+	 * matchers in ways they can not see: TBox changes (which may also make
+	 * some patterns unsuitable for incremental matching) and changes that may
+	 * lead to new {@code owl:sameAs} statements.
+	 */
+	private boolean mayInvalidateMatchers(Set<Statement> addedStmts, Set<Statement> removedStmts) {
+		Set<Statement> changes = new HashSet<Statement>(addedStmts);
+		changes.addAll(removedStmts);
+		
+		for (Statement s : changes) {
+			if (isSchemaStatement(s) || getSameAsInferringProperties().contains(s.getPredicate()))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Computes the net changes of the asserted model from the pending changes:
+	 * a statement both added and removed since the last processing is kept in
+	 * the set matching its actual current state.
+	 */
+	private void computeNetDelta(Set<Triple> addedTriples, Set<Triple> removedTriples) {
+		Model raw = onto.getModel().getRawModel();
+		
+		for (Statement s : pendingAddedStmts) {
+			if (!pendingRemovedStmts.contains(s) || raw.contains(s))
+				addedTriples.add(s.asTriple());
+		}
+		
+		for (Statement s : pendingRemovedStmts) {
+			if (!pendingAddedStmts.contains(s) || !raw.contains(s))
+				removedTriples.add(s.asTriple());
+		}
+	}
+	
+	/**
+	 * Evaluates a watcher with its incremental matcher. 
+	 * 
+	 * @return the result of the evaluation, or null if the matcher can not 
+	 * guarantee its result anymore. The matcher is then dropped, and the 
+	 * watcher must be evaluated with its query.
+	 */
+	private Object evaluateIncrementally(WatcherHolder holder, boolean rebuild, Set<Triple> addedTriples, Set<Triple> removedTriples) {
+		
+		boolean reliable;
+		
+		if (rebuild)
+			reliable = IncrementalMatcher.supports(onto, matcherPattern(holder)) && 
+						holder.matcher.populate();
+		else
+			reliable = holder.matcher.update(addedTriples, removedTriples);
+		
+		if (!reliable) {
+			Logger.log("Pattern " + holder.watcher.getWatchPattern() + " can not " +
+					"be evaluated incrementally anymore. Using queries instead.\n", VerboseLevel.DEBUG);
+			holder.matcher = null;
+			return null;
+		}
+		
+		if (holder.getWatcher().getPatternType() == EventType.FACT_CHECKING)
+			return holder.matcher.getNbMatches() > 0;
+		
+		if (rebuild)
+			return toResources(holder.matcher.getValues());
+		
+		Set<Resource> instances = new HashSet<Resource>(holder.lastMatchedResources);
+		instances.removeAll(toResources(holder.matcher.getLastRemoved()));
+		instances.addAll(toResources(holder.matcher.getLastAdded()));
+		return instances;
+	}
+	
+	/**
+	 * Returns the triple patterns of a watcher, as passed to its incremental
+	 * matcher.
+	 */
+	private List<String> matcherPattern(WatcherHolder holder) {
+		List<String> pattern = new ArrayList<String>(holder.watcher.getWatchPattern());
+		if (holder.watcher.getPatternType() == EventType.NEW_INSTANCE)
+			pattern.remove(0);
+		return pattern;
+	}
+	
+	private Set<Resource> toResources(Set<Node> nodes) {
+		Set<Resource> res = new HashSet<Resource>();
+		Model model = onto.getModel();
+		
+		for (Node n : nodes) {
+			if (n.isURI() || n.isBlank())
+				res.add((Resource) model.asRDFNode(n));
+		}
+		return res;
+	}
 
-	private void processFactChecking(WatcherHolder holder, Set<WatcherHolder> watchersToBeRemoved) throws QueryExecException {
+	private boolean evaluateFactChecking(WatcherHolder holder) throws QueryExecException {
 		
 		boolean isAsserted = false;
 		
@@ -331,6 +1296,15 @@ public class EventProcessor {
 			throw e;
 		}
 		
+		return isAsserted;
+	}
+	
+	/**
+	 * Notifies the subscribers of a FACT_CHECKING watcher according to its new
+	 * status and its triggering type.
+	 */
+	private void notifyFactChecking(WatcherHolder holder, boolean isAsserted, Set<WatcherHolder> watchersToBeRemoved) {
+		
 		if (isAsserted) {
 			
 			OroEvent e = new OroEventImpl();
@@ -374,12 +1348,19 @@ public class EventProcessor {
 		
 	}
 	
-	private void processNewClassInstance(WatcherHolder holder, Set<WatcherHolder> watchersToBeRemoved) throws QueryExecException {
+	private Set<Resource> evaluateNewClassInstance(WatcherHolder holder) throws QueryExecException {
+		return new HashSet<Resource>(onto.getInstancesOf(holder.referenceClass, false));
+	}
 	
+	/**
+	 * Notifies the subscribers of a NEW_CLASS_INSTANCE watcher of the new
+	 * instances of the class.
+	 * 
+	 * @param futureResources the new set of instances of the class.
+	 */
+	private void notifyNewClassInstances(WatcherHolder holder, Set<Resource> futureResources, Set<WatcherHolder> watchersToBeRemoved) {
 		
-		Set<Resource> instances = new HashSet<Resource>(onto.getInstancesOf(holder.referenceClass, false));
-		
-		Set<Resource> futureResources = new HashSet<Resource>(instances);
+		Set<Resource> instances = new HashSet<Resource>(futureResources);
 		
 		instances.removeAll(holder.lastMatchedResources);
 		
@@ -415,7 +1396,7 @@ public class EventProcessor {
 		
 	}
 	
-	private void processNewInstance(WatcherHolder holder, Set<WatcherHolder> watchersToBeRemoved) throws QueryExecException {
+	private Set<Resource> evaluateNewInstance(WatcherHolder holder) throws QueryExecException {
 	
 		
 		Set<Resource> instances = new HashSet<Resource>();
@@ -443,7 +1424,18 @@ public class EventProcessor {
 					"maintainer :-)\n", VerboseLevel.SERIOUS_ERROR);
 			throw e;
 		}
-				
+		
+		return instances;
+	}
+	
+	/**
+	 * Notifies the subscribers of a NEW_INSTANCE watcher of the instances that
+	 * appeared or disappeared, according to its triggering type.
+	 * 
+	 * @param instances the new set of matching instances.
+	 */
+	private void notifyNewInstances(WatcherHolder holder, Set<Resource> instances, Set<WatcherHolder> watchersToBeRemoved) {
+		
 		Set<Resource> addedResources = new HashSet<Resource>(instances);
 		addedResources.removeAll(holder.lastMatchedResources);
 		
@@ -502,16 +1494,29 @@ public class EventProcessor {
 		}
 		else {
 			synchronized (watchers) {
-				watchers.add(new WatcherHolder(w));
-				System.out.println("bouh");
+				addHolder(new WatcherHolder(w));
 			}			
 		}
 		
 	}
 
+	/**
+	 * Releases the threads used to evaluate the watchers in parallel, if any.
+	 * 
+	 * @since 0.9.0
+	 */
+	public void close() {
+		if (executor != null) executor.shutdown();
+	}
+	
 	public void clear() {
 		synchronized (watchers) {
 			watchers.clear();
+			watchersByPredicate.clear();
+			watchersByClass.clear();
+			unindexedWatchers.clear();
+			newWatchers.clear();
+			deferredWatchers.clear();
 		}		
 	}
 	
@@ -529,7 +1534,7 @@ public class EventProcessor {
 					"report this bug to openrobots@laas.fr.");
 			
 			
-			watchers.remove(wh);	
+			removeHolder(wh);	
 		}
 	}
 }
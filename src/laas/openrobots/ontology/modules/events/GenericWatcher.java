@@ -31,6 +31,8 @@ public class GenericWatcher implements IWatcher {
 	
 	protected UUID watcherId; 
 	
+	protected long minimumLatency = 0;
+	
 	public GenericWatcher(EventType eventType, 
 						IWatcher.TriggeringType triggeringType,
 						List<String> eventPattern,  
@@ -66,6 +68,21 @@ public class GenericWatcher implements IWatcher {
 		return watcherId;
 	}
 
+	@Override
+	public long getMinimumLatency() {
+		return minimumLatency;
+	}
+	
+	/**
+	 * Sets the minimum delay (in ms) between two evaluations of this watcher.
+	 * 
+	 * @see IWatcher#getMinimumLatency()
+	 * @since 0.9.0
+	 */
+	public void setMinimumLatency(long minimumLatency) {
+		this.minimumLatency = minimumLatency;
+	}
+
 	@Override
 	public void notifySubscribers(OroEvent e) {
 		for (IEventConsumer client : clients) {
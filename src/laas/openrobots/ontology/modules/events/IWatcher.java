@@ -155,6 +155,18 @@ public interface IWatcher {
 	 */
 	public UUID getId();
 	
+	/**
+	 * Returns the minimum delay (in ms) between two evaluations of this 
+	 * watcher. Changes of the model that occur in between are evaluated at 
+	 * the end of the delay. This allows to save resources on watchers that
+	 * do not need to react immediately.
+	 * 
+	 * @return the minimum latency, in ms. 0 means that the watcher is 
+	 * evaluated as soon as possible.
+	 * @since 0.9.0
+	 */
+	public long getMinimumLatency();
+	
 	public boolean equals(IWatcher gw);
 
 }
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.modules.events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import laas.openrobots.ontology.PartialStatement;
+import laas.openrobots.ontology.backends.IOntologyBackend;
+import laas.openrobots.ontology.exceptions.IllegalStatementException;
+import laas.openrobots.ontology.helpers.Helpers;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * An incremental pattern matcher for the watch patterns of an
+ * {@link IWatcher}, in the spirit of the Rete algorithm.<br/>
+ *
+ * Each triple pattern of the watch pattern is compiled into an
+ * {@link AlphaMemory} that holds the asserted triples matching the pattern.
+ * Added and removed triples are propagated to the alpha memories, and
+ * {@link JoinNode}s join the new (or removed) triple with the content of the
+ * other alpha memories on their shared variables. The matcher thus computes
+ * exactly the bindings that appeared or disappeared, at a cost proportional
+ * to the change and not to the size of the result.<br/>
+ *
+ * The matcher only sees asserted triples. It must only be used for patterns
+ * whose predicates can not be inferred by the reasoner (cf
+ * {@link #supports(IOntologyBackend, List)}). Besides, since the subjects or
+ * objects of the matched triples may have aliases (through {@code owl:sameAs})
+ * the matcher reports (in {@link #update(Set, Set)}) when it can not
+ * guarantee its results anymore: the caller is then expected to fall back to
+ * a query-based evaluation.
+ *
+ * @author slemaign
+ * @since 0.9.0
+ */
+class IncrementalMatcher {
+
+	private static final Property PROPERTY_CHAIN_AXIOM =
+		ResourceFactory.createProperty(OWL.getURI() + "propertyChainAxiom");
+	private static final Resource REFLEXIVE_PROPERTY =
+		ResourceFactory.createResource(OWL.getURI() + "ReflexiveProperty");
+
+	/**
+	 * A triple pattern, with its memory of matching asserted triples.
+	 * Matching triples are indexed by subject and by object to speed up the
+	 * joins.
+	 */
+	class AlphaMemory {
+
+		final String subjectVar;
+		final Node subject;
+		final Node predicate;
+		final String objectVar;
+		final Node object;
+
+		final Set<Triple> triples = new HashSet<Triple>();
+		final Map<Node, Set<Triple>> bySubject = new HashMap<Node, Set<Triple>>();
+		final Map<Node, Set<Triple>> byObject = new HashMap<Node, Set<Triple>>();
+
+		AlphaMemory(String subjectVar, Node subject, Node predicate, String objectVar, Node object) {
+			this.subjectVar = subjectVar;
+			this.subject = subject;
+			this.predicate = predicate;
+			this.objectVar = objectVar;
+			this.object = object;
+		}
+
+		boolean matches(Triple t) {
+			if (!t.getPredicate().equals(predicate)) return false;
+			if (subject != null && !subject.equals(t.getSubject())) return false;
+			if (object != null && !object.sameValueAs(t.getObject())) return false;
+			//a pattern like "?a p ?a"
+			if (subjectVar != null && subjectVar.equals(objectVar) && !t.getSubject().equals(t.getObject())) return false;
+			return true;
+		}
+
+		boolean add(Triple t) {
+			if (!triples.add(t)) return false;
+			index(bySubject, t.getSubject(), t);
+			index(byObject, t.getObject(), t);
+			return true;
+		}
+
+		boolean remove(Triple t) {
+			if (!triples.remove(t)) return false;
+			unindex(bySubject, t.getSubject(), t);
+			unindex(byObject, t.getObject(), t);
+			return true;
+		}
+
+		void clear() {
+			triples.clear();
+			bySubject.clear();
+			byObject.clear();
+		}
+
+		/**
+		 * Returns the triples of the memory compatible with a partial binding.
+		 */
+		Set<Triple> candidates(Map<String, Node> binding) {
+			Set<Triple> res = null;
+
+			if (subjectVar != null && binding.containsKey(subjectVar))
+				res = bySubject.get(binding.get(subjectVar));
+			else if (objectVar != null && binding.containsKey(objectVar))
+				res = byObject.get(binding.get(objectVar));
+			else
+				return triples;
+
+			return res == null ? new HashSet<Triple>() : res;
+		}
+
+		/**
+		 * Extends a binding with the variables of the given triple. Returns
+		 * null if the triple is not compatible with the binding.
+		 */
+		Map<String, Node> extend(Map<String, Node> binding, Triple t) {
+			Map<String, Node> res = new HashMap<String, Node>(binding);
+
+			if (subjectVar != null) {
+				Node n = res.get(subjectVar);
+				if (n == null) res.put(subjectVar, t.getSubject());
+				else if (!n.equals(t.getSubject())) return null;
+			}
+
+			if (objectVar != null) {
+				Node n = res.get(objectVar);
+				if (n == null) res.put(objectVar, t.getObject());
+				else if (!n.sameValueAs(t.getObject())) return null;
+			}
+
+			return res;
+		}
+
+		private void index(Map<Node, Set<Triple>> index, Node key, Triple t) {
+			Set<Triple> s = index.get(key);
+			if (s == null) {
+				s = new HashSet<Triple>();
+				index.put(key, s);
+			}
+			s.add(t);
+		}
+
+		private void unindex(Map<Node, Set<Triple>> index, Node key, Triple t) {
+			Set<Triple> s = index.get(key);
+			if (s == null) return;
+			s.remove(t);
+			if (s.isEmpty()) index.remove(key);
+		}
+	}
+
+	/**
+	 * A join node joins a partial binding with the content of an alpha
+	 * memory, on the variables they share. The join nodes of a matcher are
+	 * chained: for each alpha memory, a chain joins a triple of this memory
+	 * with all the other memories, the most connected ones first.
+	 */
+	class JoinNode {
+		final AlphaMemory memory;
+		final JoinNode next;
+
+		JoinNode(AlphaMemory memory, JoinNode next) {
+			this.memory = memory;
+			this.next = next;
+		}
+
+		void join(Map<String, Node> binding, List<Map<String, Node>> results) {
+			for (Triple t : memory.candidates(binding)) {
+				Map<String, Node> extended = memory.extend(binding, t);
+				if (extended == null) continue;
+
+				if (next == null) results.add(extended);
+				else next.join(extended, results);
+			}
+		}
+	}
+
+	private final IOntologyBackend onto;
+
+	private final List<AlphaMemory> memories = new ArrayList<AlphaMemory>();
+	private final Map<AlphaMemory, JoinNode> joinChains = new HashMap<AlphaMemory, JoinNode>();
+
+	/* The variable the results are projected on, or null if we are only
+	 * interested in the number of matches (ie, ASK-like patterns).
+	 */
+	private final String projectedVar;
+
+	/* The amount of full bindings supporting each projected value. */
+	private final Map<Node, Integer> support = new HashMap<Node, Integer>();
+	private int nbMatches = 0;
+
+	/* The values that appeared or disappeared during the last update. */
+	private Set<Node> lastAdded = new HashSet<Node>();
+	private Set<Node> lastRemoved = new HashSet<Node>();
+
+	/**
+	 * Compiles a watch pattern into an incremental matcher.
+	 *
+	 * @param onto the ontology the pattern refers to.
+	 * @param pattern the triple patterns, in their lexical form.
+	 * @param projectedVar the variable the results are projected on, or null.
+	 * @throws IllegalStatementException if one of the patterns is invalid, or
+	 * has an unbound predicate.
+	 */
+	IncrementalMatcher(IOntologyBackend onto, List<String> pattern, String projectedVar) throws IllegalStatementException {
+		this.onto = onto;
+		this.projectedVar = projectedVar;
+
+		for (String s : pattern) {
+			List<String> tokens = Helpers.tokenize(s.trim(), ' ');
+
+			Statement stmt = PartialStatement.isPartialStatement(s) ?
+								onto.createPartialStatement(s) :
+								onto.createStatement(s);
+
+			if (stmt.getPredicate() == null)
+				throw new IllegalStatementException("Unbound predicates are not " +
+						"supported by the incremental matcher.");
+
+			String subjectVar = tokens.get(0).startsWith("?") ? tokens.get(0).substring(1) : null;
+			String objectVar = tokens.get(2).startsWith("?") ? tokens.get(2).substring(1) : null;
+
+			memories.add(new AlphaMemory(
+					subjectVar,
+					subjectVar == null ? stmt.getSubject().asNode() : null,
+					stmt.getPredicate().asNode(),
+					objectVar,
+					objectVar == null ? stmt.getObject().asNode() : null));
+		}
+
+		for (AlphaMemory m : memories)
+			joinChains.put(m, buildJoinChain(m));
+	}
+
+	/**
+	 * Builds the chain of join nodes for triples coming into the given memory:
+	 * the next memory joined is always the one sharing the most variables with
+	 * the ones already joined.
+	 */
+	private JoinNode buildJoinChain(AlphaMemory first) {
+		List<AlphaMemory> order = new ArrayList<AlphaMemory>();
+		Set<String> boundVars = new HashSet<String>();
+
+		if (first.subjectVar != null) boundVars.add(first.subjectVar);
+		if (first.objectVar != null) boundVars.add(first.objectVar);
+
+		List<AlphaMemory> remaining = new ArrayList<AlphaMemory>(memories);
+		remaining.remove(first);
+
+		while (!remaining.isEmpty()) {
+			AlphaMemory best = null;
+			int bestScore = -1;
+			for (AlphaMemory m : remaining) {
+				int score = 0;
+				if (m.subjectVar != null && boundVars.contains(m.subjectVar)) score++;
+				if (m.objectVar != null && boundVars.contains(m.objectVar)) score++;
+				if (score > bestScore) {
+					best = m;
+					bestScore = score;
+				}
+			}
+			remaining.remove(best);
+			order.add(best);
+			if (best.subjectVar != null) boundVars.add(best.subjectVar);
+			if (best.objectVar != null) boundVars.add(best.objectVar);
+		}
+
+		JoinNode chain = null;
+		for (int i = order.size() - 1; i >= 0; i--)
+			chain = new JoinNode(order.get(i), chain);
+
+		return chain;
+	}
+
+	/**
+	 * Returns true if none of the predicates used in the given patterns can be
+	 * inferred by a reasoner, ie if they are bound, are not part of the
+	 * RDF/RDFS/OWL vocabularies, and have no sub-properties, equivalent or
+	 * inverse properties, no special characteristics (transitivity,
+	 * symmetry...), are not defined by a property chain and are not used in
+	 * class restrictions.
+	 */
+	static boolean supports(IOntologyBackend onto, List<String> pattern) {
+
+		Model raw = onto.getModel().getRawModel();
+
+		for (String s : pattern) {
+			Property p;
+			try {
+				Statement stmt = PartialStatement.isPartialStatement(s) ?
+									onto.createPartialStatement(s) :
+									onto.createStatement(s);
+				p = stmt.getPredicate();
+			} catch (IllegalStatementException e) {
+				return false;
+			}
+
+			if (p == null) return false;
+
+			String ns = p.getNameSpace();
+			if (ns == null || ns.equals(RDF.getURI()) || ns.equals(RDFS.getURI()) || ns.equals(OWL.getURI()))
+				return false;
+
+			if (raw.contains(null, RDFS.subPropertyOf, p) ||
+				raw.contains(p, OWL.equivalentProperty, (RDFNode) null) ||
+				raw.contains(null, OWL.equivalentProperty, p) ||
+				raw.contains(p, OWL.inverseOf, (RDFNode) null) ||
+				raw.contains(null, OWL.inverseOf, p) ||
+				raw.contains(p, RDF.type, OWL.TransitiveProperty) ||
+				raw.contains(p, RDF.type, OWL.SymmetricProperty) ||
+				raw.contains(p, RDF.type, REFLEXIVE_PROPERTY) ||
+				raw.contains(p, PROPERTY_CHAIN_AXIOM, (RDFNode) null) ||
+				raw.contains(null, OWL.onProperty, p))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * (Re)builds the alpha memories from the asserted statements of the model,
+	 * and recomputes the whole result.
+	 *
+	 * @return false if some of the matched resources have aliases, ie if the
+	 * matcher can not guarantee its results.
+	 */
+	boolean populate() {
+		Model raw = onto.getModel().getRawModel();
+
+		boolean reliable = true;
+
+		for (AlphaMemory m : memories) {
+			m.clear();
+
+			StmtIterator it = raw.listStatements(
+					m.subject == null ? null : (Resource) raw.asRDFNode(m.subject),
+					raw.asRDFNode(m.predicate).as(Property.class),
+					m.object == null ? null : raw.asRDFNode(m.object));
+
+			while (it.hasNext()) {
+				Triple t = it.nextStatement().asTriple();
+				if (!m.matches(t)) continue;
+				m.add(t);
+				if (hasAliases(t)) reliable = false;
+			}
+		}
+
+		support.clear();
+		nbMatches = 0;
+
+		if (!memories.isEmpty()) {
+			AlphaMemory first = memories.get(0);
+			for (Triple t : first.triples) {
+				for (Map<String, Node> b : joinFrom(first, t))
+					count(b, 1);
+			}
+		}
+
+		lastAdded.clear();
+		lastRemoved.clear();
+
+		return reliable;
+	}
+
+	/**
+	 * Propagates a change of the model through the network.<br/>
+	 *
+	 * The values of the projected variable that appeared or disappeared are
+	 * available through {@link #getLastAdded()} and {@link #getLastRemoved()}.
+	 *
+	 * @param added the added triples
+	 * @param removed the removed triples
+	 * @return false if some of the matched resources have aliases, ie if the
+	 * matcher can not guarantee its results.
+	 */
+	boolean update(Set<Triple> added, Set<Triple> removed) {
+
+		lastAdded = new HashSet<Node>();
+		lastRemoved = new HashSet<Node>();
+
+		boolean reliable = true;
+
+		//Removals first. For a triple matching several patterns, each
+		//combination is counted once by joining before removing the triple
+		//from each memory in turn (and the reverse for additions).
+		for (Triple t : removed) {
+			for (AlphaMemory m : memories) {
+				if (!m.matches(t) || !m.triples.contains(t)) continue;
+				for (Map<String, Node> b : joinFrom(m, t))
+					count(b, -1);
+				m.remove(t);
+			}
+		}
+
+		for (Triple t : added) {
+			for (AlphaMemory m : memories) {
+				if (!m.matches(t) || !m.add(t)) continue;
+				if (hasAliases(t)) reliable = false;
+				for (Map<String, Node> b : joinFrom(m, t))
+					count(b, 1);
+			}
+		}
+
+		//A value both removed and added during the same update didn't change.
+		Set<Node> unchanged = new HashSet<Node>(lastAdded);
+		unchanged.retainAll(lastRemoved);
+		lastAdded.removeAll(unchanged);
+		lastRemoved.removeAll(unchanged);
+
+		return reliable;
+	}
+
+	private List<Map<String, Node>> joinFrom(AlphaMemory m, Triple t) {
+		List<Map<String, Node>> results = new ArrayList<Map<String, Node>>();
+
+		Map<String, Node> binding = m.extend(new HashMap<String, Node>(), t);
+		if (binding == null) return results;
+
+		JoinNode chain = joinChains.get(m);
+		if (chain == null) results.add(binding);
+		else chain.join(binding, results);
+
+		return results;
+	}
+
+	private void count(Map<String, Node> binding, int delta) {
+		nbMatches += delta;
+
+		if (projectedVar == null) return;
+
+		Node value = binding.get(projectedVar);
+		if (value == null) return;
+
+		Integer current = support.get(value);
+		int c = (current == null ? 0 : current) + delta;
+
+		if (c <= 0) {
+			support.remove(value);
+			if (current != null) {
+				lastRemoved.add(value);
+			}
+		}
+		else {
+			support.put(value, c);
+			if (current == null) {
+				lastAdded.add(value);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the subject or the object of the triple have aliases
+	 * (other individuals they are {@code owl:sameAs}), in which case the
+	 * reasoner may infer statements the matcher doesn't see.
+	 */
+	private boolean hasAliases(Triple t) {
+		return hasAliases(t.getSubject()) || hasAliases(t.getObject());
+	}
+
+	private boolean hasAliases(Node n) {
+		if (!n.isURI()) return false;
+
+		Resource r = onto.getModel().getResource(n.getURI());
+
+		StmtIterator it = onto.getModel().listStatements(r, OWL.sameAs, (RDFNode) null);
+		while (it.hasNext()) {
+			if (!it.nextStatement().getObject().equals(r)) {
+				it.close();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the current number of full matches of the pattern.
+	 */
+	int getNbMatches() {
+		return nbMatches;
+	}
+
+	/**
+	 * Returns the current values of the projected variable.
+	 */
+	Set<Node> getValues() {
+		return support.keySet();
+	}
+
+	Set<Node> getLastAdded() {
+		return lastAdded;
+	}
+
+	Set<Node> getLastRemoved() {
+		return lastRemoved;
+	}
+}
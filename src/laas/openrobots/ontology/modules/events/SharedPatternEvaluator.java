@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.modules.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import laas.openrobots.ontology.backends.IOntologyBackend;
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementVisitorBase;
+import com.hp.hpl.jena.sparql.syntax.ElementWalker;
+import com.hp.hpl.jena.sparql.util.FmtUtils;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Evaluates the watch patterns of several watchers at once, sharing the
+ * evaluation of their common triple patterns and of their common
+ * sub-joins.<br/>
+ *
+ * A SharedPatternEvaluator lives for one evaluation cycle of the
+ * {@link EventProcessor}: each distinct triple pattern is evaluated once
+ * against the model, and its bindings are cached. A watcher's result is
+ * then computed by joining the bindings of its triple patterns. The patterns
+ * shared by the most watchers are joined first, and the intermediate joins
+ * are cached as well, so that watchers sharing a sub-join reuse it.<br/>
+ *
+ * Patterns are compared up to the names of their variables:
+ * {@code ?x isVisible true} and {@code ?obj isVisible true} are the same
+ * pattern.<br/>
+ *
+ * Each triple pattern is evaluated alone, on the whole model: the patterns
+ * that match a large part of it whatever the watcher (a variable predicate,
+ * or the types of any individual) are not worth sharing. The watchers that
+ * use one of them run their own query (see {@link #isShared(List)}).<br/>
+ *
+ * The caches are thread-safe: several watchers can be evaluated
+ * concurrently. In the worst case, a piece is evaluated twice.
+ *
+ * @author slemaign
+ * @since 0.9.0
+ */
+class SharedPatternEvaluator {
+
+	/**
+	 * A table of bindings, ie a list of rows mapping variable names to
+	 * values.
+	 */
+	private static class Bindings extends ArrayList<Map<String, RDFNode>> {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * A triple pattern, parsed from a SPARQL row.
+	 */
+	private static class TriplePattern {
+		final Node[] terms;
+		final String key;
+
+		TriplePattern(String sparqlRow) {
+			final List<Triple> triples = new ArrayList<Triple>();
+
+			Query query = QueryFactory.create("SELECT * WHERE { " + sparqlRow + " }", Syntax.syntaxSPARQL);
+			ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase() {
+				@Override
+				public void visit(ElementPathBlock el) {
+					for (TriplePath tp : el.getPattern().getList())
+						triples.add(tp.asTriple());
+				}
+			});
+
+			if (triples.size() != 1 || triples.get(0) == null)
+				throw new IllegalArgumentException("Not a single triple pattern: " + sparqlRow);
+
+			Triple t = triples.get(0);
+			terms = new Node[] {t.getSubject(), t.getPredicate(), t.getObject()};
+
+			key = canonicalKey(Collections.singletonList(this), new HashMap<String, String>());
+		}
+
+		boolean isVariable(int i) {
+			return terms[i].isVariable();
+		}
+
+		/**
+		 * Returns false if the pattern matches a large part of the model,
+		 * whatever the watcher: a variable predicate, or the types of any
+		 * individual.
+		 */
+		boolean isSelective() {
+			if (isVariable(1)) return false;
+
+			if (terms[1].equals(RDF.type.asNode()) && isVariable(0))
+				return !(isVariable(2) || terms[2].equals(OWL.Thing.asNode()) ||
+						terms[2].equals(RDFS.Resource.asNode()));
+
+			return true;
+		}
+	}
+
+	/* The canonical forms are queried as such: they use full URIs. */
+	private static final PrefixMapping NO_PREFIXES = PrefixMapping.Factory.create().lock();
+
+	private final IOntologyBackend onto;
+
+	/* The parsed triple patterns, indexed by their SPARQL row. */
+	private final Map<String, TriplePattern> parsed = new ConcurrentHashMap<String, TriplePattern>();
+
+	/* The number of watchers using each (canonical) triple pattern. */
+	private final Map<String, Integer> usage = new HashMap<String, Integer>();
+
+	/* Bindings of the triple patterns and of the sub-joins, with canonical
+	 * variable names, indexed by their canonical form.
+	 */
+	private final Map<String, Bindings> cache = new ConcurrentHashMap<String, Bindings>();
+
+	private final AtomicLong nbEvaluatedPatterns = new AtomicLong();
+	private final AtomicLong nbReusedPieces = new AtomicLong();
+
+	/**
+	 * Creates an evaluator for a set of watch patterns.
+	 *
+	 * @param onto the ontology the patterns are evaluated against.
+	 * @param patterns the watch patterns that will be evaluated during this
+	 * cycle, each of them given as a list of SPARQL rows.
+	 */
+	SharedPatternEvaluator(IOntologyBackend onto, List<List<String>> patterns) {
+		this.onto = onto;
+
+		for (List<String> pattern : patterns) {
+			if (!isSelective(pattern)) continue;
+
+			for (String row : pattern) {
+				String key = parse(row).key;
+				Integer c = usage.get(key);
+				usage.put(key, c == null ? 1 : c + 1);
+			}
+		}
+	}
+
+	private TriplePattern parse(String row) {
+		TriplePattern p = parsed.get(row);
+		if (p == null) {
+			p = new TriplePattern(row);
+			parsed.put(row, p);
+		}
+		return p;
+	}
+
+	private boolean isSelective(List<String> pattern) {
+		for (String row : pattern)
+			if (!parse(row).isSelective()) return false;
+		return true;
+	}
+
+	/**
+	 * Returns true if at least one of the triple patterns of the given watch
+	 * pattern is shared with another watcher, and if all of them are
+	 * selective enough to be evaluated alone.
+	 */
+	boolean isShared(List<String> pattern) {
+		if (!isSelective(pattern)) return false;
+
+		for (String row : pattern) {
+			Integer c = usage.get(parse(row).key);
+			if (c != null && c > 1) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the watch pattern has at least one match.
+	 */
+	boolean ask(List<String> pattern) {
+		return !evaluate(pattern, new HashMap<String, String>()).isEmpty();
+	}
+
+	/**
+	 * Returns the values of the given variable for all the matches of the
+	 * watch pattern.
+	 */
+	List<RDFNode> select(List<String> pattern, String varName) {
+		Map<String, String> renaming = new HashMap<String, String>();
+		Bindings bindings = evaluate(pattern, renaming);
+
+		List<RDFNode> res = new ArrayList<RDFNode>();
+
+		String canonicalVar = renaming.get("?" + varName);
+		if (canonicalVar == null) return res;
+
+		for (Map<String, RDFNode> row : bindings) {
+			RDFNode n = row.get(canonicalVar);
+			if (n != null) res.add(n);
+		}
+		return res;
+	}
+
+	/**
+	 * Joins the bindings of the triple patterns of a watch pattern, the most
+	 * shared patterns first, and reusing the cached sub-joins.
+	 *
+	 * @param renaming filled with the mapping from the watcher's variable
+	 * names to the canonical ones.
+	 */
+	private Bindings evaluate(List<String> pattern, Map<String, String> renaming) {
+
+		List<TriplePattern> patterns = new ArrayList<TriplePattern>();
+		for (String row : pattern) patterns.add(parse(row));
+
+		Collections.sort(patterns, new Comparator<TriplePattern>() {
+			@Override
+			public int compare(TriplePattern p1, TriplePattern p2) {
+				int u1 = usage.containsKey(p1.key) ? usage.get(p1.key) : 0;
+				int u2 = usage.containsKey(p2.key) ? usage.get(p2.key) : 0;
+				if (u1 != u2) return u2 - u1;
+				return p1.key.compareTo(p2.key);
+			}
+		});
+
+		Bindings result = null;
+		List<TriplePattern> prefix = new ArrayList<TriplePattern>();
+
+		for (TriplePattern p : patterns) {
+			prefix.add(p);
+
+			renaming.clear();
+			String prefixKey = canonicalKey(prefix, renaming);
+
+			Bindings cached = cache.get(prefixKey);
+
+			if (cached != null) {
+				nbReusedPieces.incrementAndGet();
+				result = cached;
+			}
+			else {
+				//The bindings of the pattern alone, renamed after the prefix.
+				Bindings patternBindings = rename(getPatternBindings(p), p, renaming);
+
+				result = (result == null) ? patternBindings : join(result, patternBindings);
+				cache.put(prefixKey, result);
+			}
+
+			//No need to go further.
+			if (result.isEmpty()) break;
+		}
+
+		//the renaming for the whole pattern, even if we stopped early.
+		renaming.clear();
+		canonicalKey(patterns, renaming);
+
+		return result == null ? new Bindings() : result;
+	}
+
+	/**
+	 * Returns the bindings of a single triple pattern, with the canonical
+	 * variable names of the pattern.
+	 */
+	private Bindings getPatternBindings(TriplePattern p) {
+
+		Bindings res = cache.get(p.key);
+		if (res != null) {
+			nbReusedPieces.incrementAndGet();
+			return res;
+		}
+
+		res = new Bindings();
+
+		boolean hasVariables = p.isVariable(0) || p.isVariable(1) || p.isVariable(2);
+
+		//The canonical form of a single pattern is a valid SPARQL row.
+		Query query = QueryFactory.create((hasVariables ? "SELECT * " : "ASK ") +
+				"WHERE { " + p.key + " }", Syntax.syntaxSPARQL);
+
+		QueryExecution exec = QueryExecutionFactory.create(query, onto.getModel());
+
+		if (!hasVariables) {
+			if (exec.execAsk()) res.add(new HashMap<String, RDFNode>());
+		}
+		else {
+			ResultSet rs = exec.execSelect();
+			while (rs.hasNext()) {
+				QuerySolution sol = rs.nextSolution();
+				Map<String, RDFNode> row = new HashMap<String, RDFNode>();
+
+				Iterator<String> vars = sol.varNames();
+				while (vars.hasNext()) {
+					String v = vars.next();
+					row.put("?" + v, sol.get(v));
+				}
+				res.add(row);
+			}
+		}
+
+		nbEvaluatedPatterns.incrementAndGet();
+		cache.put(p.key, res);
+
+		return res;
+	}
+
+	/**
+	 * Renames the variables of the bindings of a single triple pattern (named
+	 * after the canonical form of the pattern alone) after the canonical form
+	 * of a prefix.
+	 */
+	private Bindings rename(Bindings bindings, TriplePattern p, Map<String, String> prefixRenaming) {
+		Map<String, String> patternRenaming = new HashMap<String, String>();
+		canonicalKey(Collections.singletonList(p), patternRenaming);
+
+		Map<String, String> mapping = new HashMap<String, String>();
+		for (Map.Entry<String, String> e : patternRenaming.entrySet())
+			mapping.put(e.getValue(), prefixRenaming.get(e.getKey()));
+
+		Bindings res = new Bindings();
+
+		rows:
+		for (Map<String, RDFNode> row : bindings) {
+			Map<String, RDFNode> newRow = new HashMap<String, RDFNode>();
+			for (Map.Entry<String, RDFNode> e : row.entrySet()) {
+				String v = mapping.get(e.getKey());
+				RDFNode previous = newRow.put(v, e.getValue());
+				//Two canonical variables mapping to the same one can not
+				//happen since the renaming is consistent within a pattern.
+				if (previous != null && !previous.equals(e.getValue())) continue rows;
+			}
+			res.add(newRow);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Hash join of two tables of bindings on their common variables.
+	 */
+	private Bindings join(Bindings left, Bindings right) {
+		Bindings res = new Bindings();
+
+		if (left.isEmpty() || right.isEmpty()) return res;
+
+		List<String> commonVars = new ArrayList<String>(left.get(0).keySet());
+		commonVars.retainAll(right.get(0).keySet());
+
+		Map<List<RDFNode>, List<Map<String, RDFNode>>> index = new HashMap<List<RDFNode>, List<Map<String, RDFNode>>>();
+		for (Map<String, RDFNode> row : right) {
+			List<RDFNode> k = new ArrayList<RDFNode>();
+			for (String v : commonVars) k.add(row.get(v));
+
+			List<Map<String, RDFNode>> rows = index.get(k);
+			if (rows == null) {
+				rows = new ArrayList<Map<String, RDFNode>>();
+				index.put(k, rows);
+			}
+			rows.add(row);
+		}
+
+		for (Map<String, RDFNode> row : left) {
+			List<RDFNode> k = new ArrayList<RDFNode>();
+			for (String v : commonVars) k.add(row.get(v));
+
+			List<Map<String, RDFNode>> matches = index.get(k);
+			if (matches == null) continue;
+
+			for (Map<String, RDFNode> m : matches) {
+				Map<String, RDFNode> newRow = new HashMap<String, RDFNode>(row);
+				newRow.putAll(m);
+				res.add(newRow);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Returns the canonical form of a sequence of triple patterns: the
+	 * variables are renamed ?v0, ?v1... in their order of appearance.
+	 *
+	 * @param renaming filled with the mapping from the original variable names
+	 * to the canonical ones.
+	 */
+	private static String canonicalKey(List<TriplePattern> patterns, Map<String, String> renaming) {
+		StringBuilder key = new StringBuilder();
+
+		for (TriplePattern p : patterns) {
+			for (int i = 0; i < 3; i++) {
+				String t;
+				if (p.isVariable(i)) {
+					String name = "?" + p.terms[i].getName();
+					t = renaming.get(name);
+					if (t == null) {
+						t = "?v" + renaming.size();
+						renaming.put(name, t);
+					}
+				}
+				else t = FmtUtils.stringForNode(p.terms[i], NO_PREFIXES);
+				key.append(t).append(i < 2 ? " " : " . ");
+			}
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Logs how many triple patterns were actually evaluated, and how many
+	 * pieces were reused.
+	 */
+	void logStatistics() {
+		Logger.log("Shared evaluation of " + usage.size() + " distinct triple " +
+				"patterns: " + nbEvaluatedPatterns + " evaluated, " +
+				nbReusedPieces + " cached results reused.\n", VerboseLevel.DEBUG);
+	}
+}
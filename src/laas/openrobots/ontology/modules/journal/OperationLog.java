@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.modules.journal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.Pair;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+import laas.openrobots.ontology.modules.memory.MemoryProfile;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.JenaException;
+
+/**
+ * An append-only journal (or write-ahead log) of the modifications of the
+ * ontology.<br/>
+ *
+ * Each committed batch of added, removed or updated statements is appended to
+ * the journal as a block made of a header line ({@code <operation>
+ * <memory profile> <timestamp>}), the statements in N-Triples, and a line
+ * with a single dot. A block interrupted by a crash is ignored at replay.<br/>
+ *
+ * Appends are buffered, and forced to disk according to the {@link SyncPolicy}:
+ * with {@link SyncPolicy#PERIODIC}, all the batches appended during the sync
+ * period are committed together, with a single fsync.<br/>
+ *
+ * A {@linkplain #checkpoint(Model, Map) checkpoint} writes the whole set of
+ * asserted statements (and the memory metadata) to a separate file, and then
+ * truncates the journal. The state of the ontology is restored by replaying
+ * the checkpoint, then the journal (see {@link Reader}).
+ *
+ * @since 0.9.0
+ */
+public class OperationLog {
+
+	/**
+	 * The operations recorded in the journal.
+	 */
+	public enum Operation {
+		/** statements added with {@code add} */
+		ADD ('A'),
+		/** statements removed with {@code remove} or {@code clear} */
+		REMOVE ('R'),
+		/** statements asserted with {@code update} */
+		UPDATE ('U'),
+		/** checkpoint: the whole set of asserted statements */
+		CHECKPOINT ('C');
+
+		private final char code;
+
+		Operation(char code) {
+			this.code = code;
+		}
+
+		static Operation fromCode(char code) {
+			for (Operation o : values())
+				if (o.code == code) return o;
+			return null;
+		}
+	}
+
+	/**
+	 * When the journal is forced to disk.
+	 */
+	public enum SyncPolicy {
+		/** after each appended batch, before the modification is acknowledged */
+		ALWAYS,
+		/** at most once per sync period, for all the batches appended in between */
+		PERIODIC,
+		/** never: the operating system decides when data reach the disk */
+		NEVER;
+
+		public static SyncPolicy fromString(String policy) {
+			try {
+				return Enum.valueOf(SyncPolicy.class, policy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return PERIODIC;
+			}
+		}
+	}
+
+	/**
+	 * A batch of statements read from the journal.
+	 */
+	public static class Entry {
+		public final Operation operation;
+		public final MemoryProfile memProfile;
+		public final long timestamp;
+		public final Set<Statement> statements;
+
+		Entry(Operation operation, MemoryProfile memProfile, long timestamp, Set<Statement> statements) {
+			this.operation = operation;
+			this.memProfile = memProfile;
+			this.timestamp = timestamp;
+			this.statements = statements;
+		}
+	}
+
+	/**
+	 * Reads the entries of a journal (or of a checkpoint), one after the
+	 * other.
+	 */
+	public static class Reader {
+
+		private BufferedReader in;
+
+		public Reader(File file) throws IOException {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		}
+
+		/**
+		 * Returns the next complete entry, or null at the end of the file (or
+		 * at the first incomplete or corrupted entry).
+		 */
+		public Entry next() throws IOException {
+
+			String header = in.readLine();
+			if (header == null) return null;
+
+			String[] tokens = header.split(" ");
+			if (tokens.length != 3 || tokens[0].length() != 1 || Operation.fromCode(tokens[0].charAt(0)) == null) {
+				Logger.log("Invalid journal entry header: " + header + ". Ignoring the rest of the journal.\n", VerboseLevel.ERROR);
+				return null;
+			}
+
+			StringBuilder block = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null && !line.equals("."))
+				block.append(line).append("\n");
+
+			//No terminating dot: the entry was being written when the server
+			//stopped.
+			if (line == null) {
+				Logger.log("Incomplete last entry in the journal. Ignoring it.\n", VerboseLevel.WARNING);
+				return null;
+			}
+
+			Model m = ModelFactory.createDefaultModel();
+			try {
+				m.read(new StringReader(block.toString()), null, "N-TRIPLE");
+			} catch (JenaException je) {
+				Logger.log("Corrupted journal entry (" + je.getMessage() + "). Ignoring the rest of the journal.\n", VerboseLevel.ERROR);
+				return null;
+			}
+
+			try {
+				return new Entry(Operation.fromCode(tokens[0].charAt(0)),
+								MemoryProfile.fromString(tokens[1]),
+								Long.parseLong(tokens[2]),
+								m.listStatements().toSet());
+			} catch (NumberFormatException nfe) {
+				Logger.log("Invalid journal entry header: " + header + ". Ignoring the rest of the journal.\n", VerboseLevel.ERROR);
+				return null;
+			}
+		}
+
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private final File journal;
+	private final File checkpoint;
+
+	private final SyncPolicy syncPolicy;
+	private final long syncPeriod;
+
+	private FileOutputStream out;
+	private Writer writer;
+
+	private boolean dirty = false;
+	private long lastSync;
+	private long nbEntries = 0;
+
+	/**
+	 * Creates a journal. The journal is only opened for writing by
+	 * {@link #open()}, which allows to first replay it.
+	 *
+	 * @param path the path to the journal file. The checkpoint is stored
+	 * alongside, with the {@code .checkpoint} suffix.
+	 * @param syncPolicy when appended entries are forced to disk
+	 * @param syncPeriod with {@link SyncPolicy#PERIODIC}, the maximum delay
+	 * (in ms) before appended entries are forced to disk.
+	 */
+	public OperationLog(String path, SyncPolicy syncPolicy, long syncPeriod) {
+		journal = new File(path);
+		checkpoint = new File(path + ".checkpoint");
+		this.syncPolicy = syncPolicy;
+		this.syncPeriod = syncPeriod;
+	}
+
+	public File getJournalFile() {
+		return journal;
+	}
+
+	public File getCheckpointFile() {
+		return checkpoint;
+	}
+
+	/**
+	 * Returns the number of entries appended since the journal was opened or
+	 * last truncated.
+	 */
+	public long size() {
+		return nbEntries;
+	}
+
+	/**
+	 * Opens the journal for appending.
+	 */
+	public void open() throws IOException {
+		out = new FileOutputStream(journal, true);
+		writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Appends a batch of statements to the journal.
+	 *
+	 * With the {@link SyncPolicy#ALWAYS} policy, the entry is on disk when
+	 * this method returns.
+	 */
+	public void append(Operation operation, MemoryProfile memProfile, long timestamp, Set<Statement> statements) throws IOException {
+
+		if (statements.isEmpty()) return;
+
+		Model m = ModelFactory.createDefaultModel();
+		for (Statement s : statements) m.add(s);
+
+		writeEntry(writer, operation, memProfile, timestamp, m);
+
+		nbEntries++;
+		dirty = true;
+
+		if (syncPolicy == SyncPolicy.ALWAYS) sync();
+		else if (syncPolicy == SyncPolicy.NEVER) writer.flush();
+	}
+
+	private static void writeEntry(Writer w, Operation operation, MemoryProfile memProfile, long timestamp, Model statements) throws IOException {
+		w.write(operation.code + " " + memProfile + " " + timestamp + "\n");
+		statements.write(w, "N-TRIPLE");
+		w.write(".\n");
+	}
+
+	/**
+	 * Forces the entries appended since the last call to disk.
+	 */
+	public void sync() throws IOException {
+		if (!dirty) return;
+
+		writer.flush();
+		out.getFD().sync();
+
+		dirty = false;
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * With the {@link SyncPolicy#PERIODIC} policy, forces the pending entries
+	 * to disk if the sync period is over. Meant to be called at each step of
+	 * the server main loop.
+	 */
+	public void step() throws IOException {
+		if (syncPolicy == SyncPolicy.PERIODIC &&
+			System.currentTimeMillis() - lastSync >= syncPeriod)
+			sync();
+	}
+
+	/**
+	 * Writes a checkpoint, and truncates the journal.<br/>
+	 *
+	 * The checkpoint is first written to a temporary file, which then
+	 * atomically replaces the previous checkpoint. If the server stops between
+	 * the replacement of the checkpoint and the truncation of the journal, the
+	 * journal entries are replayed again on top of the checkpoint, which is
+	 * harmless since they are already part of it.
+	 *
+	 * @param asserted the whole set of asserted statements
+	 * @param memoryMetadata the statements in non-permanent memory, by memory
+	 * profile and creation date.
+	 */
+	public void checkpoint(Model asserted, Map<Pair<MemoryProfile, Long>, Set<Statement>> memoryMetadata) throws IOException {
+
+		long startTime = System.currentTimeMillis();
+
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+		FileOutputStream cpOut = new FileOutputStream(tmp);
+		Writer cpWriter = new BufferedWriter(new OutputStreamWriter(cpOut, "UTF-8"));
+
+		try {
+			writeEntry(cpWriter, Operation.CHECKPOINT, MemoryProfile.DEFAULT, startTime, asserted);
+
+			for (Map.Entry<Pair<MemoryProfile, Long>, Set<Statement>> e : memoryMetadata.entrySet()) {
+				Model m = ModelFactory.createDefaultModel();
+				for (Statement s : e.getValue()) m.add(s);
+				writeEntry(cpWriter, Operation.ADD, e.getKey().getLeft(), e.getKey().getRight(), m);
+			}
+
+			cpWriter.flush();
+			cpOut.getFD().sync();
+		}
+		finally {
+			cpWriter.close();
+		}
+
+		if (!tmp.renameTo(checkpoint))
+			throw new IOException("Could not replace the checkpoint " + checkpoint);
+
+		//Truncate the journal
+		writer.close();
+		out = new FileOutputStream(journal, false);
+		writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		dirty = false;
+		nbEntries = 0;
+
+		Logger.log("Checkpoint written to " + checkpoint + " in " +
+				(System.currentTimeMillis() - startTime) + "ms. Journal truncated.\n");
+	}
+
+	/**
+	 * Forces the pending entries to disk, and closes the journal.
+	 */
+	public void close() {
+		try {
+			writer.flush();
+			out.getFD().sync();
+			writer.close();
+		} catch (IOException e) {
+			Logger.log("Error while closing the journal: " + e.getMessage() + "\n", VerboseLevel.ERROR);
+		}
+	}
+}
@@ -17,21 +17,48 @@
 package laas.openrobots.ontology.modules.memory;
 
 import java.text.ParseException;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import laas.openrobots.ontology.helpers.Helpers;
 import laas.openrobots.ontology.helpers.Logger;
 import laas.openrobots.ontology.helpers.Namespaces;
+import laas.openrobots.ontology.helpers.Pair;
 import laas.openrobots.ontology.helpers.VerboseLevel;
 
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.OntModel;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RSIterator;
 import com.hp.hpl.jena.rdf.model.ReifiedStatement;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.AlreadyReifiedException;
 import com.hp.hpl.jena.shared.PropertyNotFoundException;
 
+/**
+ * The memory manager keeps track of the statements stored in non-permanent 
+ * memory (see {@link MemoryProfile}) and tells when they must be removed from
+ * the ontology.
+ * 
+ * The memory profile and the creation date of these statements are kept in a
+ * side table, keyed by the statement itself, and not in the ontology: storing
+ * them as reified statements would add six triples per statement, all of them
+ * going through the reasoner. They can however be exposed in the ontology on 
+ * demand, with {@link #exposeMetadata()}.
+ * 
+ * The expiry date of each statement is computed once, when the statement is 
+ * added (see {@link #record(Statement, MemoryProfile, long)}), and kept in a
+ * priority queue ordered by expiry date: a garbage collection only touches the
+ * statements that are actually due, whatever the number of statements in 
+ * short term or episodic memory.
+ */
 public class MemoryManager {
 
 	private final static int KNOWLEDGE_GARBAGE_COLLECTION_FREQ = 200; //in milliseconds
@@ -44,32 +71,162 @@ public class MemoryManager {
 	private Property p_createdOn;
 	Property p_memoryProfile;
 	
+	/**
+	 * The memory metadata of the statements in non-permanent memory.
+	 */
+	private Map<Triple, Metadata> metadata;
+	
+	/**
+	 * Pending expiries, the soonest first. Expiries whose date differ from the 
+	 * one in {@link #metadata} are outdated (the statement has been added 
+	 * again or removed since then) and are skipped.
+	 */
+	private PriorityQueue<Expiry> expiries;
+	
+	/**
+	 * The amount of statements in each memory profile, kept up to date with
+	 * {@link #metadata}.
+	 */
+	private Map<MemoryProfile, Integer> profileSizes;
+	
+	private static class Metadata {
+		final long createdOn;
+		final MemoryProfile memProfile;
+		final long expiry;
+		
+		Metadata(long createdOn, MemoryProfile memProfile) {
+			this.createdOn = createdOn;
+			this.memProfile = memProfile;
+			this.expiry = createdOn + memProfile.duration();
+		}
+	}
+	
+	private static class Expiry implements Comparable<Expiry> {
+		final long time;
+		final Triple stmt;
+		
+		Expiry(long time, Triple stmt) {
+			this.time = time;
+			this.stmt = stmt;
+		}
+
+		@Override
+		public int compareTo(Expiry o) {
+			return (time < o.time) ? -1 : ((time == o.time) ? 0 : 1);
+		}
+	}
+	
 	public MemoryManager(OntModel model) {
 		
 		onto = model;
 		watchedStmt = new HashSet<String>();
 		
+		metadata = new HashMap<Triple, Metadata>();
+		expiries = new PriorityQueue<Expiry>();
+		profileSizes = new EnumMap<MemoryProfile, Integer>(MemoryProfile.class);
 
 		p_createdOn = onto.createProperty(Namespaces.addDefault("stmtCreatedOn"));
 		p_memoryProfile = onto.createProperty(Namespaces.addDefault("stmtMemoryProfile"));
 		
+		recordExisting();
+		
 		last_gc = new Date().getTime();
 	}
 	
 	/**
-	 * Checks if facts that are stored in non-permanent memory must be garbage
-	 * collected.
+	 * Records the memory profile and the creation date of a statement, and 
+	 * schedules its expiry.
 	 * 
-	 * @return null, if no garbage collection took place (because of the last time
-	 * this method was called is smaller than KNOWLEDGE_GARBAGE_COLLECTION_FREQ; 
-	 * else a set of (reified) statements to remove.
+	 * Statements in long term memory are not recorded. If the statement was
+	 * already recorded, the new metadata replace the previous ones.
+	 * 
+	 * @param stmt the statement
+	 * @param memProfile the memory profile the statement has been added to
+	 * @param createdOn the creation date of the statement, in milliseconds 
+	 * since epoch
+	 * @since 0.9.0
 	 */
-	public Set<ReifiedStatement> gc() {
+	public void record(Statement stmt, MemoryProfile memProfile, long createdOn) {
 		
-		long now = new Date().getTime(); 
-		if (now - last_gc < KNOWLEDGE_GARBAGE_COLLECTION_FREQ) return null;
+		if (memProfile.duration() < 0) return;
 		
-		Set<ReifiedStatement> stmtToRemove = new HashSet<ReifiedStatement>();
+		Metadata m = new Metadata(createdOn, memProfile);
+		
+		Metadata previous = metadata.put(stmt.asTriple(), m);
+		if (previous != null) count(previous.memProfile, -1);
+		count(memProfile, 1);
+		
+		expiries.add(new Expiry(m.expiry, stmt.asTriple()));
+	}
+	
+	/**
+	 * Forgets the metadata of a statement, typically because it has been 
+	 * removed from the ontology. The statement won't be garbage collected.
+	 * 
+	 * @param stmt the statement
+	 * @since 0.9.0
+	 */
+	public void forget(Statement stmt) {
+		Metadata m = metadata.remove(stmt.asTriple());
+		if (m != null) count(m.memProfile, -1);
+	}
+	
+	private void count(MemoryProfile memProfile, int delta) {
+		Integer n = profileSizes.get(memProfile);
+		profileSizes.put(memProfile, ((n == null) ? 0 : n) + delta);
+	}
+	
+	/**
+	 * Returns the number of statements currently held in non-permanent memory.
+	 * 
+	 * @since 0.9.0
+	 */
+	public int size() {
+		return metadata.size();
+	}
+	
+	/**
+	 * Returns the number of statements currently held in a given memory 
+	 * profile. Statements in long term memory are not tracked: 0 is returned
+	 * for {@link MemoryProfile#LONGTERM}.
+	 * 
+	 * @since 0.9.0
+	 */
+	public int size(MemoryProfile memProfile) {
+		Integer n = profileSizes.get(memProfile);
+		return (n == null) ? 0 : n;
+	}
+	
+	/**
+	 * Returns the statements currently held in non-permanent memory, grouped
+	 * by memory profile and creation date (in milliseconds since epoch).
+	 * 
+	 * @since 0.9.0
+	 */
+	public Map<Pair<MemoryProfile, Long>, Set<Statement>> getMetadata() {
+		
+		Map<Pair<MemoryProfile, Long>, Set<Statement>> res = new HashMap<Pair<MemoryProfile, Long>, Set<Statement>>();
+		
+		for (Map.Entry<Triple, Metadata> e : metadata.entrySet()) {
+			Pair<MemoryProfile, Long> key = new Pair<MemoryProfile, Long>(e.getValue().memProfile, e.getValue().createdOn);
+			
+			Set<Statement> stmts = res.get(key);
+			if (stmts == null) {
+				stmts = new HashSet<Statement>();
+				res.put(key, stmts);
+			}
+			stmts.add(onto.asStatement(e.getKey()));
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Records the metadata of the reified statements already present in the
+	 * model (for instance, loaded from an ontology saved after a call to
+	 * {@link #exposeMetadata()}).
+	 */
+	private void recordExisting() {
 		
 		RSIterator rsIter = onto.listReifiedStatements() ;
 		
@@ -80,16 +237,10 @@ public class MemoryManager {
             try {
 
             	String lexicalDate = rs.getRequiredProperty(p_createdOn).getLiteral().getLexicalForm();
-                
-                long elapsedTime = (now - Helpers.getDateFromXSD(lexicalDate).getTime());
-                
 
                 MemoryProfile memProfile = MemoryProfile.fromString(rs.getRequiredProperty(p_memoryProfile).getString());
                 
-                if (elapsedTime > memProfile.duration())
-                {
-                	stmtToRemove.add(rs);
-                }
+                record(rs.getStatement(), memProfile, Helpers.getDateFromXSD(lexicalDate).getTime());
             	
             }
             catch (PropertyNotFoundException pnfe)
@@ -99,6 +250,96 @@ public class MemoryManager {
 				Logger.log("The creation date of [" + Namespaces.toLightString(rs.getStatement()) + "] could not be parsed!\n", VerboseLevel.SERIOUS_ERROR);
 			}
         }
+	}
+	
+	/**
+	 * Adds to the model, as reified statements, the memory profile and the 
+	 * creation date of the statements currently held in non-permanent memory.
+	 * 
+	 * Each statement is reified as {@code rs_<hash of the statement>}, with 
+	 * the {@code stmtCreatedOn} and {@code stmtMemoryProfile} properties. 
+	 * Statements already exposed are updated.
+	 * These reifications are removed with the statements when they expire.
+	 * 
+	 * @return the metadata statements added to the model
+	 * @since 0.9.0
+	 */
+	public Set<Statement> exposeMetadata() {
+		
+		Set<Statement> added = new HashSet<Statement>();
+		
+		for (Map.Entry<Triple, Metadata> e : metadata.entrySet()) {
+			Statement stmt = onto.asStatement(e.getKey());
+			
+			ReifiedStatement rs = null;
+			
+			//Reuse the reification exposed by a previous call, if any.
+			RSIterator existing = stmt.listReifiedStatements();
+			if (existing.hasNext()) rs = existing.nextRS();
+			existing.close();
+			
+			if (rs == null) {
+				//create a name for this reified statement (concatenation of "rs" with hash made from S + P + O)
+				String rsName = "rs_" + Math.abs(stmt.hashCode()); 
+				
+				try {
+					rs = onto.createReifiedStatement(Namespaces.addDefault(rsName), stmt);
+				} catch (AlreadyReifiedException are) {
+					//Two statements with the same hash: the second one is
+					//reified as a blank node.
+					rs = onto.createReifiedStatement(stmt);
+				}
+			}
+			
+			Calendar createdOn = Calendar.getInstance();
+			createdOn.setTimeInMillis(e.getValue().createdOn);
+			
+			rs.removeAll(p_createdOn);
+			rs.removeAll(p_memoryProfile);
+			
+			Statement metaStmt = onto.createStatement(rs, p_createdOn, onto.createTypedLiteral(createdOn));
+			Statement metaStmt2 = onto.createStatement(rs, p_memoryProfile, onto.createTypedLiteral(e.getValue().memProfile.toString(), XSDDatatype.XSDstring));
+			onto.add(metaStmt);
+			onto.add(metaStmt2);
+			added.add(metaStmt);
+			added.add(metaStmt2);
+		}
+		
+		return added;
+	}
+	
+	/**
+	 * Checks if facts that are stored in non-permanent memory must be garbage
+	 * collected.
+	 * 
+	 * @return null, if no garbage collection took place (because of the last time
+	 * this method was called is smaller than KNOWLEDGE_GARBAGE_COLLECTION_FREQ; 
+	 * else a set of statements to remove.
+	 */
+	public Set<Statement> gc() {
+		
+		long now = new Date().getTime(); 
+		if (now - last_gc < KNOWLEDGE_GARBAGE_COLLECTION_FREQ) return null;
+		
+		last_gc = now;
+		
+		Set<Statement> stmtToRemove = new HashSet<Statement>();
+		
+		while (!expiries.isEmpty() && expiries.peek().time < now) {
+			
+			Expiry e = expiries.poll();
+			
+			Metadata m = metadata.get(e.stmt);
+			
+			//Outdated expiry: the statement has been re-added or removed 
+			//since then.
+			if (m == null || m.expiry != e.time) continue;
+			
+			metadata.remove(e.stmt);
+			count(m.memProfile, -1);
+			
+			stmtToRemove.add(onto.asStatement(e.stmt));
+		}
 	    
         return stmtToRemove;	
 	}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2010 LAAS-CNRS Séverin Lemaignan slemaign@laas.fr
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+*/
+
+package laas.openrobots.ontology.modules.snapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import laas.openrobots.ontology.backends.IOntologyBackend;
+import laas.openrobots.ontology.backends.OntologySnapshot;
+import laas.openrobots.ontology.exceptions.IllegalStatementException;
+import laas.openrobots.ontology.exceptions.InvalidQueryException;
+import laas.openrobots.ontology.exceptions.OntologyServerException;
+import laas.openrobots.ontology.helpers.Logger;
+import laas.openrobots.ontology.helpers.VerboseLevel;
+import laas.openrobots.ontology.modules.base.BaseModule;
+import laas.openrobots.ontology.service.IServiceProvider;
+import laas.openrobots.ontology.service.RPCMethod;
+
+import com.hp.hpl.jena.shared.NotFoundException;
+
+/**
+ * This module exposes read-only RPC methods that run against the last
+ * published {@linkplain OntologySnapshot snapshot} of the ontology instead of
+ * the live model.<br/>
+ *
+ * These methods are marked as {@linkplain RPCMethod#concurrent() concurrent}:
+ * they are executed directly by the connector thread, and never wait for (nor
+ * stall) the server main loop. This is typically useful for long analytical
+ * queries issued by monitoring or logging tools.<br/>
+ *
+ * Snapshots must be enabled with the {@code snapshots = true} option in the
+ * server configuration file. They are not classified by the reasoner: their
+ * inferences are those of the materialized closure of their statements.
+ *
+ * @author slemaign
+ * @see BaseModule for the semantics of each of these methods.
+ * @since 0.9.0
+ */
+public class SnapshotModule implements IServiceProvider {
+
+	private IOntologyBackend oro;
+
+	public SnapshotModule(IOntologyBackend oro) {
+		this.oro = oro;
+	}
+
+	private OntologySnapshot getSnapshot() throws OntologyServerException {
+		OntologySnapshot snapshot = oro.getSnapshot();
+
+		if (snapshot == null) {
+			Logger.log("Snapshots are disabled. Set 'snapshots = true' in the " +
+					"server configuration file to enable them.\n", VerboseLevel.ERROR);
+			throw new OntologyServerException("Snapshots are disabled. Set " +
+					"'snapshots = true' in the server configuration file to " +
+					"enable them.");
+		}
+
+		return snapshot;
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "returns the version, the age (in ms) and the size of the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Map<String, String> snapshotInfos() throws OntologyServerException {
+		OntologySnapshot snapshot = getSnapshot();
+
+		Map<String, String> res = new HashMap<String, String>();
+		res.put("version", String.valueOf(snapshot.getVersion()));
+		res.put("age", String.valueOf(System.currentTimeMillis() - snapshot.getTimestamp()));
+		res.put("size", String.valueOf(snapshot.size()));
+
+		return res;
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "like 'find', but runs against the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Set<String> findInSnapshot(String varName, Set<String> statements) throws IllegalStatementException, OntologyServerException {
+		return findInSnapshot(varName, statements, null);
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "like 'find' with filters, but runs against the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Set<String> findInSnapshot(String varName, Set<String> statements, Set<String> filters) throws IllegalStatementException, OntologyServerException {
+		OntologySnapshot snapshot = getSnapshot();
+
+		synchronized (snapshot) {
+			return new BaseModule(snapshot.getBackend()).find(varName, statements, filters);
+		}
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "like 'query', but runs against the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Set<String> queryInSnapshot(String key, String q) throws InvalidQueryException, OntologyServerException {
+		OntologySnapshot snapshot = getSnapshot();
+
+		synchronized (snapshot) {
+			return new BaseModule(snapshot.getBackend()).query(key, q);
+		}
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "like 'check', but runs against the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Boolean checkInSnapshot(Set<String> stmts) throws IllegalStatementException, OntologyServerException {
+		OntologySnapshot snapshot = getSnapshot();
+
+		synchronized (snapshot) {
+			return new BaseModule(snapshot.getBackend()).check(stmts);
+		}
+	}
+
+	@RPCMethod(
+			category = "snapshot",
+			desc = "like 'getInfos', but runs against the last published snapshot of the ontology.",
+			concurrent = true
+	)
+	public Set<String> getInfosInSnapshot(String lex_resource) throws NotFoundException, OntologyServerException {
+		OntologySnapshot snapshot = getSnapshot();
+
+		synchronized (snapshot) {
+			return new BaseModule(snapshot.getBackend()).getInfos(lex_resource);
+		}
+	}
+}
@@ -65,4 +65,14 @@ public @interface RPCMethod {
 	 * Contains a short description of the purpose of the service. 
 	 */
 	public String desc() default "";
+	/**
+	 * If true, the method doesn't need to be executed by the server main 
+	 * loop: connectors are allowed to invoke it directly from their own 
+	 * thread. Only methods that never access the live ontology model (for 
+	 * instance, methods working on an 
+	 * {@linkplain laas.openrobots.ontology.backends.OntologySnapshot ontology snapshot})
+	 * can be marked as concurrent.
+	 * Optional, false by default.
+	 */
+	public boolean concurrent() default false;
 }
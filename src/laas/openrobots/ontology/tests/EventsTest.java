@@ -16,6 +16,7 @@
 
 package laas.openrobots.ontology.tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -23,6 +24,7 @@ import static org.junit.Assert.fail;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
@@ -37,6 +39,7 @@ import laas.openrobots.ontology.exceptions.IllegalStatementException;
 import laas.openrobots.ontology.exceptions.InvalidEventDescriptorException;
 import laas.openrobots.ontology.exceptions.InvalidModelException;
 import laas.openrobots.ontology.exceptions.OntologyServerException;
+import laas.openrobots.ontology.helpers.Namespaces;
 import laas.openrobots.ontology.modules.alterite.AlteriteModule;
 import laas.openrobots.ontology.modules.events.EventModule;
 import laas.openrobots.ontology.modules.events.GenericWatcher;
@@ -44,11 +47,15 @@ import laas.openrobots.ontology.modules.events.IEventConsumer;
 import laas.openrobots.ontology.modules.events.IWatcher;
 import laas.openrobots.ontology.modules.events.NewClassInstanceWatcher;
 import laas.openrobots.ontology.modules.events.OroEvent;
+import laas.openrobots.ontology.modules.events.OroEventNewInstances;
 import laas.openrobots.ontology.modules.events.IWatcher.EventType;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
 
 import org.junit.Test;
 
+import com.hp.hpl.jena.ontology.ObjectProperty;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
 import com.hp.hpl.jena.rdf.model.Statement;
 
 /**
@@ -258,12 +265,243 @@ public class EventsTest {
 		consumer.hasBeenTriggered = false;
 		
 		oro.add(oro.createStatement("coco eats banana"), MemoryProfile.DEFAULT, false);
-		
+
 	}
-	
+
+	private class RecordingEventConsumer implements IEventConsumer {
+
+		public List<Set<String>> events = new ArrayList<Set<String>>();
+
+		@Override
+		public void consumeEvent(UUID id, OroEvent e) {
+			events.add(((OroEventNewInstances) e).getMatchingIds());
+		}
+
+	}
+
+	private List<Set<String>> runNewInstanceScenario(Properties parameters) throws IllegalStatementException, OntologyServerException {
+		IOntologyBackend oro = new OpenRobotsOntology(parameters);
+
+		RecordingEventConsumer consumer = new RecordingEventConsumer();
+
+		List<String> list = new ArrayList<String>();
+		list.add("a");
+		list.add("?a playsWith ?b");
+		list.add("?b playsWith ?c");
+
+		try {
+			oro.registerEvent(
+					new GenericWatcher(	EventType.NEW_INSTANCE,
+										IWatcher.TriggeringType.ON_TOGGLE,
+										list,
+										consumer));
+		} catch (EventRegistrationException e) {
+			fail("Error while registering an event!");
+		}
+
+		String[][] changes = {
+				{"+", "coco playsWith baboon"},
+				{"+", "baboon playsWith coco"},
+				{"+", "kiki playsWith coco"},
+				{"+", "paris loves dancing"},
+				{"-", "coco playsWith baboon"},
+				{"-", "baboon playsWith coco"},
+				{"+", "baboon playsWith kiki"}};
+
+		for (String[] c : changes) {
+			if (c[0].equals("+"))
+				oro.add(oro.createStatement(c[1]), MemoryProfile.DEFAULT, false);
+			else
+				oro.remove(oro.createStatement(c[1]));
+		}
+
+		return consumer.events;
+	}
+
+	/**
+	 * This tests that NEW_INSTANCE events evaluated by the incremental matcher
+	 * report exactly the same instances as when evaluated by queries.
+	 */
+	@Test
+	public void eventsNewInstanceIncremental() throws IllegalStatementException, OntologyServerException {
+		System.out.println("[UNITTEST] ***** TEST: incremental NEW_INSTANCE events *****");
+
+		Properties withQueries = new Properties();
+		withQueries.putAll(conf);
+		withQueries.setProperty("incremental_events", "false");
+
+		Properties incremental = new Properties();
+		incremental.putAll(conf);
+		incremental.setProperty("incremental_events", "true");
+
+		List<Set<String>> expected = runNewInstanceScenario(withQueries);
+		List<Set<String>> actual = runNewInstanceScenario(incremental);
+
+		assertEquals("Four events were expected (coco and baboon added, kiki " +
+				"added, all removed, baboon added)", 4, expected.size());
+		assertEquals("The incremental matcher should report the same instances " +
+				"as the queries", expected, actual);
+
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	private List<List<Set<String>>> runSharedPatternScenario(Properties parameters) throws IllegalStatementException, OntologyServerException {
+		IOntologyBackend oro = new OpenRobotsOntology(parameters);
+
+		String[][] patterns = {
+				{"a", "?a playsWith ?b", "?b playsWith ?c"},
+				{"c", "?a playsWith ?b", "?b playsWith ?c"},
+				{"x", "?y playsWith ?x", "?x rdf:type Monkey"},
+				{"m", "?m rdf:type Monkey", "?m playsWith ?n"},
+				{"n", "?n rdfs:label \"little monkey\"", "?n rdf:type Monkey"},
+				{"l", "?l rdfs:label \"little monkey\""},
+				{"t", "?t rdf:type owl:Thing", "?t playsWith kiki"},
+				{"u", "?u rdf:type owl:Thing", "?u rdfs:label ?k"}};
+
+		List<List<Set<String>>> results = new ArrayList<List<Set<String>>>();
+
+		for (String[] p : patterns) {
+			RecordingEventConsumer consumer = new RecordingEventConsumer();
+			results.add(consumer.events);
+
+			List<String> list = new ArrayList<String>();
+			for (String s : p) list.add(s);
+
+			try {
+				oro.registerEvent(
+						new GenericWatcher(	EventType.NEW_INSTANCE,
+											IWatcher.TriggeringType.ON_TOGGLE,
+											list,
+											consumer));
+			} catch (EventRegistrationException e) {
+				fail("Error while registering an event!");
+			}
+		}
+
+		String[][] changes = {
+				{"+", "coco playsWith baboon"},
+				{"+", "baboon rdf:type Monkey"},
+				{"+", "baboon playsWith coco"},
+				{"+", "kiki playsWith coco"},
+				{"+", "coco rdf:type Monkey"},
+				{"-", "coco playsWith baboon"},
+				{"+", "coco rdfs:label \"little monkey\""},
+				{"+", "baboon playsWith kiki"}};
+
+		for (String[] c : changes) {
+			if (c[0].equals("+"))
+				oro.add(oro.createStatement(c[1]), MemoryProfile.DEFAULT, false);
+			else
+				oro.remove(oro.createStatement(c[1]));
+		}
+
+		return results;
+	}
+
+	/**
+	 * This tests that watchers evaluated from shared sub-patterns report
+	 * exactly the same instances as when each watcher runs its own query.
+	 */
+	@Test
+	public void eventsSharedPatterns() throws IllegalStatementException, OntologyServerException {
+		System.out.println("[UNITTEST] ***** TEST: shared sub-patterns evaluation *****");
+
+		Properties separate = new Properties();
+		separate.putAll(conf);
+		separate.setProperty("incremental_events", "false");
+		separate.setProperty("events_shared_patterns", "false");
+
+		Properties shared = new Properties();
+		shared.putAll(conf);
+		shared.setProperty("incremental_events", "false");
+		shared.setProperty("events_shared_patterns", "true");
+
+		List<List<Set<String>>> expected = runSharedPatternScenario(separate);
+		List<List<Set<String>>> actual = runSharedPatternScenario(shared);
+
+		for (List<Set<String>> events : expected)
+			assertFalse("Each watcher should have been triggered at least once", events.isEmpty());
+
+		assertEquals("Shared sub-patterns should report the same instances " +
+				"as separate queries", expected, actual);
+
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * This tests that changes occurring during the debounce delay, or during
+	 * the minimum latency of a watcher, are evaluated at the end of the delay.
+	 */
+	@Test
+	public void eventsDebounce() throws IllegalStatementException, InterruptedException {
+		System.out.println("[UNITTEST] ***** TEST: events debouncing *****");
+
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("events_debounce", "300");
+
+		IOntologyBackend oro = new OpenRobotsOntology(parameters);
+
+		FactCheckingEventConsumer consumer = new FactCheckingEventConsumer();
+		FactCheckingEventConsumer lazyConsumer = new FactCheckingEventConsumer();
+
+		List<String> set = new ArrayList<String>();
+		set.add("chicken has teeth");
+
+		List<String> set2 = new ArrayList<String>();
+		set2.add("baboon eats grass");
+
+		GenericWatcher lazyWatcher = new GenericWatcher(EventType.FACT_CHECKING,
+											IWatcher.TriggeringType.ON_TRUE,
+											set2,
+											lazyConsumer);
+		lazyWatcher.setMinimumLatency(1000);
+
+		try {
+			oro.registerEvent(
+					new GenericWatcher(	EventType.FACT_CHECKING,
+										IWatcher.TriggeringType.ON_TRUE,
+										set,
+										consumer));
+			oro.registerEvent(lazyWatcher);
+		} catch (EventRegistrationException e) {
+			fail("Error while registering an event!");
+		}
+
+		//First change: evaluated at once.
+		oro.add(oro.createStatement("paris loves dancing"), MemoryProfile.DEFAULT, false);
+
+		//Second change, inside the debounce delay: postponed.
+		oro.add(oro.createStatement("chicken has teeth"), MemoryProfile.DEFAULT, false);
+		oro.add(oro.createStatement("baboon eats grass"), MemoryProfile.DEFAULT, false);
+		oro.step();
+
+		assertFalse("The change should be postponed by the debounce delay", consumer.hasBeenTriggered);
+
+		Thread.sleep(350);
+		oro.step();
+
+		assertTrue("The trailing evaluation should have triggered the event", consumer.hasBeenTriggered);
+		assertFalse("The lazy watcher has been evaluated less than 1s ago", lazyConsumer.hasBeenTriggered);
+
+		Thread.sleep(700);
+		oro.step();
+
+		assertTrue("The lazy watcher should have been evaluated at the end of " +
+				"its minimum latency", lazyConsumer.hasBeenTriggered);
+
+		Map<String, String> stats = oro.getEventsStatistics();
+		assertEquals("Two watchers are registered", "2", stats.get("watchers"));
+		assertEquals("No watcher should be deferred anymore", "0", stats.get("deferred_watchers"));
+		assertTrue("The lazy watcher lag should be close to its latency",
+				Long.parseLong(stats.get("max_lag")) >= 900);
+
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
 	/**
 	 * This tests event framework on "NEW_CLASS_INSTANCE" type of events
-	 */	
+	 */
 	@Test
 	public void eventsNewClassInstance() throws IllegalStatementException {
 
@@ -301,6 +539,41 @@ public class EventsTest {
 		System.out.println("[UNITTEST] ***** Test successful *****");
 	}
 	
+	/**
+	 * This tests that NEW_CLASS_INSTANCE events are triggered for classes 
+	 * defined by a restriction, when an individual gets the type the 
+	 * restriction refers to.
+	 */
+	@Test
+	public void eventsNewDefinedClassInstance() throws IllegalStatementException, EventRegistrationException {
+
+		System.out.println("[UNITTEST] ***** TEST: NEW_CLASS_INSTANCE events on defined classes *****");
+		IOntologyBackend oro = new OpenRobotsOntology(conf);
+		
+		//Parent == hasChild some Person
+		OntModel model = oro.getModel();
+		OntClass person = model.createClass(Namespaces.addDefault("Person"));
+		ObjectProperty hasChild = model.createObjectProperty(Namespaces.addDefault("hasChild"));
+		model.createClass(Namespaces.addDefault("Parent")).addEquivalentClass(
+				model.createSomeValuesFromRestriction(null, hasChild, person));
+		
+		oro.add(oro.createStatement("alice hasChild bob"), MemoryProfile.DEFAULT, false);
+		
+		NewInstanceEventConsumer consumer = new NewInstanceEventConsumer();
+		oro.registerEvent(new NewClassInstanceWatcher("Parent", consumer));
+		
+		oro.add(oro.createStatement("paris loves dancing"), MemoryProfile.DEFAULT, false);
+		consumer.hasBeenTriggered = false;
+		
+		oro.add(oro.createStatement("bob rdf:type Person"), MemoryProfile.DEFAULT, false);
+		
+		assertTrue("Alice should be inferred to be a parent since Bob is a person", consumer.hasBeenTriggered);
+		
+		oro.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
 	@Test
 	public void eventsFactCheckingAlternateModel() throws IllegalStatementException {
 
@@ -628,5 +901,51 @@ public class EventsTest {
 		System.out.println("[UNITTEST] ***** Test successful *****");
 	}
 
-	
+	/**
+	 * This tests that the watchers are only evaluated in parallel when no
+	 * reasoner is used, since reasoners do not support concurrent reads.
+	 */
+	@Test
+	public void eventsThreads() throws IllegalStatementException, EventRegistrationException {
+		System.out.println("[UNITTEST] ***** TEST: parallel evaluation of the events *****");
+
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("events_threads", "4");
+
+		IOntologyBackend oro = new OpenRobotsOntology(parameters);
+		assertEquals("With a reasoner, the events must be evaluated sequentially",
+				"1", oro.getEventsStatistics().get("threads"));
+		oro.close();
+
+		parameters.setProperty("reasonner", "none");
+		parameters.setProperty("incremental_events", "false");
+
+		oro = new OpenRobotsOntology(parameters);
+		assertEquals("4", oro.getEventsStatistics().get("threads"));
+
+		List<FactCheckingEventConsumer> consumers = new ArrayList<FactCheckingEventConsumer>();
+		for (int i = 0; i < 10; i++) {
+			List<String> pattern = new ArrayList<String>();
+			pattern.add("baboon eats fruit" + i);
+
+			FactCheckingEventConsumer consumer = new FactCheckingEventConsumer();
+			consumers.add(consumer);
+			oro.registerEvent(new GenericWatcher(EventType.FACT_CHECKING,
+					IWatcher.TriggeringType.ON_TRUE, pattern, consumer));
+		}
+
+		Set<Statement> stmts = new HashSet<Statement>();
+		for (int i = 0; i < 10; i += 2)
+			stmts.add(oro.createStatement("baboon eats fruit" + i));
+		oro.add(stmts, MemoryProfile.DEFAULT, false);
+
+		for (int i = 0; i < 10; i++)
+			assertEquals("Only the watchers of the added statements should be triggered",
+					i % 2 == 0, consumers.get(i).hasBeenTriggered);
+
+		oro.close();
+
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
 }
@@ -23,9 +23,16 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,9 +41,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import laas.openrobots.ontology.OroServer;
+import laas.openrobots.ontology.PartialStatement;
 import laas.openrobots.ontology.backends.IOntologyBackend;
+import laas.openrobots.ontology.backends.OntologySnapshot;
 import laas.openrobots.ontology.backends.OpenRobotsOntology;
 import laas.openrobots.ontology.backends.ResourceType;
 import laas.openrobots.ontology.connectors.SocketConnector;
@@ -53,19 +65,27 @@ import laas.openrobots.ontology.helpers.Namespaces;
 import laas.openrobots.ontology.modules.alterite.AlteriteModule;
 import laas.openrobots.ontology.modules.base.BaseModule;
 import laas.openrobots.ontology.modules.categorization.CategorizationModule;
+import laas.openrobots.ontology.modules.events.IEventConsumer;
+import laas.openrobots.ontology.modules.events.OroEvent;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
+import laas.openrobots.ontology.modules.snapshot.SnapshotModule;
 
 import org.junit.Test;
 import org.mindswap.pellet.exceptions.InconsistentOntologyException;
+import org.mindswap.pellet.jena.PelletInfGraph;
 
 import com.hp.hpl.jena.ontology.Individual;
 import com.hp.hpl.jena.ontology.OntClass;
 import com.hp.hpl.jena.ontology.OntResource;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.RSIterator;
 import com.hp.hpl.jena.rdf.model.ReifiedStatement;
+import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.reasoner.InfGraph;
 import com.hp.hpl.jena.shared.NotFoundException;
 import com.hp.hpl.jena.shared.PropertyNotFoundException;
 
@@ -478,6 +498,60 @@ public class OpenRobotsOntologyTest {
 	}
 	
 	
+	/**
+	 * Checks several facts and patterns in one call. 
+	 */
+	@Test
+	public void checkEach() {
+		
+		System.out.println("[UNITTEST] ***** TEST: Check several facts in one call *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		
+		BaseModule oro = new BaseModule(onto);
+		
+		try {
+			onto.add(onto.createStatement("narcissus loves narcissus"), MemoryProfile.DEFAULT, false);
+			
+			Set<String> stmts = new HashSet<String>();
+			stmts.add("gorilla rdf:type Animal");
+			stmts.add("gorilla rdf:type Plant");
+			stmts.add("?a rdf:type Monkey");
+			stmts.add("?a rdf:type gorilla");
+			stmts.add("?x loves ?x");
+			stmts.add("?x eats ?x");
+			
+			Map<String, Boolean> res = oro.checkEach(stmts);
+			
+			assertEquals("Each statement should have a result", stmts.size(), res.size());
+			assertTrue("The fact that gorillas are monkey should be inferred.", res.get("gorilla rdf:type Animal"));
+			assertFalse("The fact that gorillas are plants is false!", res.get("gorilla rdf:type Plant"));
+			assertTrue("There is at least one monkey.", res.get("?a rdf:type Monkey"));
+			assertFalse("gorilla is not a class.", res.get("?a rdf:type gorilla"));
+			assertTrue("Narcissus loves himself.", res.get("?x loves ?x"));
+			assertFalse("Nothing eats itself.", res.get("?x eats ?x"));
+			
+			//Same results as individual checks
+			for (String s : stmts) {
+				boolean single = PartialStatement.isPartialStatement(s) ? 
+									onto.check(onto.createPartialStatement(s)) : 
+									onto.check(onto.createStatement(s));
+				assertEquals("The batched check should give the same result as the single one for " + s, single, res.get(s));
+			}
+			
+			stmts.remove("gorilla rdf:type Plant");
+			stmts.remove("?a rdf:type gorilla");
+			stmts.remove("?x eats ?x");
+			assertTrue("All these statements are true.", oro.check(stmts));
+			
+		} catch (IllegalStatementException e) {
+			e.printStackTrace();
+			fail();
+		}
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
 	/**
 	 * Performs a simple query on the ontology to check OWL loading and SPARQL query engine both work.
 	 * The query should return the list of instances present in the ontology. 
@@ -796,6 +870,10 @@ public class OpenRobotsOntologyTest {
 		Set<Statement> rs_short_term = new HashSet<Statement>();
 		
 	
+		//The memory metadata are not in the model until explicitely exposed.
+		assertEquals("No reified statement should be in the model yet.", 0, onto.getModel().listReifiedStatements().toSet().size());
+		onto.exposeMemoryMetadata();
+		
 		Property p_createdOn = onto.getModel().createProperty(Namespaces.addDefault("stmtCreatedOn"));
 		Property p_memoryProfile = onto.getModel().createProperty(Namespaces.addDefault("stmtMemoryProfile"));
 
@@ -1099,6 +1177,70 @@ public class OpenRobotsOntologyTest {
 	}
 	
 	
+	@Test
+	public void updateRuntimeFunctionalProperty() {
+		
+		System.out.println("[UNITTEST] ***** TEST: Update with functional properties declared at runtime *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		BaseModule oro = new BaseModule(onto);
+	
+		Set<String> stmts = new HashSet<String>();
+		
+		try {
+			stmts.add("hasFavouriteColor rdf:type owl:FunctionalProperty");
+			stmts.add("hasFavouriteColor rdf:type owl:ObjectProperty");
+			stmts.add("gorilla hasFavouriteColor blue");
+			oro.add(stmts);
+			
+			Set<String> updatedStmts = new HashSet<String>();
+			updatedStmts.add("gorilla hasFavouriteColor green");
+			updatedStmts.add("gorilla age 35");
+			oro.update(updatedStmts);
+			
+			Set<String> partial_statements = new HashSet<String>();
+			partial_statements.add("gorilla hasFavouriteColor ?c");
+			
+			Set<String> res = oro.find("c", partial_statements);
+			assertEquals("hasFavouriteColor was declared functional at runtime: " +
+					"its value should have been replaced.", 1, res.size());
+			assertEquals("green", Helpers.pickRandom(res));
+			
+			partial_statements.clear();
+			partial_statements.add("gorilla age ?a");
+			res = oro.find("a", partial_statements);
+			assertEquals(1, res.size());
+			assertEquals("35", Helpers.pickRandom(res));
+			
+			//hasFavouriteColor is not functional anymore
+			Set<String> removedStmts = new HashSet<String>();
+			removedStmts.add("hasFavouriteColor rdf:type owl:FunctionalProperty");
+			oro.clear(removedStmts);
+			
+			updatedStmts.clear();
+			updatedStmts.add("gorilla hasFavouriteColor red");
+			oro.update(updatedStmts);
+			
+			partial_statements.clear();
+			partial_statements.add("gorilla hasFavouriteColor ?c");
+			res = oro.find("c", partial_statements);
+			assertEquals("hasFavouriteColor is not functional anymore: values " +
+					"should accumulate.", 2, res.size());
+			
+		} catch (IllegalStatementException e) {
+			e.printStackTrace();
+			fail();
+		} catch (laas.openrobots.ontology.exceptions.InconsistentOntologyException e) {
+			e.printStackTrace();
+			fail();
+		} catch (OntologyServerException e) {
+			e.printStackTrace();
+			fail();
+		}
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
 	/**
 	 * This test checks that concept can be retrieved by their labels. 
 	 * @throws InterruptedException 
@@ -1796,13 +1938,535 @@ public class OpenRobotsOntologyTest {
 		
 		assertNotNull("find() didn't answered anything!",matchingResources);
 		
+		assertTrue("The cow and the gorilla eat something", matchingResources.get("animal").contains("cow") && matchingResources.get("animal").contains("gorilla"));
+		assertTrue("Grass and apples are eaten", matchingResources.get("food").contains("grass") && matchingResources.get("food").contains("apple"));
+		
+		//Rows of bindings
+		List<String> varNames = new ArrayList<String>();
+		varNames.add("animal");
+		varNames.add("?food");
 		
-		//TODO Add a tests!
+		try {
+			List<Map<String, String>> rows = oro.findBindings(varNames, partial_statements);
+			
+			Map<String, String> cowRow = new HashMap<String, String>();
+			cowRow.put("animal", "cow");
+			cowRow.put("food", "grass");
+			Map<String, String> gorillaRow = new HashMap<String, String>();
+			gorillaRow.put("animal", "gorilla");
+			gorillaRow.put("food", "apple");
+			Map<String, String> wrongRow = new HashMap<String, String>();
+			wrongRow.put("animal", "cow");
+			wrongRow.put("food", "apple");
+			
+			assertTrue("The cow eats grass", rows.contains(cowRow));
+			assertTrue("The gorilla eats apples", rows.contains(gorillaRow));
+			assertFalse("The cow doesn't eat apples", rows.contains(wrongRow));
+			
+			assertEquals("Only one row was requested", 1, oro.findBindings(varNames, partial_statements, null, 1, false).size());
+			
+			//Distinct rows
+			partial_statements.add("?animal rdf:type ?type");
+			varNames.remove("?food");
+			List<Map<String, String>> allRows = oro.findBindings(varNames, partial_statements, null, 0, false);
+			List<Map<String, String>> distinctRows = oro.findBindings(varNames, partial_statements, null, 0, true);
+			assertTrue("Several types per animal should lead to duplicated rows", allRows.size() > distinctRows.size());
+			assertEquals("Distinct rows should not be duplicated", new HashSet<Map<String, String>>(distinctRows).size(), distinctRows.size());
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
 
 		System.out.println("[UNITTEST] ***** Test successful *****");
 	}
 
 
+	/**
+	 * Tests paging through the results of a query with a server-side cursor.
+	 */
+	@Test
+	public void cursors() throws IllegalStatementException, OntologyServerException, InterruptedException {
+
+		System.out.println("[UNITTEST] ***** TEST: Server-side cursors *****");
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("max_cursors", "2");
+		parameters.setProperty("cursor_timeout", "1");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		BaseModule oro = new BaseModule(onto);
+		
+		IEventConsumer client = new IEventConsumer() {
+			@Override
+			public void consumeEvent(UUID watcherId, OroEvent e) {}
+		};
+		IEventConsumer otherClient = new IEventConsumer() {
+			@Override
+			public void consumeEvent(UUID watcherId, OroEvent e) {}
+		};
+		
+		Set<Statement> stmts = new HashSet<Statement>();
+		for (int i = 0 ; i < 25 ; i++)
+			stmts.add(onto.createStatement("cursor_object" + i + " rdf:type CursorTest"));
+		onto.add(stmts, MemoryProfile.DEFAULT, false);
+		
+		String query = "SELECT ?o WHERE {?o rdf:type oro:CursorTest}";
+		
+		String id = oro.openCursor(query, client).toString();
+		
+		Set<String> results = new HashSet<String>();
+		List<Map<String, String>> rows = oro.fetch(id, 10, client);
+		assertEquals("The first page should be full", 10, rows.size());
+		for (Map<String, String> row : rows) results.add(row.get("o"));
+		
+		try {
+			oro.fetch(id, 10, otherClient);
+			fail("A client can not read the cursors of another client");
+		} catch (OntologyServerException e) {}
+		
+		rows = oro.fetch(id, 10, client);
+		assertEquals("The second page should be full", 10, rows.size());
+		for (Map<String, String> row : rows) results.add(row.get("o"));
+		
+		rows = oro.fetch(id, 10, client);
+		assertEquals("The last page should only hold the remaining rows", 5, rows.size());
+		for (Map<String, String> row : rows) results.add(row.get("o"));
+		
+		assertEquals("Each row should be fetched once", 25, results.size());
+		assertTrue(results.contains("cursor_object12"));
+		
+		try {
+			oro.fetch(id, 10, client);
+			fail("The cursor should be closed once exhausted");
+		} catch (OntologyServerException e) {}
+		
+		//Modification of the ontology between two fetches
+		id = oro.openCursor(query, client).toString();
+		assertEquals(10, oro.fetch(id, 10, client).size());
+		onto.add(onto.createStatement("cursor_object25 rdf:type CursorTest"), MemoryProfile.DEFAULT, false);
+		assertEquals("The query should be executed again after the modification", 16, oro.fetch(id, 100, client).size());
+		
+		//Limit on the number of open cursors
+		oro.openCursor(query, client);
+		id = oro.openCursor(query, client).toString();
+		try {
+			oro.openCursor(query, client);
+			fail("Only two cursors can be open at the same time");
+		} catch (OntologyServerException e) {}
+		
+		oro.closeCursor(id, client);
+		oro.openCursor(query, client);
+		oro.openCursor(query, otherClient);
+		
+		try {
+			oro.openCursor("DESCRIBE oro:cursor_object1", otherClient);
+			fail("Only SELECT queries can be used with cursors");
+		} catch (InvalidQueryException e) {}
+		
+		//Idle cursors
+		Thread.sleep(1100);
+		onto.step();
+		oro.openCursor(query, client);
+		oro.openCursor(query, client);
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * Tests the execution profile of queries and 'find'.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void profile() throws IllegalStatementException, OntologyServerException {
+
+		System.out.println("[UNITTEST] ***** TEST: Query profiling *****");
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("slow_query_threshold", "1");
+		parameters.setProperty("profile_slow_queries", "true");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		BaseModule oro = new BaseModule(onto);
+		
+		Map<String, Object> profile = oro.profile("SELECT ?a WHERE {?a oro:eats ?b . ?b rdf:type oro:Plant}");
+		
+		assertTrue("The algebra should contain the basic graph pattern", profile.get("algebra").toString().contains("bgp"));
+		assertEquals("The cow and the gorilla eat plants (range of 'eats')", "2", profile.get("results"));
+		
+		List<String> joinOrder = (List<String>) profile.get("join_order");
+		assertEquals(2, joinOrder.size());
+		assertTrue("Patterns are joined in the order they are written", joinOrder.get(0).contains("eats"));
+		
+		List<Map<String, String>> patterns = (List<Map<String, String>>) profile.get("patterns");
+		assertEquals(2, patterns.size());
+		assertTrue("Both the cow and the gorilla eat something", Long.parseLong(patterns.get(0).get("cardinality")) >= 2);
+		
+		List<Map<String, String>> steps = (List<Map<String, String>>) profile.get("steps");
+		assertEquals(2, steps.size());
+		assertEquals("2", steps.get(1).get("rows"));
+		
+		assertTrue(Long.parseLong((String) profile.get("reasoner_calls")) > 0);
+		assertTrue(Double.parseDouble((String) profile.get("reasoner_time")) <= Double.parseDouble((String) profile.get("total_time")));
+		
+		Set<String> stmts = new HashSet<String>();
+		stmts.add("?a eats ?b");
+		Set<String> filters = new HashSet<String>();
+		filters.add("regex(str(?b), \"apple\")");
+		
+		profile = oro.profileFind("a", stmts, filters);
+		assertEquals("Only the gorilla eats apples", "1", profile.get("results"));
+		steps = (List<Map<String, String>>) profile.get("steps");
+		assertEquals("One scan and one filter", 2, steps.size());
+		assertTrue(steps.get(1).get("operator").startsWith("filter"));
+		assertEquals("1", steps.get(1).get("rows"));
+		
+		try {
+			oro.profile("DESCRIBE oro:cow");
+			fail("Only SELECT queries can be profiled");
+		} catch (InvalidQueryException e) {}
+		
+		//Slow queries are logged with their profile
+		assertEquals(1, oro.find("a", stmts, filters).size());
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * Tests that the partial statements of 'find' are joined most selective
+	 * first.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void findReordering() throws IllegalStatementException, OntologyServerException {
+
+		System.out.println("[UNITTEST] ***** TEST: Reordering of find patterns *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		BaseModule oro = new BaseModule(onto);
+		
+		Set<String> stmts = new HashSet<String>();
+		stmts.add("?a rdf:type Animal");
+		stmts.add("?a eats ?b");
+		stmts.add("?a eats grass");
+		
+		List<String> joinOrder = (List<String>) oro.profileFind("a", stmts).get("join_order");
+		assertTrue("Only the cow eats grass: this pattern should come first", joinOrder.get(0).contains("grass"));
+		
+		Set<String> res = oro.find("a", stmts);
+		assertEquals(1, res.size());
+		assertTrue(res.contains("cow"));
+		
+		//With a filter, the pattern binding the filtered variable comes first.
+		stmts.clear();
+		stmts.add("?a rdf:type Animal");
+		stmts.add("?a age ?x");
+		Set<String> filters = new HashSet<String>();
+		filters.add("?x > 30");
+		
+		joinOrder = (List<String>) oro.profileFind("a", stmts, filters).get("join_order");
+		assertTrue("The filtered pattern should come first", joinOrder.get(0).contains("age"));
+		assertEquals(1, oro.find("a", stmts, filters).size());
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * Tests that the statistics on the content of the ontology are kept up to
+	 * date when statements are added and removed.
+	 */
+	@Test
+	public void statistics() throws IllegalStatementException, OntologyServerException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Ontology statistics *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		
+		Map<String, String> stats = onto.getStatistics();
+		long nbStmts = Long.parseLong(stats.get("nb_statements"));
+		long nbInstances = Long.parseLong(stats.get("nb_instances"));
+		long nbLiterals = Long.parseLong(stats.get("nb_literals"));
+		
+		assertEquals("All the asserted statements are counted", onto.getModel().getBaseModel().size(), nbStmts);
+		assertTrue(Long.parseLong(stats.get("nb_classes")) > 0);
+		assertTrue(nbInstances > 0);
+		
+		onto.add(onto.createStatement("horse rdf:type Animal"), MemoryProfile.DEFAULT, false);
+		stats = onto.getStatistics();
+		assertEquals(nbStmts + 1, Long.parseLong(stats.get("nb_statements")));
+		assertEquals(nbInstances + 1, Long.parseLong(stats.get("nb_instances")));
+		
+		//Statements already asserted are not counted twice
+		onto.add(onto.createStatement("horse rdf:type Animal"), MemoryProfile.DEFAULT, false);
+		onto.add(onto.createStatement("horse rdf:type Monkey"), MemoryProfile.DEFAULT, false);
+		stats = onto.getStatistics();
+		assertEquals(nbStmts + 2, Long.parseLong(stats.get("nb_statements")));
+		assertEquals("An instance with two types is still one instance", nbInstances + 1, Long.parseLong(stats.get("nb_instances")));
+		
+		onto.add(onto.createStatement("horse age 12"), MemoryProfile.EPISODIC, false);
+		stats = onto.getStatistics();
+		assertEquals(nbLiterals + 1, Long.parseLong(stats.get("nb_literals")));
+		assertEquals("1", stats.get("nb_episodic_statements"));
+		assertEquals("0", stats.get("nb_shortterm_statements"));
+		
+		onto.remove(onto.createStatement("horse age 12"));
+		
+		//Bulk removals are counted as well
+		Statement weight = onto.createStatement("horse weight 300.5");
+		onto.add(weight, MemoryProfile.DEFAULT, false);
+		onto.getModel().getBaseModel().removeAll(weight.getSubject(), weight.getPredicate(), null);
+		assertEquals(nbLiterals, Long.parseLong(onto.getStatistics().get("nb_literals")));
+		
+		onto.clear(onto.createPartialStatement("horse ?p ?o"));
+		
+		//Removing statements that are not asserted does not change anything
+		onto.remove(onto.createStatement("horse eats grass"));
+		
+		stats = onto.getStatistics();
+		assertEquals(nbStmts, Long.parseLong(stats.get("nb_statements")));
+		assertEquals(nbInstances, Long.parseLong(stats.get("nb_instances")));
+		assertEquals(nbLiterals, Long.parseLong(stats.get("nb_literals")));
+		assertEquals("0", stats.get("nb_episodic_statements"));
+		assertEquals(onto.getModel().getBaseModel().size(), nbStmts);
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * Tests that find, findBindings, check and query can be evaluated on the asserted
+	 * statements only, or with RDFS inferences only.
+	 */
+	@Test
+	public void reasoningLevels() throws IllegalStatementException, OntologyServerException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Reasoning levels *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		BaseModule oro = new BaseModule(onto);
+		
+		Set<String> stmts = new HashSet<String>();
+		stmts.add("gorilla rdf:type Monkey");
+		assertTrue("The type of the gorilla is asserted", oro.check(stmts, "asserted"));
+		
+		stmts.clear();
+		stmts.add("gorilla rdf:type Animal");
+		assertFalse("The gorilla is only asserted to be a monkey", oro.check(stmts, "asserted"));
+		assertTrue("Monkeys are animals (rdfs:subClassOf)", oro.check(stmts, "rdfs"));
+		assertTrue(oro.check(stmts, "full"));
+		assertTrue("Unknown levels default to full reasoning", oro.check(stmts, "whatever"));
+		
+		Set<String> partial = new HashSet<String>();
+		partial.add("?a rdf:type Animal");
+		
+		Set<String> asserted = oro.find("a", partial, null, "asserted");
+		Set<String> rdfs = oro.find("a", partial, null, "rdfs");
+		Set<String> full = oro.find("a", partial, null, "full");
+		
+		assertTrue(asserted.contains("cow"));
+		assertFalse(asserted.contains("gorilla"));
+		assertTrue(rdfs.contains("gorilla"));
+		assertTrue(rdfs.containsAll(asserted));
+		assertTrue(full.containsAll(rdfs));
+		assertEquals(full, oro.find("a", partial));
+		
+		//The RDFS view follows the changes of the ontology
+		onto.add(onto.createStatement("horse rdf:type Monkey"), MemoryProfile.DEFAULT, false);
+		assertTrue(oro.find("a", partial, null, "rdfs").contains("horse"));
+		assertFalse(oro.find("a", partial, null, "asserted").contains("horse"));
+		
+		onto.remove(onto.createStatement("horse rdf:type Monkey"));
+		assertFalse(oro.find("a", partial, null, "rdfs").contains("horse"));
+		
+		assertEquals(asserted, oro.query("a", "SELECT ?a WHERE {?a rdf:type oro:Animal}", "asserted"));
+		
+		Set<String> assertedBindings = new HashSet<String>();
+		for (Map<String, String> row : oro.findBindings(Collections.singletonList("a"), partial, null, 0, true, "asserted"))
+			assertedBindings.add(row.get("a"));
+		assertEquals("findBindings should use the same reasoning levels as find", asserted, assertedBindings);
+		
+		onto.close();
+		
+		//Finds below the full level (including the planning of their 
+		//patterns) must not go through the reasoner.
+		onto = new OpenRobotsOntology(conf);
+		oro = new BaseModule(onto);
+		
+		onto.add(onto.createStatement("Horse rdfs:subClassOf Animal"), MemoryProfile.DEFAULT, false);
+		PelletInfGraph reasoner = (PelletInfGraph) onto.getModel().getGraph();
+		assertFalse("A new class axiom requires to prepare the reasoner again", reasoner.isPrepared());
+		
+		partial.add("?a eats ?f");
+		partial.add("?f rdf:type Plant");
+		oro.find("a", partial, null, "asserted");
+		oro.find("a", partial, null, "rdfs");
+		assertFalse("Asserted and RDFS finds must not prepare the reasoner", reasoner.isPrepared());
+		
+		oro.find("a", partial, null, "full");
+		assertTrue(reasoner.isPrepared());
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
+	/**
+	 * Tests that the materialized closure of the asserted statements holds the
+	 * same inferences as the reasoner for subproperties, inverse and transitive
+	 * properties, and that it is kept up to date when statements are removed.
+	 */
+	@Test
+	public void materializedClosure() throws IllegalStatementException, OntologyServerException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Materialized closure *****");
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("materialize_closure", "true");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		BaseModule oro = new BaseModule(onto);
+		
+		Set<String> partial = new HashSet<String>();
+		partial.add("?a rdf:type Animal");
+		
+		Set<String> materialized = oro.find("a", partial);
+		assertEquals("With 'materialize_closure', the closure is the default", materialized, oro.find("a", partial, null, "materialized"));
+		assertTrue("Monkeys are animals", materialized.contains("gorilla"));
+		assertTrue(oro.find("a", partial, null, "full").containsAll(materialized));
+		
+		Set<String> stmts = new HashSet<String>();
+		stmts.add("baboon isOn gorilla");
+		stmts.add("gorilla isOn cow");
+		oro.add(stmts);
+		
+		//isOn is transitive, a subproperty of isAt, and the inverse of isUnder.
+		String[] inferred = {"baboon isOn cow", "baboon isAt cow", "cow isUnder baboon", "gorilla isUnder baboon"};
+		for (String s : inferred) {
+			stmts.clear();
+			stmts.add(s);
+			assertTrue("[" + s + "] should be inferred", oro.check(stmts));
+			assertTrue("[" + s + "] should be inferred by the reasoner as well", oro.check(stmts, "full"));
+		}
+		
+		partial.clear();
+		partial.add("?a isUnder cow");
+		assertEquals(oro.find("a", partial, null, "full"), oro.find("a", partial));
+		
+		//Statements derived from a removed statement are removed...
+		stmts.clear();
+		stmts.add("gorilla isOn cow");
+		oro.clear(stmts);
+		
+		stmts.clear();
+		stmts.add("baboon isOn cow");
+		assertFalse(oro.check(stmts));
+		stmts.clear();
+		stmts.add("cow isUnder baboon");
+		assertFalse(oro.check(stmts));
+		stmts.clear();
+		stmts.add("baboon isAt gorilla");
+		assertTrue(oro.check(stmts));
+		
+		//...unless they can still be derived otherwise.
+		stmts.clear();
+		stmts.add("gorilla isOn cow");
+		stmts.add("baboon isOn cow");
+		oro.add(stmts);
+		stmts.clear();
+		stmts.add("gorilla isOn cow");
+		oro.clear(stmts);
+		
+		stmts.clear();
+		stmts.add("cow isUnder baboon");
+		stmts.add("baboon isAt cow");
+		assertTrue(oro.check(stmts));
+		stmts.clear();
+		stmts.add("cow isUnder gorilla");
+		assertFalse(oro.check(stmts));
+		assertFalse(oro.check(stmts, "full"));
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
+	/**
+	 * Tests that with 'deferred_removals', removals are visible right away,
+	 * and that removing facts about individuals does not reload the reasoner.
+	 */
+	@Test
+	public void deferredRemovals() throws IllegalStatementException, OntologyServerException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Deferred removals *****");
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("deferred_removals", "true");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		BaseModule oro = new BaseModule(onto);
+		
+		PelletInfGraph reasoner = (PelletInfGraph) onto.getModel().getGraph();
+		
+		Set<String> stmts = new HashSet<String>();
+		stmts.add("baboon isOn gorilla");
+		stmts.add("gorilla isOn cow");
+		stmts.add("kiki rdf:type Monkey");
+		oro.add(stmts);
+		
+		Set<String> partial = new HashSet<String>();
+		partial.add("?a rdf:type Animal");
+		assertTrue(oro.find("a", partial).contains("kiki"));
+		assertTrue(reasoner.getKB().isClassified());
+		
+		//Removals of facts about individuals are retracted by the reasoner
+		//without reloading it...
+		stmts.clear();
+		stmts.add("gorilla isOn cow");
+		oro.clear(stmts);
+		stmts.clear();
+		stmts.add("kiki rdf:type Monkey");
+		oro.clear(stmts);
+		
+		assertTrue("The classification must be kept after removing facts about individuals", reasoner.getKB().isClassified());
+		
+		assertFalse("Queries must see the removals before the next step", oro.find("a", partial).contains("kiki"));
+		stmts.clear();
+		stmts.add("baboon isAt cow");
+		assertFalse(oro.check(stmts));
+		stmts.clear();
+		stmts.add("baboon isAt gorilla");
+		assertTrue(oro.check(stmts));
+		
+		onto.step();
+		
+		//...while the removal of a class axiom is taken into account as well.
+		stmts.clear();
+		stmts.add("kiki rdf:type Monkey");
+		oro.add(stmts);
+		stmts.clear();
+		stmts.add("Monkey rdfs:subClassOf Animal");
+		oro.clear(stmts);
+		
+		onto.step();
+		
+		assertFalse(oro.find("a", partial).contains("kiki"));
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+
 	/***********************************************************************
 	 *                       ADVANCED TESTS                                *
 	 ***********************************************************************/
@@ -2545,6 +3209,107 @@ public class OpenRobotsOntologyTest {
 		System.out.println("[UNITTEST] ***** Test successful *****");
 	}
 	
+	/**
+	 * This test checks that snapshots are published at each step following
+	 * modifications, and that they are not affected by subsequent 
+	 * modifications of the model.
+	 */
+	@Test
+	public void snapshots() {
+		
+		System.out.println("[UNITTEST] ***** TEST: Ontology snapshots *****");
+		
+		Properties snapshotConf = new Properties();
+		snapshotConf.putAll(conf);
+		snapshotConf.setProperty("snapshots", "true");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(snapshotConf);
+		BaseModule oro = new BaseModule(onto);
+		SnapshotModule snapshotModule = new SnapshotModule(onto);
+		
+		try {
+			long initialVersion = onto.getSnapshot().getVersion();
+			
+			Set<String> stmts = new HashSet<String>();
+			stmts.add("gorilla eats grass");
+			oro.add(stmts);
+			
+			assertEquals("Snapshots are only published at the next step", initialVersion, onto.getSnapshot().getVersion());
+			
+			onto.step();
+			
+			OntologySnapshot snapshot = onto.getSnapshot();
+			assertTrue("A new snapshot should have been published", snapshot.getVersion() > initialVersion);
+			
+			Set<String> partial_statements = new HashSet<String>();
+			partial_statements.add("gorilla eats ?f");
+			assertEquals(2, snapshotModule.findInSnapshot("f", partial_statements).size()); //grass + apple
+			assertTrue(snapshotModule.checkInSnapshot(stmts));
+			
+			stmts.clear();
+			stmts.add("gorilla eats banana");
+			oro.add(stmts);
+			onto.step();
+			
+			assertEquals("The previous snapshot must not be affected by new statements", 
+					2, new BaseModule(snapshot.getBackend()).find("f", partial_statements).size());
+			assertEquals(3, snapshotModule.findInSnapshot("f", partial_statements).size());
+			
+			//Inferences of the materialized closure must be available in 
+			//snapshots as well, without a reasoner.
+			partial_statements.clear();
+			partial_statements.add("?a rdf:type Animal");
+			assertEquals(oro.find("a", partial_statements, null, "materialized"), snapshotModule.findInSnapshot("a", partial_statements));
+			assertFalse("Snapshots must not be bound to the reasoner", 
+					onto.getSnapshot().getBackend().getModel().getGraph() instanceof InfGraph);
+			
+			oro.clear(stmts);
+			onto.step();
+			assertFalse(snapshotModule.checkInSnapshot(stmts));
+			
+			assertEquals(String.valueOf(onto.getSnapshot().getVersion()), snapshotModule.snapshotInfos().get("version"));
+			
+			//Snapshots share their statements with the previous ones: they 
+			//must still be right after many modifications.
+			partial_statements.clear();
+			partial_statements.add("gorilla eats ?f");
+			for (int i = 0; i < 40; i++) {
+				stmts.clear();
+				stmts.add("gorilla eats fruit" + i);
+				oro.add(stmts);
+				if (i > 0) {
+					stmts.clear();
+					stmts.add("gorilla eats fruit" + (i - 1));
+					oro.clear(stmts);
+				}
+				onto.step();
+				assertEquals(3, snapshotModule.findInSnapshot("f", partial_statements).size()); //grass + apple + fruit
+			}
+			assertEquals(onto.getModel().getRawModel().size(), onto.getSnapshot().size());
+			
+			//Snapshots are read-only
+			try {
+				new BaseModule(onto.getSnapshot().getBackend()).add(stmts);
+				fail("Snapshots must not be modified");
+			} catch (UnsupportedOperationException uoe) {}
+			
+		} catch (IllegalStatementException e) {
+			e.printStackTrace();
+			fail();
+		} catch (OntologyServerException e) {
+			e.printStackTrace();
+			fail();
+		}
+		
+		//Snapshots are disabled by default
+		try {
+			new SnapshotModule(new OpenRobotsOntology(conf)).snapshotInfos();
+			fail("Snapshots should be disabled by default");
+		} catch (OntologyServerException e) {}
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
 	/**
 	 * This test checks race condition issues that may arise in a concurrent
 	 * execution.
@@ -2773,6 +3538,277 @@ public class OpenRobotsOntologyTest {
 		System.out.println("[UNITTEST] ***** Test successful *****");
 	}
 	
+	/**
+	 * This tests the saving of the ontology on a background thread.
+	 */
+	@Test
+	public void saveInBackground() throws IllegalStatementException, OntologyServerException, InterruptedException, IOException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Background save *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		
+		assertEquals("No save should have been started", "idle", onto.saveStatus().get("state"));
+		
+		//Two blank nodes that span several chunks, and refer to each other.
+		Model raw = onto.getModel().getBaseModel();
+		Property p_count = raw.createProperty(Namespaces.addDefault("counts"));
+		Property p_next = raw.createProperty(Namespaces.addDefault("next"));
+		Resource first = raw.createResource();
+		Resource second = raw.createResource();
+		for (int i = 0 ; i < 6000 ; i++) {
+			raw.addLiteral(first, p_count, i);
+			raw.addLiteral(second, p_count, i);
+		}
+		raw.add(first, p_next, second);
+		
+		onto.add(onto.createStatement("snail eats grass"), MemoryProfile.DEFAULT, false);
+		
+		for (String ext : new String[] {".nt.gz", ".ttl"}) {
+			File f = File.createTempFile("oro_test", ext);
+			f.deleteOnExit();
+			
+			onto.saveInBackground(f.getPath());
+			
+			//The model can be modified while the save is running.
+			onto.add(onto.createStatement("snail eats salad"), MemoryProfile.DEFAULT, false);
+			
+			Map<String, String> status = onto.saveStatus();
+			for (int i = 0 ; i < 100 && status.get("state").equals("running") ; i++) {
+				Thread.sleep(50);
+				status = onto.saveStatus();
+			}
+			
+			assertEquals("The save should be completed", "done", status.get("state"));
+			assertEquals("The save should be completed", "100", status.get("progress"));
+			
+			Model saved = ModelFactory.createDefaultModel();
+			InputStream in = new FileInputStream(f);
+			if (ext.endsWith(".gz")) in = new GZIPInputStream(in);
+			saved.read(in, null, ext.endsWith(".ttl") ? "TURTLE" : "N-TRIPLE");
+			in.close();
+			
+			assertEquals("Every statement should be saved", Long.parseLong(status.get("total")), saved.size());
+			assertTrue("The statements asserted before the save should be saved", 
+					saved.contains(onto.createStatement("snail eats grass")));
+			
+			Set<Resource> blankNodes = saved.listSubjectsWithProperty(p_count).toSet();
+			assertEquals("Blank nodes should keep their identity across chunks", 2, blankNodes.size());
+			for (Resource r : blankNodes)
+				assertEquals("Blank nodes should keep their identity across chunks", 6000, 
+						saved.listStatements(r, p_count, (RDFNode) null).toList().size());
+			
+			onto.remove(onto.createStatement("snail eats salad"));
+			
+			f.delete();
+		}
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
+	/**
+	 * This tests that the inferences the lookup table is built from are 
+	 * cached, and that the cached inferences give the same results.
+	 */
+	@Test
+	public void lookupCache() throws IllegalStatementException, InvalidModelException, AgentNotFoundException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Lookup cache *****");
+		
+		File cacheDir = new File(System.getProperty("java.io.tmpdir") + "/oro_test_cache");
+		if (cacheDir.exists())
+			for (File f : cacheDir.listFiles()) f.delete();
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("lookup_cache", cacheDir.getPath());
+		
+		IOntologyBackend reference = new OpenRobotsOntology(conf);
+		
+		long startTime = System.currentTimeMillis();
+		new OpenRobotsOntology(parameters).close();
+		long missDuration = System.currentTimeMillis() - startTime;
+		
+		assertEquals("The inferences should be cached", 1, cacheDir.listFiles().length);
+		
+		startTime = System.currentTimeMillis();
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		long hitDuration = System.currentTimeMillis() - startTime;
+		
+		System.out.println(" * Startup: " + missDuration + "ms without cache, " + hitDuration + "ms with cache.");
+		
+		assertTrue("The cached ontology should be consistent", onto.checkConsistency());
+		
+		for (String label : new String[] {"BabouIn", "Baboon monkey", "Monkey", "eats", "myself"})
+			assertEquals("The lookup table should be the same with the cache", reference.lookup(label), onto.lookup(label));
+		
+		assertTrue("The reasoner should still infer new facts", onto.check(onto.createStatement("baboon rdf:type Animal")));
+		
+		onto.close();
+		
+		//A corrupted cache entry is ignored, and replaced.
+		File entry = cacheDir.listFiles()[0];
+		String garbage = "not a cache entry";
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(entry), "UTF-8");
+			out.write(garbage);
+			out.close();
+		} catch (IOException e) {
+			fail("Could not corrupt the cache entry");
+		}
+		
+		onto = new OpenRobotsOntology(parameters);
+		for (String label : new String[] {"BabouIn", "Baboon monkey", "Monkey", "eats", "myself"})
+			assertEquals("A corrupted cache should be ignored", reference.lookup(label), onto.lookup(label));
+		assertTrue("A corrupted cache should be replaced", entry.length() != garbage.length());
+		
+		//The models of the agents are cached too, in one shared entry.
+		AlteriteModule referenceAlterite = new AlteriteModule(reference, conf);
+		AlteriteModule alterite = new AlteriteModule(onto, parameters);
+		referenceAlterite.add("bob");
+		alterite.add("bob");
+		assertEquals("The agent models should be cached", 2, cacheDir.listFiles().length);
+		alterite.add("alice");
+		assertEquals("All the agent models should share the same entry", 2, cacheDir.listFiles().length);
+		
+		for (String label : new String[] {"BabouIn", "Monkey", "eats"})
+			assertEquals("The lookup table of the agents should be the same with the cache", referenceAlterite.lookupForAgent("bob", label), alterite.lookupForAgent("alice", label));
+		
+		onto.close();
+		reference.close();
+		for (File f : cacheDir.listFiles()) f.delete();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
+	/**
+	 * This tests that the modifications of the ontology are restored from the
+	 * journal (and its checkpoint) when the server is restarted.
+	 */
+	@Test
+	public void journal() throws IllegalStatementException, OntologyServerException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Journal replay *****");
+		
+		String path = System.getProperty("java.io.tmpdir") + "/oro_test.journal";
+		new File(path).delete();
+		new File(path + ".checkpoint").delete();
+		
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("journal", path);
+		parameters.setProperty("journal_sync", "always");
+		parameters.setProperty("journal_checkpoint_period", "0");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(parameters);
+		
+		Set<Statement> stmts = new HashSet<Statement>();
+		stmts.add(onto.createStatement("snail rdf:type Animal"));
+		stmts.add(onto.createStatement("snail eats grass"));
+		onto.add(stmts, MemoryProfile.DEFAULT, false);
+		onto.add(onto.createStatement("superman rdf:type Animal"), MemoryProfile.EPISODIC, false);
+		onto.remove(onto.createStatement("snail eats grass"));
+		
+		//Simulate a restart
+		onto.close();
+		onto = new OpenRobotsOntology(parameters);
+		
+		assertTrue("The added statement should be restored", onto.check(onto.createStatement("snail rdf:type Animal")));
+		assertTrue("The episodic statement should be restored", onto.check(onto.createStatement("superman rdf:type Animal")));
+		assertFalse("The removed statement should not be restored", onto.check(onto.createStatement("snail eats grass")));
+		
+		onto.checkpoint();
+		assertEquals("The journal should be truncated after a checkpoint", 0, new File(path).length());
+		
+		onto.clear(onto.createPartialStatement("superman ?p ?o"));
+		onto.add(onto.createStatement("batman rdf:type Animal"), MemoryProfile.DEFAULT, false);
+		
+		onto.close();
+		onto = new OpenRobotsOntology(parameters);
+		
+		assertTrue("The checkpoint should be restored", onto.check(onto.createStatement("snail rdf:type Animal")));
+		assertTrue("The journal should be replayed after the checkpoint", onto.check(onto.createStatement("batman rdf:type Animal")));
+		assertFalse("The journal should be replayed after the checkpoint", onto.check(onto.createStatement("superman rdf:type Animal")));
+		
+		//The memory metadata exposed after the checkpoint are journaled too.
+		onto.add(onto.createStatement("robin rdf:type Animal"), MemoryProfile.EPISODIC, false);
+		onto.exposeMemoryMetadata();
+		
+		onto.close();
+		onto = new OpenRobotsOntology(parameters);
+		
+		assertTrue("The exposed memory metadata should be restored", onto.getModel().isReified(onto.createStatement("robin rdf:type Animal")));
+		
+		onto.checkpoint();
+		onto.close();
+		onto = new OpenRobotsOntology(parameters);
+		
+		assertTrue("The exposed memory metadata should be part of the checkpoint", onto.getModel().isReified(onto.createStatement("robin rdf:type Animal")));
+		
+		onto.close();
+		new File(path).delete();
+		new File(path + ".checkpoint").delete();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
+	/**
+	 * Tests the bulk import of statements, from a file or directly from a
+	 * string, in N-Triples and Turtle.
+	 */
+	@Test
+	public void importStatements() throws IllegalStatementException, OntologyServerException, IOException {
+		
+		System.out.println("[UNITTEST] ***** TEST: Bulk import *****");
+		
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		
+		String ns = Namespaces.DEFAULT_NS;
+		String type = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type>";
+		
+		String path = System.getProperty("java.io.tmpdir") + "/oro_test_import.nt.gz";
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(path)), "UTF-8");
+		out.write("<" + ns + "kiki> " + type + " <" + ns + "Monkey> .\n");
+		out.write("<" + ns + "kiki> <" + ns + "isOn> <" + ns + "tree1> .\n");
+		out.write("<" + ns + "tree1> " + type + " <" + ns + "Plant> .\n");
+		out.close();
+		
+		assertEquals(3, onto.importFile(path));
+		assertTrue("Imported statements are asserted", onto.check(onto.createStatement("kiki isOn tree1")));
+		assertTrue("The reasoner is aware of the imported statements", onto.check(onto.createStatement("kiki rdf:type Animal")));
+		assertTrue(onto.check(onto.createStatement("kiki isAt tree1")));
+		
+		assertEquals("Statements already asserted are not imported again", 0, onto.importFile(path));
+		new File(path).delete();
+		
+		//In Turtle, the default namespace is the empty prefix.
+		String turtle = ":coco rdf:type :Monkey ;\n" +
+						"	:isOn :kiki .\n" +
+						":kiki :isOn :tree1 .";
+		assertEquals(2, onto.importStatements(turtle, "turtle"));
+		assertTrue(onto.check(onto.createStatement("coco isOn tree1")));
+		
+		//Class axioms are taken into account as well.
+		assertEquals(2, onto.importStatements(":Lemur rdfs:subClassOf :Monkey .\n:lulu rdf:type :Lemur .", "ttl"));
+		assertTrue(onto.check(onto.createStatement("lulu rdf:type Animal")));
+		
+		long size = onto.size();
+		try {
+			onto.importStatements("<" + ns + "bobo> " + type + " <" + ns + "Monkey> .\n<bobo isOn", "n-triple");
+			fail("Invalid statements should not be imported");
+		} catch (OntologyServerException e) {}
+		assertEquals("A parse error leaves the ontology untouched", size, onto.size());
+		
+		try {
+			onto.importStatements(turtle, "rdf/xml");
+			fail("Only N-Triples and Turtle are supported");
+		} catch (OntologyServerException e) {}
+		
+		onto.close();
+		
+		System.out.println("[UNITTEST] ***** Test successful *****");
+	}
+	
 	/**
 	 * This test partially covers the SocketConnector functionnalities.
 	 * 
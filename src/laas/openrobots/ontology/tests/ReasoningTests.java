@@ -16,28 +16,51 @@
 
 package laas.openrobots.ontology.tests;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
 
 import laas.openrobots.ontology.OroServer;
 import laas.openrobots.ontology.PartialStatement;
 import laas.openrobots.ontology.backends.IOntologyBackend;
 import laas.openrobots.ontology.backends.OpenRobotsOntology;
+import laas.openrobots.ontology.backends.ReasoningLevel;
+import laas.openrobots.ontology.exceptions.EventRegistrationException;
 import laas.openrobots.ontology.exceptions.IllegalStatementException;
 import laas.openrobots.ontology.exceptions.InvalidQueryException;
+import laas.openrobots.ontology.exceptions.OntologyServerException;
+import laas.openrobots.ontology.helpers.BinaryModel;
+import laas.openrobots.ontology.helpers.Namespaces;
+import laas.openrobots.ontology.helpers.TermDictionary;
+import laas.openrobots.ontology.modules.base.BaseModule;
+import laas.openrobots.ontology.modules.events.GenericWatcher;
+import laas.openrobots.ontology.modules.events.IEventConsumer;
+import laas.openrobots.ontology.modules.events.IWatcher;
+import laas.openrobots.ontology.modules.events.OroEvent;
+import laas.openrobots.ontology.modules.events.IWatcher.EventType;
 import laas.openrobots.ontology.modules.memory.MemoryProfile;
 
 import org.junit.Test;
 
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.util.FileManager;
 
 
 /**
@@ -263,6 +286,717 @@ public class ReasoningTests {
 	}
 	
 
+	/**
+	 * Measures the cost of the events processing when the number of registered
+	 * watchers grows. Only a fixed amount of watchers (10) depend on the 
+	 * statements that are actually added.
+	 */
+	@Test
+	public void bench3Watchers() {
+		
+		int[] nbWatchers = {10, 100, 300, 1000};
+		int max = 20;
+		
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 3 - " + max + " inserts with a growing number of watchers *****");
+		
+		IEventConsumer consumer = new IEventConsumer() {
+			@Override
+			public void consumeEvent(UUID watcherId, OroEvent e) {}
+		};
+		
+		//The watchers are evaluated at each insertion.
+		Properties parameters = new Properties();
+		parameters.putAll(conf);
+		parameters.setProperty("events_debounce", "0");
+		
+		for (int n : nbWatchers) {
+			
+			IOntologyBackend onto = new OpenRobotsOntology(parameters);
+			
+			try {
+				for (int i = 0 ; i < n ; i++) {
+					List<String> pattern = new ArrayList<String>();
+					
+					//10 watchers depend on the added statements. The other
+					//ones watch unrelated predicates.
+					if (i < 10) pattern.add("?a isOn ?b");
+					else pattern.add("?a watchedProperty" + i + " ?b");
+					
+					onto.registerEvent(new GenericWatcher(EventType.FACT_CHECKING, 
+							IWatcher.TriggeringType.ON_TRUE, pattern, consumer));
+				}
+			} catch (EventRegistrationException e) {
+				e.printStackTrace();
+				fail();
+			}
+			
+			long duration = 0;
+			
+			for (long i = 0 ; i < max ; i++) {
+				try {
+					long startTime = System.currentTimeMillis();
+					onto.add(onto.createStatement("individual" + i + " isOn apple"), MemoryProfile.DEFAULT, false);
+					duration += System.currentTimeMillis() - startTime;
+					
+				} catch (IllegalStatementException e) {
+					fail("Error while adding statement " + i);
+					e.printStackTrace();
+				}
+			}
+			
+			results.add(duration);
+			System.out.println(n + " watchers: " + max + " statements added in " + 
+					duration + "ms (" + ((float) duration / max) + "ms/statement).");
+			
+			onto.close();
+		}
+	}
+
+	@Test
+	public void bench4ParallelWatchers() {
+
+		int[] nbThreads = {1, 2, 4};
+		int nbWatchers = 200;
+		int max = 20;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 4 - " + max + " inserts with " + nbWatchers + " watchers evaluated in parallel *****");
+
+		List<Integer> referenceNotifications = null;
+
+		for (int n : nbThreads) {
+
+			Properties parameters = new Properties();
+			parameters.putAll(conf);
+			parameters.setProperty("events_threads", String.valueOf(n));
+			//Reasoners do not support concurrent reads: the watchers are
+			//only evaluated in parallel without reasoner.
+			parameters.setProperty("reasonner", "none");
+			parameters.setProperty("incremental_events", "false");
+
+			IOntologyBackend onto = new OpenRobotsOntology(parameters);
+
+			final Map<UUID, Integer> watcherIndexes = new HashMap<UUID, Integer>();
+			final List<Integer> notifications = new ArrayList<Integer>();
+
+			IEventConsumer consumer = new IEventConsumer() {
+				@Override
+				public void consumeEvent(UUID watcherId, OroEvent e) {
+					notifications.add(watcherIndexes.get(watcherId));
+				}
+			};
+
+			try {
+				for (int i = 0 ; i < nbWatchers ; i++) {
+					List<String> pattern = new ArrayList<String>();
+
+					pattern.add("?a rdf:type Monkey");
+					pattern.add("?a eats food" + (i % max));
+
+					IWatcher w = new GenericWatcher(EventType.FACT_CHECKING,
+							IWatcher.TriggeringType.ON_TRUE, pattern, consumer);
+					watcherIndexes.put(w.getId(), i);
+					onto.registerEvent(w);
+				}
+			} catch (EventRegistrationException e) {
+				e.printStackTrace();
+				fail();
+			}
+
+			long duration = 0;
+
+			for (long i = 0 ; i < max ; i++) {
+				try {
+					Set<Statement> stmts = new HashSet<Statement>();
+					stmts.add(onto.createStatement("individual" + i + " rdf:type Monkey"));
+					stmts.add(onto.createStatement("individual" + i + " eats food" + i));
+
+					long startTime = System.currentTimeMillis();
+					onto.add(stmts, MemoryProfile.DEFAULT, false);
+					duration += System.currentTimeMillis() - startTime;
+
+				} catch (IllegalStatementException e) {
+					fail("Error while adding statement " + i);
+					e.printStackTrace();
+				}
+			}
+
+			results.add(duration);
+			System.out.println(n + " threads: " + max + " insertions in " +
+					duration + "ms (" + ((float) duration / max) + "ms/insertion).");
+
+			assertEquals("Each watcher should be triggered once", nbWatchers, notifications.size());
+
+			if (referenceNotifications == null)
+				referenceNotifications = notifications;
+			else
+				assertEquals("The notifications must be delivered in the same " +
+						"order whatever the number of threads", referenceNotifications, notifications);
+
+			onto.close();
+		}
+	}
+
+	private long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0 ; i < 3 ; i++) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private Set<Statement> facts(IOntologyBackend onto, String prefix, int max) throws IllegalStatementException {
+		Set<Statement> stmts = new HashSet<Statement>();
+		for (int i = 0 ; i < max ; i++)
+			stmts.add(onto.createStatement(prefix + i + " isAt place" + (i % 10)));
+		return stmts;
+	}
+
+	@Test
+	public void bench5MemoryMetadataHeap() {
+
+		int max = 2000;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 5 - heap used by " + max + " short term facts *****");
+
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+
+		try {
+			Set<Statement> longTerm = facts(onto, "object", max);
+			Set<Statement> shortTerm = facts(onto, "perceived_object", max);
+
+			long reference = usedHeap();
+			onto.add(longTerm, MemoryProfile.DEFAULT, false);
+			long afterLongTerm = usedHeap();
+			onto.add(shortTerm, MemoryProfile.SHORTTERM, false);
+			long afterShortTerm = usedHeap();
+
+			//Exposing the metadata as reified statements is equivalent to the
+			//former storage of the memory metadata.
+			onto.exposeMemoryMetadata();
+			long afterExposure = usedHeap();
+
+			System.out.println("Long term fact: " + (afterLongTerm - reference) / max + " bytes/fact.");
+			System.out.println("Short term fact, side table metadata: " + (afterShortTerm - afterLongTerm) / max + " bytes/fact.");
+			System.out.println("Short term fact, reified metadata: " + (afterExposure - afterLongTerm) / max + " bytes/fact.");
+
+		} catch (IllegalStatementException e) {
+			fail("Error while adding statements");
+			e.printStackTrace();
+		}
+
+		onto.close();
+	}
+
+	@Test
+	public void bench6BinaryStartup() {
+
+		int max = 5;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 6 - loading the ontology from RDF/XML and from the binary format *****");
+
+		String source = conf.getProperty("oro_common_sense");
+
+		try {
+			//Work on a copy, to not leave a binary model next to the test ontology.
+			File copy = File.createTempFile("oro_bench", ".owl");
+			File binary = new File(copy.getPath() + BinaryModel.SUFFIX);
+			copy.deleteOnExit();
+			binary.deleteOnExit();
+
+			Model reference = FileManager.get().loadModel(source);
+			reference.write(new FileOutputStream(copy));
+
+			long startTime = System.currentTimeMillis();
+			for (int i = 0 ; i < max ; i++)
+				FileManager.get().loadModel(copy.getPath());
+			long rdfXmlDuration = (System.currentTimeMillis() - startTime) / max;
+
+			BinaryModel.write(reference, binary);
+
+			startTime = System.currentTimeMillis();
+			Model fromBinary = null;
+			for (int i = 0 ; i < max ; i++)
+				fromBinary = BinaryModel.read(binary);
+			long binaryDuration = (System.currentTimeMillis() - startTime) / max;
+
+			assertTrue("The binary model must hold the same statements", reference.isIsomorphicWith(fromBinary));
+
+			System.out.println("Parsing " + reference.size() + " statements: " + rdfXmlDuration + "ms from RDF/XML, " +
+					binaryDuration + "ms from the binary format (" + copy.length() + " vs " + binary.length() + " bytes).");
+
+			//Full server startup, including the initial classification
+			Properties parameters = new Properties();
+			parameters.putAll(conf);
+			parameters.setProperty("oro_common_sense", copy.getPath());
+
+			binary.delete();
+
+			//Warm-up
+			new OpenRobotsOntology(parameters).close();
+
+			startTime = System.currentTimeMillis();
+			new OpenRobotsOntology(parameters).close();
+			long rdfXmlStartup = System.currentTimeMillis() - startTime;
+
+			BinaryModel.write(reference, binary);
+
+			startTime = System.currentTimeMillis();
+			new OpenRobotsOntology(parameters).close();
+			long binaryStartup = System.currentTimeMillis() - startTime;
+
+			results.add(binaryStartup);
+			System.out.println("Server startup: " + rdfXmlStartup + "ms from RDF/XML, " + binaryStartup + "ms from the binary format.");
+
+			copy.delete();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void bench7GetInfos() {
+
+		int max = 2000;
+		int nbQueries = 20;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 7 - getInfos on a node with " + max + " connections *****");
+
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+		BaseModule oro = new BaseModule(onto);
+
+		try {
+			Set<Statement> stmts = new HashSet<Statement>();
+			for (int i = 0 ; i < max ; i++) {
+				stmts.add(onto.createStatement("hub sees object" + i));
+				stmts.add(onto.createStatement("object" + i + " isAt hub"));
+			}
+			onto.add(stmts, MemoryProfile.DEFAULT, false);
+
+			Model infos = onto.getSubmodel(onto.getResource("hub"));
+
+			//Formatting of the statements, as done by getInfos before the
+			//term dictionary...
+			long startTime = System.nanoTime();
+			Set<String> reference = null;
+			for (int i = 0 ; i < nbQueries ; i++) {
+				reference = new HashSet<String>();
+				for (Statement s : infos.listStatements().toList())
+					reference.add(s.getSubject().getLocalName() + " " + s.getPredicate().getLocalName() + " " +
+							(s.getObject().isResource() ? ((Resource) s.getObject()).getLocalName() : s.getObject().toString()));
+			}
+			long jenaDuration = (System.nanoTime() - startTime) / nbQueries;
+
+			//...and with the term dictionary
+			startTime = System.nanoTime();
+			Set<String> cached = null;
+			for (int i = 0 ; i < nbQueries ; i++) {
+				cached = new HashSet<String>();
+				for (Statement s : infos.listStatements().toList())
+					cached.add(TermDictionary.localName(s.getSubject()) + " " + TermDictionary.localName(s.getPredicate()) + " " +
+							(s.getObject().isResource() ? TermDictionary.localName((Resource) s.getObject()) : s.getObject().toString()));
+			}
+			long dictionaryDuration = (System.nanoTime() - startTime) / nbQueries;
+
+			assertEquals("The term dictionary must not change the results", reference, cached);
+
+			//Complete getInfos requests
+			startTime = System.nanoTime();
+			Set<String> result = null;
+			for (int i = 0 ; i < nbQueries ; i++)
+				result = oro.getInfos("hub");
+			long getInfosDuration = (System.nanoTime() - startTime) / nbQueries;
+
+			assertTrue("getInfos must return every statement about the hub", result.size() >= max);
+
+			results.add(getInfosDuration / 1000000);
+			System.out.println("Formatting " + infos.size() + " statements: " + jenaDuration / 1000 + "us with Jena local names, " +
+					dictionaryDuration / 1000 + "us with the term dictionary (" + TermDictionary.stats() + ").");
+			System.out.println("getInfos: " + getInfosDuration / 1000 + "us per request.");
+
+		} catch (IllegalStatementException e) {
+			fail("Error while adding statements");
+			e.printStackTrace();
+		}
+
+		onto.close();
+	}
+
+	@Test
+	public void bench8CreateStatement() {
+
+		int max = 200000;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 8 - parsing of " + max + " statements *****");
+
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+
+		String[] stmts = {"object1 rdf:type Table", "oro:object2 isAt owl:Thing", "object3 isOn object4", "object5 hasColor \"blue\"", "object6 rdfs:label \"table\"^^xsd:string"};
+
+		try {
+			//Warm-up
+			for (int i = 0 ; i < max ; i++)
+				onto.createStatement(stmts[i % stmts.length]);
+
+			long startTime = System.nanoTime();
+			for (int i = 0 ; i < max ; i++)
+				onto.createStatement(stmts[i % stmts.length]);
+			long duration = System.nanoTime() - startTime;
+
+			results.add(duration / 1000000);
+			System.out.println("createStatement: " + (1000000000L * max / duration) + " statements/s.");
+
+			startTime = System.nanoTime();
+			for (int i = 0 ; i < max ; i++)
+				Namespaces.prefixes();
+			duration = System.nanoTime() - startTime;
+
+			System.out.println("SPARQL prologue: " + (duration / max) + "ns per query.");
+
+		} catch (IllegalStatementException e) {
+			fail("Error while parsing statements");
+			e.printStackTrace();
+		}
+
+		onto.close();
+	}
+
+	/**
+	 * Compares the time of multi-pattern 'find' with and without the 
+	 * selectivity-based reordering of the partial statements.
+	 */
+	@Test
+	public void bench9FindReordering() {
+
+		int nbAnimals = 1000;
+		int iterations = 20;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 9 - reordering of find patterns on " + nbAnimals + " animals *****");
+
+		Properties unordered = new Properties();
+		unordered.putAll(conf);
+		unordered.setProperty("reorder_find_patterns", "false");
+
+		IOntologyBackend[] ontos = {new OpenRobotsOntology(unordered), new OpenRobotsOntology(conf)};
+
+		Set<String> rawStmts = new HashSet<String>();
+		for (int i = 0 ; i < nbAnimals ; i++) {
+			rawStmts.add("animal" + i + " rdf:type Animal");
+			rawStmts.add("animal" + i + " eats plant" + (i % 50));
+			rawStmts.add("animal" + i + " age " + (i % 20));
+			if (i % 100 == 0) rawStmts.add("animal" + i + " isAt zone" + (i / 100));
+			if (i % 250 == 0) rawStmts.add("animal" + i + " isFemale true");
+		}
+
+		List<Set<String>> finds = new ArrayList<Set<String>>();
+		List<Set<String>> filters = new ArrayList<Set<String>>();
+
+		Set<String> f = new HashSet<String>();
+		f.add("?a rdf:type Animal");
+		f.add("?a eats ?p");
+		f.add("?a isAt zone3");
+		finds.add(f);
+		filters.add(null);
+
+		f = new HashSet<String>();
+		f.add("?p rdf:type Plant");
+		f.add("?a eats ?p");
+		f.add("?a isFemale true");
+		finds.add(f);
+		filters.add(null);
+
+		f = new HashSet<String>();
+		f.add("?a rdf:type Animal");
+		f.add("?a eats ?p");
+		f.add("?a age ?x");
+		f.add("?a isAt ?z");
+		finds.add(f);
+		Set<String> filter = new HashSet<String>();
+		filter.add("?x < 5");
+		filters.add(filter);
+
+		try {
+			for (IOntologyBackend onto : ontos) {
+				Set<Statement> stmts = new HashSet<Statement>();
+				for (String s : rawStmts) stmts.add(onto.createStatement(s));
+				onto.add(stmts, MemoryProfile.DEFAULT, false);
+			}
+
+			for (int i = 0 ; i < finds.size() ; i++) {
+
+				long[] durations = new long[2];
+				Set<RDFNode> expected = null;
+
+				for (int j = 0 ; j < ontos.length ; j++) {
+					Set<PartialStatement> pstmts = new HashSet<PartialStatement>();
+					for (String ps : finds.get(i)) pstmts.add(ontos[j].createPartialStatement(ps));
+
+					//Warm-up (and statistics)
+					Set<RDFNode> res = ontos[j].find("a", pstmts, filters.get(i));
+
+					long startTime = System.nanoTime();
+					for (int k = 0 ; k < iterations ; k++)
+						ontos[j].find("a", pstmts, filters.get(i));
+					durations[j] = (System.nanoTime() - startTime) / iterations;
+
+					if (expected == null) expected = res;
+					else assertEquals("Reordering the patterns must not change the result", expected, res);
+				}
+
+				results.add(durations[1] / 1000000);
+				System.out.println("find " + finds.get(i) + (filters.get(i) == null ? "" : " " + filters.get(i)) + 
+						": " + durations[0] / 1000 + "us as received, " + durations[1] / 1000 + "us reordered.");
+			}
+
+		} catch (IllegalStatementException e) {
+			fail("Error while parsing statements");
+		} catch (InvalidQueryException e) {
+			fail("Invalid query");
+		}
+
+		for (IOntologyBackend onto : ontos) onto.close();
+	}
+
+	/**
+	 * Compares the time of find on the materialized closure and through the
+	 * reasoner, and measures the time needed to keep the closure up to date.
+	 */
+	@Test
+	public void bench10MaterializedClosure() {
+
+		int nbAnimals = 1000;
+		int iterations = 20;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 10 - materialized closure on " + nbAnimals + " animals *****");
+
+		IOntologyBackend onto = new OpenRobotsOntology(conf);
+
+		Set<String> rawStmts = new HashSet<String>();
+		for (int i = 0 ; i < nbAnimals ; i++) {
+			rawStmts.add("animal" + i + " rdf:type Monkey");
+			//piles of 10 animals
+			if (i % 10 != 9) rawStmts.add("animal" + i + " isOn animal" + (i + 1));
+		}
+
+		List<Set<String>> finds = new ArrayList<Set<String>>();
+
+		Set<String> f = new HashSet<String>();
+		f.add("?a rdf:type Animal");
+		finds.add(f);
+
+		f = new HashSet<String>();
+		f.add("?a isAt animal19");
+		finds.add(f);
+
+		f = new HashSet<String>();
+		f.add("animal999 isUnder ?a");
+		finds.add(f);
+
+		try {
+			Set<Statement> stmts = new HashSet<Statement>();
+			for (String s : rawStmts) stmts.add(onto.createStatement(s));
+			onto.add(stmts, MemoryProfile.DEFAULT, false);
+
+			long startTime = System.currentTimeMillis();
+			Set<PartialStatement> pstmts = new HashSet<PartialStatement>();
+			pstmts.add(onto.createPartialStatement("?a rdf:type Animal"));
+			onto.find("a", pstmts, null, ReasoningLevel.MATERIALIZED);
+			System.out.println("Closure built in " + (System.currentTimeMillis() - startTime) + "ms.");
+
+			for (Set<String> find : finds) {
+				pstmts = new HashSet<PartialStatement>();
+				for (String ps : find) pstmts.add(onto.createPartialStatement(ps));
+
+				long[] durations = new long[2];
+				Set<RDFNode> expected = null;
+				ReasoningLevel[] levels = {ReasoningLevel.FULL, ReasoningLevel.MATERIALIZED};
+
+				for (int j = 0 ; j < levels.length ; j++) {
+					//Warm-up
+					Set<RDFNode> res = onto.find("a", pstmts, null, levels[j]);
+
+					startTime = System.nanoTime();
+					for (int k = 0 ; k < iterations ; k++)
+						onto.find("a", pstmts, null, levels[j]);
+					durations[j] = (System.nanoTime() - startTime) / iterations;
+
+					if (expected == null) expected = res;
+					else assertEquals("The closure must hold the same inferences as the reasoner", expected, res);
+				}
+
+				results.add(durations[1] / 1000000);
+				System.out.println("find " + find + ": " + durations[0] / 1000 + "us through the reasoner, " + 
+						durations[1] / 1000 + "us on the closure.");
+			}
+
+			//Maintenance: each update moves an animal, and is followed by a
+			//query on the closure.
+			startTime = System.nanoTime();
+			for (int k = 0 ; k < iterations ; k++) {
+				Statement moved = onto.createStatement("animal509 isOn animal" + (10 * k));
+				onto.add(moved, MemoryProfile.DEFAULT, false);
+				onto.find("a", pstmts, null, ReasoningLevel.MATERIALIZED);
+				onto.remove(moved);
+				onto.find("a", pstmts, null, ReasoningLevel.MATERIALIZED);
+			}
+			System.out.println("Add and remove of a statement, with the closure up to date: " + 
+						(System.nanoTime() - startTime) / iterations / 1000 + "us.");
+
+		} catch (IllegalStatementException e) {
+			fail("Error while parsing statements");
+		} catch (InvalidQueryException e) {
+			fail("Invalid query");
+		} catch (OntologyServerException e) {
+			fail("Error while removing statements");
+		}
+
+		onto.close();
+	}
+
+	/**
+	 * Compares the cost of removals when the reasoner is refreshed after each
+	 * of them, and when it is refreshed once per step ('deferred_removals').
+	 * At each step, a few animals are moved (a removal followed by an 
+	 * addition, each in their own request), and a query follows.
+	 */
+	@Test
+	public void bench11DeferredRemovals() {
+
+		int nbAnimals = 1000;
+		int steps = 10;
+		int movesPerStep = 5;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 11 - deferred removals on " + nbAnimals + " animals *****");
+
+		Properties deferred = new Properties();
+		deferred.putAll(conf);
+		deferred.setProperty("deferred_removals", "true");
+
+		Properties[] configurations = {conf, deferred};
+		String[] names = {"after each removal", "once per step"};
+		Set<RDFNode> expected = null;
+
+		for (int c = 0 ; c < configurations.length ; c++) {
+
+			IOntologyBackend onto = new OpenRobotsOntology(configurations[c]);
+
+			Set<String> rawStmts = new HashSet<String>();
+			for (int i = 0 ; i < nbAnimals ; i++) {
+				rawStmts.add("animal" + i + " rdf:type Monkey");
+				//piles of 10 animals
+				if (i % 10 != 9) rawStmts.add("animal" + i + " isOn animal" + (i + 1));
+			}
+
+			try {
+				Set<Statement> stmts = new HashSet<Statement>();
+				for (String s : rawStmts) stmts.add(onto.createStatement(s));
+				onto.add(stmts, MemoryProfile.DEFAULT, false);
+
+				Set<PartialStatement> pstmts = new HashSet<PartialStatement>();
+				pstmts.add(onto.createPartialStatement("?a isAt animal9"));
+				onto.find("a", pstmts, null);
+
+				long startTime = System.currentTimeMillis();
+				for (int k = 0 ; k < steps ; k++) {
+					for (int m = 0 ; m < movesPerStep ; m++) {
+						//moves the bottom of a pile on another pile
+						int moved = 10 * (k * movesPerStep + m) + 9;
+						onto.remove(onto.createStatement("animal" + (moved - 1) + " isOn animal" + moved));
+						onto.add(onto.createStatement("animal" + moved + " isOn animal" + (moved + 10) % nbAnimals), MemoryProfile.DEFAULT, false);
+					}
+					onto.step();
+					onto.find("a", pstmts, null);
+				}
+				long duration = System.currentTimeMillis() - startTime;
+
+				Set<RDFNode> res = onto.find("a", pstmts, null);
+				if (expected == null) expected = res;
+				else assertEquals("Deferring the removals must not change the inferences", expected, res);
+
+				results.add(duration / steps);
+				System.out.println("Reasoner refreshed " + names[c] + ": " + duration / steps + "ms per step (" +
+						movesPerStep + " moves and a query).");
+
+			} catch (IllegalStatementException e) {
+				fail("Error while parsing statements");
+			} catch (InvalidQueryException e) {
+				fail("Invalid query");
+			} catch (OntologyServerException e) {
+				fail("Error while removing statements");
+			}
+
+			onto.close();
+		}
+	}
+
+	/**
+	 * Compares the import of a scene description with 'add' (statements as 
+	 * strings) and with 'importStatements' (the same statements, in 
+	 * N-Triples). Each import is followed by a query, so that the reasoner
+	 * is up to date in both cases.
+	 */
+	@Test
+	public void bench12BulkImport() {
+
+		int nbObjects = 10000;
+
+		System.out.println("[UNITTEST] ***** TEST: Benchmark 12 - import of " + nbObjects + " objects *****");
+
+		Set<String> rawStmts = new HashSet<String>();
+		for (int i = 0 ; i < nbObjects ; i++) {
+			rawStmts.add("object" + i + " rdf:type Monkey");
+			//piles of 10 objects
+			if (i % 10 != 9) rawStmts.add("object" + i + " isOn object" + (i + 1));
+		}
+
+		long[] durations = new long[2];
+		long[] queries = new long[2];
+		Set<String> expected = null;
+
+		for (int j = 0 ; j < 2 ; j++) {
+			IOntologyBackend onto = new OpenRobotsOntology(conf);
+			BaseModule oro = new BaseModule(onto);
+
+			//The default namespace is only known once the ontology is loaded.
+			String ns = Namespaces.DEFAULT_NS;
+			StringBuilder ntriples = new StringBuilder();
+			for (String s : rawStmts) {
+				String[] tokens = s.split(" ");
+				ntriples.append("<" + ns + tokens[0] + "> ");
+				ntriples.append(tokens[1].equals("rdf:type") ? "<" + Namespaces.rdf_ns + "type> " : "<" + ns + tokens[1] + "> ");
+				ntriples.append("<" + ns + tokens[2] + "> .\n");
+			}
+
+			Set<String> partial = new HashSet<String>();
+			partial.add("?a isAt object9");
+
+			try {
+				long startTime = System.currentTimeMillis();
+				if (j == 0) oro.add(rawStmts);
+				else assertEquals(rawStmts.size(), onto.importStatements(ntriples.toString(), "n-triple"));
+				durations[j] = System.currentTimeMillis() - startTime;
+				
+				Set<String> res = oro.find("a", partial);
+				queries[j] = System.currentTimeMillis() - startTime - durations[j];
+
+				if (expected == null) expected = res;
+				else assertEquals("The imported statements must be the same as the added ones", expected, res);
+
+			} catch (IllegalStatementException e) {
+				fail("Error while parsing statements");
+			} catch (OntologyServerException e) {
+				fail("Error while importing statements: " + e.getMessage());
+			}
+
+			onto.close();
+		}
+
+		results.add(durations[1]);
+		System.out.println("Import of " + rawStmts.size() + " statements: " + durations[0] + "ms with add, " + 
+				durations[1] + "ms with importStatements.");
+		System.out.println("First query after the import: " + queries[0] + "ms after add, " + 
+				queries[1] + "ms after importStatements.");
+	}
+
 	private Properties getConfiguration(String configFileURI){
 		/****************************
 		 *  Parsing of config file  *